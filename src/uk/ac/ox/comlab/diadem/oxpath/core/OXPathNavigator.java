@@ -32,8 +32,6 @@ package uk.ac.ox.comlab.diadem.oxpath.core;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.util.concurrent.CountDownLatch;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -47,6 +45,8 @@ import diadem.common.web.WebBrowser;
 import diadem.common.web.dom.impl.BrowserFactory;
 import diadem.common.web.dom.impl.BrowserFactory.Engine;
 
+import uk.ac.ox.comlab.diadem.oxpath.core.extraction.Extractor;
+import uk.ac.ox.comlab.diadem.oxpath.core.extraction.OXPathExtractionStream;
 import uk.ac.ox.comlab.diadem.oxpath.core.state.PAATState;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNode;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
@@ -114,27 +114,32 @@ public class OXPathNavigator {
 		try {
 			Logger logger=LoggerFactory.getLogger(OXPathNavigator.class);
 			CountDownLatch latch = new CountDownLatch(1);		
-			ServerSocket dataServer = new ServerSocket(0);
+			//the handler consumes the extraction nodes in process, while they are extracted
+			OXPathExtractionStream stream = new OXPathExtractionStream();
 			
 			boolean isXML = (mode.equals(Modes.XML))?true:false;
 			
 			OXPathOutputHandler handler = (isXML)?
-										  new OXPathXMLOutputHandler("localhost",dataServer.getLocalPort(),logger,latch):
-				                          new OXPathSimpleOutputHandler("localhost",dataServer.getLocalPort(),logger);
+										  new OXPathXMLOutputHandler(stream.iterator(),logger,latch):
+				                          new OXPathSimpleOutputHandler(stream.iterator(),logger);
 
 			handler.start();
 			
-			Socket listen = dataServer.accept();
-			ObjectOutputStream os = new ObjectOutputStream(listen.getOutputStream());
-			
-			FileReader reader = new FileReader(filename);
-			OXPathParser parser = new OXPathParser(reader);
-			Node root = parser.Expression();
-			WebBrowser browser = BrowserFactory.newWebBrowser(Engine.SWT_MOZILLA, true);
-			OXPathType result = evaluateOXPathQuery(root,browser,logger,os);
+			WebBrowser browser;
+			OXPathType result;
+			try {
+				FileReader reader = new FileReader(filename);
+				OXPathParser parser = new OXPathParser(reader);
+				Node root = parser.Expression();
+				browser = BrowserFactory.newWebBrowser(Engine.SWT_MOZILLA, true);
+				result = evaluateOXPathQuery(compile(root),browser,logger,stream);
+			} catch (Exception e) {
+				//release the handler, which otherwise waits for the end of the output
+				stream.fail(e);
+				throw e;
+			}
 			
 			System.out.println(result);
-			os.close();
 			
 
 			if (isXML) {
@@ -199,9 +204,125 @@ public class OXPathNavigator {
 	 * @throws SAXException in case of malformed xml
 	 */
 	public static OXPathType evaluateOXPathQuery(Node n, WebBrowser browser, Logger logger, ObjectOutputStream os) throws ParserConfigurationException, DOMException, OXPathException, SAXException, IOException {
+		return evaluateOXPathQuery(compile(n), browser, logger, os);
+	}
+	
+	/**
+	 * Main API method for client use.  Evaluates a compiled OXPath expression (see {@code compile(root)}).  Plans are immutable, so this
+	 * method may be called concurrently with the same plan from many threads, as long as each call uses its own {@code browser} and {@code os}.
+	 * @param plan compiled OXPath expression
+	 * @param browser web browsing engine for expression evaluation
+	 * @param logger the logger object for the process
+	 * @param os output stream to send the extraction nodes
+	 * @return XML Document with extraction results
+	 * @throws OXPathException in case of AST structure exception
+	 */
+	public static OXPathType evaluateOXPathQuery(OXPathQueryPlan plan, WebBrowser browser, Logger logger, ObjectOutputStream os) throws OXPathException {
 		if (logger==null) logger = LoggerFactory.getLogger(OXPathNavigator.class);
 		PAATEvalVisitor pv = PAATEvalVisitor.newInstance(browser, logger, os);
-		return pv.accept(n, new PAATState.Builder(new OXPathNodeList(OXPathContextNode.getNotionalContext())).buildSet());
+		return pv.evaluate(plan, new PAATState.Builder(new OXPathNodeList(OXPathContextNode.getNotionalContext())).buildSet());
+	}
+
+	/**
+	 * Evaluates a compiled OXPath expression as {@code evaluateOXPathQuery(plan,browser,logger,os)}, but evaluates the independent contexts
+	 * of each action step concurrently on the worker browsers of {@code pool}.  Results are merged in document order, so the extracted 
+	 * output is the same as for sequential evaluation (though extraction nodes may be written to {@code os} in a different order).
+	 * @param plan compiled OXPath expression
+	 * @param browser web browsing engine for expression evaluation
+	 * @param pool worker browsers for evaluating action contexts; {@code null} for sequential evaluation
+	 * @param logger the logger object for the process
+	 * @param os output stream to send the extraction nodes
+	 * @return XML Document with extraction results
+	 * @throws OXPathException in case of AST structure exception
+	 */
+	public static OXPathType evaluateOXPathQuery(OXPathQueryPlan plan, WebBrowser browser, PAATBrowserPool pool, Logger logger, ObjectOutputStream os) throws OXPathException {
+		if (logger==null) logger = LoggerFactory.getLogger(OXPathNavigator.class);
+		PAATEvalVisitor pv = PAATEvalVisitor.newInstance(browser, logger, os, pool);
+		return pv.evaluate(plan, new PAATState.Builder(new OXPathNodeList(OXPathContextNode.getNotionalContext())).buildSet());
+	}
+	
+	/**
+	 * Main API method for in-process client use.  Evaluates a compiled OXPath expression, passing the extraction nodes directly to
+	 * {@code sink} (memoized by OXPath's merge semantics, so each extraction node reaches {@code sink} once), without serializing them.
+	 * To consume the extraction nodes while they are extracted, pass an {@code OXPathExtractionStream} and iterate over it from another thread,
+	 * or use {@code streamOXPathQuery(plan,browser,logger,capacity)}.
+	 * @param plan compiled OXPath expression
+	 * @param browser web browsing engine for expression evaluation
+	 * @param logger the logger object for the process
+	 * @param sink extractor receiving the extraction nodes
+	 * @return XML Document with extraction results
+	 * @throws OXPathException in case of AST structure exception
+	 */
+	public static OXPathType evaluateOXPathQuery(OXPathQueryPlan plan, WebBrowser browser, Logger logger, Extractor sink) throws OXPathException {
+		return evaluateOXPathQuery(plan, browser, null, logger, sink);
+	}
+
+	/**
+	 * Evaluates a compiled OXPath expression as {@code evaluateOXPathQuery(plan,browser,logger,sink)}, but evaluates the independent contexts
+	 * of each action step concurrently on the worker browsers of {@code pool}; {@code sink} then receives extractions from several threads
+	 * (one at a time, if its methods are synchronized, as those of {@code OXPathExtractionStream} are).
+	 * @param plan compiled OXPath expression
+	 * @param browser web browsing engine for expression evaluation
+	 * @param pool worker browsers for evaluating action contexts; {@code null} for sequential evaluation
+	 * @param logger the logger object for the process
+	 * @param sink extractor receiving the extraction nodes
+	 * @return XML Document with extraction results
+	 * @throws OXPathException in case of AST structure exception
+	 */
+	public static OXPathType evaluateOXPathQuery(OXPathQueryPlan plan, WebBrowser browser, PAATBrowserPool pool, Logger logger, Extractor sink) throws OXPathException {
+		if (logger==null) logger = LoggerFactory.getLogger(OXPathNavigator.class);
+		PAATEvalVisitor pv = PAATEvalVisitor.newInstance(browser, logger, sink, pool);
+		return pv.evaluate(plan, new PAATState.Builder(new OXPathNodeList(OXPathContextNode.getNotionalContext())).buildSet());
+	}
+
+	/**
+	 * Evaluates a compiled OXPath expression on a new thread, returning the extraction nodes as a stream to iterate over while they are 
+	 * extracted.  The evaluation waits whenever the caller falls {@code capacity} nodes behind, so memory use is bounded however large the
+	 * output; iteration fails with an {@code IllegalStateException} if the evaluation fails.  A caller that stops iterating early must
+	 * {@code close()} the stream, which aborts the evaluation.  After the nodes of each record, the stream yields a completion node
+	 * ({@code isCompleteNode()}) for it, which callers not grouping records may skip.  {@code browser} must allow use from the evaluation thread.
+	 * @param plan compiled OXPath expression
+	 * @param browser web browsing engine for expression evaluation
+	 * @param logger the logger object for the process
+	 * @param capacity the number of extraction nodes buffered ahead of the caller
+	 * @return the stream of extraction nodes
+	 */
+	public static OXPathExtractionStream streamOXPathQuery(final OXPathQueryPlan plan, final WebBrowser browser, final Logger logger, int capacity) {
+		final OXPathExtractionStream stream = new OXPathExtractionStream(capacity);
+		Thread evaluation = new Thread("OXPath evaluation") {
+			@Override
+			public void run() {
+				try {
+					evaluateOXPathQuery(plan, browser, logger, stream);
+				} catch (Throwable e) {
+					stream.fail(e);
+				}
+			}
+		};
+		evaluation.setDaemon(true);
+		evaluation.start();
+		return stream;
+	}
+	
+	/**
+	 * Compiles an OXPath expression (as an Abstract Syntax Tree) into an immutable, thread-safe {@code OXPathQueryPlan}.  Compile once and 
+	 * evaluate the plan as often as needed with {@code evaluateOXPathQuery(plan,browser,logger,os)}.
+	 * @param n root of the AST
+	 * @return the compiled expression
+	 * @throws OXPathException in case of AST structure exception
+	 */
+	public static OXPathQueryPlan compile(Node n) throws OXPathException {
+		return OXPathQueryPlan.compile(n);
+	}
+	
+	/**
+	 * Compiles an OXPath expression (encoded as a {@code String}) into an immutable, thread-safe {@code OXPathQueryPlan}. 
+	 * @param in OXPath expression as a <tt>String</tt> object
+	 * @return the compiled expression
+	 * @throws OXPathException in case of parser or AST structure exception
+	 */
+	public static OXPathQueryPlan compile(String in) throws OXPathException {
+		return compile(OXPathParser.getJJTreeFromString(in));
 	}
 	
 }
@@ -0,0 +1,942 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing core OXPath functionality
+ */
+package uk.ac.ox.comlab.diadem.oxpath.core;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathStyles;
+import uk.ac.ox.comlab.diadem.oxpath.model.language.AxisType;
+import uk.ac.ox.comlab.diadem.oxpath.model.language.ForwardAxis;
+import uk.ac.ox.comlab.diadem.oxpath.model.language.NodeTestType;
+import uk.ac.ox.comlab.diadem.oxpath.model.language.OXPathAxis;
+import uk.ac.ox.comlab.diadem.oxpath.model.language.Step;
+import uk.ac.ox.comlab.diadem.oxpath.model.language.XPathNameTest;
+import uk.ac.ox.comlab.diadem.oxpath.model.language.XPathNodeTest;
+import uk.ac.ox.comlab.diadem.oxpath.model.language.functions.XPathFunctions;
+import uk.ac.ox.comlab.diadem.oxpath.model.language.operators.EqualityExprOp;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTBinaryOpExpr;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTExpression;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTOXPathActionPath;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTOXPathExtractionMarker;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTOXPathKleeneStarPath;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTOXPathNodeTestOp;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTRelativeOXPathLocationPath;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTSimpleOXPathStepPath;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTXPathFunctionCall;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTXPathLiteral;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTXPathNumber;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTXPathPathExpr;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTXPathPredicate;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTXPathPrimaryExpr;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTXPathUnaryExpr;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.Node;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
+import uk.ac.ox.comlab.diadem.oxpath.utils.PrintVisitor;
+
+/**
+ * Compiled form of an OXPath expression, ready for (repeated) evaluation by PAAT.  A plan holds the root of the
+ * parsed AST together with all of the annotations computed by the {@code PrePAATVisitor} (set-based evaluation
+ * of steps and predicates and the enclosing Kleene-star of actions).  Annotations are kept in the plan rather than
+ * in the AST, so the AST is never mutated by evaluation.
+ * <p>
+ * Compilation also rewrites runs of consecutive plain XPath steps (no OXPath axes or node tests, no positional
+ * predicates in between) into a single location path, so each run costs one call into the browser's XPath engine
+ * rather than one call per step and context node.
+ * <p>
+ * Predicates written in plain XPath 1.0 (no OXPath axes, node tests, operators, optional predicates or extraction markers) that
+ * directly follow a step, or a fused run of steps, are pushed down into its location path, so the browser filters the nodes natively
+ * instead of the {@code PAATEvalVisitor} evaluating each predicate once per node.  Positional predicates are only pushed down onto
+ * single forward steps, where browser and PAAT agree on the proximity positions.
+ * <p>
+ * Likewise, descendant elements filtered by <tt>.class</tt> and <tt>#id</tt> selectors (as in <tt>//div.item</tt>) are selected by
+ * a single CSS <tt>querySelectorAll</tt> call, as long as no later predicate in the same step depends on proximity positions.
+ * <p>
+ * Steps on the <tt>style::</tt> axis, and predicates reading <tt>style::</tt> properties of their context node, are annotated with
+ * the properties they read, so the computed styles of a whole context set are fetched at once (see {@code OXPathStyles}).
+ * <p>
+ * Finally, each action-free subexpression (no actions, extraction markers, Kleene-stars or OXPath axes and node tests) is given a
+ * canonical form: its printed expression together with its set-based evaluation annotations.  Equal canonical forms evaluate to the
+ * same result on the same rendered content, so results can be persisted across evaluations (see {@code PAATEval_Memoizer}).
+ * <p>
+ * Plans are immutable once built with {@code compile(root)}, and so can be shared by any number of concurrent
+ * evaluations (each with its own {@code PAATEvalVisitor} and {@code WebBrowser}).  Compile each expression once
+ * and reuse the plan for every evaluation.
+ * @author AndrewJSel
+ *
+ */
+public final class OXPathQueryPlan {
+
+	/**
+	 * Compiles the AST rooted at {@code root} into a new, immutable plan
+	 * @param root root of the AST (as returned by the {@code OXPathParser})
+	 * @return the compiled plan for {@code root}
+	 * @throws OXPathException in case of malformed AST
+	 */
+	public static OXPathQueryPlan compile(Node root) throws OXPathException {
+		if (!(root instanceof ASTExpression)) throw new OXPathException("Can only compile query plans from the root of an OXPath AST, not " + root.getClass());
+		Builder builder = new Builder(root);
+		new PrePAATVisitor(builder).accept(root, null);
+		fuseSteps(root, builder);
+		pushPredicates(root, builder);
+		selectorSteps(root, builder);
+		styleProperties(root, builder);
+		canonicalForms(root, builder);
+		return builder.build();
+	}
+
+	/**
+	 * Records the canonical form of each action-free subexpression in the AST rooted at {@code node}
+	 * @param node root of the (sub)tree
+	 * @param builder builder holding the PrePAAT annotations
+	 * @return {@code true} if {@code node} is action-free, {@code false} otherwise
+	 */
+	private static boolean canonicalForms(Node node, Builder builder) {
+		boolean pure = !(node instanceof ASTOXPathActionPath || node instanceof ASTOXPathExtractionMarker 
+				|| node instanceof ASTOXPathKleeneStarPath);
+		if (node instanceof ASTSimpleOXPathStepPath) {
+			Step step = ((ASTSimpleOXPathStepPath)node).getStep();
+			if (step.getAxis().getType().equals(AxisType.OXPATH) || step.getNodeTest().getType().equals(NodeTestType.OXPATH)) pure = false;
+		}
+		for (int i=0; i<node.jjtGetNumChildren(); i++) {
+			pure &= canonicalForms(node.jjtGetChild(i), builder);
+		}
+		if (pure) {
+			try {
+				StringBuilder canonical = new StringBuilder(new PrintVisitor().accept(node, null));
+				canonical.append(CANONICAL_SEPARATOR);
+				annotations(node, builder, canonical);
+				builder.setCanonicalForm(node, canonical.toString());
+			} catch (OXPathException e) {
+				return false;
+			}
+		}
+		return pure;
+	}
+
+	/**
+	 * Appends the set-based evaluation annotations of the AST rooted at {@code node} to {@code canonical}, in pre-order
+	 * @param node root of the (sub)tree
+	 * @param builder builder holding the PrePAAT annotations
+	 * @param canonical the canonical form under construction
+	 */
+	private static void annotations(Node node, Builder builder, StringBuilder canonical) {
+		PositionFuncEnum set = builder.setBasedEval.get(node);
+		canonical.append((set==null)?PositionFuncEnum.NEITHER.ordinal():set.ordinal());
+		for (int i=0; i<node.jjtGetNumChildren(); i++) {
+			annotations(node.jjtGetChild(i), builder, canonical);
+		}
+	}
+
+	/**
+	 * Records a {@code FusedSteps} for each step in the AST rooted at {@code node} that begins a run of at least two fusible steps
+	 * @param node root of the (sub)tree to rewrite
+	 * @param builder builder holding the PrePAAT annotations
+	 */
+	private static void fuseSteps(Node node, Builder builder) {
+		if (node instanceof ASTSimpleOXPathStepPath && isFusible((ASTSimpleOXPathStepPath)node, builder)) {
+			ASTSimpleOXPathStepPath last = (ASTSimpleOXPathStepPath)node;
+			StringBuilder path = new StringBuilder(stepString(last.getStep()));
+			int size = 1;
+			while (last.hasList() && last.jjtGetChild(0) instanceof ASTSimpleOXPathStepPath 
+					&& isFusible((ASTSimpleOXPathStepPath)last.jjtGetChild(0), builder)) {
+				last = (ASTSimpleOXPathStepPath)last.jjtGetChild(0);
+				path.append('/').append(stepString(last.getStep()));
+				size++;
+			}
+			if (size>1) builder.setFusedSteps(node, new FusedSteps(path.toString(), last, size));
+		}
+		for (int i=0; i<node.jjtGetNumChildren(); i++) {
+			fuseSteps(node.jjtGetChild(i), builder);
+		}
+	}
+
+	/**
+	 * Returns if {@code node} can be part of a fused run: its step must be plain XPath and its continuation must not need set-based
+	 * evaluation (positions are relative to each context node, which a fused run no longer sees)
+	 * @param node the step node
+	 * @param builder builder holding the PrePAAT annotations
+	 * @return {@code true} if {@code node} can be part of a fused run, {@code false} otherwise
+	 */
+	private static boolean isFusible(ASTSimpleOXPathStepPath node, Builder builder) {
+		if (!isPlain(node.getStep())) return false;
+		PositionFuncEnum set = builder.setBasedEval.get(node);
+		return set==null || set.equals(PositionFuncEnum.NEITHER);
+	}
+
+	/**
+	 * Records a {@code PushedPredicates} for each step (or first step of a fused run) in the AST rooted at {@code node} that is
+	 * directly followed by predicates the browser can evaluate natively
+	 * @param node root of the (sub)tree to rewrite
+	 * @param builder builder holding the PrePAAT annotations and fused runs
+	 */
+	private static void pushPredicates(Node node, Builder builder) {
+		if (node instanceof ASTSimpleOXPathStepPath && isPlain(((ASTSimpleOXPathStepPath)node).getStep())) {
+			FusedSteps fused = builder.fusedSteps.get(node);
+			Step step = ((ASTSimpleOXPathStepPath)node).getStep();
+			ASTSimpleOXPathStepPath last = (fused==null)?(ASTSimpleOXPathStepPath)node:fused.getLast();
+			boolean forward = (fused!=null) || step.getAxis().getType().equals(AxisType.FORWARD);
+			//proximity positions of fused runs are relative to each step's own context node
+			boolean positional = (fused==null) && step.getAxis().getType().equals(AxisType.FORWARD);
+			StringBuilder path = new StringBuilder((fused==null)?stepString(step):fused.getPath());
+			ASTXPathPredicate lastPredicate = null;
+			int size = 0;
+			Node next = (last.hasList())?last.jjtGetChild(0):null;
+			while (next instanceof ASTXPathPredicate) {
+				ASTXPathPredicate predicate = (ASTXPathPredicate)next;
+				if (predicate.isOptional() || (!positional && isPositional(predicate.jjtGetChild(0)))) break;
+				StringBuilder expr = new StringBuilder();
+				if (!toXPath(predicate.jjtGetChild(0), expr)) break;
+				path.append('[').append(expr).append(']');
+				lastPredicate = predicate;
+				size++;
+				next = (predicate.hasList())?predicate.jjtGetChild(1):null;
+			}
+			if (lastPredicate!=null) builder.setPushedPredicates(node, new PushedPredicates(path.toString(), lastPredicate, size, forward));
+		}
+		for (int i=0; i<node.jjtGetNumChildren(); i++) {
+			pushPredicates(node.jjtGetChild(i), builder);
+		}
+	}
+
+	/**
+	 * Records a {@code SelectorSteps} for each descendant step in the AST rooted at {@code node} (<tt>//name</tt> or
+	 * <tt>descendant::name</tt>) directly filtered by <tt>.class</tt> or <tt>#id</tt> selectors
+	 * @param node root of the (sub)tree to rewrite
+	 * @param builder builder holding the PrePAAT annotations
+	 * @throws OXPathException in case of malformed selectors
+	 */
+	private static void selectorSteps(Node node, Builder builder) throws OXPathException {
+		if (node instanceof ASTSimpleOXPathStepPath) {
+			ASTSimpleOXPathStepPath step = (ASTSimpleOXPathStepPath)node;
+			ASTSimpleOXPathStepPath element = null;
+			if (step.getStep().getAxis().equals(ForwardAxis.DESCENDANT)) element = step;
+			else if (step.getStep().getAxis().equals(ForwardAxis.DESCENDANTORSELF) && step.getStep().getNodeTest().equals(XPathNodeTest.NODE) 
+					&& step.hasList() && step.jjtGetChild(0) instanceof ASTSimpleOXPathStepPath 
+					&& ((ASTSimpleOXPathStepPath)step.jjtGetChild(0)).getStep().getAxis().equals(ForwardAxis.CHILD)) {
+				element = (ASTSimpleOXPathStepPath)step.jjtGetChild(0);
+			}
+			String type = (element==null || !element.hasList() || !(element.jjtGetChild(0) instanceof ASTOXPathNodeTestOp))?null:cssType(element.getStep());
+			//the selected elements are the results of the whole step, so positions within the step mustn't matter
+			PositionFuncEnum set = (type==null)?null:builder.setBasedEval.get(element);
+			if (type!=null && (set==null || set.equals(PositionFuncEnum.NEITHER))) {
+				StringBuilder css = new StringBuilder(type);
+				ASTOXPathNodeTestOp last = null;
+				Node next = element.jjtGetChild(0);
+				while (next instanceof ASTOXPathNodeTestOp) {
+					last = (ASTOXPathNodeTestOp)next;
+					css.append(last.getSelectorPredicate().toCSS());
+					next = (last.hasList())?last.jjtGetChild(0):null;
+				}
+				builder.setSelectorSteps(node, new SelectorSteps(css.toString(), last));
+			}
+		}
+		for (int i=0; i<node.jjtGetNumChildren(); i++) {
+			selectorSteps(node.jjtGetChild(i), builder);
+		}
+	}
+
+	/**
+	 * Records the <tt>style::</tt> properties read by each style step and each predicate in the AST rooted at {@code node}
+	 * @param node root of the (sub)tree
+	 * @param builder builder holding the PrePAAT annotations
+	 */
+	private static void styleProperties(Node node, Builder builder) {
+		Set<String> properties = new LinkedHashSet<String>();
+		if (node instanceof ASTSimpleOXPathStepPath) styleProperty(((ASTSimpleOXPathStepPath)node).getStep(), properties);
+		else if (node instanceof ASTXPathPredicate) styleProperties(node.jjtGetChild(0), properties);
+		if (!properties.isEmpty()) builder.setStyleProperties(node, properties.toArray(new String[properties.size()]));
+		for (int i=0; i<node.jjtGetNumChildren(); i++) {
+			styleProperties(node.jjtGetChild(i), builder);
+		}
+	}
+
+	/**
+	 * Collects the <tt>style::</tt> properties of the context node read by the expression rooted at {@code node}: the first steps
+	 * of its relative location paths; later steps and nested predicates have other context nodes
+	 * @param node root of the expression
+	 * @param properties the properties read
+	 */
+	private static void styleProperties(Node node, Set<String> properties) {
+		if (node instanceof ASTRelativeOXPathLocationPath) {
+			ASTRelativeOXPathLocationPath path = (ASTRelativeOXPathLocationPath)node;
+			if (!path.isAbsolutePath() && path.jjtGetChild(0) instanceof ASTSimpleOXPathStepPath) {
+				styleProperty(((ASTSimpleOXPathStepPath)path.jjtGetChild(0)).getStep(), properties);
+			}
+			return;
+		}
+		if (node instanceof ASTXPathPathExpr) {
+			//only the filtered expression is evaluated on the context node
+			styleProperties(node.jjtGetChild(0), properties);
+			return;
+		}
+		for (int i=0; i<node.jjtGetNumChildren(); i++) {
+			styleProperties(node.jjtGetChild(i), properties);
+		}
+	}
+
+	/**
+	 * Adds the property read by {@code step} to {@code properties}, if {@code step} is on the <tt>style::</tt> axis
+	 * @param step the step
+	 * @param properties the properties read
+	 */
+	private static void styleProperty(Step step, Set<String> properties) {
+		if (!step.getAxis().equals(OXPathAxis.STYLE) || !(step.getNodeTest() instanceof XPathNameTest)) return;
+		XPathNameTest test = (XPathNameTest)step.getNodeTest();
+		properties.add((test.isSuffixWildcard())?OXPathStyles.ALL_PROPERTIES:test.getValue());
+	}
+
+	/**
+	 * Returns the CSS type selector equivalent to the node test of {@code step}: <tt>*</tt>, or an (unprefixed) lower case element name
+	 * @param step the step
+	 * @return the CSS type selector equivalent to the node test of {@code step}, or {@code null} if there is none
+	 */
+	private static String cssType(Step step) {
+		if (!(step.getNodeTest() instanceof XPathNameTest)) return null;
+		XPathNameTest test = (XPathNameTest)step.getNodeTest();
+		if (test.hasPrefix()) return null;
+		if (test.isSuffixWildcard()) return "*";
+		String name = test.getValue();
+		//name tests of HTML elements are case-insensitive in CSS, so only lower case names select the same elements
+		for (int i=0; i<name.length(); i++) {
+			char c = name.charAt(i);
+			if (!((c>='a' && c<='z') || (i>0 && ((c>='0' && c<='9') || c=='-')))) return null;
+		}
+		return name;
+	}
+
+	/**
+	 * Appends the XPath 1.0 form of the expression rooted at {@code node} to {@code xpath}
+	 * @param node root of the expression
+	 * @param xpath the XPath expression under construction
+	 * @return {@code true} if the expression is plain XPath 1.0, {@code false} otherwise (in which case {@code xpath} is left incomplete)
+	 */
+	private static boolean toXPath(Node node, StringBuilder xpath) {
+		if (node instanceof ASTBinaryOpExpr) {
+			ASTBinaryOpExpr binary = (ASTBinaryOpExpr)node;
+			if (binary.getBinaryOperator().equals(EqualityExprOp.WORDTEST) || binary.getBinaryOperator().equals(EqualityExprOp.CONTAINS)) return false;
+			return toXPathOperand(binary.jjtGetChild(0), xpath) 
+					&& toXPathOperand(binary.jjtGetChild(1), xpath.append(' ').append(binary.getBinaryOperator().getOperator().trim()).append(' '));
+		}
+		else if (node instanceof ASTXPathUnaryExpr) {
+			ASTXPathUnaryExpr unary = (ASTXPathUnaryExpr)node;
+			for (int i=0; i<unary.getNumberOperators(); i++) {
+				xpath.append(unary.getUnaryOperator().getOperator()).append(' ');
+			}
+			return toXPathOperand(unary.jjtGetChild(0), xpath);
+		}
+		else if (node instanceof ASTXPathPrimaryExpr) {
+			if (!toXPath(node.jjtGetChild(0), xpath.append('('))) return false;
+			xpath.append(')');
+			return true;
+		}
+		else if (node instanceof ASTXPathLiteral) {
+			String value = ((ASTXPathLiteral)node).getValue();
+			char quote = (value.indexOf('\'')<0)?'\'':'"';
+			if (value.indexOf(quote)>=0) return false;
+			xpath.append(quote).append(value).append(quote);
+			return true;
+		}
+		else if (node instanceof ASTXPathNumber) {
+			xpath.append(BigDecimal.valueOf(((ASTXPathNumber)node).getValue()).stripTrailingZeros().toPlainString());
+			return true;
+		}
+		else if (node instanceof ASTXPathFunctionCall) {
+			ASTXPathFunctionCall call = (ASTXPathFunctionCall)node;
+			xpath.append(call.getFunction().getName().toLowerCase(Locale.ENGLISH)).append('(');
+			for (int i=0; i<call.getNumParameters(); i++) {
+				if (i>0) xpath.append(',');
+				if (!toXPath(call.jjtGetChild(i), xpath)) return false;
+			}
+			xpath.append(')');
+			return true;
+		}
+		else if (node instanceof ASTXPathPathExpr) {
+			ASTXPathPathExpr path = (ASTXPathPathExpr)node;
+			//only function calls and parenthesized expressions may be filtered or navigated from in XPath 1.0
+			if (path.hasComplexList() || !(path.jjtGetChild(0) instanceof ASTXPathPrimaryExpr || path.jjtGetChild(0) instanceof ASTXPathFunctionCall)) return false;
+			if (!toXPath(path.jjtGetChild(0), xpath)) return false;
+			return !path.hasSimpleList() || toXPathTail(path.jjtGetChild(1), xpath);
+		}
+		else if (node instanceof ASTRelativeOXPathLocationPath) {
+			ASTRelativeOXPathLocationPath path = (ASTRelativeOXPathLocationPath)node;
+			if (path.hasComplexPath()) return false;
+			if (path.isAbsolutePath()) xpath.append('/');
+			return toXPathTail(path.jjtGetChild(0), xpath);
+		}
+		else return false;
+	}
+
+	/**
+	 * Appends the XPath 1.0 form of an operand to {@code xpath}, parenthesized if it is itself an operation so the XPath form keeps
+	 * the grouping of the AST
+	 * @param node root of the operand
+	 * @param xpath the XPath expression under construction
+	 * @return {@code true} if the operand is plain XPath 1.0, {@code false} otherwise
+	 */
+	private static boolean toXPathOperand(Node node, StringBuilder xpath) {
+		if (!(node instanceof ASTBinaryOpExpr)) return toXPath(node, xpath);
+		if (!toXPath(node, xpath.append('('))) return false;
+		xpath.append(')');
+		return true;
+	}
+
+	/**
+	 * Appends the XPath 1.0 form of a list of steps and predicates (as in a location path) to {@code xpath}
+	 * @param node the first step or predicate of the list
+	 * @param xpath the XPath expression under construction
+	 * @return {@code true} if the list is plain XPath 1.0, {@code false} otherwise
+	 */
+	private static boolean toXPathTail(Node node, StringBuilder xpath) {
+		if (node instanceof ASTSimpleOXPathStepPath) {
+			ASTSimpleOXPathStepPath step = (ASTSimpleOXPathStepPath)node;
+			if (!isPlain(step.getStep()) || step.getStep().getNodeTest().getType().equals(NodeTestType.PARAMETERIZEDPROCESSINGINSTUCTION)) return false;
+			xpath.append(stepString(step.getStep()));
+			if (!step.hasList()) return true;
+			Node next = step.jjtGetChild(0);
+			if (next instanceof ASTXPathPredicate && !step.getStep().getAxis().getType().equals(AxisType.FORWARD) 
+					&& isPositional(next)) return false;
+			if (next instanceof ASTSimpleOXPathStepPath) xpath.append('/');
+			return toXPathTail(next, xpath);
+		}
+		else if (node instanceof ASTXPathPredicate) {
+			ASTXPathPredicate predicate = (ASTXPathPredicate)node;
+			if (predicate.isOptional() || !toXPath(predicate.jjtGetChild(0), xpath.append('['))) return false;
+			xpath.append(']');
+			if (!predicate.hasList()) return true;
+			if (predicate.jjtGetChild(1) instanceof ASTSimpleOXPathStepPath) xpath.append('/');
+			return toXPathTail(predicate.jjtGetChild(1), xpath);
+		}
+		else return false;
+	}
+
+	/**
+	 * Returns if the expression rooted at {@code node} may depend on proximity positions: it contains a number (which may be a
+	 * position itself) or a call to <tt>position()</tt> or <tt>last()</tt>
+	 * @param node root of the expression
+	 * @return {@code true} if the expression may depend on proximity positions, {@code false} otherwise
+	 */
+	private static boolean isPositional(Node node) {
+		if (node instanceof ASTXPathNumber) return true;
+		if (node instanceof ASTXPathFunctionCall) {
+			ASTXPathFunctionCall call = (ASTXPathFunctionCall)node;
+			if (call.getFunction().equals(XPathFunctions.POSITION) || call.getFunction().equals(XPathFunctions.LAST)) return true;
+		}
+		for (int i=0; i<node.jjtGetNumChildren(); i++) {
+			if (isPositional(node.jjtGetChild(i))) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns if {@code step} is plain XPath (neither an OXPath axis nor an OXPath node test)
+	 * @param step the step
+	 * @return {@code true} if {@code step} is plain XPath, {@code false} otherwise
+	 */
+	private static boolean isPlain(Step step) {
+		return !step.getAxis().getType().equals(AxisType.OXPATH) && !step.getNodeTest().getType().equals(NodeTestType.OXPATH);
+	}
+
+	/**
+	 * Returns the XPath location step for a (plain XPath) {@code step}
+	 * @param step the step
+	 * @return the XPath location step for {@code step}
+	 */
+	private static String stepString(Step step) {
+		return step.getAxis().getValue() + step.getNodeTest().getValue();
+	}
+
+	/**
+	 * A run of consecutive plain XPath steps, fused into a single XPath location path
+	 * @author AndrewJSel
+	 *
+	 */
+	public final static class FusedSteps {
+
+		/**
+		 * Creates a new fused run
+		 * @param iPath the fused location path
+		 * @param iLast the last step node of the run
+		 * @param iSize the number of steps in the run
+		 */
+		FusedSteps(String iPath, ASTSimpleOXPathStepPath iLast, int iSize) {
+			this.path = iPath;
+			this.last = iLast;
+			this.size = iSize;
+		}
+
+		/**
+		 * Returns the fused location path (relative to the context node of the first step of the run)
+		 * @return the fused location path
+		 */
+		public String getPath() {
+			return this.path;
+		}
+
+		/**
+		 * Returns the last step node of the run; evaluation continues with its child, if it has one
+		 * @return the last step node of the run
+		 */
+		public ASTSimpleOXPathStepPath getLast() {
+			return this.last;
+		}
+
+		/**
+		 * Returns the number of steps in the run
+		 * @return the number of steps in the run
+		 */
+		public int size() {
+			return this.size;
+		}
+
+		@Override
+		public String toString() {
+			return this.getClass().getSimpleName() + "[path=" + this.path + ",size=" + this.size + "]";
+		}
+
+		/**
+		 * the fused location path
+		 */
+		private final String path;
+		/**
+		 * the last step node of the run
+		 */
+		private final ASTSimpleOXPathStepPath last;
+		/**
+		 * the number of steps in the run
+		 */
+		private final int size;
+	}
+
+	/**
+	 * Predicates pushed down into the location path of a step (or of a fused run of steps), for the browser to evaluate natively
+	 * @author AndrewJSel
+	 *
+	 */
+	public final static class PushedPredicates {
+
+		/**
+		 * Creates a new set of pushed down predicates
+		 * @param iPath the location path, including the predicates
+		 * @param iLast the last pushed down predicate node
+		 * @param iSize the number of pushed down predicates
+		 * @param iForward {@code true} if the location path navigates forward, {@code false} otherwise
+		 */
+		PushedPredicates(String iPath, ASTXPathPredicate iLast, int iSize, boolean iForward) {
+			this.path = iPath;
+			this.last = iLast;
+			this.size = iSize;
+			this.forward = iForward;
+		}
+
+		/**
+		 * Returns the location path, including the predicates (relative to the context node of the step)
+		 * @return the location path, including the predicates
+		 */
+		public String getPath() {
+			return this.path;
+		}
+
+		/**
+		 * Returns the last pushed down predicate node; evaluation continues with its tail, if it has one
+		 * @return the last pushed down predicate node
+		 */
+		public ASTXPathPredicate getLast() {
+			return this.last;
+		}
+
+		/**
+		 * Returns the number of pushed down predicates
+		 * @return the number of pushed down predicates
+		 */
+		public int size() {
+			return this.size;
+		}
+
+		/**
+		 * Returns if the location path navigates forward
+		 * @return {@code true} if the location path navigates forward, {@code false} otherwise
+		 */
+		public boolean isForward() {
+			return this.forward;
+		}
+
+		@Override
+		public String toString() {
+			return this.getClass().getSimpleName() + "[path=" + this.path + ",size=" + this.size + "]";
+		}
+
+		/**
+		 * the location path, including the predicates
+		 */
+		private final String path;
+		/**
+		 * the last pushed down predicate node
+		 */
+		private final ASTXPathPredicate last;
+		/**
+		 * the number of pushed down predicates
+		 */
+		private final int size;
+		/**
+		 * {@code true} if the location path navigates forward, {@code false} otherwise
+		 */
+		private final boolean forward;
+	}
+
+	/**
+	 * A descendant step filtered by <tt>.class</tt> and <tt>#id</tt> selectors, compiled into a CSS selector
+	 * @author AndrewJSel
+	 *
+	 */
+	public final static class SelectorSteps {
+
+		/**
+		 * Creates a new compiled selector step
+		 * @param iSelector the CSS selector
+		 * @param iLast the last selector node
+		 */
+		SelectorSteps(String iSelector, ASTOXPathNodeTestOp iLast) {
+			this.selector = iSelector;
+			this.last = iLast;
+		}
+
+		/**
+		 * Returns the CSS selector, selecting the same elements among the descendants of the context node as the step
+		 * @return the CSS selector
+		 */
+		public String getSelector() {
+			return this.selector;
+		}
+
+		/**
+		 * Returns the last selector node; evaluation continues with its child, if it has one
+		 * @return the last selector node
+		 */
+		public ASTOXPathNodeTestOp getLast() {
+			return this.last;
+		}
+
+		@Override
+		public String toString() {
+			return this.getClass().getSimpleName() + "[selector=" + this.selector + "]";
+		}
+
+		/**
+		 * the CSS selector
+		 */
+		private final String selector;
+		/**
+		 * the last selector node
+		 */
+		private final ASTOXPathNodeTestOp last;
+	}
+
+	/**
+	 * Standard <tt>Builder</tt> object for constructing {@code OXPathQueryPlan} objects; populated by the {@code PrePAATVisitor}
+	 * @author AndrewJSel
+	 *
+	 */
+	public final static class Builder {
+
+		/**
+		 * Creates a new builder for the AST rooted at {@code iRoot}
+		 * @param iRoot root of the AST
+		 */
+		Builder(Node iRoot) {
+			this.root = iRoot;
+		}
+
+		/**
+		 * Records if set-based evaluation (because of <tt>position()</tt> or <tt>last()</tt>) is needed at {@code node}
+		 * @param node the AST node to annotate
+		 * @param set encoding of the positional functions that need to be handled at {@code node}
+		 * @return same object with update applied
+		 */
+		public Builder setSetBasedEval(Node node, PositionFuncEnum set) {
+			this.setBasedEval.put(node, set);
+			return this;
+		}
+
+		/**
+		 * Records the outermost Kleene-star containing {@code node}; a {@code null} {@code kleene} means no Kleene-star
+		 * @param node the AST node to annotate
+		 * @param kleene the outermost Kleene-star containing {@code node}
+		 * @return same object with update applied
+		 */
+		public Builder setInsideKleeneStar(Node node, Node kleene) {
+			if (kleene==null) this.insideKleene.remove(node);
+			else this.insideKleene.put(node, kleene);
+			return this;
+		}
+
+		/**
+		 * Records that evaluation of the step {@code node} is replaced by the fused run {@code fused} starting at {@code node}
+		 * @param node the first step node of the run
+		 * @param fused the fused run
+		 * @return same object with update applied
+		 */
+		public Builder setFusedSteps(Node node, FusedSteps fused) {
+			this.fusedSteps.put(node, fused);
+			return this;
+		}
+
+		/**
+		 * Records that the predicates following the step {@code node} (or the fused run starting at {@code node}) are evaluated by
+		 * the browser as part of {@code pushed}
+		 * @param node the step node (or first step node of the run)
+		 * @param pushed the pushed down predicates
+		 * @return same object with update applied
+		 */
+		public Builder setPushedPredicates(Node node, PushedPredicates pushed) {
+			this.pushedPredicates.put(node, pushed);
+			return this;
+		}
+
+		/**
+		 * Records that the descendant step {@code node} and the selectors filtering it are evaluated as the CSS selector {@code selected}
+		 * @param node the first step node
+		 * @param selected the compiled selector step
+		 * @return same object with update applied
+		 */
+		public Builder setSelectorSteps(Node node, SelectorSteps selected) {
+			this.selectorSteps.put(node, selected);
+			return this;
+		}
+
+		/**
+		 * Records the <tt>style::</tt> properties read by the style step or predicate {@code node}
+		 * @param node the AST node to annotate
+		 * @param properties the CSS properties read at {@code node} (<tt>*</tt> for all computed properties)
+		 * @return same object with update applied
+		 */
+		public Builder setStyleProperties(Node node, String[] properties) {
+			this.styleProperties.put(node, properties);
+			return this;
+		}
+
+		/**
+		 * Records the canonical form of the action-free subexpression rooted at {@code node}
+		 * @param node the AST node to annotate
+		 * @param canonical the canonical form of the subexpression rooted at {@code node}
+		 * @return same object with update applied
+		 */
+		public Builder setCanonicalForm(Node node, String canonical) {
+			this.canonicalForms.put(node, canonical);
+			return this;
+		}
+
+		/**
+		 * Returns new {@code OXPathQueryPlan} object parameterized by the builder
+		 * @return new {@code OXPathQueryPlan} object parameterized by the builder
+		 */
+		public OXPathQueryPlan build() {
+			return new OXPathQueryPlan(this);
+		}
+
+		/**
+		 * root of the AST
+		 */
+		private final Node root;
+		/**
+		 * set-based evaluation annotations (by AST node identity)
+		 */
+		private final Map<Node,PositionFuncEnum> setBasedEval = new IdentityHashMap<Node,PositionFuncEnum>();
+		/**
+		 * Kleene-star annotations (by AST node identity)
+		 */
+		private final Map<Node,Node> insideKleene = new IdentityHashMap<Node,Node>();
+		/**
+		 * fused runs of steps (by AST node identity of the first step)
+		 */
+		private final Map<Node,FusedSteps> fusedSteps = new IdentityHashMap<Node,FusedSteps>();
+		/**
+		 * pushed down predicates (by AST node identity of the step)
+		 */
+		private final Map<Node,PushedPredicates> pushedPredicates = new IdentityHashMap<Node,PushedPredicates>();
+		/**
+		 * compiled selector steps (by AST node identity of the first step)
+		 */
+		private final Map<Node,SelectorSteps> selectorSteps = new IdentityHashMap<Node,SelectorSteps>();
+		/**
+		 * style properties read (by AST node identity of the style step or predicate)
+		 */
+		private final Map<Node,String[]> styleProperties = new IdentityHashMap<Node,String[]>();
+		/**
+		 * canonical forms of action-free subexpressions (by AST node identity)
+		 */
+		private final Map<Node,String> canonicalForms = new IdentityHashMap<Node,String>();
+	}
+
+	/**
+	 * Creates a new plan with the state of the builder; meant to be called only with {@code Builder.build()} method
+	 * @param builder implicit {@code Builder} object for this plan
+	 */
+	private OXPathQueryPlan(Builder builder) {
+		this.root = builder.root;
+		this.setBasedEval = Collections.unmodifiableMap(new IdentityHashMap<Node,PositionFuncEnum>(builder.setBasedEval));
+		this.insideKleene = Collections.unmodifiableMap(new IdentityHashMap<Node,Node>(builder.insideKleene));
+		this.fusedSteps = Collections.unmodifiableMap(new IdentityHashMap<Node,FusedSteps>(builder.fusedSteps));
+		this.pushedPredicates = Collections.unmodifiableMap(new IdentityHashMap<Node,PushedPredicates>(builder.pushedPredicates));
+		this.selectorSteps = Collections.unmodifiableMap(new IdentityHashMap<Node,SelectorSteps>(builder.selectorSteps));
+		this.styleProperties = Collections.unmodifiableMap(new IdentityHashMap<Node,String[]>(builder.styleProperties));
+		this.canonicalForms = Collections.unmodifiableMap(new IdentityHashMap<Node,String>(builder.canonicalForms));
+	}
+
+	/**
+	 * Returns the root of the AST this plan was compiled from
+	 * @return the root of the AST this plan was compiled from
+	 */
+	public Node getRoot() {
+		return this.root;
+	}
+
+	/**
+	 * Returns if set-based evaluation (because of <tt>position()</tt> or <tt>last()</tt>) is needed at {@code node}
+	 * @param node the AST node
+	 * @return encoding of the positional functions that need to be handled at {@code node}; {@code NEITHER} by default
+	 */
+	public PositionFuncEnum getSetBasedEval(Node node) {
+		PositionFuncEnum result = this.setBasedEval.get(node);
+		return (result==null)?PositionFuncEnum.NEITHER:result;
+	}
+
+	/**
+	 * Returns if {@code node} is evaluated inside a Kleene-star
+	 * @param node the AST node
+	 * @return {@code true} if {@code node} is evaluated inside a Kleene-star, {@code false} otherwise
+	 */
+	public boolean isInsideKleeneStar(Node node) {
+		return this.insideKleene.containsKey(node);
+	}
+
+	/**
+	 * Returns the outermost Kleene star node (for closing actions)
+	 * Check for {@code null} values when using this or call {@code isInsideKleeneStar(node)}
+	 * @param node the AST node
+	 * @return the outermost Kleene star node (for closing actions)
+	 */
+	public Node insideKleeneStar(Node node) {
+		return this.insideKleene.get(node);
+	}
+
+	/**
+	 * Returns the fused run of steps starting at {@code node}
+	 * Check for {@code null} values when using this: steps that do not begin a run are evaluated one at a time
+	 * @param node the AST node
+	 * @return the fused run of steps starting at {@code node}
+	 */
+	public FusedSteps getFusedSteps(Node node) {
+		return this.fusedSteps.get(node);
+	}
+
+	/**
+	 * Returns the predicates pushed down into the location path of the step (or fused run of steps) starting at {@code node}
+	 * Check for {@code null} values when using this: predicates that aren't pushed down are evaluated by PAAT
+	 * @param node the AST node
+	 * @return the predicates pushed down into the location path of the step starting at {@code node}
+	 */
+	public PushedPredicates getPushedPredicates(Node node) {
+		return this.pushedPredicates.get(node);
+	}
+
+	/**
+	 * Returns the descendant step starting at {@code node} and its selectors, compiled into a CSS selector
+	 * Check for {@code null} values when using this: other steps and selectors are evaluated one at a time
+	 * @param node the AST node
+	 * @return the descendant step starting at {@code node} and its selectors, compiled into a CSS selector
+	 */
+	public SelectorSteps getSelectorSteps(Node node) {
+		return this.selectorSteps.get(node);
+	}
+
+	/**
+	 * Returns the <tt>style::</tt> properties read by the style step or predicate {@code node}
+	 * Check for {@code null} values when using this: other nodes read no computed styles
+	 * @param node the AST node
+	 * @return the CSS properties read at {@code node} (<tt>*</tt> for all computed properties); not to be modified
+	 */
+	public String[] getStyleProperties(Node node) {
+		return this.styleProperties.get(node);
+	}
+
+	/**
+	 * Returns the canonical form of the subexpression rooted at {@code node}
+	 * Check for {@code null} values when using this: subexpressions with actions, extraction markers or OXPath axes have none
+	 * @param node the AST node
+	 * @return the canonical form of the subexpression rooted at {@code node}
+	 */
+	public String getCanonicalForm(Node node) {
+		return this.canonicalForms.get(node);
+	}
+
+	/**
+	 * root of the AST
+	 */
+	private final Node root;
+	/**
+	 * set-based evaluation annotations (by AST node identity)
+	 */
+	private final Map<Node,PositionFuncEnum> setBasedEval;
+	/**
+	 * Kleene-star annotations (by AST node identity)
+	 */
+	private final Map<Node,Node> insideKleene;
+	/**
+	 * fused runs of steps (by AST node identity of the first step)
+	 */
+	private final Map<Node,FusedSteps> fusedSteps;
+	/**
+	 * pushed down predicates (by AST node identity of the step)
+	 */
+	private final Map<Node,PushedPredicates> pushedPredicates;
+	/**
+	 * compiled selector steps (by AST node identity of the first step)
+	 */
+	private final Map<Node,SelectorSteps> selectorSteps;
+	/**
+	 * style properties read (by AST node identity of the style step or predicate)
+	 */
+	private final Map<Node,String[]> styleProperties;
+	/**
+	 * canonical forms of action-free subexpressions (by AST node identity)
+	 */
+	private final Map<Node,String> canonicalForms;
+
+	/**
+	 * separates the printed expression from its annotations in canonical forms
+	 */
+	private static final char CANONICAL_SEPARATOR = '\u0000';
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing core OXPath functionality
+ */
+package uk.ac.ox.comlab.diadem.oxpath.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import diadem.common.web.WebBrowser;
+import diadem.common.web.dom.impl.BrowserFactory;
+import diadem.common.web.dom.impl.BrowserFactory.Engine;
+
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
+
+/**
+ * Pool of worker {@code WebBrowser} instances used by the {@code PAATEvalVisitor} to evaluate the independent contexts of an action
+ * step concurrently.  Each task borrows an idle browser for its whole duration, so a browser (and its pages) is never shared by two
+ * tasks at the same time.  The pool is owned by the caller: one pool may serve any number of evaluations, but must be shut down
+ * with {@code shutdown()} once no longer needed.
+ * @author AndrewJSel
+ *
+ */
+public class PAATBrowserPool {
+
+	/**
+	 * Unit of work evaluated on a borrowed worker browser
+	 * @author AndrewJSel
+	 *
+	 * @param <T> type of the result of the task
+	 */
+	public interface BrowserTask<T> {
+		/**
+		 * Evaluates the task on {@code browser}, which is reserved for this task until the method returns
+		 * @param browser the borrowed worker browser
+		 * @return the result of the task
+		 * @throws OXPathException in case of exception in evaluation
+		 */
+		public T call(WebBrowser browser) throws OXPathException;
+	}
+
+	/**
+	 * Creates a new pool with {@code size} newly opened browsers; {@code shutdown()} closes these browsers
+	 * @param size number of worker browsers in the pool
+	 * @return a new pool with {@code size} newly opened browsers
+	 * @throws OXPathException if {@code size} isn't positive
+	 */
+	public static PAATBrowserPool newInstance(int size) throws OXPathException {
+		if (size<1) throw new OXPathException("Browser pools need at least one worker browser, not " + size);
+		List<WebBrowser> browsers = new ArrayList<WebBrowser>();
+		for (int i=0; i<size; i++) {
+			browsers.add(BrowserFactory.newWebBrowser(Engine.SWT_MOZILLA, true));
+		}
+		return new PAATBrowserPool(browsers, true);
+	}
+
+	/**
+	 * Creates a new pool over existing (caller-owned) browsers; {@code shutdown()} leaves these browsers open
+	 * @param browsers worker browsers for the pool
+	 * @throws OXPathException if {@code browsers} is empty
+	 */
+	public PAATBrowserPool(Collection<WebBrowser> browsers) throws OXPathException {
+		this(browsers, false);
+		if (browsers.isEmpty()) throw new OXPathException("Browser pools need at least one worker browser");
+	}
+
+	/**
+	 * Creates a new pool over {@code browsers}
+	 * @param browsers worker browsers for the pool
+	 * @param owned {@code true} if the pool closes the browsers on {@code shutdown()}, {@code false} otherwise
+	 */
+	private PAATBrowserPool(Collection<WebBrowser> browsers, boolean owned) {
+		this.browsers = new ArrayList<WebBrowser>(browsers);
+		this.idle = new LinkedBlockingQueue<WebBrowser>(this.browsers);
+		this.executor = Executors.newFixedThreadPool(Math.max(1, this.browsers.size()));
+		this.ownsBrowsers = owned;
+	}
+
+	/**
+	 * Evaluates all {@code tasks} on the worker browsers and waits for them to finish
+	 * @param tasks the tasks to evaluate
+	 * @return the results of the tasks, in the same order as {@code tasks}
+	 * @throws OXPathException if any task fails (the first failure, in task order, is rethrown) or the calling thread is interrupted
+	 */
+	public <T> List<T> invokeAll(List<? extends BrowserTask<T>> tasks) throws OXPathException {
+		List<Callable<T>> callables = new ArrayList<Callable<T>>(tasks.size());
+		for (final BrowserTask<T> task : tasks) {
+			callables.add(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					WebBrowser browser = PAATBrowserPool.this.idle.take();
+					try {
+						return task.call(browser);
+					}
+					finally {
+						PAATBrowserPool.this.idle.put(browser);
+					}
+				}
+			});
+		}
+		List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			for (Future<T> future : this.executor.invokeAll(callables)) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OXPathException("Interrupted while waiting for worker browsers");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof OXPathException) throw (OXPathException) e.getCause();
+			throw new OXPathException("Error evaluating on worker browser: " + e.getCause());
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the number of worker browsers in the pool
+	 * @return the number of worker browsers in the pool
+	 */
+	public int size() {
+		return this.browsers.size();
+	}
+
+	/**
+	 * Stops the worker threads and, if the pool opened them, shuts down the worker browsers
+	 */
+	public void shutdown() {
+		this.executor.shutdownNow();
+		if (this.ownsBrowsers) {
+			for (WebBrowser browser : this.browsers) {
+				browser.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * all worker browsers of the pool
+	 */
+	private final List<WebBrowser> browsers;
+	/**
+	 * worker browsers not currently borrowed by a task
+	 */
+	private final BlockingQueue<WebBrowser> idle;
+	/**
+	 * worker threads; one per browser
+	 */
+	private final ExecutorService executor;
+	/**
+	 * {@code true} if the pool opened (and so shuts down) the worker browsers, {@code false} otherwise
+	 */
+	private final boolean ownsBrowsers;
+}
@@ -35,6 +35,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
@@ -49,18 +50,28 @@ import diadem.common.web.dom.DOMNode;
 import diadem.common.web.dom.DOMWindow;
 
 import uk.ac.ox.comlab.diadem.oxpath.core.domlookup.DOMLookup;
-import uk.ac.ox.comlab.diadem.oxpath.core.domlookup.DOMLookupDocumentPosition;
+import uk.ac.ox.comlab.diadem.oxpath.core.domlookup.DOMLookupStructural;
 import uk.ac.ox.comlab.diadem.oxpath.core.domlookup.NodeReference;
 import uk.ac.ox.comlab.diadem.oxpath.core.extraction.Extractor;
+import uk.ac.ox.comlab.diadem.oxpath.core.extraction.OXPathExtractionRecorder;
 import uk.ac.ox.comlab.diadem.oxpath.core.extraction.OXPathExtractor;
+import uk.ac.ox.comlab.diadem.oxpath.core.extraction.OXPathExtractorMemoizer;
 import uk.ac.ox.comlab.diadem.oxpath.core.state.PAATState;
 import uk.ac.ox.comlab.diadem.oxpath.core.state.PAATStateEvalIterative;
 import uk.ac.ox.comlab.diadem.oxpath.core.state.PAATStateEvalSet;
+import uk.ac.ox.comlab.diadem.oxpath.core.state.PAATStateFrames;
 import uk.ac.ox.comlab.diadem.oxpath.dom.ActionEngine;
 import uk.ac.ox.comlab.diadem.oxpath.dom.ActionKeywords;
+import uk.ac.ox.comlab.diadem.oxpath.dom.DOMQuiescence;
 import uk.ac.ox.comlab.diadem.oxpath.dom.FieldTypes;
+import uk.ac.ox.comlab.diadem.oxpath.dom.snapshot.DOMSnapshot;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNode;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNodeConstructed;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathPageContext;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathFields;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathStringValues;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathStyles;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathType;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathType.OXPathTypes;
 import uk.ac.ox.comlab.diadem.oxpath.model.language.Action;
@@ -85,8 +96,9 @@ import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTXPathUnaryExpr;
 import uk.ac.ox.comlab.diadem.oxpath.parser.ast.Node;
 import uk.ac.ox.comlab.diadem.oxpath.parser.ast.SimpleNode;
 import uk.ac.ox.comlab.diadem.oxpath.parser.visitor.OXPathVisitorGenericAdaptor;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathDocumentCache;
 import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
-import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathMemoizer;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathMappedStore;
 
 
 /**
@@ -110,22 +122,145 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 	 * @return a new {@code PAATEvalVisitor} instance for evaluating an OXPath expression 
 	 */
 	public static PAATEvalVisitor newInstance(WebBrowser browser, Logger iLogger, ObjectOutputStream os) {
-		return new PAATEvalVisitor(browser, iLogger, os);
+		return newInstance(browser, iLogger, new OXPathExtractor(os));
 	}
 
+	/**
+	 * Call this method to instantiate a new {@code PAATEvalVisitor} instance that evaluates the independent contexts of action steps 
+	 * concurrently on the worker browsers of {@code pool}.  Otherwise, behaves as {@code newInstance(browser, iLogger, os)}.
+	 * @param browser browser object to evaluate on OXPath
+	 * @param iLogger the logging environment to pass messages to
+	 * @param os the output stream to pipe away any {@code OXPathExtractionNode} instances
+	 * @param pool the worker browsers to evaluate action contexts with; {@code null} for sequential evaluation
+	 * @return a new {@code PAATEvalVisitor} instance for evaluating an OXPath expression 
+	 */
+	public static PAATEvalVisitor newInstance(WebBrowser browser, Logger iLogger, ObjectOutputStream os, PAATBrowserPool pool) {
+		return newInstance(browser, iLogger, new OXPathExtractor(os), pool);
+	}
+
+	/**
+	 * Call this method to instantiate a new {@code PAATEvalVisitor} instance extracting directly into {@code sink} (such as an 
+	 * {@code OXPathExtractionStream}), in process.  Otherwise, behaves as {@code newInstance(browser, iLogger, os)}.
+	 * @param browser browser object to evaluate on OXPath
+	 * @param iLogger the logging environment to pass messages to
+	 * @param sink the extractor receiving the extraction nodes; extractions are memoized before they reach {@code sink}
+	 * @return a new {@code PAATEvalVisitor} instance for evaluating an OXPath expression 
+	 */
+	public static PAATEvalVisitor newInstance(WebBrowser browser, Logger iLogger, Extractor sink) {
+		return new PAATEvalVisitor(browser, iLogger, new OXPathExtractorMemoizer(sink));
+	}
+
+	/**
+	 * Call this method to instantiate a new {@code PAATEvalVisitor} instance extracting directly into {@code sink} that evaluates the 
+	 * independent contexts of action steps concurrently on the worker browsers of {@code pool}; the extractions of the workers are 
+	 * recorded and reach {@code sink} from the calling thread, in context order.  Otherwise, behaves as {@code newInstance(browser, iLogger, sink)}.
+	 * @param browser browser object to evaluate on OXPath
+	 * @param iLogger the logging environment to pass messages to
+	 * @param sink the extractor receiving the extraction nodes; extractions are memoized before they reach {@code sink}
+	 * @param pool the worker browsers to evaluate action contexts with; {@code null} for sequential evaluation
+	 * @return a new {@code PAATEvalVisitor} instance for evaluating an OXPath expression 
+	 */
+	public static PAATEvalVisitor newInstance(WebBrowser browser, Logger iLogger, Extractor sink, PAATBrowserPool pool) {
+		PAATEvalVisitor visitor = newInstance(browser, iLogger, sink);
+		visitor.browserPool = pool;
+		return visitor;
+	}
 
 	/**
 	 * Constructor for initiating new PAATEvalVisitor object; must pass the PAAT Visitor a {@code WebBrowser} object to evaluate the expression over, 
-	 * a {@code Logger} environment to pass logging information, and {@code ObjectOutputStream} to pipe away any {@code OXPathExtractionNode} instances.
+	 * a {@code Logger} environment to pass logging information, and the (memoizing) {@code Extractor} to pass any {@code OXPathExtractionNode} 
+	 * instances to.  Worker visitors evaluating on a browser of a {@code PAATBrowserPool} are given a recording {@code Extractor}; the visitor
+	 * that created them replays the recordings into its own, so all extraction nodes end up in the same output.
 	 * @param browser browser object to evaluate on OXPath
 	 * @param iLogger the logging environment to pass messages to
-	 * @param os the output stream to pipe away any {@code OXPathExtractionNode} instances
+	 * @param iExtractor the (shared) extractor
 	 */
-	private PAATEvalVisitor(WebBrowser browser, Logger iLogger, ObjectOutputStream os) {
+	private PAATEvalVisitor(WebBrowser browser, Logger iLogger, Extractor iExtractor) {
 		this.webclient = browser;
 		this.logger = iLogger;
-		this.extractor = OXPathMemoizer.memoize(new OXPathExtractor(os));
-		this.eval_visitor = OXPathMemoizer.memoize(new PAATEval_Visitor(this,this.extractor));
+		this.extractor = iExtractor;
+		this.eval_visitor = new PAATEval_Memoizer(new PAATEval_Visitor(this,this.extractor));
+	}
+
+	/**
+	 * Sets the quiet period for action waits (<tt>{wait=n}</tt>), enabling quiescence detection: after the action, evaluation continues 
+	 * as soon as the page has fired a DOM mutation event and then none for {@code iQuietPeriod} milliseconds, waiting at most the 
+	 * <tt>n</tt> seconds given in the expression.  A quiet period of {@code 0}, the default ({@code DOMQuiescence.DEFAULT_QUIET_PERIOD}),
+	 * always waits the full <tt>n</tt> seconds.
+	 * @param iQuietPeriod the quiet period (ms) for action waits
+	 * @return same object with update applied
+	 */
+	public PAATEvalVisitor setQuietPeriod(long iQuietPeriod) {
+		this.quietPeriod = iQuietPeriod;
+		return this;
+	}
+
+	/**
+	 * Enables (or disables) snapshot evaluation: after each page load, the page is copied once into a Java-side {@code DOMSnapshot} and
+	 * action-free navigation and string-values on that page are evaluated in-process; only actions go back to the live browser.  
+	 * Snapshots belong to this evaluation: they are carried by the context nodes of their page (see {@code OXPathPageContext}) and no
+	 * longer used once an action of this evaluation may have changed the page.  Disabled by default.
+	 * @param iSnapshotEvaluation {@code true} to evaluate over page snapshots, {@code false} to evaluate over the live DOM
+	 * @return same object with update applied
+	 */
+	public PAATEvalVisitor setSnapshotEvaluation(boolean iSnapshotEvaluation) {
+		this.snapshotEvaluation = iSnapshotEvaluation;
+		return this;
+	}
+
+	/**
+	 * Returns the store of memoized eval_ results of this visitor (not of its workers), e.g., to cap it with 
+	 * {@code setMaximumEntries}/{@code setMaximumBytes} or to read its hit, miss, eviction and size counters
+	 * @return the store of memoized eval_ results
+	 */
+	public OXPathDocumentCache<?,OXPathType> getMemoCache() {
+		return this.eval_visitor.getCache();
+	}
+
+	/**
+	 * Returns the store of cached string-values of this visitor (not of its workers), e.g., to cap it or to read its counters
+	 * @return the store of cached string-values
+	 */
+	public OXPathDocumentCache<?,String> getStringValueCache() {
+		return this.stringValues.getCache();
+	}
+
+	/**
+	 * Returns the field caches of this visitor (not of its workers), e.g., to cap them or to read their counters
+	 * @return the field caches
+	 */
+	public OXPathFields getFieldCaches() {
+		return this.fields;
+	}
+
+	/**
+	 * Returns the store of cached computed styles of this visitor (not of its workers), e.g., to cap it or to read its counters
+	 * @return the store of cached computed styles
+	 */
+	public OXPathDocumentCache<?,String> getStyleCache() {
+		return this.styles.getCache();
+	}
+
+	/**
+	 * Sets a persistent store for the results of action-free subexpressions, shared across evaluations (and runs) on pages with the same
+	 * rendered content.  Only pages with a current {@code DOMSnapshot} (see {@code setSnapshotEvaluation}) are persisted.  The store is 
+	 * owned by the caller, who must close it; {@code null} (the default) memoizes in memory only.
+	 * @param iStore the persistent store of results
+	 * @return same object with update applied
+	 */
+	public PAATEvalVisitor setResultStore(OXPathMappedStore iStore) {
+		this.eval_visitor.setResultStore(iStore, this);
+		return this;
+	}
+
+	/**
+	 * Sets the strategy used to relocate action context nodes on re-rendered pages.  Defaults to {@code DOMLookupStructural}.
+	 * @param iDOMLookup the strategy for relocating context nodes
+	 * @return same object with update applied
+	 */
+	public PAATEvalVisitor setDOMLookup(DOMLookup iDOMLookup) {
+		this.domlookup = iDOMLookup;
+		return this;
 	}
 
 	/**
@@ -148,13 +283,42 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 	 */
 	@Override
 	public OXPathType visitNode(ASTExpression node, PAATStateEvalSet data) throws OXPathException {
-		//decorate the tree with positional function information
-		new PrePAATVisitor().accept(node, null);
+		//we only compile the tree with positional function information if we weren't handed a plan for it
+		if (this.plan==null || this.plan.getRoot()!=node) this.plan = OXPathQueryPlan.compile(node);
 		OXPathType result = this.accept(node.jjtGetChild(0), data);
 		this.endWalk();
 		return result;
 	}
 
+	/**
+	 * Evaluates a compiled {@code OXPathQueryPlan}.  The plan isn't modified, so the same plan can be evaluated by 
+	 * many {@code PAATEvalVisitor} instances (one for each evaluation) at the same time.
+	 * @param iPlan the compiled query plan
+	 * @param data the PAAT-specific state information at the root of the plan
+	 * @return the result of the evaluation of the plan
+	 * @throws OXPathException in case of exception in evaluation
+	 */
+	public OXPathType evaluate(OXPathQueryPlan iPlan, PAATStateEvalSet data) throws OXPathException {
+		this.plan = iPlan;
+		return this.accept(iPlan.getRoot(), data);
+	}
+
+	/**
+	 * Returns the query plan currently evaluated by this visitor
+	 * @return the query plan currently evaluated by this visitor
+	 */
+	OXPathQueryPlan getQueryPlan() {
+		return this.plan;
+	}
+
+	/**
+	 * Returns the stack of reusable state frames of this visitor, shared with its eval_ visitor
+	 * @return the stack of reusable state frames of this visitor
+	 */
+	PAATStateFrames getStateFrames() {
+		return this.frames;
+	}
+
 	/**
 	 * Evaluates <tt>ASTRelativeOXPathLocationPath</tt> types in the AST
 	 * @param node query node
@@ -171,7 +335,7 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 		if (node.isAbsolutePath()) {
 			context = new OXPathNodeList();
 			OXPathContextNode firstDomNode = data.getContextSet().first();
-			context.add(new OXPathContextNode(firstDomNode.getNode().getOwnerDocument().getDocumentElement(),firstDomNode.getParent(),firstDomNode.getLast()));
+			context.add(new OXPathContextNode(firstDomNode.getNode().getOwnerDocument().getDocumentElement(),firstDomNode.getParent(),firstDomNode.getLast(),firstDomNode.getPageContext()));
 		} 
 		else context = data.getContextSet();
 		//next, handle any simple expression via eval_
@@ -179,13 +343,18 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 		if (node.hasSimplePath()) {
 			simpleResult = new OXPathNodeList();
 			int astSimple = numChild++;
-			Iterator<OXPathContextNode> iterator = context.iterator();
-			while (iterator.hasNext()) {
-				OXPathContextNode c = iterator.next();
-				boolean newProtect = (iterator.hasNext())?true:data.isDocumentProtected();
-				PAATStateEvalIterative newState = new PAATState.Builder(data).setContextNode(c).setDocumentProtect(newProtect).buildNode();
-				simpleResult.addAll(
-						this.eval_visitor.eval_(c.getNode(), node.jjtGetChild(astSimple), newState).nodeList());
+			int frame = this.frames.enter();
+			try {
+				Iterator<OXPathContextNode> iterator = context.iterator();
+				while (iterator.hasNext()) {
+					OXPathContextNode c = iterator.next();
+					boolean newProtect = (iterator.hasNext())?true:data.isDocumentProtected();
+					PAATStateEvalIterative newState = this.frames.node(frame, data, c, newProtect);
+					simpleResult.addAll(
+							this.eval_visitor.eval_(c.getNode(), node.jjtGetChild(astSimple), newState).nodeList());
+				}
+			} finally {
+				this.frames.exit(frame);
 			}
 		}
 		else simpleResult = context;
@@ -194,7 +363,7 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 		if (node.hasComplexPath()) {
 			complexResult = this.accept(node.jjtGetChild(numChild++), new PAATState.Builder(data).setContextSet(simpleResult).buildSet());
 		}
-		else complexResult = new OXPathType(simpleResult);
+		else complexResult = OXPathType.valueOf(simpleResult);
 		return complexResult;
 	}
 
@@ -229,7 +398,7 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 			//the inner actions evaluate the rest
 			
 			result.addAll(this.accept(node.jjtGetChild(0), new PAATState.Builder(data).setContextSet(context).setNumKleeneStarIterations(higher).buildSet()).nodeList());
-			return new OXPathType(result);
+			return OXPathType.valueOf(result);
 		}
 		else {
 			if (node.getLowerBound()<1) result.addAll(context);
@@ -241,7 +410,7 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 					result.addAll(context) ;
 				}
 			}
-			if (!node.hasFollowingPath()) return new OXPathType(result);
+			if (!node.hasFollowingPath()) return OXPathType.valueOf(result);
 			else return this.accept(node.jjtGetChild(1), new PAATState.Builder(data).setContextSet(result).buildSet());
 		}
 	}
@@ -255,7 +424,7 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 	@Override
 	public OXPathType visitNode(ASTOXPathActionPath node, PAATStateEvalSet data) throws OXPathException {
 		if (data.isActionFreeNavigation()) {
-			if (data.getActionFreePrefixEnd().equals(node) || !node.hasTail()) return new OXPathType(data.getContextSet());
+			if (data.getActionFreePrefixEnd().equals(node) || !node.hasTail()) return OXPathType.valueOf(data.getContextSet());
 			else return this.accept(node.jjtGetChild(0), data);
 		}
 		else {
@@ -264,58 +433,273 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 			if (context.isEmpty()) return OXPathType.EMPTYRESULT;
 			WebBrowser actionSetBrowser = (node.getAction().getActionType().equals(ActionType.URL))?null:context.first().getNode().getOwnerDocument().getEnclosingWindow().getBrowser();
 			ArrayList<NodeReference> references = this.domlookup.getNodeReferences(context);
+			final boolean evalAsKleene = this.plan.isInsideKleeneStar(node) && (data.getNumKleeneStarIterations() > 0);
+			if (this.browserPool!=null && actionSetBrowser!=null && !evalAsKleene && context.size()>1) {
+				//independent action contexts are farmed out to the worker browsers, each relocating its node on a fresh copy of the page; 
+				//only a page loaded by a plain GET (and unchanged by actions since) can be copied by loading its location
+				OXPathPageContext pageContext = context.first().getPageContext();
+				String location = (pageContext==null || pageContext!=this.pageContexts.get(actionSetBrowser)) ? null : pageContext.getReloadableLocation();
+				if (location!=null) return OXPathType.valueOf(this.evaluateActionContextsInPool(node, data, context, references, actionSetBrowser, location));
+			}
+			RenderedNodes rendered = new RenderedNodes(references, actionSetBrowser);
 			for (int i=0; i<context.size(); i++) {
-				OXPathContextNode c = (node.getAction().getActionType().equals(ActionType.URL))?OXPathContextNode.getNotionalContext():references.get(i).getRenderedNode(actionSetBrowser.getContentDOMWindow().getDocument());
+				OXPathContextNode c = (node.getAction().getActionType().equals(ActionType.URL))?OXPathContextNode.getNotionalContext():rendered.get(i);
 				boolean newProtect = (i<context.size()-1)?true:data.isDocumentProtected();
-				OXPathContextNode newNode = this.takeAction(c, node.getAction(), newProtect, data.getCurrentAction());
-				final int newCurrentAction = this.currentAction;
-				if (!node.getAction().isAbsoluteAction()) {//calculate AFP
-					PAATStateEvalSet afpState = new PAATState.Builder(data).setContextSet(new OXPathNodeList(newNode)).setIsActionFreeNavigation(true).setCurrentAction(newCurrentAction).setActionFreePrefixEnd(node).buildSet();
-					OXPathNodeList afpSet = this.accept(data.getActionFreePrefix(), afpState).nodeList();
-					//multi-way set based evaluation doesn't happen often and aren't big sets, but they are expensive
-					if (afpSet.isEmpty()) continue;//we continue if there is no element after this AFP
-					Iterator<OXPathContextNode> iterator = afpSet.iterator();
-					OXPathContextNode afpNode = iterator.next();
-					try {
-						for (int j=0; j<i;j++) {
-							afpNode=iterator.next();
-						}
-					} catch (NoSuchElementException e) {
-						continue;//we continue if there is no element after this AFP
-					}
-					//because we don't do the extraction markers, these won't come back correct if there are extraction markers in the AFP
-					newNode = new OXPathContextNode(afpNode.getNode(),c.getParent(),c.getLast());
-				}
-				PAATStateEvalSet actionState;
-				if (node.getAction().isAbsoluteAction()) actionState = new PAATState.Builder(data).setContextSet(new OXPathNodeList(newNode)).setDocumentProtect(false).setActionFreePrefix(node).setCurrentAction(newCurrentAction).buildSet();
-				else actionState = new PAATState.Builder(data).setContextSet(new OXPathNodeList(newNode)).setDocumentProtect(false).setCurrentAction(newCurrentAction).buildSet();
-				OXPathNodeList predResult;
-				final boolean evalAsKleene = node.isInsideKleeneStar() && (data.getNumKleeneStarIterations() > 0);
-				if (node.hasTail()) {
-					predResult = this.accept(node.jjtGetChild(0), actionState).nodeList();
-					if (!evalAsKleene) result.addAll(predResult);
+				result.addAll(this.evaluateActionContext(node, data, c, i, newProtect));
+			}
+			return OXPathType.valueOf(result);
+		}
+	}
+
+	/**
+	 * Evaluates a single context of an <tt>ASTOXPathActionPath</tt>: takes the action, evaluates the tail and closes the page afterwards
+	 * @param node query node
+	 * @param data the PAAT-specific state information at {@code node}
+	 * @param c the (freshly rendered) context node for the action
+	 * @param i the index of {@code c} in the context set at {@code node}
+	 * @param newProtect {@code true} if the page of {@code c} is protected, {@code false} otherwise
+	 * @return the result of the evaluation at {@code node} for the context node {@code c}
+	 * @throws OXPathException in case of exception in evaluation
+	 */
+	private OXPathNodeList evaluateActionContext(ASTOXPathActionPath node, PAATStateEvalSet data, OXPathContextNode c, int i, boolean newProtect) throws OXPathException {
+		OXPathNodeList result = new OXPathNodeList();
+		OXPathContextNode newNode = this.takeAction(c, node.getAction(), newProtect, data.getCurrentAction());
+		final int newCurrentAction = this.currentAction;
+		if (!node.getAction().isAbsoluteAction()) {//calculate AFP
+			PAATStateEvalSet afpState = new PAATState.Builder(data).setContextSet(new OXPathNodeList(newNode)).setIsActionFreeNavigation(true).setCurrentAction(newCurrentAction).setActionFreePrefixEnd(node).buildSet();
+			OXPathNodeList afpSet = this.accept(data.getActionFreePrefix(), afpState).nodeList();
+			//multi-way set based evaluation doesn't happen often and aren't big sets, but they are expensive
+			if (afpSet.isEmpty()) return result;//we continue if there is no element after this AFP
+			Iterator<OXPathContextNode> iterator = afpSet.iterator();
+			OXPathContextNode afpNode = iterator.next();
+			try {
+				for (int j=0; j<i;j++) {
+					afpNode=iterator.next();
 				}
-				else {
-					predResult = new OXPathNodeList(newNode);
-					if (!evalAsKleene) result.add(newNode);
-				} 
-				if (evalAsKleene && !predResult.isEmpty()) {
-					//we do the rest from the Kleene-star; this is another area where we break compositionality of the language; we additionally protect the page as it is part of the Kleene's recurring context
-					ASTOXPathKleeneStarPath containingKleene = (ASTOXPathKleeneStarPath)node.insideKleeneStar();
-					//we only do the following if we've done lower the specified number of times (since we already checked for the 0 unwinding in the Kleene node, we've done 1 unwinding at this recursion level
-					boolean doneLower = containingKleene.getLowerBound()-(containingKleene.getUpperBound()-data.getNumKleeneStarIterations())<=1;
-					if (containingKleene.hasFollowingPath()  && doneLower) {
-						result.addAll(this.accept(node.insideKleeneStar().jjtGetChild(1), new PAATState.Builder(actionState).setDocumentProtect(true).setContextSet(predResult).setNumKleeneStarIterations(0).setCurrentAction(newCurrentAction).buildSet()).nodeList());
+			} catch (NoSuchElementException e) {
+				return result;//we continue if there is no element after this AFP
+			}
+			//because we don't do the extraction markers, these won't come back correct if there are extraction markers in the AFP
+			newNode = new OXPathContextNode(afpNode,c.getParent(),c.getLast());
+		}
+		PAATStateEvalSet actionState;
+		if (node.getAction().isAbsoluteAction()) actionState = new PAATState.Builder(data).setContextSet(new OXPathNodeList(newNode)).setDocumentProtect(false).setActionFreePrefix(node).setCurrentAction(newCurrentAction).buildSet();
+		else actionState = new PAATState.Builder(data).setContextSet(new OXPathNodeList(newNode)).setDocumentProtect(false).setCurrentAction(newCurrentAction).buildSet();
+		OXPathNodeList predResult;
+		final boolean evalAsKleene = this.plan.isInsideKleeneStar(node) && (data.getNumKleeneStarIterations() > 0);
+		if (node.hasTail()) {
+			predResult = this.accept(node.jjtGetChild(0), actionState).nodeList();
+			if (!evalAsKleene) result.addAll(predResult);
+		}
+		else {
+			predResult = new OXPathNodeList(newNode);
+			if (!evalAsKleene) result.add(newNode);
+		} 
+		if (evalAsKleene && !predResult.isEmpty()) {
+			//we do the rest from the Kleene-star; this is another area where we break compositionality of the language; we additionally protect the page as it is part of the Kleene's recurring context
+			ASTOXPathKleeneStarPath containingKleene = (ASTOXPathKleeneStarPath)this.plan.insideKleeneStar(node);
+			//we only do the following if we've done lower the specified number of times (since we already checked for the 0 unwinding in the Kleene node, we've done 1 unwinding at this recursion level
+			boolean doneLower = containingKleene.getLowerBound()-(containingKleene.getUpperBound()-data.getNumKleeneStarIterations())<=1;
+			if (containingKleene.hasFollowingPath()  && doneLower) {
+				result.addAll(this.accept(this.plan.insideKleeneStar(node).jjtGetChild(1), new PAATState.Builder(actionState).setDocumentProtect(true).setContextSet(predResult).setNumKleeneStarIterations(0).setCurrentAction(newCurrentAction).buildSet()).nodeList());
+			}
+			else result.addAll(predResult);
+			int newNumKleeneStarIterations = data.getNumKleeneStarIterations()-1;
+			if (newNumKleeneStarIterations>0) this.accept(containingKleene.jjtGetChild(0), 
+					new PAATState.Builder(actionState).setDocumentProtect(false).setContextSet(predResult).setNumKleeneStarIterations(newNumKleeneStarIterations).setCurrentAction(newCurrentAction).buildSet());
+		}
+		if (this.openActions.contains(newCurrentAction)) this.freeMem(newNode,newCurrentAction);
+		return result;
+	}
+
+	/**
+	 * Evaluates all contexts of an <tt>ASTOXPathActionPath</tt> concurrently on the worker browsers of the {@code PAATBrowserPool}.  Each 
+	 * worker loads {@code location}, relocates its context node with the {@code NodeReference} and, if the relocated node has the 
+	 * fingerprint of the original, evaluates the action and tail on its own {@code PAATEvalVisitor}.  Contexts whose node a worker can't 
+	 * find again (as the page loaded differs from the one shown) are evaluated afterwards in the calling browser, whose page is otherwise
+	 * left untouched (and is freed afterwards, unless protected).  Workers record their extractions rather than extracting them; the 
+	 * recordings are replayed here in context order, so the extraction nodes reach the output as they would by sequential evaluation.
+	 * @param node query node
+	 * @param data the PAAT-specific state information at {@code node}
+	 * @param context the context nodes at {@code node}
+	 * @param references references to the context nodes at {@code node}, in context order
+	 * @param browser the browser showing the page of the context nodes
+	 * @param location the location from which a GET loads the page of the context nodes
+	 * @return the results of all contexts, merged in context order
+	 * @throws OXPathException in case of exception in evaluation on any worker
+	 */
+	private OXPathNodeList evaluateActionContextsInPool(final ASTOXPathActionPath node, final PAATStateEvalSet data, OXPathNodeList context, ArrayList<NodeReference> references, WebBrowser browser, final String location) throws OXPathException {
+		ArrayList<PAATBrowserPool.BrowserTask<WorkerResult>> tasks = new ArrayList<PAATBrowserPool.BrowserTask<WorkerResult>>();
+		Iterator<OXPathContextNode> contextNodes = context.iterator();
+		for (int i=0; i<references.size(); i++) {
+			final int index = i;
+			final NodeReference reference = references.get(i);
+			final String fingerprint = fingerprint(contextNodes.next().getNode());
+			tasks.add(new PAATBrowserPool.BrowserTask<WorkerResult>() {
+				@Override
+				public WorkerResult call(WebBrowser worker) throws OXPathException {
+					PAATEvalVisitor workerVisitor = PAATEvalVisitor.this.getWorkerVisitor(worker);
+					workerVisitor.resetPageState();
+					//forget whatever a failed task of this worker recorded
+					workerVisitor.recorder.take();
+					worker.navigate(location, true);
+					workerVisitor.loadedPage(worker, worker.getContentDOMWindow().getDocument(), location);
+					OXPathContextNode c = workerVisitor.getRenderedNode(reference, worker);
+					if (c==null || c.getNode()==null || !fingerprint.equals(fingerprint(c.getNode()))) {
+						logger.debug("Context " + index + " not found again on a fresh load of " + location + "; it is evaluated in the calling browser");
+						return null;
 					}
-					else result.addAll(predResult);
-					int newNumKleeneStarIterations = data.getNumKleeneStarIterations()-1;
-					if (newNumKleeneStarIterations>0) this.accept(containingKleene.jjtGetChild(0), 
-							new PAATState.Builder(actionState).setDocumentProtect(false).setContextSet(predResult).setNumKleeneStarIterations(newNumKleeneStarIterations).setCurrentAction(newCurrentAction).buildSet());
+					//the copy of the page belongs to this worker alone, so it is never protected
+					OXPathNodeList contextResult = workerVisitor.evaluateActionContext(node, data, c, index, false);
+					return new WorkerResult(contextResult, workerVisitor.recorder.take());
 				}
-				if (this.openActions.contains(newCurrentAction)) this.freeMem(newNode,newCurrentAction);
+			});
+		}
+		List<WorkerResult> contextResults = this.browserPool.invokeAll(tasks);
+		int lastUnevaluated = contextResults.lastIndexOf(null);
+		OXPathNodeList result = new OXPathNodeList();
+		RenderedNodes rendered = new RenderedNodes(references, browser);
+		for (int i=0; i<contextResults.size(); i++) {
+			OXPathNodeList contextResult;
+			if (contextResults.get(i)==null) {
+				OXPathContextNode c = rendered.get(i);
+				boolean newProtect = (i<lastUnevaluated)?true:data.isDocumentProtected();
+				contextResult = this.evaluateActionContext(node, data, c, i, newProtect);
+			}
+			else contextResult = contextResults.get(i).replay(this.extractor);
+			result.addAll(contextResult);
+		}
+		//with every context evaluated by a worker, no action on the calling browser consumed its page
+		if (lastUnevaluated<0 && !data.isDocumentProtected()) this.freeMem(context.first(), data.getCurrentAction());
+		return result;
+	}
+
+	/**
+	 * The result of a context evaluated by a worker: its result nodes and the extractions recorded for it, whose provisional 
+	 * identifiers the result nodes carry
+	 */
+	private static final class WorkerResult {
+
+		/**
+		 * Creates the result of a context evaluated by a worker
+		 * @param iNodes the result nodes
+		 * @param iExtractions the extractions recorded for the context
+		 */
+		WorkerResult(OXPathNodeList iNodes, OXPathExtractionRecorder.Recording iExtractions) {
+			this.nodes = iNodes;
+			this.extractions = iExtractions;
+		}
+
+		/**
+		 * Replays the recorded extractions with {@code extractor}, and returns the result nodes with the identifiers {@code extractor}
+		 * returned in place of the provisional ones
+		 * @param extractor the extractor of the calling visitor
+		 * @return the result nodes
+		 * @throws OXPathException in case of exception in extraction
+		 */
+		OXPathNodeList replay(Extractor extractor) throws OXPathException {
+			this.extractions.replay(extractor);
+			OXPathNodeList result = new OXPathNodeList(this.nodes.isReverse());
+			for (OXPathContextNode n : this.nodes) {
+				int parent = this.extractions.resolve(n.getParent());
+				int last = this.extractions.resolve(n.getLast());
+				boolean provisional = parent!=n.getParent() || last!=n.getLast();
+				result.add((provisional && !(n instanceof OXPathContextNodeConstructed)) ? new OXPathContextNode(n, parent, last) : n);
 			}
-			return new OXPathType(result);
+			return result;
+		}
+
+		/**
+		 * the result nodes
+		 */
+		private final OXPathNodeList nodes;
+		/**
+		 * the extractions recorded for the context
+		 */
+		private final OXPathExtractionRecorder.Recording extractions;
+	}
+
+	/**
+	 * Returns a structural fingerprint of {@code node} (its name, number of children and text), to check that a node relocated on another
+	 * load of a page is the same node
+	 * @param node the node
+	 * @return the fingerprint of {@code node}
+	 */
+	private static String fingerprint(DOMNode node) {
+		String text = node.getTextContent();
+		return node.getNodeName() + '\u0000' + node.getChildNodes().getLength() + '\u0000' + ((text==null) ? "" : text);
+	}
+
+	/**
+	 * Returns the {@code PAATEvalVisitor} evaluating on the worker browser {@code worker}, creating it on first use.  Workers share the 
+	 * query plan of this visitor, but record their extractions (see {@code OXPathExtractionRecorder}) for this visitor to replay.
+	 * @param worker worker browser from the {@code PAATBrowserPool}
+	 * @return the {@code PAATEvalVisitor} evaluating on the worker browser {@code worker}
+	 */
+	private synchronized PAATEvalVisitor getWorkerVisitor(WebBrowser worker) {
+		PAATEvalVisitor workerVisitor = this.workerVisitors.get(worker);
+		if (workerVisitor==null) {
+			OXPathExtractionRecorder workerRecorder = new OXPathExtractionRecorder();
+			workerVisitor = new PAATEvalVisitor(worker, this.logger, new OXPathExtractorMemoizer(workerRecorder));
+			workerVisitor.recorder = workerRecorder;
+			workerVisitor.quietPeriod = this.quietPeriod;
+			workerVisitor.snapshotEvaluation = this.snapshotEvaluation;
+			workerVisitor.domlookup = this.domlookup;
+			workerVisitor.setResultStore(this.eval_visitor.getResultStore());
+			workerVisitor.getMemoCache().setMaximumEntries(this.getMemoCache().getMaximumEntries()).setMaximumBytes(this.getMemoCache().getMaximumBytes())
+				.setMaximumPages(this.getMemoCache().getMaximumPages());
+			this.workerVisitors.put(worker, workerVisitor);
 		}
+		workerVisitor.plan = this.plan;
+		return workerVisitor;
+	}
+
+	/**
+	 * Forgets all page memory management state; used by worker visitors before evaluating on a freshly loaded page
+	 */
+	private void resetPageState() {
+		this.backController.clear();
+		this.openActions.clear();
+		for (OXPathPageContext pageContext : this.pageContexts.values()) pageContext.invalidate();
+		this.pageContexts.clear();
+	}
+
+	/**
+	 * Creates the context of the page just loaded (or changed by an action) in {@code browser}, taking its snapshot if snapshot 
+	 * evaluation is enabled; the previous page context of {@code browser} is invalidated, as its page is gone or may have changed
+	 * @param browser the browser
+	 * @param page the page now shown by {@code browser}
+	 * @param location the location {@code page} was loaded from by a plain GET, or {@code null} if it was reached otherwise
+	 * @return the context of {@code page}
+	 */
+	private OXPathPageContext loadedPage(WebBrowser browser, DOMDocument page, String location) {
+		OXPathPageContext pageContext = new OXPathPageContext(page, (this.snapshotEvaluation) ? DOMSnapshot.capture(page) : null, location, this.stringValues, this.fields, this.styles);
+		OXPathPageContext previous = this.pageContexts.put(browser, pageContext);
+		if (previous!=null) previous.invalidate();
+		return pageContext;
+	}
+
+	/**
+	 * Relocates the node of {@code reference} on the page currently shown by {@code browser}, in the context of that page
+	 * @param reference the reference to the node
+	 * @param browser the browser
+	 * @return the node on the page currently shown by {@code browser}
+	 */
+	private OXPathContextNode getRenderedNode(NodeReference reference, WebBrowser browser) {
+		DOMDocument page = browser.getContentDOMWindow().getDocument();
+		return this.inPageContext(reference.getRenderedNode(page), page, this.pageContexts.get(browser));
+	}
+
+	/**
+	 * Returns {@code node}, relocated on {@code page}, in the context of that page
+	 * @param node the relocated node
+	 * @param page the page {@code node} was relocated on
+	 * @param pageContext the current context of the browser showing {@code page}, or {@code null}
+	 * @return {@code node} in the context {@code pageContext}, if it is the context of {@code page}
+	 */
+	private OXPathContextNode inPageContext(OXPathContextNode node, DOMDocument page, OXPathPageContext pageContext) {
+		if (pageContext==null || node.isNotionalContext() || node instanceof OXPathContextNodeConstructed || !pageContext.getPage().equals(page)) return node;
+		return new OXPathContextNode(node.getNode(), node.getParent(), node.getLast(), pageContext);
 	}
 
 	/**
@@ -327,7 +711,7 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 	@Override
 	public OXPathType visitNode(ASTOXPathNodeTestOp node, PAATStateEvalSet data) throws OXPathException {
 		//because this node can't contain a position function, we assume a later node contains the function and make the set call of the next node 
-		if (!node.hasList() || !node.getSetBasedEval().equals(PositionFuncEnum.NEITHER)) throw new OXPathException("Unexpected call in PAAT to set-based OXPathNodeTestOp node");
+		if (!node.hasList() || !this.plan.getSetBasedEval(node).equals(PositionFuncEnum.NEITHER)) throw new OXPathException("Unexpected call in PAAT to set-based OXPathNodeTestOp node");
 		OXPathNodeList context = data.getContextSet();
 		OXPathType result = node.getSelectorPredicate().evaluateSet(context);
 		PAATStateEvalSet newState = new PAATState.Builder(data).setContextSet(result.nodeList()).buildSet();
@@ -342,7 +726,7 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 	 */
 	@Override
 	public OXPathType visitNode(ASTXPathLiteral node, PAATStateEvalSet data) throws OXPathException {
-		return new OXPathType(node.getValue());
+		return OXPathType.valueOf(node.getValue());
 	}
 
 	/**
@@ -355,40 +739,56 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 	public OXPathType visitNode(ASTXPathPredicate node, PAATStateEvalSet data) throws OXPathException {
 		//since we are doing set-based predicate eval, each node will need position and last assignment
 		OXPathNodeList context = data.getContextSet();
+		String[] styles = this.plan.getStyleProperties(node);
+		if (styles!=null) OXPathStyles.prefetch(context, styles);
 		OXPathNodeList result = new OXPathNodeList();
-		Iterator<OXPathContextNode> iteratorContext = context.iterator();
-		int positionCount = 1;
-		while (iteratorContext.hasNext()) {
-			OXPathContextNode c = iteratorContext.next();
-			//position is i+1 because XPath counting begins at 1, not 0
-			PAATStateEvalSet predState = new PAATState.Builder(data).setPosition(positionCount).setLast(context.size()).setDocumentProtect((node.hasList()||iteratorContext.hasNext())?true:data.isDocumentProtected())
-			.setContextSet(new OXPathNodeList(new OXPathContextNode(c.getNode(),c.getLast(),c.getLast())))
-			.setDocumentProtect((node.hasList())?true:data.isDocumentProtected()).setNumKleeneStarIterations(0).buildSet();
-			OXPathType predResult = this.accept(node.jjtGetChild(0), predState);
-			if (predResult.isType().equals(OXPathTypes.NUMBER)) {
-				if (new Integer(positionCount).doubleValue()==predResult.number()) result.add(c);
+		int frame = this.frames.enter();
+		try {
+			Iterator<OXPathContextNode> iteratorContext = context.iterator();
+			int positionCount = 1;
+			while (iteratorContext.hasNext()) {
+				OXPathContextNode c = iteratorContext.next();
+				//position is i+1 because XPath counting begins at 1, not 0
+				OXPathContextNode predContext = (c.getParent()==c.getLast())?c:new OXPathContextNode(c.getNode(),c.getLast(),c.getLast());
+				PAATStateEvalSet predState = this.frames.predicate(frame, data, predContext, positionCount, context.size(), 
+						(node.hasList())?true:data.isDocumentProtected());
+				OXPathType predResult = this.accept(node.jjtGetChild(0), predState);
+				if (predResult.isType().equals(OXPathTypes.NUMBER)) {
+					if (positionCount==predResult.number()) result.add(c);
+				}
+				else if (predResult.booleanValue() || node.isOptional()) result.add(c);
+				positionCount++;
 			}
-			else if (predResult.booleanValue() || node.isOptional()) result.add(c);
-			positionCount++;
+		} finally {
+			this.frames.exit(frame);
 		}
 		//what we do with the result set depends on the whether the next node exists and if it is set-based or not
-		if (!node.hasList() || result.isEmpty()) return new OXPathType(result);
-		else if (!node.getSetBasedEval().equals(PositionFuncEnum.NEITHER)) return this.accept(node.jjtGetChild(1), new PAATState.Builder(data).setContextSet(result).buildSet());
+		if (!node.hasList() || result.isEmpty()) return OXPathType.valueOf(result);
+		else if (!this.plan.getSetBasedEval(node).equals(PositionFuncEnum.NEITHER)) return this.accept(node.jjtGetChild(1), new PAATState.Builder(data).setContextSet(result).buildSet());
 		else {
+			String[] tailStyles = this.plan.getStyleProperties(node.jjtGetChild(1));
+			if (tailStyles!=null) OXPathStyles.prefetch(result, tailStyles);
 			OXPathNodeList finalResult = new OXPathNodeList();
-			Iterator<OXPathContextNode> iteratorResult = result.iterator();
-			while (iteratorResult.hasNext()) {
-				OXPathContextNode r = iteratorResult.next();
-				//we need to account for the last in the set as this wasn't done in the step
-				PAATStateEvalIterative listState = new PAATState.Builder(data).setContextNode(r).setDocumentProtect((iteratorResult.hasNext())?true:data.isDocumentProtected()).buildNode();
-				finalResult.addAll(this.eval_visitor.eval_(r.getNode(), node.jjtGetChild(1), listState).nodeList());
+			frame = this.frames.enter();
+			try {
+				Iterator<OXPathContextNode> iteratorResult = result.iterator();
+				while (iteratorResult.hasNext()) {
+					OXPathContextNode r = iteratorResult.next();
+					//we need to account for the last in the set as this wasn't done in the step
+					PAATStateEvalIterative listState = this.frames.node(frame, data, r, (iteratorResult.hasNext())?true:data.isDocumentProtected());
+					finalResult.addAll(this.eval_visitor.eval_(r.getNode(), node.jjtGetChild(1), listState).nodeList());
+				}
+			} finally {
+				this.frames.exit(frame);
 			}
-			return new OXPathType(finalResult);
+			return OXPathType.valueOf(finalResult);
 		}
 	}
 
 	/**
-	 * Evaluates <tt>ASTOXPathExtractionMarker</tt> types in the AST
+	 * Evaluates <tt>ASTOXPathExtractionMarker</tt> types in the AST.  Records (nodes extracted as children of the results node) receive
+	 * their descendants from the rest of the expression, evaluated here; so once it is evaluated for the context of a record, the 
+	 * extractor is signalled that the record is complete.
 	 * @param node query node
 	 * @param data the PAAT-specific state information at {@code node}
 	 * @return the result of the evaluation at {@code node}
@@ -400,41 +800,58 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 		//we avoid all of this if in AFP
 		if (data.isActionFreeNavigation()) {
 			if (node.hasList()) return this.accept(node.jjtGetChild((marker.isAttribute())?1:0), data);
-			else return new OXPathType(contextSet);
+			else return OXPathType.valueOf(contextSet);
 		}
 		//apply the extraction marker for each node in the set
 		OXPathNodeList newContext = new OXPathNodeList();
-		Iterator<OXPathContextNode> iteratorContext = contextSet.iterator();
-		while (iteratorContext.hasNext()) {
-			OXPathContextNode context = iteratorContext.next();
-			int numChild = 0;
-			int newLastSibling;
-			if (marker.isAttribute()) {
-				PAATStateEvalSet newState = new PAATState.Builder(data).setContextSet(new OXPathNodeList(context))//i+1 for position due to OXPath counting beginning at 1
-				.setDocumentProtect((node.hasList() || iteratorContext.hasNext())?true:data.isDocumentProtected()).buildSet();
-				newLastSibling = this.extractor.extractNode(context.getNode(), marker.getLabel(),context.getParent(),
-						this.accept(node.jjtGetChild(numChild++), newState).toPrettyHtml());
-			}
-			else {
-				newLastSibling = this.extractor.extractNode(context.getNode(), marker.getLabel(),context.getParent());
+		List<Integer> records = new ArrayList<Integer>();
+		int frame = this.frames.enter();
+		try {
+			Iterator<OXPathContextNode> iteratorContext = contextSet.iterator();
+			while (iteratorContext.hasNext()) {
+				OXPathContextNode context = iteratorContext.next();
+				int numChild = 0;
+				int newLastSibling;
+				if (marker.isAttribute()) {
+					PAATStateEvalSet newState = this.frames.singleton(frame, data, context, 
+							(node.hasList() || iteratorContext.hasNext())?true:data.isDocumentProtected());
+					newLastSibling = this.extractor.extractNode(context.getNode(), marker.getLabel(),context.getParent(),
+							this.accept(node.jjtGetChild(numChild++), newState).toPrettyHtml());
+				}
+				else {
+					newLastSibling = this.extractor.extractNode(context.getNode(), marker.getLabel(),context.getParent());
+				}
+				//new last has to be accounted for
+				newContext.add(new OXPathContextNode(context.getNode(),context.getParent(),newLastSibling));	
+				if (context.getParent()==RESULTS) records.add(newLastSibling);
 			}
-			//new last has to be accounted for
-			newContext.add(new OXPathContextNode(context.getNode(),context.getParent(),newLastSibling));	
+		} finally {
+			this.frames.exit(frame);
 		}
+		OXPathType result;
 		if (node.hasList()) {//if there are following simple parts of the expression
-			if (!node.getSetBasedEval().equals(PositionFuncEnum.NEITHER)) return this.accept(node.jjtGetChild((marker.isAttribute())?1:0), new PAATState.Builder(data).setContextSet(newContext).buildSet());
+			if (!this.plan.getSetBasedEval(node).equals(PositionFuncEnum.NEITHER)) result = this.accept(node.jjtGetChild((marker.isAttribute())?1:0), new PAATState.Builder(data).setContextSet(newContext).buildSet());
 			else {//the positional predicate was in the attribute and we switch back to iterative evaluation
 				OXPathNodeList finalResult = new OXPathNodeList();
-				Iterator<OXPathContextNode> iteratorResult = newContext.iterator();
-				while (iteratorResult.hasNext()) {
-					OXPathContextNode newNode = iteratorResult.next();
-					PAATStateEvalIterative newState = new PAATState.Builder(data).setContextNode(newNode).setDocumentProtect((iteratorResult.hasNext())?true:data.isDocumentProtected()).buildNode();
-					finalResult.addAll(this.eval_visitor.eval_(newNode.getNode(), node.jjtGetChild((marker.isAttribute())?1:0), newState).nodeList());
+				frame = this.frames.enter();
+				try {
+					Iterator<OXPathContextNode> iteratorResult = newContext.iterator();
+					while (iteratorResult.hasNext()) {
+						OXPathContextNode newNode = iteratorResult.next();
+						PAATStateEvalIterative newState = this.frames.node(frame, data, newNode, (iteratorResult.hasNext())?true:data.isDocumentProtected());
+						finalResult.addAll(this.eval_visitor.eval_(newNode.getNode(), node.jjtGetChild((marker.isAttribute())?1:0), newState).nodeList());
+						//the record of this context is done with, while the others aren't evaluated yet
+						if (newNode.getParent()==RESULTS) this.extractor.completeRecord(newNode.getLast());
+					}
+				} finally {
+					this.frames.exit(frame);
 				}
-				return new OXPathType(finalResult);
+				return OXPathType.valueOf(finalResult);
 			}
 		}
-		else return new OXPathType(newContext);
+		else result = OXPathType.valueOf(newContext);
+		for (int record : records) this.extractor.completeRecord(record);
+		return result;
 	}
 
 	/**
@@ -471,7 +888,7 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 	 */
 	@Override
 	public OXPathType visitNode(ASTXPathNumber node, PAATStateEvalSet data) throws OXPathException {
-		return new OXPathType(node.getValue());
+		return OXPathType.valueOf(node.getValue());
 	}
 
 	/**
@@ -519,12 +936,17 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 		if (node.hasSimpleList()) {
 			simpleResult = new OXPathNodeList();
 			int astSimple = numChild++;
-			Iterator<OXPathContextNode> iterator = context.iterator();
-			while (iterator.hasNext()) {
-				OXPathContextNode c = iterator.next();
-				boolean newProtect = (iterator.hasNext())?true:data.isDocumentProtected();
-				PAATStateEvalIterative newState = new PAATState.Builder(data).setContextNode(c).setDocumentProtect(newProtect).buildNode();
-				simpleResult.addAll(this.eval_visitor.eval_(c.getNode(), node.jjtGetChild(astSimple), newState).nodeList());
+			int frame = this.frames.enter();
+			try {
+				Iterator<OXPathContextNode> iterator = context.iterator();
+				while (iterator.hasNext()) {
+					OXPathContextNode c = iterator.next();
+					boolean newProtect = (iterator.hasNext())?true:data.isDocumentProtected();
+					PAATStateEvalIterative newState = this.frames.node(frame, data, c, newProtect);
+					simpleResult.addAll(this.eval_visitor.eval_(c.getNode(), node.jjtGetChild(astSimple), newState).nodeList());
+				}
+			} finally {
+				this.frames.exit(frame);
 			}
 		}
 		else simpleResult = context;
@@ -533,15 +955,15 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 		if (node.hasComplexList()) {
 			complexResult = this.accept(node.jjtGetChild(numChild++), new PAATState.Builder(data).setContextSet(simpleResult).buildSet());
 		}
-		else complexResult = new OXPathType(simpleResult);
+		else complexResult = OXPathType.valueOf(simpleResult);
 		return complexResult;
 	}
 
 	/**
-	 * In order to trigger the proxy override via reflection (which doesn't happen with internal calls),
+	 * In order to go through the memoizer (which doesn't happen with internal calls),
 	 * this method is used whenever eval_ needs to be called (for either PAAT visitor).   
 	 * @param context the context node (this is redundant info - already encoded in state - but allows 
-	 * the proxy to cache the values in such a way that they can be cleared by page.
+	 * the memoizer to cache the values in such a way that they can be cleared by page.
 	 * @param astNode the node in the AST where we are at for evaluation
 	 * @param state the EvalState at this point
 	 * @return the output of eval_ at this point
@@ -565,8 +987,12 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 			//first, handle URL actions
 			if (action.getActionType().equals(ActionType.URL)) {
 				this.webclient.navigate((String)action.getValue(),true);
-				DOMNode newRoot = this.webclient.getContentDOMWindow().getDocument().getDocumentElement();
-				return new OXPathContextNode(newRoot,contextNode.getParent(),contextNode.getLast());
+				DOMDocument newDocument = this.webclient.getContentDOMWindow().getDocument();
+				this.stringValues.invalidate(newDocument);
+				this.fields.invalidate(newDocument);
+				this.styles.invalidate(newDocument);
+				OXPathPageContext pageContext = this.loadedPage(this.webclient, newDocument, this.webclient.getLocationURL());
+				return new OXPathContextNode(newDocument.getDocumentElement(),contextNode.getParent(),contextNode.getLast(),pageContext);
 			}
 			DOMElement context = (DOMElement)contextNode.getNode();
 			int parentExtract = contextNode.getParent();
@@ -588,11 +1014,11 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 				newPage = page;
 			}
 			this.openActions.add(++this.currentAction);
+			DOMDocument newDocument = newPage.getOwnerDocument();
 			if (action.hasWait()) {
-				long current = System.nanoTime();
-				while (System.nanoTime() - current < action.getWait()*1E9) {}//waits are in seconds
+				//waits are in seconds, and bound the wait for the page to settle
+				DOMQuiescence.waitForQuiescence(newDocument, action.getWait()*1000, this.quietPeriod);
 			}
-			DOMDocument newDocument = newPage.getOwnerDocument();
 			DOMWindow newWindow = newDocument.getEnclosingWindow();
 			WebBrowser newBrowser = newWindow.getBrowser();
 			if (newWindow.isJustOpened()) {
@@ -610,7 +1036,12 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 					}
 				}
 			}
-			return new OXPathContextNode(newPage,parentExtract,lastExtract);
+			//the action may have changed the page in place, so any old snapshot (and string-value and field) is stale
+			this.stringValues.invalidate(newDocument);
+			this.fields.invalidate(newDocument);
+			this.styles.invalidate(newDocument);
+			OXPathPageContext pageContext = this.loadedPage(newBrowser, newDocument, null);
+			return new OXPathContextNode(newPage,parentExtract,lastExtract,pageContext);
 		}
 		catch (IOException e) {
 			throw new OXPathException("Error executing action: " + e );
@@ -625,6 +1056,9 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 	private void clearObjectMem(DOMDocument page, int actionID) {
 		this.eval_visitor.clear(page);
 		this.extractor.clear(page);
+		this.stringValues.invalidate(page);
+		this.fields.invalidate(page);
+		this.styles.invalidate(page);
 		this.openActions.remove(actionID);
 	}
 
@@ -642,9 +1076,16 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 					for (int i = 0; i < backs; i++) {
 						currentBrowser.back(true);
 					}
+					//the page we went back to is rendered again
+					this.stringValues.invalidate(currentBrowser.getContentDOMWindow().getDocument());
+					this.fields.invalidate(currentBrowser.getContentDOMWindow().getDocument());
+					this.styles.invalidate(currentBrowser.getContentDOMWindow().getDocument());
+					this.loadedPage(currentBrowser, currentBrowser.getContentDOMWindow().getDocument(), null);
 			}
 			else {
 				this.backController.remove(currentBrowser);
+				OXPathPageContext closed = this.pageContexts.remove(currentBrowser);
+				if (closed!=null) closed.invalidate();
 				page.getEnclosingWindow().close();
 			}
 		} catch (NullPointerException e) {
@@ -676,10 +1117,74 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 		this.extractor.endExtraction();
 	}
 
+	/**
+	 * The context nodes of an action path, relocated from their references on the page shown by a browser.  All references are
+	 * relocated together (see {@code DOMLookup.getRenderedNodes}) on first use, and the nodes are reused for as long as the page is 
+	 * unchanged, i.e., until an action (or going back to the page) replaces the context of the page; afterwards, each reference is
+	 * relocated on its own, as the page changes with every action anyway.
+	 */
+	private final class RenderedNodes {
+
+		/**
+		 * Creates the relocated context nodes of {@code references}
+		 * @param iReferences the references to the context nodes
+		 * @param iBrowser the browser showing the page of the context nodes
+		 */
+		RenderedNodes(List<NodeReference> iReferences, WebBrowser iBrowser) {
+			this.references = iReferences;
+			this.browser = iBrowser;
+		}
+
+		/**
+		 * Returns the context node of reference {@code i} on the page currently shown by the browser
+		 * @param i the index of the reference
+		 * @return the context node of reference {@code i}, in the context of the page
+		 */
+		OXPathContextNode get(int i) {
+			OXPathPageContext pageContext = PAATEvalVisitor.this.pageContexts.get(this.browser);
+			if (this.nodes==null && pageContext!=null) {
+				DOMDocument page = this.browser.getContentDOMWindow().getDocument();
+				this.nodes = PAATEvalVisitor.this.domlookup.getRenderedNodes(this.references, page);
+				for (int j=0; j<this.nodes.size(); j++) {
+					this.nodes.set(j, PAATEvalVisitor.this.inPageContext(this.nodes.get(j), page, pageContext));
+				}
+				this.pageContext = pageContext;
+			}
+			if (this.nodes!=null && pageContext==this.pageContext) return this.nodes.get(i);
+			return PAATEvalVisitor.this.getRenderedNode(this.references.get(i), this.browser);
+		}
+
+		/**
+		 * the references to the context nodes
+		 */
+		private final List<NodeReference> references;
+		/**
+		 * the browser showing the page of the context nodes
+		 */
+		private final WebBrowser browser;
+		/**
+		 * the context nodes relocated together, or {@code null} before first use
+		 */
+		private List<OXPathContextNode> nodes;
+		/**
+		 * the context of the page {@code nodes} were relocated on
+		 */
+		private OXPathPageContext pageContext;
+	}
+
 	/**
 	 * {@code PAATEval_Visitor} for calls of eval_ as dictated by PAAT
 	 */
-	private final PAATEval_ eval_visitor;
+	private final PAATEval_Memoizer eval_visitor;
+
+	/**
+	 * compiled plan (with the PrePAAT annotations) of the expression under evaluation
+	 */
+	private OXPathQueryPlan plan;
+	/**
+	 * reusable state frames of the per-node loops (of this visitor and its eval_ visitor)
+	 */
+	private final PAATStateFrames frames = new PAATStateFrames();
 
 	/**
 	 * initial WebClient object for TreeWalker instance, before a page is fetched
@@ -694,6 +1199,14 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 	 * handles the extraction
 	 */
 	Extractor extractor;
+	/**
+	 * identifier of the results node, the parent of records
+	 */
+	static final int RESULTS = 0;
+	/**
+	 * records the extractions of a worker visitor, for the visitor that created it to replay; {@code null} for other visitors
+	 */
+	private OXPathExtractionRecorder recorder;
 
 	/**
 	 * slf4j logger
@@ -708,7 +1221,7 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 	/**
 	 * (Currently) global object facilitating DOM node refreshes (after back instantiations)
 	 */
-	private DOMLookup domlookup = new DOMLookupDocumentPosition();
+	private DOMLookup domlookup = new DOMLookupStructural();
 	
 	/**
 	 * Holds currently "open" actions, so we know if the freeMem() call at the end of an action sequence is necessary
@@ -719,4 +1232,41 @@ public class PAATEvalVisitor extends OXPathVisitorGenericAdaptor<PAATStateEvalSe
 	 * Counter for actions (serves as a unique id for open actions in the {@code openActions} set
 	 */
 	private int currentAction = 0;
+
+	/**
+	 * worker browsers for concurrent evaluation of action contexts; {@code null} for sequential evaluation
+	 */
+	private PAATBrowserPool browserPool;
+
+	/**
+	 * worker visitors, one for each browser of the {@code browserPool} (created on first use)
+	 */
+	private final Map<WebBrowser,PAATEvalVisitor> workerVisitors = new HashMap<WebBrowser,PAATEvalVisitor>();
+
+	/**
+	 * quiet period (ms) without DOM mutations after which an action wait ends early
+	 */
+	private long quietPeriod = DOMQuiescence.DEFAULT_QUIET_PERIOD;
+
+	/**
+	 * {@code true} if action-free navigation is evaluated over page snapshots, {@code false} otherwise
+	 */
+	private boolean snapshotEvaluation = false;
+
+	/**
+	 * the context of the page currently shown by each browser of this evaluation
+	 */
+	private final Map<WebBrowser,OXPathPageContext> pageContexts = new HashMap<WebBrowser,OXPathPageContext>();
+	/**
+	 * the string-values cached by this evaluation
+	 */
+	private final OXPathStringValues stringValues = new OXPathStringValues();
+	/**
+	 * the form fields and their visibility cached by this evaluation
+	 */
+	private final OXPathFields fields = new OXPathFields();
+	/**
+	 * the computed styles cached by this evaluation
+	 */
+	private final OXPathStyles styles = new OXPathStyles();
 }
@@ -37,8 +37,8 @@ import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathCache;
 import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
 
 /**
- * Interface used to wrap the eval_ visitor so that the {@code OXPathMemoizer} can be used with it.
- * The resulting proxy objects handle memoization and we can just solve and abstract the memoization
+ * Interface used to wrap the eval_ visitor so that the {@code PAATEval_Memoizer} can be used with it.
+ * The resulting wrapper objects handle memoization and we can just solve and abstract the memoization
  * @author AndrewJSel
  *
  */
@@ -0,0 +1,360 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing core OXPath functionality
+ */
+package uk.ac.ox.comlab.diadem.oxpath.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import diadem.common.web.dom.DOMDocument;
+import diadem.common.web.dom.DOMNode;
+import uk.ac.ox.comlab.diadem.oxpath.core.state.PAATStateEvalIterative;
+import uk.ac.ox.comlab.diadem.oxpath.dom.snapshot.DOMSnapshot;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNode;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNodeConstructed;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathPageContext;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathType;
+import uk.ac.ox.comlab.diadem.oxpath.parser.ast.Node;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathDocumentCache;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathMappedStore;
+
+/**
+ * Memoizing wrapper for the eval_ visitor.  Replaces the reflective {@code OXPathMemoizer} proxy on the hot path: calls are
+ * dispatched directly and results are cached under typed keys of context node, AST node and state, per page.
+ * <p>
+ * Optionally, a second level of memoization persists results across evaluations (and runs) in an {@code OXPathMappedStore}.  Persisted
+ * results are keyed on the content hash of the page's current {@code DOMSnapshot}, the canonical form of the (action-free) 
+ * subexpression in the query plan, the snapshot position of the context node and the state; node-sets are stored as snapshot positions, 
+ * so they resolve on any page with the same rendered content.  Pages without a current snapshot, and subexpressions without a 
+ * canonical form, are only memoized in memory.
+ * @author AndrewJSel
+ *
+ */
+public class PAATEval_Memoizer implements PAATEval_ {
+
+	/**
+	 * Wraps {@code iEval_} so that its results are memoized
+	 * @param iEval_ the eval_ visitor to memoize
+	 */
+	public PAATEval_Memoizer(PAATEval_ iEval_) {
+		this.eval_ = iEval_;
+	}
+
+	/**
+	 * Sets the persistent store of results; {@code null} (the default) memoizes in memory only.  The store is owned by the caller.
+	 * @param iStore the persistent store of results
+	 * @param iVisitor the visitor whose query plan supplies the canonical forms of subexpressions
+	 * @return same object with update applied
+	 */
+	public PAATEval_Memoizer setResultStore(OXPathMappedStore iStore, PAATEvalVisitor iVisitor) {
+		this.store = iStore;
+		this.visitor = iVisitor;
+		return this;
+	}
+
+	/**
+	 * Returns the persistent store of results
+	 * @return the persistent store of results, or {@code null}
+	 */
+	public OXPathMappedStore getResultStore() {
+		return this.store;
+	}
+
+	/**
+	 * Returns the memoized result of {@code eval_(context, astNode, state)}, evaluating it on first use
+	 * @param context the context node
+	 * @param astNode the node in the AST to evaluate over
+	 * @param state the state of the evaluation
+	 * @return evaluation result
+	 */
+	@Override
+	public OXPathType eval_(DOMNode context, Node astNode, PAATStateEvalIterative state) throws OXPathException {
+		DOMDocument page = OXPathDocumentCache.getPage(context);
+		if (page == null) return this.eval_.eval_(context, astNode, state);
+		Eval_Key key = new Eval_Key(context, astNode, state);
+		OXPathType result = this.cache.get(page, key);
+		if (result == null) {
+			OXPathPageContext pageContext = (this.store == null) ? null : getPageContext(page, state);
+			DOMSnapshot snapshot = (pageContext == null) ? null : pageContext.getSnapshot();
+			byte[] storeKey = (snapshot == null) ? null : this.getStoreKey(snapshot, context, astNode, state);
+			if (storeKey != null) result = decode(this.store.get(storeKey), pageContext, snapshot);
+			if (result == null) {
+				result = this.eval_.eval_(context, astNode, state);
+				if (storeKey != null && result != null) {
+					byte[] encoded = encode(result, snapshot);
+					if (encoded != null) this.store.put(storeKey, encoded);
+				}
+			}
+			if (result != null) result = this.cache.putIfAbsent(page, key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the context of {@code page} carried by the context node of {@code state}
+	 * @param page the page of the context node of the call
+	 * @param state the state of the evaluation
+	 * @return the context of {@code page}, or {@code null} if the context node of {@code state} isn't on {@code page} (or carries none)
+	 */
+	private static OXPathPageContext getPageContext(DOMDocument page, PAATStateEvalIterative state) {
+		OXPathPageContext pageContext = (state == null || state.getContextNode() == null) ? null : state.getContextNode().getPageContext();
+		return (pageContext != null && pageContext.getPage().equals(page)) ? pageContext : null;
+	}
+
+	/**
+	 * Returns the key of {@code eval_(context, astNode, state)} in the persistent store
+	 * @param snapshot the current snapshot of the page of {@code context}
+	 * @param context the context node
+	 * @param astNode the node in the AST
+	 * @param state the state of the evaluation
+	 * @return the key of the call in the persistent store, or {@code null} if its result isn't persisted
+	 */
+	private byte[] getStoreKey(DOMSnapshot snapshot, DOMNode context, Node astNode, PAATStateEvalIterative state) {
+		if (this.visitor == null || this.visitor.getQueryPlan() == null) return null;
+		String canonical = this.visitor.getQueryPlan().getCanonicalForm(astNode);
+		if (canonical == null) return null;
+		int position = snapshot.indexOf(context);
+		if (position < 0) return null;
+		StringBuilder material = new StringBuilder(snapshot.getContentHash()).append('\n').append(canonical).append('\n').append(position);
+		if (state != null) {
+			material.append('\n').append(state.getPosition()).append('\n').append(state.getLast());
+			//the context node of the state is part of the in-memory key too, so it must be identified across runs by its snapshot position
+			OXPathContextNode contextNode = state.getContextNode();
+			if (contextNode != null) {
+				if (contextNode instanceof OXPathContextNodeConstructed || contextNode.getNode() == null) return null;
+				int contextPosition = snapshot.indexOf(contextNode.getNode());
+				if (contextPosition < 0) return null;
+				material.append('\n').append(contextPosition).append('\n').append(contextNode.getParent()).append('\n').append(contextNode.getLast());
+			}
+		}
+		return OXPathMappedStore.digest(material.toString());
+	}
+
+	/**
+	 * Encodes {@code result} for the persistent store: a type byte, followed by the snapshot position, parent and last of each node of a 
+	 * node-set, the (length-prefixed) UTF-8 bytes of a string, a number or a boolean
+	 * @param result the result
+	 * @param snapshot the current snapshot of the page of the context node
+	 * @return the encoded result, or {@code null} if a node isn't in {@code snapshot}
+	 * @throws OXPathException in case of malformed result
+	 */
+	private static byte[] encode(OXPathType result, DOMSnapshot snapshot) throws OXPathException {
+		switch (result.isType()) {
+		case NODESET:
+			OXPathNodeList nodes = result.nodeList();
+			ByteBuffer buffer = ByteBuffer.allocate(5 + 12 * nodes.size()).put(NODESET).putInt(nodes.size());
+			for (OXPathContextNode node : nodes) {
+				int position = snapshot.indexOf(node.getNode());
+				if (position < 0) return null;
+				buffer.putInt(position).putInt(node.getParent()).putInt(node.getLast());
+			}
+			return buffer.array();
+		case STRING:
+			byte[] bytes = result.string().getBytes(UTF8);
+			return ByteBuffer.allocate(5 + bytes.length).put(STRING).putInt(bytes.length).put(bytes).array();
+		case NUMBER:
+			return ByteBuffer.allocate(9).put(NUMBER).putDouble(result.number()).array();
+		case BOOLEAN:
+			return new byte[] {BOOLEAN, (byte) (result.booleanValue() ? 1 : 0)};
+		default:
+			return new byte[] {NULL};
+		}
+	}
+
+	/**
+	 * Decodes a result of the persistent store
+	 * @param value the encoded result, or {@code null}
+	 * @param pageContext the context of the page of the context node, handed on to the decoded nodes
+	 * @param snapshot the current snapshot of the page of the context node
+	 * @return the decoded result, or {@code null} if {@code value} is {@code null} or doesn't fit {@code snapshot}
+	 */
+	private static OXPathType decode(ByteBuffer value, OXPathPageContext pageContext, DOMSnapshot snapshot) {
+		if (value == null || !value.hasRemaining()) return null;
+		switch (value.get()) {
+		case NODESET:
+			int size = value.getInt();
+			OXPathNodeList nodes = new OXPathNodeList(size, false);
+			for (int i = 0; i < size; i++) {
+				int position = value.getInt();
+				if (position < 0 || position >= snapshot.size()) return null;
+				nodes.addInDocumentOrder(new OXPathContextNode(snapshot.getNode(position), value.getInt(), value.getInt(), pageContext));
+			}
+			return OXPathType.valueOf(nodes);
+		case STRING:
+			byte[] bytes = new byte[value.getInt()];
+			value.get(bytes);
+			return OXPathType.valueOf(new String(bytes, UTF8));
+		case NUMBER:
+			return OXPathType.valueOf(value.getDouble());
+		case BOOLEAN:
+			return OXPathType.valueOf(value.get() != 0);
+		default:
+			return OXPathType.EMPTYRESULT;
+		}
+	}
+
+	/**
+	 * Returns the store of memoized results, to set its caps or read its counters.  Evicting results only costs re-evaluation.
+	 * @return the store of memoized results
+	 */
+	public OXPathDocumentCache<?,OXPathType> getCache() {
+		return this.cache;
+	}
+
+	/**
+	 * Clears all memoized data for the input {@code DOMDocument}
+	 * @param page {@code DOMDocument} we are removing all memoized results for, presumably because the page is being closed in PAAT
+	 * @return {@code true} if results were memoized for {@code page}, {@code false} otherwise
+	 */
+	@Override
+	public Boolean clear(DOMDocument page) {
+		return this.cache.clear(page);
+	}
+
+	/**
+	 * Memoization key of an eval_ call.  The AST node is compared by identity; of the state, only the fields relevant to memoization 
+	 * (position, last and context node, as in its own {@code equals}) are copied, since evaluator states are reusable frames.
+	 * @author AndrewJSel
+	 *
+	 */
+	private static final class Eval_Key {
+
+		/**
+		 * Creates the key of {@code eval_(iContext, iAstNode, iState)}
+		 * @param iContext the context node
+		 * @param iAstNode the node in the AST
+		 * @param iState the state of the evaluation
+		 */
+		Eval_Key(DOMNode iContext, Node iAstNode, PAATStateEvalIterative iState) {
+			this.context = iContext;
+			this.astNode = iAstNode;
+			this.hasState = iState != null;
+			this.position = (iState == null) ? 0 : iState.getPosition();
+			this.last = (iState == null) ? 0 : iState.getLast();
+			this.contextNode = (iState == null) ? null : iState.getContextNode();
+			int h = iContext.hashCode();
+			h = 31 * h + System.identityHashCode(iAstNode);
+			h = 31 * h + ((iState == null) ? 0 : iState.hashCode());
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof Eval_Key)) return false;
+			Eval_Key other = (Eval_Key) obj;
+			return this.hash == other.hash && this.astNode == other.astNode && this.context.equals(other.context)
+					&& this.hasState == other.hasState && this.position == other.position && this.last == other.last
+					&& ((this.contextNode == null) ? other.contextNode == null : this.contextNode.equals(other.contextNode));
+		}
+
+		/**
+		 * the context node
+		 */
+		private final DOMNode context;
+		/**
+		 * the node in the AST
+		 */
+		private final Node astNode;
+		/**
+		 * {@code true} if the call had a state, {@code false} otherwise
+		 */
+		private final boolean hasState;
+		/**
+		 * position of the state
+		 */
+		private final int position;
+		/**
+		 * last position of the state
+		 */
+		private final int last;
+		/**
+		 * context node of the state
+		 */
+		private final OXPathContextNode contextNode;
+		/**
+		 * precomputed hash code
+		 */
+		private final int hash;
+	}
+
+	/**
+	 * Estimates the memory held by a memoized result: a fixed overhead plus the nodes of a node-set or the characters of a string
+	 */
+	private static final OXPathDocumentCache.Weigher<Object,OXPathType> WEIGHER = new OXPathDocumentCache.Weigher<Object,OXPathType>() {
+		@Override
+		public long weigh(Object key, OXPathType value) {
+			Object v = value.getValue();
+			if (v instanceof OXPathNodeList) return ENTRY_BYTES + NODE_BYTES * ((OXPathNodeList) v).size();
+			if (v instanceof String) return ENTRY_BYTES + 2 * ((String) v).length();
+			return ENTRY_BYTES;
+		}
+	};
+	/**
+	 * estimated fixed size (in bytes) of a memoized result, with its key
+	 */
+	private static final long ENTRY_BYTES = 128;
+	/**
+	 * estimated size (in bytes) of each node of a memoized node-set
+	 */
+	private static final long NODE_BYTES = 48;
+	/**
+	 * type tags of persisted results
+	 */
+	private static final byte NULL = 0, NODESET = 1, STRING = 2, NUMBER = 3, BOOLEAN = 4;
+	/**
+	 * encoding of persisted strings
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * the memoized eval_ visitor
+	 */
+	private final PAATEval_ eval_;
+	/**
+	 * memoized results, by page
+	 */
+	private final OXPathDocumentCache<Eval_Key,OXPathType> cache = new OXPathDocumentCache<Eval_Key,OXPathType>().setWeigher(WEIGHER)
+			.setMaximumPages(OXPathDocumentCache.DEFAULT_MAXIMUM_PAGES);
+	/**
+	 * persistent store of results, or {@code null}
+	 */
+	private OXPathMappedStore store;
+	/**
+	 * visitor whose query plan supplies the canonical forms of subexpressions
+	 */
+	private PAATEvalVisitor visitor;
+}
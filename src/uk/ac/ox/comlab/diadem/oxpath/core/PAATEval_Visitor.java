@@ -33,12 +33,15 @@ import java.util.Iterator;
 
 import diadem.common.web.dom.DOMDocument;
 import diadem.common.web.dom.DOMNode;
+import diadem.common.web.dom.DOMNodeSelector;
 import uk.ac.ox.comlab.diadem.oxpath.core.extraction.Extractor;
 import uk.ac.ox.comlab.diadem.oxpath.core.state.PAATState;
 import uk.ac.ox.comlab.diadem.oxpath.core.state.PAATStateEvalIterative;
 import uk.ac.ox.comlab.diadem.oxpath.core.state.PAATStateEvalSet;
+import uk.ac.ox.comlab.diadem.oxpath.core.state.PAATStateFrames;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNode;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathStyles;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathType;
 import uk.ac.ox.comlab.diadem.oxpath.model.language.OXPathExtractionMarker;
 import uk.ac.ox.comlab.diadem.oxpath.parser.ast.ASTBinaryOpExpr;
@@ -64,7 +67,7 @@ import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
 /**
  * 
  * Visitor encoding the eval_ function of the PAAT algorithm.  Called by the 
- * PAATEvalVisitor, but wrapped in a dynamic proxy of a {PAATEval_Wrapper} object.
+ * PAATEvalVisitor, but wrapped in a memoizing {@code PAATEval_Memoizer} object.
  * @author AndrewJSel
  *
  */
@@ -129,21 +132,57 @@ public class PAATEval_Visitor extends OXPathVisitorGenericAdaptor<PAATStateEvalI
 	@Override
 	public OXPathType visitNode(ASTSimpleOXPathStepPath node,
 			PAATStateEvalIterative data) throws OXPathException {
-		//get the results by OXPath step first
-		OXPathType newContext = data.getContextNode().getByOXPath(node.getStep());
+		//get the results by OXPath step first; runs of plain XPath steps are fused into a single browser call
+		OXPathQueryPlan plan = this.paatSet.getQueryPlan();
+		OXPathQueryPlan.FusedSteps fused = plan.getFusedSteps(node);
+		OXPathQueryPlan.PushedPredicates pushed = plan.getPushedPredicates(node);
+		OXPathQueryPlan.SelectorSteps selected = plan.getSelectorSteps(node);
+		OXPathType newContext;
+		//the node annotated with the set-based evaluation of the rest of the path, and the rest of the path itself
+		Node last;
+		Node tail;
+		//plain XPath predicates and selectors are evaluated by the browser too, unless a snapshot answers the step without calling the browser
+		boolean browser = (pushed!=null || selected!=null) && data.getContextNode().getSnapshot()==null;
+		if (browser && selected!=null && data.getContextNode().getNode() instanceof DOMNodeSelector) {
+			newContext = data.getContextNode().getBySelector(selected.getSelector());
+			last = selected.getLast();//we continue after the last selector
+			tail = (selected.getLast().hasList())?selected.getLast().jjtGetChild(0):null;
+		}
+		else if (browser && pushed!=null) {
+			newContext = data.getContextNode().getByXPath(pushed.getPath(), pushed.isForward(), true);
+			last = pushed.getLast();//we continue after the last pushed down predicate
+			tail = (pushed.getLast().hasList())?pushed.getLast().jjtGetChild(1):null;
+		}
+		else {
+			ASTSimpleOXPathStepPath lastStep = node;
+			if (fused!=null) {
+				newContext = data.getContextNode().getByXPath(fused.getPath(), true, true);
+				lastStep = fused.getLast();//we continue after the last step of the run
+			}
+			else newContext = data.getContextNode().getByOXPath(node.getStep());
+			last = lastStep;
+			tail = (lastStep.hasList())?lastStep.jjtGetChild(0):null;
+		}
 		//immediately return if no results or no further path
-		if (newContext.nodeList().isEmpty() || !node.hasList()) return newContext;
+		if (newContext.nodeList().isEmpty() || tail==null) return newContext;
+		//computed styles read by the rest of the path are fetched for the whole context set at once
+		String[] styles = plan.getStyleProperties(tail);
+		if (styles!=null) OXPathStyles.prefetch(newContext.nodeList(), styles);
 		OXPathNodeList result = new OXPathNodeList();
 		//we apply PAAT eval_ as normal
-		if (node.getSetBasedEval().equals(PositionFuncEnum.NEITHER)) {
-			Iterator<OXPathContextNode> iterator = newContext.nodeList().iterator();
-			while (iterator.hasNext()) {
-				OXPathContextNode c = iterator.next();
-				boolean newProtect = (iterator.hasNext())?true:data.isDocumentProtected();
-				PAATStateEvalIterative newState = new PAATState.Builder(data).setContextNode(c)
-				.setDocumentProtect(newProtect).buildNode();
-				result.addAll(this.paatSet.eval_(c.getNode(), node.jjtGetChild(0), 
-						newState).nodeList());
+		if (plan.getSetBasedEval(last).equals(PositionFuncEnum.NEITHER)) {
+			PAATStateFrames frames = this.paatSet.getStateFrames();
+			int frame = frames.enter();
+			try {
+				Iterator<OXPathContextNode> iterator = newContext.nodeList().iterator();
+				while (iterator.hasNext()) {
+					OXPathContextNode c = iterator.next();
+					boolean newProtect = (iterator.hasNext())?true:data.isDocumentProtected();
+					PAATStateEvalIterative newState = frames.node(frame, data, c, newProtect);
+					result.addAll(this.paatSet.eval_(c.getNode(), tail, newState).nodeList());
+				}
+			} finally {
+				frames.exit(frame);
 			}
 		}
 		//otherwise, we take a set based approach
@@ -151,9 +190,9 @@ public class PAATEval_Visitor extends OXPathVisitorGenericAdaptor<PAATStateEvalI
 //			//JavaScript returns unsorted lists - We move the sorting here (this is the only time we need to do this because of position() and last())
 //			if (node.getStep().getAxis().getType().equals(AxisType.BACKWARD)) newContext.nodeList().sortReverseOrder();
 			PAATStateEvalSet newState = new PAATState.Builder(data).setContextSet(newContext.nodeList()).buildSet();
-			result.addAll(this.paatSet.accept(node.jjtGetChild(0), newState).nodeList());
+			result.addAll(this.paatSet.accept(tail, newState).nodeList());
 		}
-		return new OXPathType(result);
+		return OXPathType.valueOf(result);
 	}
 
 	/**
@@ -225,13 +264,20 @@ public class PAATEval_Visitor extends OXPathVisitorGenericAdaptor<PAATStateEvalI
 			PAATStateEvalIterative data) throws OXPathException {
 		OXPathContextNode context = data.getContextNode();
 		
-		PAATStateEvalSet predState = new PAATState.Builder(data).setPosition(0).setLast(0).setDocumentProtect((node.hasList())?true:data.isDocumentProtected())
-											.setContextSet(new OXPathNodeList(new OXPathContextNode(context.getNode(),context.getLast(),context.getLast())))
-											.setDocumentProtect((node.hasList())?true:data.isDocumentProtected()).buildSet();
-		OXPathType predResult = this.paatSet.accept(node.jjtGetChild(0), predState);
+		PAATStateFrames frames = this.paatSet.getStateFrames();
+		int frame = frames.enter();
+		OXPathType predResult;
+		try {
+			OXPathContextNode predContext = (context.getParent()==context.getLast())?context
+					:new OXPathContextNode(context,context.getLast(),context.getLast());
+			PAATStateEvalSet predState = frames.predicate(frame, data, predContext, 0, 0, (node.hasList())?true:data.isDocumentProtected());
+			predResult = this.paatSet.accept(node.jjtGetChild(0), predState);
+		} finally {
+			frames.exit(frame);
+		}
 		if(!predResult.booleanValue() && !node.isOptional()) return OXPathType.EMPTYRESULT;
 		if (node.hasList()) return this.paatSet.eval_(context.getNode(), node.jjtGetChild(1), data);
-		else return new OXPathType(context);
+		else return OXPathType.valueOf(context);
 	}
 
 	/**
@@ -248,26 +294,41 @@ public class PAATEval_Visitor extends OXPathVisitorGenericAdaptor<PAATStateEvalI
 		OXPathExtractionMarker marker = node.getExtractionMarker();
 		if (data.isActionFreeNavigation()) {//only process the extraction markers if this isn't action free prefix navigation
 			if (node.hasList()) return this.paatSet.eval_(context.getNode(), node.jjtGetChild((marker.isAttribute())?1:0), data);
-			else return new OXPathType(context);
+			else return OXPathType.valueOf(context);
 		}
 		int numChild = 0;
 		int newLastSibling;
 		if (marker.isAttribute()) {
-			PAATStateEvalSet newState = new PAATState.Builder(data).setContextSet(new OXPathNodeList(context))
-					.setDocumentProtect((node.hasList())?true:data.isDocumentProtected()).buildSet();
-			newLastSibling = this.extractor.extractNode(context.getNode(), marker.getLabel(),context.getParent(),
-					this.paatSet.accept(node.jjtGetChild(numChild++), newState).toPrettyHtml());
+			PAATStateFrames frames = this.paatSet.getStateFrames();
+			int frame = frames.enter();
+			try {
+				PAATStateEvalSet newState = frames.singleton(frame, data, context, (node.hasList())?true:data.isDocumentProtected());
+				newLastSibling = this.extractor.extractNode(context.getNode(), marker.getLabel(),context.getParent(),
+						this.paatSet.accept(node.jjtGetChild(numChild++), newState).toPrettyHtml());
+			} finally {
+				frames.exit(frame);
+			}
 		}
 		else {
 			newLastSibling = this.extractor.extractNode(context.getNode(), marker.getLabel(),context.getParent());
 		}
 		//new last has to be accounted for
-		OXPathContextNode newContext = new OXPathContextNode(context.getNode(),context.getParent(),newLastSibling);
+		OXPathContextNode newContext = new OXPathContextNode(context,context.getParent(),newLastSibling);
+		OXPathType result;
 		if (node.hasList()) {
-			PAATStateEvalIterative newState = new PAATState.Builder(data).setContextNode(newContext).buildNode();
-			return this.paatSet.eval_(newContext.getNode(), node.jjtGetChild(numChild++), newState);
+			PAATStateFrames frames = this.paatSet.getStateFrames();
+			int frame = frames.enter();
+			try {
+				PAATStateEvalIterative newState = frames.node(frame, data, newContext, data.isDocumentProtected());
+				result = this.paatSet.eval_(newContext.getNode(), node.jjtGetChild(numChild++), newState);
+			} finally {
+				frames.exit(frame);
+			}
 		}
-		else return new OXPathType(newContext);
+		else result = OXPathType.valueOf(newContext);
+		//a record receives its descendants from the rest of the expression, now evaluated
+		if (context.getParent()==PAATEvalVisitor.RESULTS) this.extractor.completeRecord(newLastSibling);
+		return result;
 	}
 
 	/**
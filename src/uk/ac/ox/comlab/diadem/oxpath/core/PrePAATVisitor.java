@@ -71,6 +71,9 @@ import static uk.ac.ox.comlab.diadem.oxpath.core.PositionFuncEnum.NEITHER;
  * that necessarily modify their evaluation).  This data if communicated by input values to the visits.  In this way, the 
  * two tasks are complementary and can be viewed as separate processes utilizing separate channels of visit inputs and outputs.
  * <p>
+ * The annotations are recorded in an {@code OXPathQueryPlan} (via its {@code Builder}) rather than on the AST nodes themselves, so 
+ * that the AST is left untouched and the resulting plan can be shared between evaluations.
+ * <p>
  * 
  * Visitor meant to prepare an AST for PAAT by annotating the appropriate steps and predicates in order 
  * to facilitate set-based evaluation for handling <tt>position()</tt> and <tt>last()</tt> functions.
@@ -104,6 +107,14 @@ import static uk.ac.ox.comlab.diadem.oxpath.core.PositionFuncEnum.NEITHER;
  */
 public class PrePAATVisitor extends OXPathVisitorGenericAdaptor<Node, PositionFuncEnum> {
 
+	/**
+	 * Creates a new visitor recording all annotations in {@code iPlan}, rather than in the AST itself
+	 * @param iPlan builder for the query plan collecting the annotations
+	 */
+	public PrePAATVisitor(OXPathQueryPlan.Builder iPlan) {
+		this.plan = iPlan;
+	}
+
 	/**
 	 * Applies PrePAAT to this node in the AST
 	 * @param node the node on which to apply PrePAAT
@@ -162,7 +173,7 @@ public class PrePAATVisitor extends OXPathVisitorGenericAdaptor<Node, PositionFu
 		// already below functions in the binding of AST nodes
 		int childCount = 0;
 		if (node.hasList()) {
-			node.setSetBasedEval(this.accept(node.jjtGetChild(childCount++), data));
+			this.plan.setSetBasedEval(node, this.accept(node.jjtGetChild(childCount++), data));
 		}
 		return NEITHER;
 	}
@@ -178,7 +189,7 @@ public class PrePAATVisitor extends OXPathVisitorGenericAdaptor<Node, PositionFu
 	public PositionFuncEnum visitNode(ASTOXPathKleeneStarPath node, Node data)
 			throws OXPathException {
 		//handle nested Kleene-star
-		node.setInsideKleeneStar(data);
+		this.plan.setInsideKleeneStar(node, data);
 		// already below functions in the binding of AST nodes
 		this.accept(node.jjtGetChild(0), node);//this is expression is inside this Kleene-star
 		if (node.hasFollowingPath()) {
@@ -199,7 +210,7 @@ public class PrePAATVisitor extends OXPathVisitorGenericAdaptor<Node, PositionFu
 			throws OXPathException {
 		//handle case where inside Kleene-star
 		boolean evalInsideKleene = !node.hasTail() || !OXPathParser.hasActionOnMainPath(node.jjtGetChild(0)); //only the last action on the main path needs to consider this
-		node.setInsideKleeneStar((evalInsideKleene)?data:null);
+		this.plan.setInsideKleeneStar(node, (evalInsideKleene)?data:null);
 		// already below functions in the binding of AST nodes
 		if (node.hasTail()) {
 			this.accept(node.jjtGetChild(0), data);
@@ -219,7 +230,7 @@ public class PrePAATVisitor extends OXPathVisitorGenericAdaptor<Node, PositionFu
 			throws OXPathException {
 		if (node.hasList()) {
 			PositionFuncEnum result = this.accept(node.jjtGetChild(0), data);
-			node.setSetBasedEval(result);
+			this.plan.setSetBasedEval(node, result);
 			return result;
 		}
 		else return NEITHER;
@@ -252,7 +263,7 @@ public class PrePAATVisitor extends OXPathVisitorGenericAdaptor<Node, PositionFu
 		PositionFuncEnum result = this.accept(node.jjtGetChild(0), data);
 		if (node.hasList()) {
 			PositionFuncEnum tailResult = this.accept(node.jjtGetChild(1), data);
-			node.setSetBasedEval(tailResult);//since this was passed a set-based implementation, we only set this again based on the tail
+			this.plan.setSetBasedEval(node, tailResult);//since this was passed a set-based implementation, we only set this again based on the tail
 			return result.combine(tailResult);
 		}
 		else {//we return without setting this as set-based
@@ -277,7 +288,7 @@ public class PrePAATVisitor extends OXPathVisitorGenericAdaptor<Node, PositionFu
 		}
 		if (node.hasList()) {
 			PositionFuncEnum tailResult = this.accept(node.jjtGetChild(child), data);
-			node.setSetBasedEval(tailResult);//since this was passed a set-based implementation, we only set this again based on the tail
+			this.plan.setSetBasedEval(node, tailResult);//since this was passed a set-based implementation, we only set this again based on the tail
 			return result.combine(tailResult);
 		}
 		else {//we return without setting this as set-based
@@ -370,9 +381,14 @@ public class PrePAATVisitor extends OXPathVisitorGenericAdaptor<Node, PositionFu
 		int numChild = 0;
 		PositionFuncEnum result = this.accept(node.jjtGetChild(numChild++),data);
 		if (node.hasSimpleList()) {
-			node.setSetBasedEval(this.accept(node.jjtGetChild(numChild++),data));
+			this.plan.setSetBasedEval(node, this.accept(node.jjtGetChild(numChild++),data));
 		}
 		if (node.hasComplexList()) this.accept(node.jjtGetChild(numChild++),data);	
 		return result;
 	}
+
+	/**
+	 * the query plan under construction, holding the annotations for the AST
+	 */
+	private final OXPathQueryPlan.Builder plan;
 }
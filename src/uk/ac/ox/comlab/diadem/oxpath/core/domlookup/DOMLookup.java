@@ -32,9 +32,12 @@
 package uk.ac.ox.comlab.diadem.oxpath.core.domlookup;
 
 import java.util.ArrayList;
+import java.util.List;
 
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNode;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
 import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
+import diadem.common.web.dom.DOMDocument;
 
 /**
  * These interface specifies classes that compensate for an issue (observed in Mozilla), 
@@ -52,5 +55,13 @@ public interface DOMLookup {
 	 * @throws OXPathException in case of browser error (will carry the throwable cause)
 	 */
 	public ArrayList<NodeReference> getNodeReferences(OXPathNodeList nodes) throws OXPathException;
+
+	/**
+	 * Retrieves the rendered nodes of several references (created by this {@code DOMLookup}) from the same document at once
+	 * @param references the references
+	 * @param document the document to find the fresh nodes
+	 * @return the rendered nodes from {@code document}, in the order of {@code references}
+	 */
+	public ArrayList<OXPathContextNode> getRenderedNodes(List<NodeReference> references, DOMDocument document);
 	
 }
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package supporting core OXPath functionality.  Contains the interface and implementation for 
+ * retrieving current DOM references from references on old DOMs (obtained when the DOM was 
+ * previously rendered before a {@code browser.back()} call.  
+ */
+package uk.ac.ox.comlab.diadem.oxpath.core.domlookup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import uk.ac.ox.comlab.diadem.oxpath.dom.DOMOrdinals;
+import uk.ac.ox.comlab.diadem.oxpath.dom.snapshot.DOMSnapshot;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNode;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
+import diadem.common.web.dom.DOMDocument;
+import diadem.common.web.dom.DOMElement;
+import diadem.common.web.dom.DOMNode;
+import diadem.common.web.dom.xpath.DOMXPathEvaluator;
+import diadem.common.web.dom.xpath.DOMXPathResult;
+
+/**
+ * An implementation for the DOM Lookup based on document order (the same references as {@code DOMLookupDocumentPosition}), 
+ * computed for a whole node list at once.  Instead of one <tt>count(ancestor::*) + count(preceding::*)</tt> query per node, the 
+ * positions of the elements of a page are read with a single script evaluation (see {@code DOMOrdinals}).  When the nodes carry a 
+ * current {@code DOMSnapshot} of their page, positions are read from the snapshot without any browser call.  References are
+ * relocated together with {@code getRenderedNodes}, from a single query fetching the elements of the new document.
+ * <p>
+ * Without a snapshot, the script needs the elements marked with a temporary attribute: one bridge call per element, and a change to
+ * the page that mutation events, observers and scripts of the page can see until the script removes the marks again.  Nodes whose 
+ * position the snapshot provides are never marked.
+ * @author AndrewJSel
+ *
+ */
+public class DOMLookupBatch implements DOMLookup {
+
+	/**
+	 * empty constructor
+	 */
+	public DOMLookupBatch() {
+
+	}
+
+	/**
+	 * Creates a list of references to nodes so that they can be found in a new document
+	 * @param nodes the list of OXPathNodes
+	 * @return references to these nodes retrievable in a new document, in the iteration order of {@code nodes}
+	 * @throws OXPathException in case of browser error (will carry the throwable cause)
+	 */
+	public ArrayList<NodeReference> getNodeReferences(OXPathNodeList nodes) throws OXPathException {
+		OXPathContextNode[] contexts = nodes.toArray(new OXPathContextNode[nodes.size()]);
+		double[] orders = new double[contexts.length];
+		//runs are taken in document order, whatever the iteration order of nodes
+		int first = (nodes.isReverse()) ? contexts.length-1 : 0;
+		int step = (nodes.isReverse()) ? -1 : 1;
+		int i = first;
+		while (i>=0 && i<contexts.length) {
+			if (contexts[i].equals(OXPathContextNode.getNotionalContext())) {
+				orders[i] = NOTIONALCONTEXTORDER;
+				i += step;
+				continue;
+			}
+			//the run of nodes on the same page as contexts[i]
+			DOMDocument page = getPage(contexts[i].getNode());
+			int end = i;
+			while (end+step>=0 && end+step<contexts.length && !contexts[end+step].equals(OXPathContextNode.getNotionalContext()) 
+					&& page.equals(getPage(contexts[end+step].getNode()))) {
+				end += step;
+			}
+			DOMSnapshot snapshot = contexts[i].getSnapshot();
+			if (snapshot!=null) this.orderBySnapshot(snapshot, contexts, orders, i, end, step);
+			else if (Math.abs(end-i)+1<BATCHTHRESHOLD) this.orderByQuery(contexts, orders, i, end, step);
+			else this.orderByScript(page, contexts, orders, i, end, step);
+			i = end + step;
+		}
+		ArrayList<NodeReference> result = new ArrayList<NodeReference>(contexts.length);
+		for (int j=0; j<contexts.length; j++) {
+			result.add(new NodeReferenceBatch(orders[j], contexts[j].getParent(), contexts[j].getLast()));
+		}
+		return result;
+	}
+
+	/**
+	 * Computes the document order of {@code contexts[from..to]} from the snapshot of their page
+	 * @param snapshot the snapshot of the page
+	 * @param contexts the context nodes
+	 * @param orders the document orders to compute
+	 * @param from first index of the run
+	 * @param to last index of the run
+	 * @param step direction of the run
+	 * @throws OXPathException if a node isn't part of the snapshotted page
+	 */
+	private void orderBySnapshot(DOMSnapshot snapshot, OXPathContextNode[] contexts, double[] orders, int from, int to, int step) throws OXPathException {
+		for (int i=from; i!=to+step; i+=step) {
+			int entry = snapshot.indexOf(contexts[i].getNode());
+			if (entry<0) throw new OXPathException("Context node not found in the snapshot of its page");
+			orders[i] = snapshot.getElementOrdinal(entry);
+		}
+	}
+
+	/**
+	 * Computes the document order of {@code contexts[from..to]} with one browser query per node, as {@code DOMLookupDocumentPosition}
+	 * does; cheaper than marking the nodes for small runs
+	 * @param contexts the context nodes
+	 * @param orders the document orders to compute
+	 * @param from first index of the run
+	 * @param to last index of the run
+	 * @param step direction of the run
+	 */
+	private void orderByQuery(OXPathContextNode[] contexts, double[] orders, int from, int to, int step) {
+		for (int i=from; i!=to+step; i+=step) {
+			DOMNode domnode = contexts[i].getNode();
+			DOMXPathEvaluator xpathnode = domnode.getXPathEvaluator();
+			DOMXPathResult resultvalue = xpathnode.evaluate(DOMLookupDocumentPosition.STALEQUERY, domnode, xpathnode.createNSResolver(getPage(domnode)), DOMXPathResult.ANY_TYPE, null);
+			orders[i] = resultvalue.getNumberValue();
+		}
+	}
+
+	/**
+	 * Computes the document order of {@code contexts[from..to]} with a single script evaluation over the elements of {@code page} (see
+	 * {@code DOMOrdinals}), marking the elements of the run the current snapshot of the page doesn't know; nodes other than elements, 
+	 * or runs the script can't locate (e.g., on a page that isn't the top-level document of its browser), are looked up one query per
+	 * node
+	 * @param page the page holding the run
+	 * @param contexts the context nodes
+	 * @param orders the document orders to compute
+	 * @param from first index of the run
+	 * @param to last index of the run
+	 * @param step direction of the run
+	 */
+	private void orderByScript(DOMDocument page, OXPathContextNode[] contexts, double[] orders, int from, int to, int step) {
+		ArrayList<DOMNode> elements = new ArrayList<DOMNode>();
+		ArrayList<Integer> indexes = new ArrayList<Integer>();
+		for (int i=from; i!=to+step; i+=step) {
+			DOMNode domnode = contexts[i].getNode();
+			//nodes the current snapshot of the page knows are never marked
+			DOMSnapshot snapshot = contexts[i].getSnapshot();
+			int entry = (snapshot==null) ? -1 : snapshot.indexOf(domnode);
+			if (entry>=0) orders[i] = snapshot.getElementOrdinal(entry);
+			else if (domnode instanceof DOMElement) {
+				elements.add(domnode);
+				indexes.add(i);
+			}
+			else this.orderByQuery(contexts, orders, i, i, step);
+		}
+		if (elements.isEmpty()) return;
+		int[] ordinals = DOMOrdinals.ordinals(page, elements.toArray(new DOMNode[elements.size()]));
+		for (int k=0; k<indexes.size(); k++) {
+			int i = indexes.get(k);
+			if (ordinals!=null) orders[i] = ordinals[k];
+			else this.orderByQuery(contexts, orders, i, i, step);
+		}
+	}
+
+	/**
+	 * Relocates {@code references} on {@code document} together: the elements of {@code document} are fetched in document order with a 
+	 * single query, and each document order reference picks its element from them, rather than running one query per reference
+	 * @param references the references, from any {@code DOMLookup}
+	 * @param document the document to find the fresh nodes
+	 * @return the rendered nodes from {@code document}, in the order of {@code references}
+	 */
+	public ArrayList<OXPathContextNode> getRenderedNodes(List<NodeReference> references, DOMDocument document) {
+		ArrayList<OXPathContextNode> result = new ArrayList<OXPathContextNode>(references.size());
+		DOMXPathResult elements = null;
+		long length = 0;
+		for (NodeReference reference : references) {
+			if (!(reference instanceof NodeReferenceBatch) || ((NodeReferenceBatch)reference).order==NOTIONALCONTEXTORDER) {
+				result.add(reference.getRenderedNode(document));
+				continue;
+			}
+			if (elements==null) {
+				DOMXPathEvaluator evaluator = document.getXPathEvaluator();
+				elements = evaluator.evaluate(ALLELEMENTSQUERY, document, evaluator.createNSResolver(document), DOMXPathResult.ORDERED_NODE_SNAPSHOT_TYPE, null);
+				length = elements.getSnapshotLength();
+			}
+			NodeReferenceBatch batch = (NodeReferenceBatch) reference;
+			DOMNode fresh = (batch.order>=0 && batch.order<length) ? elements.snapshotItem((int) batch.order) : null;
+			result.add(new OXPathContextNode(fresh,batch.parent,batch.last));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the page holding {@code node}
+	 * @param node the node
+	 * @return the page holding {@code node}
+	 */
+	private static DOMDocument getPage(DOMNode node) {
+		DOMDocument page = node.getOwnerDocument();
+		return (page==null && node instanceof DOMDocument) ? (DOMDocument) node : page;
+	}
+
+	/**
+	 * This DOMLookup versions of references
+	 * @author AndrewJSel
+	 *
+	 */
+	private static class NodeReferenceBatch implements NodeReference {
+
+		/**
+		 * Creates a node reference based on document position
+		 * @param iOrder document order of the node, or {@code NOTIONALCONTEXTORDER} for the notional context
+		 * @param iParent parent of the node
+		 * @param iLast last sibling of the node
+		 */
+		public NodeReferenceBatch(double iOrder, int iParent, int iLast) {
+			this.order = iOrder;
+			this.parent = iParent;
+			this.last = iLast;
+		}
+
+		/**
+		 * Returns the rendered node from the current document based on the reference
+		 * @param document the document to find the fresh node
+		 * @return the rendered node from the current document based on the reference
+		 */
+		public OXPathContextNode getRenderedNode(DOMDocument document) {
+			if (this.order==NOTIONALCONTEXTORDER) return OXPathContextNode.getNotionalContext();
+			DOMXPathEvaluator xpathFresh = document.getXPathEvaluator();
+			DOMXPathResult resultFresh = xpathFresh.evaluate(DOMLookupDocumentPosition.FRESHQUERYPREFIX + this.order + DOMLookupDocumentPosition.FRESHQUERYSUFFIX, document, xpathFresh.createNSResolver(document), DOMXPathResult.ANY_TYPE, null);
+			DOMNode fresh = resultFresh.iterateNext();
+			return new OXPathContextNode(fresh,this.parent,this.last);
+		}
+
+		/**
+		 * document order of node
+		 */
+		private final double order;
+		/**
+		 * parent of node
+		 */
+		private final int parent;
+		/**
+		 * last sibling of node
+		 */
+		private final int last;
+
+	}
+
+	/**
+	 * The notional context reference for this class
+	 */
+	private static final double NOTIONALCONTEXTORDER = -1.0;
+
+	/**
+	 * Runs of fewer nodes than this on a page without snapshot are looked up one query per node
+	 */
+	public static final int BATCHTHRESHOLD = 8;
+	/**
+	 * Query to fetch all elements of a page, in document order, to relocate references
+	 */
+	public static final String ALLELEMENTSQUERY = "descendant::*";
+
+}
@@ -32,6 +32,7 @@
 package uk.ac.ox.comlab.diadem.oxpath.core.domlookup;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNode;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
@@ -69,6 +70,20 @@ public class DOMLookupDocumentPosition implements DOMLookup {
 		return result;
 	}
 
+	/**
+	 * Retrieves the rendered nodes of several references from the same document, one query per reference
+	 * @param references the references
+	 * @param document the document to find the fresh nodes
+	 * @return the rendered nodes from {@code document}, in the order of {@code references}
+	 */
+	public ArrayList<OXPathContextNode> getRenderedNodes(List<NodeReference> references, DOMDocument document) {
+		ArrayList<OXPathContextNode> result = new ArrayList<OXPathContextNode>(references.size());
+		for (NodeReference reference : references) {
+			result.add(reference.getRenderedNode(document));
+		}
+		return result;
+	}
+
 	/**
 	 * This DOMLookup versions of references
 	 * @author AndrewJSel
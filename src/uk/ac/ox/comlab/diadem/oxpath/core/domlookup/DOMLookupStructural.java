@@ -0,0 +1,388 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package supporting core OXPath functionality.  Contains the interface and implementation for 
+ * retrieving current DOM references from references on old DOMs (obtained when the DOM was 
+ * previously rendered before a {@code browser.back()} call.  
+ */
+package uk.ac.ox.comlab.diadem.oxpath.core.domlookup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNode;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
+import diadem.common.web.dom.DOMDocument;
+import diadem.common.web.dom.DOMNamedNodeMap;
+import diadem.common.web.dom.DOMNode;
+
+/**
+ * An implementation for the DOM Lookup based on structural fingerprints.  Each node is referenced by its path from the document:
+ * for each level, the node name, the <tt>id</tt> attribute (if any) and the index among the siblings of the same node type.  Fresh
+ * nodes are found by following the path down from the deepest level carrying an <tt>id</tt> (or from the document), in time 
+ * proportional to the depth of the node, and checking names and <tt>id</tt>s on the way.  Content inserted after the node (as on
+ * infinite-scroll pages) or in other subtrees doesn't affect the path; on any mismatch the reference falls back to the document 
+ * order reference of {@code DOMLookupBatch}.  When several references are retrieved at once, the steps they share are only followed
+ * once, and the children of each parent are listed in one pass over them, as when the references are created; so retrieving the 
+ * rows of a table costs time linear in the number of rows, not quadratic.
+ * @author AndrewJSel
+ *
+ */
+public class DOMLookupStructural implements DOMLookup {
+
+	/**
+	 * empty constructor
+	 */
+	public DOMLookupStructural() {
+
+	}
+
+	/**
+	 * Creates a list of references to nodes so that they can be found in a new document
+	 * @param nodes the list of OXPathNodes
+	 * @return references to these nodes retrievable in a new document, in the iteration order of {@code nodes}
+	 * @throws OXPathException in case of browser error (will carry the throwable cause)
+	 */
+	public ArrayList<NodeReference> getNodeReferences(OXPathNodeList nodes) throws OXPathException {
+		ArrayList<NodeReference> fallbacks = this.positional.getNodeReferences(nodes);
+		ArrayList<NodeReference> result = new ArrayList<NodeReference>(fallbacks.size());
+		//steps and sibling indexes are shared by all nodes of the list, so common ancestors are only visited once
+		Map<DOMNode,Step> steps = new HashMap<DOMNode,Step>();
+		Map<DOMNode,Integer> indexes = new HashMap<DOMNode,Integer>();
+		int i = 0;
+		for (OXPathContextNode node : nodes) {
+			NodeReference fallback = fallbacks.get(i++);
+			if (node.equals(OXPathContextNode.getNotionalContext())) {
+				result.add(fallback);
+				continue;
+			}
+			DOMNode domnode = node.getNode();
+			DOMNode.Type type = domnode.getNodeType();
+			if (type.equals(DOMNode.Type.ATTRIBUTE) || type.equals(DOMNode.Type.DOCUMENT)) {
+				result.add(fallback);
+				continue;
+			}
+			Step step = this.getStep(domnode, steps, indexes);
+			if (step==null) result.add(fallback);
+			else result.add(new NodeReferenceStructural(step, fallback, node.getParent(), node.getLast()));
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieves the rendered nodes of several references from the same document at once; references whose path no longer matches
+	 * fall back together on the document order references of {@code DOMLookupBatch}.  The nodes found for the steps of one reference
+	 * are reused by the others sharing them, and the children of each parent are indexed once.
+	 * @param references the references
+	 * @param document the document to find the fresh nodes
+	 * @return the rendered nodes from {@code document}, in the order of {@code references}
+	 */
+	public ArrayList<OXPathContextNode> getRenderedNodes(List<NodeReference> references, DOMDocument document) {
+		ArrayList<OXPathContextNode> result = new ArrayList<OXPathContextNode>(references.size());
+		ArrayList<NodeReference> fallbacks = new ArrayList<NodeReference>();
+		ArrayList<Integer> indexes = new ArrayList<Integer>();
+		Map<Step,DOMNode> found = new HashMap<Step,DOMNode>();
+		Map<Step,Map<DOMNode.Type,List<DOMNode>>> children = new HashMap<Step,Map<DOMNode.Type,List<DOMNode>>>();
+		for (NodeReference reference : references) {
+			if (reference instanceof NodeReferenceStructural) {
+				NodeReferenceStructural structural = (NodeReferenceStructural) reference;
+				DOMNode current = structural.walk(document, found, children);
+				if (current!=null) {
+					result.add(new OXPathContextNode(current,structural.parent,structural.last));
+					continue;
+				}
+				reference = structural.fallback;
+			}
+			fallbacks.add(reference);
+			indexes.add(result.size());
+			result.add(null);
+		}
+		if (!fallbacks.isEmpty()) {
+			ArrayList<OXPathContextNode> rendered = this.positional.getRenderedNodes(fallbacks, document);
+			for (int i=0; i<indexes.size(); i++) {
+				result.set(indexes.get(i), rendered.get(i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the last step of the path to {@code node}, creating the steps of its ancestors as needed
+	 * @param node the node
+	 * @param steps steps created so far, by node
+	 * @param indexes sibling indexes computed so far, by node
+	 * @return the last step of the path to {@code node}, or {@code null} if {@code node} isn't attached to a document
+	 */
+	private Step getStep(DOMNode node, Map<DOMNode,Step> steps, Map<DOMNode,Integer> indexes) {
+		Step step = steps.get(node);
+		if (step!=null) return step;
+		DOMNode parentNode = node.getParentNode();
+		if (parentNode==null) return null;
+		Step parentStep = null;
+		if (!parentNode.getNodeType().equals(DOMNode.Type.DOCUMENT)) {
+			parentStep = this.getStep(parentNode, steps, indexes);
+			if (parentStep==null) return null;
+		}
+		Integer index = indexes.get(node);
+		if (index==null) {
+			index = indexChildren(parentNode, node, indexes);
+			if (index==null) return null;
+		}
+		DOMNode.Type type = node.getNodeType();
+		step = new Step(parentStep, type, node.getNodeName(), (type.equals(DOMNode.Type.ELEMENT)) ? getId(node) : null, index);
+		steps.put(node, step);
+		return step;
+	}
+
+	/**
+	 * Computes the sibling index of all children of {@code parentNode} in one pass over the children
+	 * @param parentNode the parent node
+	 * @param node the child whose index is needed
+	 * @param indexes sibling indexes, by node; updated with the indexes of all children
+	 * @return the sibling index of {@code node}, or {@code null} if {@code node} isn't a child of {@code parentNode}
+	 */
+	private static Integer indexChildren(DOMNode parentNode, DOMNode node, Map<DOMNode,Integer> indexes) {
+		Map<DOMNode.Type,Integer> counts = new HashMap<DOMNode.Type,Integer>();
+		for (DOMNode child = parentNode.getFirstChild(); child!=null; child = child.getNextSibling()) {
+			DOMNode.Type type = child.getNodeType();
+			Integer count = counts.get(type);
+			int index = (count==null) ? 0 : count;
+			counts.put(type, index+1);
+			indexes.put(child, index);
+		}
+		return indexes.get(node);
+	}
+
+	/**
+	 * Returns the <tt>id</tt> attribute of element {@code node}
+	 * @param node the element
+	 * @return the <tt>id</tt> attribute of {@code node}, or {@code null} if there is none
+	 */
+	private static String getId(DOMNode node) {
+		DOMNamedNodeMap<?> attributes = node.getAttributes();
+		if (attributes==null) return null;
+		DOMNode id = attributes.getNamedItem(ID);
+		if (id==null) return null;
+		String value = id.getNodeValue();
+		return (value==null || value.isEmpty()) ? null : value;
+	}
+
+	/**
+	 * Returns the {@code index}-th child of {@code parentNode} with node type {@code type}, listing the children of {@code parentNode} 
+	 * by node type in one pass over them unless they are already listed
+	 * @param parentNode the parent node
+	 * @param parentStep the step {@code parentNode} was found for, or {@code null} for the document
+	 * @param type the node type
+	 * @param index the sibling index among children of node type {@code type}
+	 * @param children children listed so far, by node type, by the step of their parent
+	 * @return the child, or {@code null} if there is no such child
+	 */
+	private static DOMNode getChild(DOMNode parentNode, Step parentStep, DOMNode.Type type, int index, 
+			Map<Step,Map<DOMNode.Type,List<DOMNode>>> children) {
+		Map<DOMNode.Type,List<DOMNode>> byType = children.get(parentStep);
+		if (byType==null) {
+			byType = new HashMap<DOMNode.Type,List<DOMNode>>();
+			for (DOMNode child = parentNode.getFirstChild(); child!=null; child = child.getNextSibling()) {
+				DOMNode.Type childType = child.getNodeType();
+				List<DOMNode> ofType = byType.get(childType);
+				if (ofType==null) {
+					ofType = new ArrayList<DOMNode>();
+					byType.put(childType, ofType);
+				}
+				ofType.add(child);
+			}
+			children.put(parentStep, byType);
+		}
+		List<DOMNode> ofType = byType.get(type);
+		return (ofType==null || index>=ofType.size()) ? null : ofType.get(index);
+	}
+
+	/**
+	 * One level of a structural fingerprint; steps of common ancestors are shared
+	 * @author AndrewJSel
+	 *
+	 */
+	private static final class Step {
+
+		/**
+		 * Creates a step
+		 * @param iParent step of the parent, or {@code null} for children of the document
+		 * @param iType node type
+		 * @param iName node name
+		 * @param iId <tt>id</tt> attribute, or {@code null}
+		 * @param iIndex index among the siblings of the same node type
+		 */
+		Step(Step iParent, DOMNode.Type iType, String iName, String iId, int iIndex) {
+			this.parent = iParent;
+			this.type = iType;
+			this.name = iName;
+			this.id = iId;
+			this.index = iIndex;
+			this.depth = (iParent==null) ? 1 : iParent.depth+1;
+		}
+
+		/**
+		 * Returns {@code true} if {@code node} has the name (and <tt>id</tt>) recorded by this step
+		 * @param node the candidate node
+		 * @return {@code true} if {@code node} matches this step, {@code false} otherwise
+		 */
+		boolean matches(DOMNode node) {
+			if (!this.name.equals(node.getNodeName())) return false;
+			return this.id==null || this.id.equals(getId(node));
+		}
+
+		/**
+		 * step of the parent, or {@code null} for children of the document
+		 */
+		final Step parent;
+		/**
+		 * node type
+		 */
+		final DOMNode.Type type;
+		/**
+		 * node name
+		 */
+		final String name;
+		/**
+		 * <tt>id</tt> attribute, or {@code null}
+		 */
+		final String id;
+		/**
+		 * index among the siblings of the same node type
+		 */
+		final int index;
+		/**
+		 * number of steps from the document
+		 */
+		final int depth;
+	}
+
+	/**
+	 * This DOMLookup versions of references
+	 * @author AndrewJSel
+	 *
+	 */
+	private static class NodeReferenceStructural implements NodeReference {
+
+		/**
+		 * Creates a node reference based on a structural fingerprint
+		 * @param iStep last step of the path to the node
+		 * @param iFallback positional reference to the node, used on mismatch
+		 * @param iParent parent of the node
+		 * @param iLast last sibling of the node
+		 */
+		public NodeReferenceStructural(Step iStep, NodeReference iFallback, int iParent, int iLast) {
+			this.path = new Step[iStep.depth];
+			for (Step s = iStep; s!=null; s = s.parent) {
+				this.path[s.depth-1] = s;
+			}
+			this.fallback = iFallback;
+			this.parent = iParent;
+			this.last = iLast;
+		}
+
+		/**
+		 * Returns the rendered node from the current document based on the reference
+		 * @param document the document to find the fresh node
+		 * @return the rendered node from the current document based on the reference
+		 */
+		public OXPathContextNode getRenderedNode(DOMDocument document) {
+			DOMNode current = this.walk(document, new HashMap<Step,DOMNode>(), new HashMap<Step,Map<DOMNode.Type,List<DOMNode>>>());
+			if (current==null) return this.fallback.getRenderedNode(document);
+			return new OXPathContextNode(current,this.parent,this.last);
+		}
+
+		/**
+		 * Follows the path of the reference down {@code document}, from the deepest step already found for another reference, or else
+		 * from the deepest element with an <tt>id</tt>
+		 * @param document the document to find the fresh node
+		 * @param found nodes found so far, by step; updated with the nodes found for the steps of this path
+		 * @param children children listed so far, by node type, by the step of their parent
+		 * @return the node at the end of the path, or {@code null} on a mismatch
+		 */
+		DOMNode walk(DOMDocument document, Map<Step,DOMNode> found, Map<Step,Map<DOMNode.Type,List<DOMNode>>> children) {
+			DOMNode current = document;
+			int start = 0;
+			for (int s = this.path.length-1; s>=0; s--) {
+				DOMNode known = found.get(this.path[s]);
+				if (known!=null) {
+					current = known;
+					start = s+1;
+					break;
+				}
+				//start from the deepest element with an id, if it is still there
+				if (this.path[s].id!=null) {
+					DOMNode element = document.getElementById(this.path[s].id);
+					if (element!=null && this.path[s].matches(element)) {
+						found.put(this.path[s], element);
+						current = element;
+						start = s+1;
+					}
+					break;
+				}
+			}
+			for (int s = start; s<this.path.length; s++) {
+				current = getChild(current, (s==0) ? null : this.path[s-1], this.path[s].type, this.path[s].index, children);
+				if (current==null || !this.path[s].matches(current)) return null;
+				found.put(this.path[s], current);
+			}
+			return current;
+		}
+
+		/**
+		 * path from the document to the node
+		 */
+		private final Step[] path;
+		/**
+		 * positional reference to the node
+		 */
+		private final NodeReference fallback;
+		/**
+		 * parent of node
+		 */
+		private final int parent;
+		/**
+		 * last sibling of node
+		 */
+		private final int last;
+
+	}
+
+	/**
+	 * positional lookup used for fallback references
+	 */
+	private final DOMLookup positional = new DOMLookupBatch();
+
+	/**
+	 * Name of the <tt>id</tt> attribute
+	 */
+	public static final String ID = "id";
+
+}
@@ -66,6 +66,15 @@ public interface Extractor extends OXPathCache {
 	 */
 	public Integer extractNode(DOMNode context, String label, Integer parent, String value) throws OXPathException;
 	
+	/**
+	 * Signals that the extraction node {@code record}, a record (child of the results node), receives no further descendants; the
+	 * evaluation signals this once the context of the extraction marker of the record is done with, so output handlers can write 
+	 * the record out then
+	 * @param record the identifier of the complete record
+	 * @throws OXPathException in case of exception passing on the signal
+	 */
+	public void completeRecord(int record) throws OXPathException;
+
 	/**
 	 * Signals end of extraction
 	 */
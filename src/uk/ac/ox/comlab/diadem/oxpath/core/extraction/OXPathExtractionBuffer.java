@@ -0,0 +1,176 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing core functionality for the extraction features of the OXPath engine
+ */
+package uk.ac.ox.comlab.diadem.oxpath.core.extraction;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock-free ring buffer handing objects from one producer thread to one consumer thread.  The producer waits while the 
+ * buffer is full and the consumer while it is empty, so a slow consumer holds the producer back instead of letting the buffer grow.
+ * Waiting threads spin briefly, then yield, then park for short periods, so neither side needs to signal the other.
+ * <p>
+ * Each index is written by one side only (the tail by the producer, the head by the consumer) and published with an ordered write;
+ * each side caches the last index it read of the other side, so it touches the shared index only when the buffer looks full (or empty).
+ * Several producer threads may share a buffer as long as they hand over under a common lock, as a synchronized {@code Extractor} does.
+ * @author AndrewJSel
+ *
+ * @param <E> type of the buffered objects
+ */
+public class OXPathExtractionBuffer<E> {
+
+	/**
+	 * Creates an empty buffer for at least {@code capacity} objects
+	 * @param capacity the minimum capacity (rounded up to a power of two)
+	 */
+	public OXPathExtractionBuffer(int capacity) {
+		if (capacity<1) throw new IllegalArgumentException("Capacity must be positive, not " + capacity);
+		int size = Integer.highestOneBit(capacity);
+		if (size<capacity) size <<= 1;
+		this.elements = new Object[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Adds {@code element} at the tail of the buffer, waiting while the buffer is full; called by the producer only
+	 * @param element the object to add
+	 * @return {@code true} if {@code element} was added, {@code false} if the consumer closed the buffer
+	 */
+	public boolean put(E element) {
+		//checked on every call, not only while waiting, so closing the buffer stops a producer that never finds it full
+		if (this.closed) return false;
+		long tail = this.tail.get();
+		long wrap = tail - this.elements.length;
+		if (this.headCache<=wrap) {
+			int waits = 0;
+			while ((this.headCache = this.head.get())<=wrap) {
+				if (this.closed) return false;
+				waits = await(waits);
+			}
+		}
+		this.elements[(int) tail & this.mask] = element;
+		this.tail.lazySet(tail + 1);
+		return true;
+	}
+
+	/**
+	 * Removes the object at the head of the buffer, waiting while the buffer is empty; called by the consumer only
+	 * @return the object at the head of the buffer
+	 */
+	@SuppressWarnings("unchecked")
+	public E take() {
+		long head = this.head.get();
+		if (head>=this.tailCache) {
+			int waits = 0;
+			while (head>=(this.tailCache = this.tail.get())) waits = await(waits);
+		}
+		int index = (int) head & this.mask;
+		E element = (E) this.elements[index];
+		this.elements[index] = null;
+		this.head.lazySet(head + 1);
+		return element;
+	}
+
+	/**
+	 * Closes the buffer from the consumer side: the producer's pending and further {@code put} calls return {@code false}
+	 */
+	public void close() {
+		this.closed = true;
+	}
+
+	/**
+	 * Returns if the consumer closed the buffer
+	 * @return {@code true} if the consumer closed the buffer, {@code false} otherwise
+	 */
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * Returns the capacity of the buffer
+	 * @return the capacity of the buffer
+	 */
+	public int capacity() {
+		return this.elements.length;
+	}
+
+	/**
+	 * Waits once for the other side of the buffer
+	 * @param waits number of times the caller has already waited
+	 * @return the number of times the caller has waited, including this one
+	 */
+	private static int await(int waits) {
+		if (waits>=SPINS+YIELDS) LockSupport.parkNanos(PARK_NANOS);
+		else if (waits>=SPINS) Thread.yield();
+		return waits + 1;
+	}
+
+	/**
+	 * the buffered objects, indexed by position modulo the capacity
+	 */
+	private final Object[] elements;
+	/**
+	 * capacity - 1, for indexing
+	 */
+	private final int mask;
+	/**
+	 * position of the next object to take; written by the consumer only
+	 */
+	private final AtomicLong head = new AtomicLong();
+	/**
+	 * position of the next object to put; written by the producer only
+	 */
+	private final AtomicLong tail = new AtomicLong();
+	/**
+	 * the producer's last read of {@code head}
+	 */
+	private long headCache;
+	/**
+	 * the consumer's last read of {@code tail}
+	 */
+	private long tailCache;
+	/**
+	 * set by the consumer when it stops taking objects
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * number of busy waits before yielding
+	 */
+	private static final int SPINS = 64;
+	/**
+	 * number of yields before parking
+	 */
+	private static final int YIELDS = 64;
+	/**
+	 * length of each park (ns)
+	 */
+	private static final long PARK_NANOS = 50000L;
+}
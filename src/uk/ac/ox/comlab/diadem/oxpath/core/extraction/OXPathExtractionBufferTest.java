@@ -0,0 +1,103 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing core functionality for the extraction features of the OXPath engine
+ */
+package uk.ac.ox.comlab.diadem.oxpath.core.extraction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import diadem.common.test.StandardTestCase;
+
+/**
+ * Tests the hand-over of {@code OXPathExtractionBuffer} from one producer thread to one consumer thread
+ * @author AndrewJSel
+ *
+ */
+public class OXPathExtractionBufferTest extends StandardTestCase {
+
+	@Test
+	public void capacityTest() {
+		assertEquals(1, new OXPathExtractionBuffer<Integer>(1).capacity());
+		assertEquals(8, new OXPathExtractionBuffer<Integer>(5).capacity());
+		assertEquals(8, new OXPathExtractionBuffer<Integer>(8).capacity());
+	}
+
+	@Test
+	public void orderTest() throws InterruptedException {
+		final OXPathExtractionBuffer<Integer> buffer = new OXPathExtractionBuffer<Integer>(4);
+		final AtomicBoolean accepted = new AtomicBoolean(true);
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				for (int i=0; i<COUNT; i++) {
+					if (!buffer.put(i)) accepted.set(false);
+				}
+			}
+		};
+		producer.start();
+		//the small buffer makes both sides wait for each other many times
+		for (int i=0; i<COUNT; i++) {
+			assertEquals(i, buffer.take().intValue());
+		}
+		producer.join();
+		assertTrue(accepted.get());
+	}
+
+	@Test
+	public void closeTest() throws InterruptedException {
+		final OXPathExtractionBuffer<Integer> buffer = new OXPathExtractionBuffer<Integer>(2);
+		assertTrue(buffer.put(1));
+		assertTrue(buffer.put(2));
+		final AtomicBoolean accepted = new AtomicBoolean(true);
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				//waits on the full buffer until the consumer closes it
+				accepted.set(buffer.put(3));
+			}
+		};
+		producer.start();
+		buffer.close();
+		producer.join(10000);
+		assertFalse(producer.isAlive());
+		assertFalse(accepted.get());
+		assertTrue(buffer.isClosed());
+		assertFalse(buffer.put(4));
+	}
+
+	/**
+	 * number of objects handed over in {@code orderTest}
+	 */
+	private static final int COUNT = 1000000;
+}
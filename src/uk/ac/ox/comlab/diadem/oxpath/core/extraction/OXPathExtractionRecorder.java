@@ -0,0 +1,227 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing core functionality for the extraction features of the OXPath engine
+ */
+package uk.ac.ox.comlab.diadem.oxpath.core.extraction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
+import diadem.common.web.dom.DOMDocument;
+import diadem.common.web.dom.DOMNode;
+
+/**
+ * {@code Extractor} recording the extractions of one evaluation task, to be replayed into the real extractor later; used by the worker
+ * visitors of a {@code PAATBrowserPool}, so that the extractions of concurrently evaluated contexts reach the output in context order
+ * rather than interleaved.  Recorded extractions get provisional identifiers (negative, so they can't be mistaken for the identifiers of
+ * the real extractor, which are positive); replaying a {@code Recording} extracts its nodes in the order they were recorded, and maps the
+ * provisional identifiers (as parents, or as identifiers carried by context nodes) to the identifiers the real extractor returned.
+ * Completions of records are recorded and replayed likewise, in order.
+ * <p>
+ * A recorder is used by one worker at a time: {@code take()} ends the recording of a task and starts the next.
+ * @author AndrewJSel
+ *
+ */
+public class OXPathExtractionRecorder implements Extractor {
+
+	/**
+	 * Records the extraction of the node specified by the pair <tt>(context,label)</tt> and returns its provisional identifier
+	 * @param context the context node in this label
+	 * @param label the label of this node in the extraction marker
+	 * @param parent the parent of the extraction node specified by <tt>(context,label)</tt>
+	 * @return the provisional identifier for this extraction
+	 */
+	@Override
+	public Integer extractNode(DOMNode context, String label, Integer parent) {
+		return this.record(new Extraction(label, parent, null, false, false));
+	}
+
+	/**
+	 * Records the extraction of the node specified by the pair <tt>(context,label)</tt> and returns its provisional identifier
+	 * @param context the context node in this label
+	 * @param label the label of this node in the extraction marker
+	 * @param parent the parent of the extraction node specified by <tt>(context,label)</tt>
+	 * @param value the value associated with this extraction node
+	 * @return the provisional identifier for this extraction
+	 */
+	@Override
+	public Integer extractNode(DOMNode context, String label, Integer parent, String value) {
+		return this.record(new Extraction(label, parent, value, true, false));
+	}
+
+	/**
+	 * Records the completion of {@code record}
+	 * @param record the (provisional or real) identifier of the complete record
+	 */
+	@Override
+	public void completeRecord(int record) {
+		this.record(new Extraction(null, record, null, false, true));
+	}
+
+	/**
+	 * Does nothing: extraction ends with the evaluation replaying the recordings, never with one of its tasks
+	 */
+	@Override
+	public void endExtraction() {}
+
+	/**
+	 * The recorder holds no page-dependent data; memoization is done by the wrapping {@code OXPathExtractorMemoizer}
+	 * @param page the page being closed
+	 * @return {@code false}, as nothing is memoized
+	 */
+	@Override
+	public Boolean clear(DOMDocument page) {
+		return false;
+	}
+
+	/**
+	 * Returns the extractions recorded since the last call, and starts a new recording (whose provisional identifiers start over)
+	 * @return the extractions recorded since the last call
+	 */
+	public Recording take() {
+		Recording recording = new Recording(this.extractions);
+		this.extractions = new ArrayList<Extraction>();
+		return recording;
+	}
+
+	/**
+	 * Records {@code extraction}
+	 * @param extraction the extraction
+	 * @return the provisional identifier of {@code extraction}
+	 */
+	private Integer record(Extraction extraction) {
+		this.extractions.add(extraction);
+		return -this.extractions.size();
+	}
+
+	/**
+	 * The extractions recorded for one task, in the order they were recorded
+	 * @author AndrewJSel
+	 *
+	 */
+	public static final class Recording {
+
+		/**
+		 * Creates a recording of {@code iExtractions}
+		 * @param iExtractions the recorded extractions
+		 */
+		private Recording(List<Extraction> iExtractions) {
+			this.extractions = iExtractions;
+			this.ids = new int[iExtractions.size()];
+		}
+
+		/**
+		 * Extracts the recorded nodes with {@code extractor}, and signals the recorded completions, in the order they were recorded
+		 * @param extractor the real extractor
+		 * @throws OXPathException in case of exception in {@code extractor}
+		 */
+		public void replay(Extractor extractor) throws OXPathException {
+			for (int i=0; i<this.ids.length; i++) {
+				Extraction extraction = this.extractions.get(i);
+				Integer parent = (extraction.parent==null) ? null : this.resolve(extraction.parent);
+				if (extraction.completion) {
+					extractor.completeRecord(parent);
+					continue;
+				}
+				//the context node belongs to the page of the task, which is gone; the real extractor doesn't need it
+				this.ids[i] = (extraction.hasValue) ? extractor.extractNode(null, extraction.label, parent, extraction.value) 
+						: extractor.extractNode(null, extraction.label, parent);
+			}
+		}
+
+		/**
+		 * Returns the identifier the real extractor returned for provisional identifier {@code id}, once replayed; identifiers that
+		 * aren't provisional are returned unchanged
+		 * @param id an identifier, provisional or not
+		 * @return the identifier of the real extractor
+		 */
+		public int resolve(int id) {
+			return (id<0) ? this.ids[-id-1] : id;
+		}
+
+		/**
+		 * the recorded extractions
+		 */
+		private final List<Extraction> extractions;
+		/**
+		 * the identifiers the real extractor returned for the recorded extractions, by provisional identifier
+		 */
+		private final int[] ids;
+	}
+
+	/**
+	 * One recorded extraction
+	 * @author AndrewJSel
+	 *
+	 */
+	private static final class Extraction {
+
+		/**
+		 * Creates a recorded extraction
+		 * @param iLabel the label of the extraction marker
+		 * @param iParent the parent of the extraction node, or the complete record of a completion
+		 * @param iValue the value of the extraction node
+		 * @param iHasValue {@code true} if the extraction carries {@code iValue}, {@code false} otherwise
+		 * @param iCompletion {@code true} for the completion of a record, {@code false} for an extraction
+		 */
+		Extraction(String iLabel, Integer iParent, String iValue, boolean iHasValue, boolean iCompletion) {
+			this.label = iLabel;
+			this.parent = iParent;
+			this.value = iValue;
+			this.hasValue = iHasValue;
+			this.completion = iCompletion;
+		}
+
+		/**
+		 * the label of the extraction marker
+		 */
+		final String label;
+		/**
+		 * the parent of the extraction node, or the complete record of a completion
+		 */
+		final Integer parent;
+		/**
+		 * the value of the extraction node
+		 */
+		final String value;
+		/**
+		 * {@code true} if the extraction carries a value, {@code false} otherwise
+		 */
+		final boolean hasValue;
+		/**
+		 * {@code true} for the completion of a record, {@code false} for an extraction
+		 */
+		final boolean completion;
+	}
+
+	/**
+	 * the extractions recorded since the last {@code take()}
+	 */
+	private List<Extraction> extractions = new ArrayList<Extraction>();
+}
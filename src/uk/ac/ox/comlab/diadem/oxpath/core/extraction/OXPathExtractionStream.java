@@ -0,0 +1,222 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing core functionality for the extraction features of the OXPath engine
+ */
+package uk.ac.ox.comlab.diadem.oxpath.core.extraction;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathExtractionNode;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
+import diadem.common.web.dom.DOMDocument;
+import diadem.common.web.dom.DOMNode;
+
+/**
+ * In-process {@code Extractor} handing the extraction nodes to a consumer as they are extracted, without sockets or serialization.
+ * The evaluation extracts into the stream (as the sink of {@code OXPathNavigator.evaluateOXPathQuery}) while one consumer thread 
+ * iterates over it; the two are coupled by a bounded {@code OXPathExtractionBuffer}, so the evaluation waits whenever the consumer 
+ * falls {@code capacity} nodes behind.  Iteration ends after the last node, when the evaluation signals the end of extraction.
+ * <p>
+ * A consumer that stops early must {@code close()} the stream, so the evaluation fails instead of waiting for it forever.  An 
+ * evaluation that fails should {@code fail(cause)} the stream, so the consumer sees the failure instead of waiting for it forever.
+ * @author AndrewJSel
+ *
+ */
+public class OXPathExtractionStream implements Extractor, Iterable<OXPathExtractionNode> {
+
+	/**
+	 * Creates a stream buffering up to {@code DEFAULT_CAPACITY} extraction nodes
+	 */
+	public OXPathExtractionStream() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a stream buffering up to {@code capacity} (rounded up to a power of two) extraction nodes
+	 * @param capacity the minimum number of extraction nodes buffered before the evaluation waits for the consumer
+	 */
+	public OXPathExtractionStream(int capacity) {
+		this.buffer = new OXPathExtractionBuffer<OXPathExtractionNode>(capacity);
+	}
+
+	/**
+	 * Allows the extraction of the node specified by the pair <tt>(context,label)</tt> and returns a unique identifier (as an {@code int}) that
+	 * uniquely identifies this extraction marker.
+	 * @param context the context node in this label
+	 * @param label the label of this node in the extraction marker
+	 * @param parent the parent of the extraction node specified by <tt>(context,label)</tt>
+	 * @return a unique identifier for this extraction
+	 * @throws OXPathException if the consumer closed the stream
+	 */
+	@Override
+	public synchronized Integer extractNode(DOMNode context, String label, Integer parent) throws OXPathException {
+		this.put(new OXPathExtractionNode(++this.lastNode,parent,label));
+		return this.lastNode;
+	}
+
+	/**
+	 * Allows the extraction of the node specified by the pair <tt>(context,label)</tt> and returns a unique identifier (as an {@code int}) that
+	 * uniquely identifies this extraction marker.
+	 * @param context the context node in this label
+	 * @param label the label of this node in the extraction marker
+	 * @param parent the parent of the extraction node specified by <tt>(context,label)</tt>
+	 * @param value the value associated with this extraction node
+	 * @return a unique identifier for this extraction
+	 * @throws OXPathException if the consumer closed the stream
+	 */
+	@Override
+	public synchronized Integer extractNode(DOMNode context, String label, Integer parent, String value) throws OXPathException {
+		this.put(new OXPathExtractionNode(++this.lastNode,parent,label,value));
+		return this.lastNode;
+	}
+
+	/**
+	 * Signals that the record {@code record} is complete; the consumer iterates over a completion node ({@code isCompleteNode()}) for it
+	 * @param record the identifier of the complete record
+	 * @throws OXPathException if the consumer closed the stream
+	 */
+	@Override
+	public synchronized void completeRecord(int record) throws OXPathException {
+		this.put(OXPathExtractionNode.returnCompleteNode(record));
+	}
+
+	/**
+	 * Signals end of extraction; the consumer's iteration ends after the nodes extracted so far
+	 * @throws OXPathException if the consumer closed the stream
+	 */
+	@Override
+	public synchronized void endExtraction() throws OXPathException {
+		this.put(OXPathExtractionNode.returnEndNode());
+	}
+
+	/**
+	 * Signals that the evaluation failed; the consumer's iteration fails with {@code cause} after the nodes extracted so far
+	 * @param cause the failure of the evaluation
+	 */
+	public synchronized void fail(Throwable cause) {
+		this.failure = cause;
+		//the buffer is closed if the consumer has already gone, in which case nobody waits for the end node
+		this.buffer.put(OXPathExtractionNode.returnEndNode());
+	}
+
+	/**
+	 * Closes the stream from the consumer side: further extractions fail, and so abort the evaluation
+	 */
+	public void close() {
+		this.buffer.close();
+	}
+
+	/**
+	 * Returns the iterator over the extraction nodes, in the order they are extracted.  A stream is consumed once, by a single thread, 
+	 * so this method returns the same iterator each time.  {@code hasNext()} waits for the evaluation to extract the next node (or end),
+	 * and throws an {@code IllegalStateException} if the evaluation failed.
+	 * @return the iterator over the extraction nodes
+	 */
+	@Override
+	public Iterator<OXPathExtractionNode> iterator() {
+		return this.iterator;
+	}
+
+	/**
+	 * The stream holds no page-dependent data; memoization is done by the wrapping {@code OXPathExtractorMemoizer}
+	 * @param page the page being closed
+	 * @return {@code false}, as nothing is memoized
+	 */
+	@Override
+	public Boolean clear(DOMDocument page) {
+		return false;
+	}
+
+	/**
+	 * Hands {@code node} to the consumer
+	 * @param node the extraction node
+	 * @throws OXPathException if the consumer closed the stream
+	 */
+	private void put(OXPathExtractionNode node) throws OXPathException {
+		if (!this.buffer.put(node)) throw new OXPathException("Extraction stream closed by its consumer");
+	}
+
+	/**
+	 * the iterator over the buffered extraction nodes
+	 */
+	private final Iterator<OXPathExtractionNode> iterator = new Iterator<OXPathExtractionNode>() {
+
+		@Override
+		public boolean hasNext() {
+			if (this.next==null && !this.done) {
+				OXPathExtractionNode node = OXPathExtractionStream.this.buffer.take();
+				if (node.isEndNode()) this.done = true;
+				else this.next = node;
+			}
+			if (this.next==null && OXPathExtractionStream.this.failure!=null) {
+				throw new IllegalStateException("OXPath evaluation failed", OXPathExtractionStream.this.failure);
+			}
+			return this.next!=null;
+		}
+
+		@Override
+		public OXPathExtractionNode next() {
+			if (!this.hasNext()) throw new NoSuchElementException();
+			OXPathExtractionNode node = this.next;
+			this.next = null;
+			return node;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Extraction nodes can't be removed from an extraction stream");
+		}
+
+		/**
+		 * the next extraction node, taken from the buffer but not yet returned
+		 */
+		private OXPathExtractionNode next;
+		/**
+		 * set once the end node is taken
+		 */
+		private boolean done = false;
+	};
+	/**
+	 * the buffer between the evaluation and the consumer
+	 */
+	private final OXPathExtractionBuffer<OXPathExtractionNode> buffer;
+	/**
+	 * failure of the evaluation, if any; published to the consumer by the end node
+	 */
+	private volatile Throwable failure;
+	/**
+	 * identifier of the last extraction node; 0 is the results node
+	 */
+	private int lastNode = 0;
+
+	/**
+	 * default number of extraction nodes buffered before the evaluation waits for the consumer
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+}
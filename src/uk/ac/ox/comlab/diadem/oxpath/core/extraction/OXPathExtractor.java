@@ -7,13 +7,14 @@ import java.io.IOException;
 import java.io.ObjectOutputStream;
 
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathExtractionNode;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathExtractionOutputStream;
 import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
 import diadem.common.web.dom.DOMDocument;
 import diadem.common.web.dom.DOMNode;
 
 /**
  * Extractor implementation.  We assume all method calls(except the constructor) are called by a 
- * proxy object generated by {@code OXPathExtractor}.  Therefore, we don't check if the same node
+ * memoizing wrapper ({@code OXPathExtractorMemoizer}).  Therefore, we don't check if the same node
  * has already been extracted (the memoizer does this for us).
  * @author AndrewJSel
  *
@@ -26,6 +27,17 @@ public class OXPathExtractor implements Extractor {
 	 */
 	public OXPathExtractor(ObjectOutputStream iOS) {
 		this.os=iOS;
+		this.out=null;
+	}
+
+	/**
+	 * Constructor writing the extraction nodes to {@code iOut} in the compact binary extraction format, whose memory stays constant 
+	 * however many nodes are written
+	 * @param iOut the stream to write the extraction nodes to
+	 */
+	public OXPathExtractor(OXPathExtractionOutputStream iOut) {
+		this.os=null;
+		this.out=iOut;
 	}
 
 	/* (non-Javadoc)
@@ -43,10 +55,10 @@ public class OXPathExtractor implements Extractor {
 	 * @throws OXPathException in case the parent of this node is inconsistent with a recurring node (one already created with a previous call to this method)
 	 */
 	@Override
-	public Integer extractNode(DOMNode context, String label, Integer parent)
+	public synchronized Integer extractNode(DOMNode context, String label, Integer parent)
 			throws OXPathException {
 		try {
-			this.os.writeObject(new OXPathExtractionNode(++this.lastNode,parent,label));
+			this.write(new OXPathExtractionNode(++this.lastNode,parent,label));
 			return lastNode;
 		} catch (IOException e) {
 			throw new OXPathException("IOException when trying to write extraction nodes to output stream");
@@ -69,22 +81,37 @@ public class OXPathExtractor implements Extractor {
 	 * @throws OXPathException in case the parent of this node is inconsistent with a recurring node (one already created with a previous call to this method)
 	 */
 	@Override
-	public Integer extractNode(DOMNode context, String label, Integer parent,
+	public synchronized Integer extractNode(DOMNode context, String label, Integer parent,
 			String value) throws OXPathException {
 		try {
-			os.writeObject(new OXPathExtractionNode(++this.lastNode,parent,label,value));
+			this.write(new OXPathExtractionNode(++this.lastNode,parent,label,value));
 			return lastNode;
 		} catch (IOException e) {
 			throw new OXPathException("IOException when trying to write extraction nodes to output stream");
 		}
 	}
 	
+	/**
+	 * Signals that the record {@code record} is complete, by writing a completion node
+	 * @param record the identifier of the complete record
+	 * @throws OXPathException in case of exception writing to the output stream
+	 */
+	@Override
+	public synchronized void completeRecord(int record) throws OXPathException {
+		try {
+			this.write(OXPathExtractionNode.returnCompleteNode(record));
+		} catch (IOException e) {
+			throw new OXPathException("IOException when trying to write extraction nodes to output stream");
+		}
+	}
+
 	/**
 	 * Signals end of extraction
 	 */
-	public void endExtraction() throws OXPathException {
+	public synchronized void endExtraction() throws OXPathException {
 		try {
-			this.os.writeObject(OXPathExtractionNode.returnEndNode());
+			this.write(OXPathExtractionNode.returnEndNode());
+			if (this.out!=null) this.out.flush();
 		}
 		catch (IOException e) {
 			throw new OXPathException("IOException when trying to write final extraction node to output stream");
@@ -105,7 +132,29 @@ public class OXPathExtractor implements Extractor {
 		throw new RuntimeException("Don't use the clear(page) method of the " + this.getClass().toString() + " outside of a proxy class");
 	}
 	
+	/**
+	 * Writes {@code node} to the output stream.  An {@code ObjectOutputStream} keeps a reference to every object it writes (to write 
+	 * repeated objects as back references), so it is reset every {@code RESET_INTERVAL} nodes to keep its memory bounded.
+	 * @param node the extraction node
+	 * @throws IOException in case of exception writing to the output stream
+	 */
+	private void write(OXPathExtractionNode node) throws IOException {
+		if (this.out!=null) {
+			this.out.writeNode(node);
+			return;
+		}
+		this.os.writeObject(node);
+		if (++this.written%RESET_INTERVAL==0) this.os.reset();
+	}
+
 	private final ObjectOutputStream os;
+	private final OXPathExtractionOutputStream out;
 	private int lastNode = 0;//this is the results node, so we increment before giving the number to a new node
+	private int written = 0;//nodes written to os since the last reset
+
+	/**
+	 * number of nodes written to an {@code ObjectOutputStream} between resets
+	 */
+	public static final int RESET_INTERVAL = 1024;
 
 }
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing core functionality for the extraction features of the OXPath engine
+ */
+package uk.ac.ox.comlab.diadem.oxpath.core.extraction;
+
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathDocumentCache;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
+import diadem.common.web.dom.DOMDocument;
+import diadem.common.web.dom.DOMNode;
+
+/**
+ * Memoizing wrapper for an {@code Extractor}, implementing OXPath's merge semantics: a repeated extraction of the same 
+ * <tt>(context,label,parent)</tt> (and value) returns the identifier of the first extraction instead of emitting a new node.
+ * Replaces the reflective {@code OXPathMemoizer} proxy; results are cached per page under typed keys.
+ * @author AndrewJSel
+ *
+ */
+public class OXPathExtractorMemoizer implements Extractor {
+
+	/**
+	 * Wraps {@code iExtractor} so that its extractions are memoized
+	 * @param iExtractor the extractor to memoize
+	 */
+	public OXPathExtractorMemoizer(Extractor iExtractor) {
+		this.extractor = iExtractor;
+	}
+
+	/**
+	 * Allows the extraction of the node specified by the pair <tt>(context,label)</tt> and returns a unique identifier (as an {@code int}) that
+	 * uniquely identifies this extraction marker.  Returns the previously occurring identifier if the <tt>(context,label)</tt> has already been 
+	 * extracted (via a call to this method with this object). 
+	 * @param context the context node in this label
+	 * @param label the label of this node in the extraction marker
+	 * @param parent the parent of the extraction node specified by <tt>(context,label)</tt>
+	 * @return a unique identifier for this extraction
+	 * @throws OXPathException in case the parent of this node is inconsistent with a recurring node (one already created with a previous call to this method)
+	 */
+	@Override
+	public Integer extractNode(DOMNode context, String label, Integer parent) throws OXPathException {
+		return this.extractNode(context, label, parent, null, false);
+	}
+
+	/**
+	 * Allows the extraction of the node specified by the pair <tt>(context,label)</tt> and returns a unique identifier (as an {@code int}) that
+	 * uniquely identifies this extraction marker.  Returns the previously occurring identifier if the <tt>(context,label)</tt> has already been 
+	 * extracted (via a call to this method with this object). 
+	 * @param context the context node in this label
+	 * @param label the label of this node in the extraction marker
+	 * @param parent the parent of the extraction node specified by <tt>(context,label)</tt>
+	 * @param value the value associated with this extraction node
+	 * @return a unique identifier for this extraction
+	 * @throws OXPathException in case the parent of this node is inconsistent with a recurring node (one already created with a previous call to this method)
+	 */
+	@Override
+	public Integer extractNode(DOMNode context, String label, Integer parent, String value) throws OXPathException {
+		return this.extractNode(context, label, parent, value, true);
+	}
+
+	/**
+	 * Returns the memoized identifier of the extraction, extracting the node on first use.  Misses are serialized, so a node is
+	 * never emitted twice; hits don't lock.  Extractions without a context node (as replayed from an {@code OXPathExtractionRecorder},
+	 * whose own memoizer has already merged them) aren't memoized.
+	 * @param context the context node in this label
+	 * @param label the label of this node in the extraction marker
+	 * @param parent the parent of the extraction node specified by <tt>(context,label)</tt>
+	 * @param value the value associated with this extraction node
+	 * @param hasValue {@code true} if the extraction carries {@code value}, {@code false} otherwise
+	 * @return a unique identifier for this extraction
+	 * @throws OXPathException in case of exception in extraction
+	 */
+	private Integer extractNode(DOMNode context, String label, Integer parent, String value, boolean hasValue) throws OXPathException {
+		DOMDocument page = (context == null) ? null : OXPathDocumentCache.getPage(context);
+		if (page == null) return this.extract(context, label, parent, value, hasValue);
+		ExtractionKey key = new ExtractionKey(context, label, parent, value, hasValue);
+		Integer id = this.cache.get(page, key);
+		if (id != null) return id;
+		synchronized (this) {
+			id = this.cache.get(page, key);
+			if (id == null) {
+				id = this.extract(context, label, parent, value, hasValue);
+				if (id != null) this.cache.putIfAbsent(page, key, id);
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Extracts the node with the wrapped extractor
+	 * @param context the context node in this label
+	 * @param label the label of this node in the extraction marker
+	 * @param parent the parent of the extraction node specified by <tt>(context,label)</tt>
+	 * @param value the value associated with this extraction node
+	 * @param hasValue {@code true} if the extraction carries {@code value}, {@code false} otherwise
+	 * @return a unique identifier for this extraction
+	 * @throws OXPathException in case of exception in extraction
+	 */
+	private Integer extract(DOMNode context, String label, Integer parent, String value, boolean hasValue) throws OXPathException {
+		return (hasValue) ? this.extractor.extractNode(context, label, parent, value) : this.extractor.extractNode(context, label, parent);
+	}
+
+	/**
+	 * Signals the completion of {@code record} to the wrapped extractor
+	 * @param record the identifier of the complete record
+	 * @throws OXPathException in case of exception in the wrapped extractor
+	 */
+	@Override
+	public void completeRecord(int record) throws OXPathException {
+		this.extractor.completeRecord(record);
+	}
+
+	/**
+	 * Signals the end of extraction to the wrapped extractor
+	 * @throws OXPathException in case of exception in the wrapped extractor
+	 */
+	@Override
+	public void endExtraction() throws OXPathException {
+		this.extractor.endExtraction();
+	}
+
+	/**
+	 * Returns the store of memoized extractions, to read its counters.  Don't cap it (by entries, bytes or pages): an evicted extraction would be
+	 * emitted again; pages are dropped by {@code clear(page)} only.
+	 * @return the store of memoized extractions
+	 */
+	public OXPathDocumentCache<?,Integer> getCache() {
+		return this.cache;
+	}
+
+	/**
+	 * Clears all memoized data for the input {@code DOMDocument}
+	 * @param page {@code DOMDocument} we are removing all memoized results for, presumably because the page is being closed in PAAT
+	 * @return {@code true} if results were memoized for {@code page}, {@code false} otherwise
+	 */
+	@Override
+	public Boolean clear(DOMDocument page) {
+		return this.cache.clear(page);
+	}
+
+	/**
+	 * Memoization key of an extraction
+	 * @author AndrewJSel
+	 *
+	 */
+	private static final class ExtractionKey {
+
+		/**
+		 * Creates the key of an extraction
+		 * @param iContext the context node in this label
+		 * @param iLabel the label of this node in the extraction marker
+		 * @param iParent the parent of the extraction node
+		 * @param iValue the value associated with this extraction node
+		 * @param iHasValue {@code true} if the extraction carries {@code iValue}, {@code false} otherwise
+		 */
+		ExtractionKey(DOMNode iContext, String iLabel, Integer iParent, String iValue, boolean iHasValue) {
+			this.context = iContext;
+			this.label = iLabel;
+			this.parent = iParent;
+			this.value = iValue;
+			this.hasValue = iHasValue;
+			int h = iContext.hashCode();
+			h = 31 * h + ((iLabel == null) ? 0 : iLabel.hashCode());
+			h = 31 * h + ((iParent == null) ? 0 : iParent.hashCode());
+			h = 31 * h + ((iValue == null) ? 0 : iValue.hashCode());
+			h = 31 * h + ((iHasValue) ? 1 : 0);
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof ExtractionKey)) return false;
+			ExtractionKey other = (ExtractionKey) obj;
+			return this.hash == other.hash && this.hasValue == other.hasValue && this.context.equals(other.context)
+					&& equal(this.label, other.label) && equal(this.parent, other.parent) && equal(this.value, other.value);
+		}
+
+		/**
+		 * Null-safe equality
+		 * @param a first object
+		 * @param b second object
+		 * @return {@code true} if both are {@code null} or equal, {@code false} otherwise
+		 */
+		private static boolean equal(Object a, Object b) {
+			return (a == null) ? b == null : a.equals(b);
+		}
+
+		/**
+		 * the context node
+		 */
+		private final DOMNode context;
+		/**
+		 * the label of the extraction marker
+		 */
+		private final String label;
+		/**
+		 * the parent of the extraction node
+		 */
+		private final Integer parent;
+		/**
+		 * the value of the extraction node
+		 */
+		private final String value;
+		/**
+		 * {@code true} if the extraction carries a value, {@code false} otherwise
+		 */
+		private final boolean hasValue;
+		/**
+		 * precomputed hash code
+		 */
+		private final int hash;
+	}
+
+	/**
+	 * the memoized extractor
+	 */
+	private final Extractor extractor;
+	/**
+	 * memoized extraction identifiers, by page
+	 */
+	private final OXPathDocumentCache<ExtractionKey,Integer> cache = new OXPathDocumentCache<ExtractionKey,Integer>();
+}
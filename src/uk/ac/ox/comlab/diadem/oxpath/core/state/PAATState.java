@@ -47,6 +47,10 @@ import static uk.ac.ox.comlab.diadem.oxpath.core.state.PAATStateType.SET;
  * the memoization to work correctly for the {@code PAATStateEvalIterate} class.  For this reason, these should both be 0 when position() 
  * and last() are not called (the AST get this info from an invocation of the {@code PrePAATVisitor}) so as to maximize the buffering that
  * occurs.
+ * <p>
+ * The evaluator's per-node loops don't build states: they rewrite the reusable frames of a {@code PAATStateFrames} stack instead.  A frame
+ * is only valid for the duration of the call it is passed to, so code that keeps a state beyond the call (e.g., a memoization key) 
+ * must copy the fields it needs.
  * @author AndrewJSel
  *
  */
@@ -398,6 +402,31 @@ public abstract class PAATState {
 	}
 
 
+	/**
+	 * Overwrites the state with that of {@code source}, changing the protection to {@code prot}; used to rewrite reusable frames
+	 * @param source state whose content is copied
+	 * @param prot {@code true} to protect the page, {@code false} otherwise
+	 */
+	void assign(PAATState source, boolean prot) {
+		this.actionFreePrefix = source.actionFreePrefix;
+		this.actionFreePrefixEnd = source.actionFreePrefixEnd;
+		this.actionFreeNavigation = source.actionFreeNavigation;
+		this.position = source.position;
+		this.last = source.last;
+		this.protect = prot;
+	}
+
+	/**
+	 * Overwrites the position and last position of the state; used to rewrite reusable frames
+	 * @param iPosition position in parent context
+	 * @param iLast last position in parent context
+	 */
+	void assignPosition(int iPosition, int iLast) {
+		this.position = iPosition;
+		this.last = iLast;
+	}
+
+
 	//getters
 
 	/**
@@ -459,32 +488,32 @@ public abstract class PAATState {
 	/**
 	 * records the previous node for action free navigation root
 	 */
-	private final Node actionFreePrefix;
+	private Node actionFreePrefix;
 
 	/**
 	 * records the end node for action free navigation
 	 */
-	private final Node actionFreePrefixEnd;
+	private Node actionFreePrefixEnd;
 
 	/**
 	 * Records if current navigation is action-free (i.e. retracing)
 	 */
-	private final boolean actionFreeNavigation;
+	private boolean actionFreeNavigation;
 
 	/**
 	 * Records current node's position in the nodeset
 	 */
-	private final int position;
+	private int position;
 
 	/**
 	 * Records current nodeset's last position
 	 */
-	private final int last;
+	private int last;
 
 	/**
 	 * Instance field recording if the current page (defined by the context) is protected
 	 */
-	private final boolean protect;
+	private boolean protect;
 
 	/**
 	 * Overridden to only treat {@code position} and {@code last}  as the only components of equality in order for 
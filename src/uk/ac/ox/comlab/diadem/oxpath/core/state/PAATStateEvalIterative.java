@@ -54,6 +54,14 @@ public class PAATStateEvalIterative extends PAATState{
 		return this.context;
 	}
 	
+	/**
+	 * Overwrites the context; used to rewrite reusable frames
+	 * @param c the context node
+	 */
+	void assignContextNode(OXPathContextNode c) {
+		this.context = c;
+	}
+
 	/**
 	 * Returns the type of the object
 	 * @return the type of the object
@@ -65,7 +73,7 @@ public class PAATStateEvalIterative extends PAATState{
 	/**
 	 * context at current "step" in query
 	 */
-	private final OXPathContextNode context;
+	private OXPathContextNode context;
 
 	@Override
 	public int hashCode() {
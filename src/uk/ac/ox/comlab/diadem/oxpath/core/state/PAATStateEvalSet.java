@@ -61,6 +61,18 @@ public class PAATStateEvalSet extends PAATState{
 		return context;
 	}
 	
+	/**
+	 * Overwrites the context set and Kleene-star information; used to rewrite reusable frames
+	 * @param c context set
+	 * @param numHigher number of Kleene-star iterations to perform
+	 * @param currAction the identifier for the current action being processed
+	 */
+	void assignContextSet(OXPathNodeList c, int numHigher, int currAction) {
+		this.context = c;
+		this.higher = numHigher;
+		this.currentAction = currAction;
+	}
+
 	/**
 	 * Returns the type of the object
 	 * @return the type of the object
@@ -88,15 +100,15 @@ public class PAATStateEvalSet extends PAATState{
 	/**
 	 * context at current "step" in query
 	 */
-	private final OXPathNodeList context;
+	private OXPathNodeList context;
 	
 	/**
 	 * number of Kleene star iterations to perform (communicated by outer Kleene to inner action)
 	 */
-	private final int higher;
+	private int higher;
 	
 	/**
 	 * identifier of the current action
 	 */
-	private final int currentAction;
+	private int currentAction;
 }
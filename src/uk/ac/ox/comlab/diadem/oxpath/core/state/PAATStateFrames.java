@@ -0,0 +1,180 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing core OXPath functionality
+ */
+package uk.ac.ox.comlab.diadem.oxpath.core.state;
+
+import java.util.Arrays;
+
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNode;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
+
+/**
+ * Stack of reusable, mutable {@code PAATState} frames, indexed by recursion depth.  Each loop of the evaluator over context nodes reserves
+ * one frame with {@code enter()} and rewrites it for every node, rather than building a new state (and a one-node context set) per node; 
+ * nested calls reserve deeper frames, so a frame is never rewritten while a call using it is still on the stack.  Frames are only valid for 
+ * the duration of the call they are passed to; code that keeps a state beyond that must copy the fields it needs.
+ * <p>
+ * A stack belongs to a single evaluator (and so a single thread at a time); it isn't thread-safe.
+ * @author AndrewJSel
+ *
+ */
+public final class PAATStateFrames {
+
+	/**
+	 * Creates an empty stack
+	 */
+	public PAATStateFrames() {
+		this.nodeFrames = new PAATStateEvalIterative[INITIAL_DEPTH];
+		this.setFrames = new PAATStateEvalSet[INITIAL_DEPTH];
+		this.singletons = new OXPathNodeList[INITIAL_DEPTH];
+	}
+
+	/**
+	 * Reserves the next frame; must be paired with {@code exit(frame)} (in a {@code finally} block)
+	 * @return the reserved frame
+	 */
+	public int enter() {
+		if (this.depth==this.nodeFrames.length) this.grow();
+		return this.depth++;
+	}
+
+	/**
+	 * Releases {@code frame} (and any deeper frame)
+	 * @param frame frame returned by {@code enter()}
+	 */
+	public void exit(int frame) {
+		for (int i=frame; i<this.depth; i++) {
+			if (this.nodeFrames[i]!=null) this.nodeFrames[i].assignContextNode(null);
+			if (this.setFrames[i]!=null) this.setFrames[i].assignContextSet(null, 0, 0);
+		}
+		this.depth = frame;
+	}
+
+	/**
+	 * Rewrites the iterative state of {@code frame}: the state of {@code from} at the context node {@code context}
+	 * @param frame frame returned by {@code enter()}
+	 * @param from state whose content is copied
+	 * @param context context node
+	 * @param protect {@code true} to protect the page, {@code false} otherwise
+	 * @return the rewritten iterative state of {@code frame}
+	 */
+	public PAATStateEvalIterative node(int frame, PAATState from, OXPathContextNode context, boolean protect) {
+		PAATStateEvalIterative state = this.nodeFrames[frame];
+		if (state==null) state = this.nodeFrames[frame] = new PAATState.Builder((OXPathContextNode) null).buildNode();
+		state.assign(from, protect);
+		state.assignContextNode(context);
+		return state;
+	}
+
+	/**
+	 * Rewrites the set-based state of {@code frame}: the state of {@code from} at the one-node context set of {@code context}
+	 * @param frame frame returned by {@code enter()}
+	 * @param from state whose content is copied
+	 * @param context the only node of the context set
+	 * @param protect {@code true} to protect the page, {@code false} otherwise
+	 * @return the rewritten set-based state of {@code frame}
+	 */
+	public PAATStateEvalSet singleton(int frame, PAATState from, OXPathContextNode context, boolean protect) {
+		PAATStateEvalSet state = this.set(frame, from, context, protect);
+		if (from instanceof PAATStateEvalSet) {
+			PAATStateEvalSet fromSet = (PAATStateEvalSet) from;
+			state.assignContextSet(state.getContextSet(), fromSet.getNumKleeneStarIterations(), fromSet.getCurrentAction());
+		}
+		return state;
+	}
+
+	/**
+	 * Rewrites the set-based state of {@code frame} for evaluating a predicate: the state of {@code from} at the one-node context set of 
+	 * {@code context}, at position {@code position} of {@code last}, without Kleene-star iterations
+	 * @param frame frame returned by {@code enter()}
+	 * @param from state whose content is copied
+	 * @param context the only node of the context set
+	 * @param position position of {@code context} in its parent context
+	 * @param last last position in the parent context
+	 * @param protect {@code true} to protect the page, {@code false} otherwise
+	 * @return the rewritten set-based state of {@code frame}
+	 */
+	public PAATStateEvalSet predicate(int frame, PAATState from, OXPathContextNode context, int position, int last, boolean protect) {
+		PAATStateEvalSet state = this.set(frame, from, context, protect);
+		state.assignPosition(position, last);
+		if (from instanceof PAATStateEvalSet) state.assignContextSet(state.getContextSet(), 0, ((PAATStateEvalSet) from).getCurrentAction());
+		return state;
+	}
+
+	/**
+	 * Rewrites the set-based state of {@code frame} with the one-node context set of {@code context}, without Kleene-star information
+	 * @param frame frame returned by {@code enter()}
+	 * @param from state whose content is copied
+	 * @param context the only node of the context set
+	 * @param protect {@code true} to protect the page, {@code false} otherwise
+	 * @return the rewritten set-based state of {@code frame}
+	 */
+	private PAATStateEvalSet set(int frame, PAATState from, OXPathContextNode context, boolean protect) {
+		OXPathNodeList singleton = this.singletons[frame];
+		if (singleton==null) singleton = this.singletons[frame] = new OXPathNodeList();
+		singleton.reset(context);
+		PAATStateEvalSet state = this.setFrames[frame];
+		if (state==null) state = this.setFrames[frame] = new PAATState.Builder(singleton).buildSet();
+		state.assign(from, protect);
+		state.assignContextSet(singleton, 0, 0);
+		return state;
+	}
+
+	/**
+	 * Doubles the depth of the stack
+	 */
+	private void grow() {
+		int length = this.nodeFrames.length << 1;
+		this.nodeFrames = Arrays.copyOf(this.nodeFrames, length);
+		this.setFrames = Arrays.copyOf(this.setFrames, length);
+		this.singletons = Arrays.copyOf(this.singletons, length);
+	}
+
+	/**
+	 * iterative state of each frame, created on first use
+	 */
+	private PAATStateEvalIterative[] nodeFrames;
+	/**
+	 * set-based state of each frame, created on first use
+	 */
+	private PAATStateEvalSet[] setFrames;
+	/**
+	 * one-node context set of each frame, created on first use
+	 */
+	private OXPathNodeList[] singletons;
+	/**
+	 * number of reserved frames
+	 */
+	private int depth;
+
+	/**
+	 * initial depth of the stack
+	 */
+	private static final int INITIAL_DEPTH = 16;
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package uk.ac.ox.comlab.diadem.oxpath.dom;
+
+import diadem.common.web.WebBrowser;
+import diadem.common.web.dom.DOMDocument;
+import diadem.common.web.dom.DOMElement;
+import diadem.common.web.dom.DOMNode;
+import diadem.common.web.dom.DOMWindow;
+
+/**
+ *
+ * Class for reading a value of each of a set of elements with a single script evaluation, rather than one bridge call per value.  
+ * Scripts can't be handed references to the elements, so the elements are marked with a temporary attribute carrying their index; 
+ * the script walks the elements of the page in document order, evaluates an expression for each marked one, and removes the marks.
+ * <p>
+ * Marking costs one (cheap) bridge call per element, and the marks are real, if short-lived, changes to the page: attribute mutation
+ * events are fired for them, and page scripts observing mutations, or running while the marks are set, can see them.  Callers should
+ * only mark elements whose values can't be had otherwise, e.g., from the current snapshot of the page.
+ * @author AndrewJSel
+ *
+ */
+public final class DOMMarks {
+
+	/**
+	 * Returns the value of the script {@code expression} for each of {@code elements}, computed with a single script evaluation after
+	 * marking each of {@code elements}.  The expression is evaluated with <tt>element</tt> bound to the element and <tt>ordinal</tt> to 
+	 * its position among the elements of the page in document order (its index in <tt>document.getElementsByTagName('*')</tt>), once
+	 * its own mark is removed; it must evaluate to a string, or to {@code null}.  Returns {@code null} (without marking anything) unless
+	 * {@code page} is the top-level document of its browser, where the script runs, and all of {@code elements} are elements, and (with
+	 * the marks removed again) unless they are distinct elements of {@code page}.
+	 * @param page the page
+	 * @param elements elements of {@code page}
+	 * @param expression the script expression
+	 * @return the value of {@code expression} for each of {@code elements}, or {@code null} if they can't be read
+	 */
+	public static String[] evaluate(DOMDocument page, DOMNode[] elements, String expression) {
+		if (page==null || elements.length==0) return null;
+		DOMWindow window = page.getEnclosingWindow();
+		WebBrowser browser = (window==null) ? null : window.getBrowser();
+		if (browser==null || !page.equals(browser.getContentDOMWindow().getDocument())) return null;
+		for (DOMNode element : elements) {
+			//element wrappers implement DOMElement, so the type is checked without calling into the browser
+			if (!(element instanceof DOMElement)) return null;
+		}
+		int marked = 0;
+		Object result = null;
+		try {
+			for (; marked<elements.length; marked++) {
+				((DOMElement)elements[marked]).setAttribute(MARK, Integer.toString(marked));
+			}
+			result = browser.evaluate("var count = " + elements.length + "; var value = function(element, ordinal) { return " 
+					+ expression + "; };" + MARK_SCRIPT);
+		}
+		finally {
+			//the script removes the marks it finds; any left (the script failed) are removed one at a time
+			if (!(result instanceof String)) {
+				for (int i=0; i<marked; i++) ((DOMElement)elements[i]).removeAttribute(MARK);
+			}
+		}
+		return (result instanceof String) ? decode((String) result, elements.length) : null;
+	}
+
+	/**
+	 * Decodes the result of the script: for each element, <tt>-</tt> if it wasn't found, <tt>n</tt> for {@code null}, or the length
+	 * of the value, a colon and the value
+	 * @param result the result of the script
+	 * @param count the number of elements
+	 * @return the values of the elements, or {@code null} if an element wasn't found or the result is malformed
+	 */
+	static String[] decode(String result, int count) {
+		String[] values = new String[count];
+		int position = 0;
+		try {
+			for (int i=0; i<count; i++) {
+				char c = result.charAt(position);
+				if (c==NOT_FOUND) return null;
+				if (c==NULL_VALUE) {
+					position++;
+					continue;
+				}
+				int colon = result.indexOf(':', position);
+				int length = Integer.parseInt(result.substring(position, colon));
+				values[i] = result.substring(colon+1, colon+1+length);
+				position = colon+1+length;
+			}
+		} catch (RuntimeException e) {//malformed (NumberFormatException, StringIndexOutOfBoundsException)
+			return null;
+		}
+		return (position==result.length()) ? values : null;
+	}
+
+	/**
+	 * utility class; not instantiable
+	 */
+	private DOMMarks() {}
+
+	/**
+	 * the temporary attribute marking the elements, with the index of the element as value
+	 */
+	private static final String MARK = "data-oxpath-mark";
+	/**
+	 * encodes an element whose mark wasn't found in the script result
+	 */
+	private static final char NOT_FOUND = '-';
+	/**
+	 * encodes a {@code null} value in the script result
+	 */
+	private static final char NULL_VALUE = 'n';
+	/**
+	 * the script, after the <tt>count</tt> and <tt>value</tt> variables, returning the encoded values of the marked elements by index
+	 * and removing the marks
+	 */
+	private static final String MARK_SCRIPT = " var values = []; for (var i = 0; i < count; i++) values.push('" + NOT_FOUND + "');"
+			+ "var all = document.getElementsByTagName('*');"
+			+ "for (var i = 0; i < all.length; i++) {"
+			+ "var mark = all[i].getAttribute('" + MARK + "'); if (mark === null) continue;"
+			+ "all[i].removeAttribute('" + MARK + "'); var index = parseInt(mark, 10);"
+			+ "if (!(index >= 0 && index < count)) continue;"
+			+ "var v = value(all[i], i);"
+			+ "values[index] = (v === null || v === undefined) ? '" + NULL_VALUE + "' : (String(v).length + ':' + String(v));"
+			+ "} return values.join('');";
+}
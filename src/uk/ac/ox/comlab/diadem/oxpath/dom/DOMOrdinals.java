@@ -0,0 +1,81 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package uk.ac.ox.comlab.diadem.oxpath.dom;
+
+import diadem.common.web.dom.DOMDocument;
+import diadem.common.web.dom.DOMNode;
+
+/**
+ *
+ * Class for finding the position of elements among all elements of their page in document order (their <tt>count(ancestor::*) +
+ * count(preceding::*)</tt>, or their index in <tt>document.getElementsByTagName('*')</tt>) without one browser query per element or
+ * one bridge call per element of the page.  The positions are read with {@code DOMMarks}, so the elements are marked with a temporary
+ * attribute, and a single script walks the elements of the page in the browser, reading the positions of the marked ones and removing
+ * the marks.
+ * <p>
+ * Marking costs one bridge call per element, and the marks are real (if short-lived) changes to the page: attribute mutation events
+ * are fired for them, and page scripts observing mutations, or running while the marks are set, can see them.  Callers should only
+ * mark elements whose positions can't be had otherwise, e.g., from the current snapshot of the page.
+ * @author AndrewJSel
+ *
+ */
+public final class DOMOrdinals {
+
+	/**
+	 * Returns the position of each of {@code elements} among the elements of {@code page} in document order, computed with a single
+	 * script evaluation after marking each of {@code elements}; returns {@code null} under the conditions of {@code DOMMarks.evaluate}
+	 * @param page the page
+	 * @param elements elements of {@code page}
+	 * @return the position of each of {@code elements} among the elements of {@code page}, or {@code null} if it can't be computed
+	 */
+	public static int[] ordinals(DOMDocument page, DOMNode[] elements) {
+		String[] values = DOMMarks.evaluate(page, elements, ORDINAL);
+		if (values==null) return null;
+		int[] ordinals = new int[elements.length];
+		try {
+			for (int i=0; i<values.length; i++) {
+				ordinals[i] = Integer.parseInt(values[i]);
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return ordinals;
+	}
+
+	/**
+	 * utility class; not instantiable
+	 */
+	private DOMOrdinals() {}
+
+	/**
+	 * script expression for the position of an element
+	 */
+	private static final String ORDINAL = "'' + ordinal";
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package uk.ac.ox.comlab.diadem.oxpath.dom;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.swt.widgets.Display;
+
+import diadem.common.web.dom.DOMDocument;
+import diadem.common.web.dom.event.DOMEvent;
+import diadem.common.web.dom.event.DOMEventListener;
+
+/**
+ *
+ * Class for waiting on pages after actions until they settle.  With a quiet period set (quiescence detection is opt-in), rather than 
+ * waiting the full time, waits until a DOM mutation event has been fired on the page (so AJAX content has started to arrive) and then
+ * none for the quiet period, bounded by the maximum wait.  On the display thread of the browser, the waiting thread runs the event loop
+ * in the meantime, so the page can go on loading and firing events; on any other thread, it is parked, not spinning.
+ * @author AndrewJSel
+ *
+ */
+public class DOMQuiescence {
+
+	/**
+	 * default quiet period (ms) used for action waits: {@code 0}, so an action waits the full time given unless a quiet period is set
+	 */
+	public static final long DEFAULT_QUIET_PERIOD = 0;
+
+	/**
+	 * the DOM mutation events signalling that the page is still changing
+	 */
+	private static final uk.ac.ox.comlab.diadem.oxpath.utils.DOMEvent[] MUTATION_EVENTS = {
+		uk.ac.ox.comlab.diadem.oxpath.utils.DOMEvent.DOMNODEINSERTED,
+		uk.ac.ox.comlab.diadem.oxpath.utils.DOMEvent.DOMNODEREMOVED,
+		uk.ac.ox.comlab.diadem.oxpath.utils.DOMEvent.DOMSUBTREEMODIFIED,
+		uk.ac.ox.comlab.diadem.oxpath.utils.DOMEvent.DOMATTRMODIFIED,
+		uk.ac.ox.comlab.diadem.oxpath.utils.DOMEvent.DOMCHARACTERDATAMODIFIED
+	};
+
+	/**
+	 * Waits until {@code page} has fired a DOM mutation event and then none for {@code quietPeriod} milliseconds, or until 
+	 * {@code maxWait} milliseconds have passed, whichever is first; the quiet period starts with the first mutation observed, so a page
+	 * whose AJAX response has yet to arrive isn't taken as settled.  A {@code quietPeriod} of {@code 0} (or less) disables quiescence
+	 * detection, so the method waits for the full {@code maxWait}.  Returns early (with the interrupt status set) if the thread is 
+	 * interrupted.
+	 * @param page the page to wait on
+	 * @param maxWait upper bound (ms) on the wait
+	 * @param quietPeriod time (ms) without mutations after which the page is considered settled
+	 * @return {@code true} if the page settled before {@code maxWait}, {@code false} otherwise
+	 */
+	public static boolean waitForQuiescence(DOMDocument page, long maxWait, long quietPeriod) {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+		if (quietPeriod <= 0) {
+			while (!Thread.currentThread().isInterrupted() && pause(deadline)) {}
+			return false;
+		}
+		final long quiet = TimeUnit.MILLISECONDS.toNanos(quietPeriod);
+		//time of the last mutation; NO_MUTATION until the first one
+		final AtomicLong lastMutation = new AtomicLong(NO_MUTATION);
+		final Thread waiter = Thread.currentThread();
+		DOMEventListener listener = new DOMEventListener() {
+			@Override
+			public void handleEvent(DOMEvent event) {
+				//the waiter doesn't know when the quiet period ends until the first mutation
+				if (lastMutation.getAndSet(System.nanoTime()) == NO_MUTATION) LockSupport.unpark(waiter);
+			}
+		};
+		for (uk.ac.ox.comlab.diadem.oxpath.utils.DOMEvent event : MUTATION_EVENTS) {
+			page.addEventListener(event.toString(), listener, true);
+		}
+		try {
+			while (!waiter.isInterrupted()) {
+				long last = lastMutation.get();
+				long wakeUp = deadline;
+				if (last != NO_MUTATION) {
+					long settled = last + quiet;
+					if (System.nanoTime() - settled >= 0) return true;
+					if (settled - deadline < 0) wakeUp = settled;
+				}
+				if (!pause(wakeUp) && wakeUp == deadline) return false;
+			}
+			return false;
+		}
+		finally {
+			for (uk.ac.ox.comlab.diadem.oxpath.utils.DOMEvent event : MUTATION_EVENTS) {
+				page.removeEventListener(event.toString(), listener, true);
+			}
+		}
+	}
+
+	/**
+	 * Waits until {@code wakeUp} (in {@link System#nanoTime()} terms) at most, returning earlier when events may need another look: on 
+	 * the display thread, the pending events are dispatched and the thread sleeps until the next event (or {@code wakeUp}); on any other
+	 * thread, the thread is parked (until {@code wakeUp}, an unpark or an interrupt)
+	 * @param wakeUp the time to return by
+	 * @return {@code true} if {@code wakeUp} hasn't passed yet, {@code false} otherwise
+	 */
+	private static boolean pause(long wakeUp) {
+		long remaining = wakeUp - System.nanoTime();
+		if (remaining <= 0) return false;
+		Display display = Display.getCurrent();
+		if (display == null) {
+			LockSupport.parkNanos(remaining);
+		}
+		else if (!display.readAndDispatch()) {
+			//no pending event: sleep until the next one, with a timer bounding the sleep
+			display.timerExec((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)), WAKE_UP);
+			display.sleep();
+			display.timerExec(-1, WAKE_UP);
+		}
+		return wakeUp - System.nanoTime() > 0;
+	}
+
+	/**
+	 * timer task waking the display thread from {@code Display.sleep()}
+	 */
+	private static final Runnable WAKE_UP = new Runnable() {
+		@Override
+		public void run() {}
+	};
+
+	/**
+	 * marks that no mutation has been observed yet
+	 */
+	private static final long NO_MUTATION = Long.MIN_VALUE;
+
+	/**
+	 * utility class; not instantiable
+	 */
+	private DOMQuiescence() {}
+}
@@ -0,0 +1,652 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing immutable, Java-side snapshots of rendered DOM documents, used to evaluate action-free
+ * navigation without calling into the browser.
+ */
+package uk.ac.ox.comlab.diadem.oxpath.dom.snapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import diadem.common.web.dom.DOMDocument;
+import diadem.common.web.dom.DOMNamedNodeMap;
+import diadem.common.web.dom.DOMNode;
+
+/**
+ * Immutable snapshot of a rendered {@code DOMDocument}, taken in a single pass over the live DOM.  Nodes are stored in array-based
+ * tables, indexed by their position in document order (attributes directly follow their element, as in the XPath data model), with
+ * interned local names and the character data of text, comment and attribute nodes copied into Java.  Navigation over the snapshot
+ * (see {@code select(path,context)}) and string-values never touch the browser; the live {@code DOMNode} for each entry is kept so
+ * that results can be handed back to the rest of the evaluator.
+ * <p>
+ * Each entry doubles as the pre-order label of its node, and together with {@code getEnd(i)} gives the pre-order interval of its
+ * subtree, so document order and ancestry of snapshotted nodes are decided by integer comparisons.
+ * <p>
+ * A snapshot is only valid while the page is unchanged, so it must no longer be used (see {@code OXPathPageContext}) once an action 
+ * could have modified the page.
+ * @author AndrewJSel
+ *
+ */
+public final class DOMSnapshot {
+
+	/**
+	 * Takes a snapshot of {@code document}
+	 * @param document the rendered document
+	 * @return a new snapshot of {@code document}
+	 */
+	public static DOMSnapshot capture(DOMDocument document) {
+		return new DOMSnapshot(document);
+	}
+
+	/**
+	 * Creates the snapshot with one depth-first pass over {@code document}
+	 * @param document the rendered document
+	 */
+	private DOMSnapshot(DOMDocument document) {
+		this.document = document;
+		Map<String,Integer> internedNames = new HashMap<String,Integer>();
+		Tables t = new Tables();
+		//the document node itself is entry 0
+		t.add(document, DOMNode.Type.DOCUMENT, -1, -1, null);
+		int[] stack = new int[16];
+		int depth = 0;
+		stack[depth++] = 0;
+		DOMNode next = document.getFirstChild();
+		int parent = 0;
+		int previousSibling = -1;
+		while (depth > 0) {
+			if (next != null) {
+				DOMNode.Type type = next.getNodeType();
+				int name = -1;
+				String value = null;
+				switch (type) {
+				case ELEMENT :
+				case PROCESSING_INSTRUCTION :
+					name = intern(internedNames, next.getLocalName()!=null?next.getLocalName():next.getNodeName());
+					if (type.equals(DOMNode.Type.PROCESSING_INSTRUCTION)) value = next.getNodeValue();
+					break;
+				case TEXT :
+				case CDATA_SECTION :
+				case COMMENT :
+					value = next.getNodeValue();
+					break;
+				default :
+				}
+				int index = t.add(next, type, parent, name, value);
+				if (previousSibling >= 0) t.nextSibling[previousSibling] = index;
+				else t.firstChild[parent] = index;
+				t.previousSibling[index] = previousSibling;
+				if (type.equals(DOMNode.Type.ELEMENT)) {
+					DOMNamedNodeMap<?> attributes = next.getAttributes();
+					int numAttributes = (attributes==null)?0:(int)attributes.getLength();
+					for (int i = 0; i < numAttributes; i++) {
+						DOMNode attribute = attributes.item(i);
+						String attributeName = attribute.getLocalName()!=null?attribute.getLocalName():attribute.getNodeName();
+						int a = t.add(attribute, DOMNode.Type.ATTRIBUTE, index, intern(internedNames, attributeName), attribute.getNodeValue());
+						t.end[a] = a;
+					}
+					t.numAttributes[index] = numAttributes;
+				}
+				DOMNode firstChild = next.getFirstChild();
+				if (firstChild != null) {
+					if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+					stack[depth++] = index;
+					parent = index;
+					previousSibling = -1;
+					next = firstChild;
+				}
+				else {
+					t.end[index] = t.size - 1;
+					previousSibling = index;
+					next = next.getNextSibling();
+				}
+			}
+			else {//done with the children of parent
+				int done = stack[--depth];
+				t.end[done] = t.size - 1;
+				if (depth > 0) {
+					parent = stack[depth - 1];
+					previousSibling = done;
+					next = t.nodes[done].getNextSibling();
+				}
+			}
+		}
+		this.size = t.size;
+		this.nodes = Arrays.copyOf(t.nodes, t.size);
+		this.types = Arrays.copyOf(t.types, t.size);
+		this.parent = Arrays.copyOf(t.parent, t.size);
+		this.end = Arrays.copyOf(t.end, t.size);
+		this.firstChild = Arrays.copyOf(t.firstChild, t.size);
+		this.nextSibling = Arrays.copyOf(t.nextSibling, t.size);
+		this.previousSibling = Arrays.copyOf(t.previousSibling, t.size);
+		this.numAttributes = Arrays.copyOf(t.numAttributes, t.size);
+		this.name = Arrays.copyOf(t.name, t.size);
+		this.value = Arrays.copyOf(t.value, t.size);
+		this.names = new String[internedNames.size()];
+		for (Map.Entry<String,Integer> e : internedNames.entrySet()) {
+			this.names[e.getValue()] = e.getKey();
+		}
+		DOMNode documentElement = document.getDocumentElement();
+		//HTML (not XHTML) documents report upper-case node names and are matched case-insensitively, as in the browser
+		this.html = documentElement!=null && documentElement.getLocalName()!=null && !documentElement.getLocalName().equals(documentElement.getNodeName());
+		int numElements = 0;
+		for (int i = 0; i < this.size; i++) {
+			this.index.put(this.nodes[i], i);
+			if (this.types[i].equals(DOMNode.Type.ELEMENT)) numElements++;
+		}
+		this.elements = new int[numElements];
+		for (int i = 0, e = 0; i < this.size; i++) {
+			if (this.types[i].equals(DOMNode.Type.ELEMENT)) this.elements[e++] = i;
+		}
+	}
+
+	/**
+	 * Returns the document this snapshot was taken from
+	 * @return the document this snapshot was taken from
+	 */
+	public DOMDocument getDocument() {
+		return this.document;
+	}
+
+	/**
+	 * Returns the number of nodes (including attributes and the document node) in the snapshot
+	 * @return the number of nodes in the snapshot
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the live node of entry {@code i}
+	 * @param i entry in the snapshot
+	 * @return the live node of entry {@code i}
+	 */
+	public DOMNode getNode(int i) {
+		return this.nodes[i];
+	}
+
+	/**
+	 * Returns the node type of entry {@code i}
+	 * @param i entry in the snapshot
+	 * @return the node type of entry {@code i}
+	 */
+	public DOMNode.Type getType(int i) {
+		return this.types[i];
+	}
+
+	/**
+	 * Returns the local name of entry {@code i} (elements, attributes and processing instructions), or {@code null}
+	 * @param i entry in the snapshot
+	 * @return the local name of entry {@code i}, or {@code null}
+	 */
+	public String getLocalName(int i) {
+		return (this.name[i] < 0) ? null : this.names[this.name[i]];
+	}
+
+	/**
+	 * Returns the parent of entry {@code i} (for attributes, the owner element), or {@code -1} for the document node
+	 * @param i entry in the snapshot
+	 * @return the parent of entry {@code i}
+	 */
+	public int getParent(int i) {
+		return this.parent[i];
+	}
+
+	/**
+	 * Returns the last entry (in document order) in the subtree rooted at entry {@code i}
+	 * @param i entry in the snapshot
+	 * @return the last entry in the subtree rooted at entry {@code i}
+	 */
+	public int getEnd(int i) {
+		return this.end[i];
+	}
+
+	/**
+	 * Returns {@code true} if entry {@code descendant} is in the subtree rooted at entry {@code ancestor}, using the pre-order 
+	 * interval of {@code ancestor}
+	 * @param ancestor entry of the candidate ancestor
+	 * @param descendant entry of the candidate descendant
+	 * @return {@code true} if entry {@code descendant} is a (proper) descendant of entry {@code ancestor}, {@code false} otherwise
+	 */
+	public boolean isDescendant(int ancestor, int descendant) {
+		return ancestor < descendant && descendant <= this.end[ancestor];
+	}
+
+	/**
+	 * Returns the entry of {@code node} in this snapshot, or {@code -1} if {@code node} isn't part of the snapshotted document.  Nodes
+	 * handed out by this snapshot are found directly; other references to the same nodes are located through their ancestors.
+	 * @param node a live node
+	 * @return the entry of {@code node} in this snapshot, or {@code -1}
+	 */
+	public int indexOf(DOMNode node) {
+		if (node == null) return -1;
+		Integer known;
+		synchronized (this.index) {
+			known = this.index.get(node);
+		}
+		if (known != null) return known;
+		int located = this.locate(node);
+		if (located >= 0) {
+			synchronized (this.index) {
+				this.index.put(node, located);
+			}
+		}
+		return located;
+	}
+
+	/**
+	 * Locates {@code node} by finding its closest known ancestor and matching its children with {@code isSameNode}
+	 * @param node a live node not directly known to the snapshot
+	 * @return the entry of {@code node} in this snapshot, or {@code -1}
+	 */
+	private int locate(DOMNode node) {
+		DOMNode parentNode = node.getNodeType().equals(DOMNode.Type.DOCUMENT) ? null : node.getParentNode();
+		if (parentNode == null) return node.isSameNode(this.document) ? 0 : -1;
+		int p = this.indexOf(parentNode);
+		if (p < 0) return -1;
+		if (node.getNodeType().equals(DOMNode.Type.ATTRIBUTE)) {
+			for (int a = p + 1; a <= p + this.numAttributes[p]; a++) {
+				if (this.nodes[a].isSameNode(node)) return a;
+			}
+			return -1;
+		}
+		for (int c = this.firstChild[p]; c >= 0; c = this.nextSibling[c]) {
+			if (this.nodes[c].isSameNode(node)) return c;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns a digest of the content of the snapshot (structure, node types, names and character data), identical for snapshots of
+	 * pages rendered with the same content, across runs.  Computed on first use.
+	 * @return a hexadecimal digest of the content of the snapshot
+	 */
+	public String getContentHash() {
+		String hash = this.contentHash;
+		if (hash == null) {
+			MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance(CONTENT_DIGEST);
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException("Digest " + CONTENT_DIGEST + " not supported by the JVM", e);
+			}
+			ByteBuffer entry = ByteBuffer.allocate(12);
+			for (int i = 0; i < this.size; i++) {
+				entry.clear();
+				entry.putInt(this.types[i].ordinal()).putInt(this.parent[i]).putInt(this.value[i] == null ? -1 : this.value[i].length());
+				digest.update(entry.array());
+				if (this.name[i] >= 0) digest.update(this.names[this.name[i]].getBytes(UTF8));
+				if (this.value[i] != null) digest.update(this.value[i].getBytes(UTF8));
+			}
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest.digest()) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			hash = sb.toString();
+			this.contentHash = hash;
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the number of elements preceding entry {@code i} in document order, including its ancestors (the value of
+	 * <tt>count(ancestor::*) + count(preceding::*)</tt> for elements)
+	 * @param i entry in the snapshot
+	 * @return the number of elements preceding entry {@code i} in document order
+	 */
+	public int getElementOrdinal(int i) {
+		int position = Arrays.binarySearch(this.elements, i);
+		return (position >= 0) ? position : -(position + 1);
+	}
+
+	/**
+	 * Returns the entry of the element with {@code getElementOrdinal} {@code ordinal}, i.e., of <tt>/descendant::*[ordinal+1]</tt>
+	 * @param ordinal number of elements preceding the element in document order
+	 * @return the entry of the element, or {@code -1} if the document has no such element
+	 */
+	public int getElement(int ordinal) {
+		return (ordinal >= 0 && ordinal < this.elements.length) ? this.elements[ordinal] : -1;
+	}
+
+	/**
+	 * Returns the XPath string-value of entry {@code i}, computed from the snapshot
+	 * @param i entry in the snapshot
+	 * @return the XPath string-value of entry {@code i}
+	 */
+	public String stringValue(int i) {
+		switch (this.types[i]) {
+		case DOCUMENT :
+		case ELEMENT :
+			StringBuilder sb = new StringBuilder();
+			for (int j = i + 1; j <= this.end[i]; j++) {
+				if (this.types[j].equals(DOMNode.Type.TEXT) || this.types[j].equals(DOMNode.Type.CDATA_SECTION)) sb.append(this.value[j]);
+			}
+			return sb.toString();
+		default :
+			return (this.value[i] == null) ? "" : this.value[i];
+		}
+	}
+
+	/**
+	 * Returns the value of the attribute {@code name} of entry {@code i}, read from the attribute entries following it
+	 * @param i entry in the snapshot
+	 * @param name local name of the attribute
+	 * @return the value of the attribute {@code name} of entry {@code i}, or {@code null} if it has no such attribute
+	 */
+	public String getAttribute(int i, String name) {
+		for (int a = i + 1; a <= i + this.numAttributes[i]; a++) {
+			if (this.name[a] < 0) continue;
+			String attributeName = this.names[this.name[a]];
+			if (this.html ? attributeName.equalsIgnoreCase(name) : attributeName.equals(name)) return this.value[a];
+		}
+		return null;
+	}
+
+	/**
+	 * Evaluates the location path {@code path} (a sequence of <tt>axis::nodetest</tt> steps separated by <tt>/</tt>, as produced by the
+	 * evaluator for plain XPath steps) from entry {@code context}
+	 * @param path the location path
+	 * @param context entry of the context node
+	 * @return the entries selected by {@code path}, in document order, or {@code null} if {@code path} isn't supported by the snapshot
+	 * (and so must be evaluated by the browser)
+	 */
+	public int[] select(String path, int context) {
+		DOMSnapshotPath compiled = DOMSnapshotPath.compile(path);
+		if (compiled == null) return null;
+		BitSet current = new BitSet(this.size);
+		current.set(context);
+		for (int s = 0; s < compiled.size() && !current.isEmpty(); s++) {
+			BitSet next = new BitSet(this.size);
+			for (int i = current.nextSetBit(0); i >= 0; i = current.nextSetBit(i + 1)) {
+				this.step(compiled, s, i, next);
+			}
+			current = next;
+		}
+		int[] result = new int[current.cardinality()];
+		int r = 0;
+		for (int i = current.nextSetBit(0); i >= 0; i = current.nextSetBit(i + 1)) {
+			result[r++] = i;
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the entries selected by step {@code s} of {@code path} from entry {@code i} to {@code out}
+	 * @param path the compiled location path
+	 * @param s step of {@code path}
+	 * @param i entry of the context node
+	 * @param out set of selected entries
+	 */
+	private void step(DOMSnapshotPath path, int s, int i, BitSet out) {
+		switch (path.getAxis(s)) {
+		case SELF :
+			this.test(path, s, i, out);
+			break;
+		case CHILD :
+			for (int c = this.firstChild[i]; c >= 0; c = this.nextSibling[c]) this.test(path, s, c, out);
+			break;
+		case DESCENDANTORSELF :
+		case DESCENDANT :
+			if (path.getAxis(s) == DOMSnapshotPath.SnapshotAxis.DESCENDANTORSELF) this.test(path, s, i, out);
+			for (int d = i + 1; d <= this.end[i]; d++) {
+				if (!this.types[d].equals(DOMNode.Type.ATTRIBUTE)) this.test(path, s, d, out);
+			}
+			break;
+		case ATTRIBUTE :
+			if (this.types[i].equals(DOMNode.Type.ELEMENT)) {
+				for (int a = i + 1; a <= i + this.numAttributes[i]; a++) this.test(path, s, a, out);
+			}
+			break;
+		case PARENT :
+			if (this.parent[i] >= 0) this.test(path, s, this.parent[i], out);
+			break;
+		case ANCESTORORSELF :
+		case ANCESTOR :
+			if (path.getAxis(s) == DOMSnapshotPath.SnapshotAxis.ANCESTORORSELF) this.test(path, s, i, out);
+			for (int a = this.parent[i]; a >= 0; a = this.parent[a]) this.test(path, s, a, out);
+			break;
+		case FOLLOWINGSIBLING :
+			if (!this.types[i].equals(DOMNode.Type.ATTRIBUTE)) {
+				for (int f = this.nextSibling[i]; f >= 0; f = this.nextSibling[f]) this.test(path, s, f, out);
+			}
+			break;
+		case PRECEDINGSIBLING :
+			if (!this.types[i].equals(DOMNode.Type.ATTRIBUTE)) {
+				for (int p = this.previousSibling[i]; p >= 0; p = this.previousSibling[p]) this.test(path, s, p, out);
+			}
+			break;
+		case FOLLOWING :
+			for (int f = this.end[i] + 1; f < this.size; f++) {
+				if (!this.types[f].equals(DOMNode.Type.ATTRIBUTE)) this.test(path, s, f, out);
+			}
+			break;
+		case PRECEDING :
+			//ancestors (of the element owning an attribute, too) are not preceding
+			int ancestor = this.parent[i];
+			for (int p = i - 1; p > 0; p--) {
+				if (p == ancestor) ancestor = this.parent[ancestor];
+				else if (!this.types[p].equals(DOMNode.Type.ATTRIBUTE)) this.test(path, s, p, out);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Adds entry {@code i} to {@code out} if it matches the node test of step {@code s} of {@code path}
+	 * @param path the compiled location path
+	 * @param s step of {@code path}
+	 * @param i entry to test
+	 * @param out set of selected entries
+	 */
+	private void test(DOMSnapshotPath path, int s, int i, BitSet out) {
+		DOMNode.Type type = this.types[i];
+		boolean matches;
+		switch (path.getNodeTest(s)) {
+		case NODE :
+			matches = true;
+			break;
+		case TEXT :
+			matches = type.equals(DOMNode.Type.TEXT) || type.equals(DOMNode.Type.CDATA_SECTION);
+			break;
+		case COMMENT :
+			matches = type.equals(DOMNode.Type.COMMENT);
+			break;
+		case PROCESSINGINSTRUCTION :
+			matches = type.equals(DOMNode.Type.PROCESSING_INSTRUCTION);
+			break;
+		case ANY :
+			matches = type.equals(path.getPrincipalType(s));
+			break;
+		default ://NAME
+			if (!type.equals(path.getPrincipalType(s))) matches = false;
+			else if (this.html && type.equals(DOMNode.Type.ELEMENT)) matches = this.names[this.name[i]].equalsIgnoreCase(path.getName(s));
+			else matches = this.names[this.name[i]].equals(path.getName(s));
+		}
+		if (matches) out.set(i);
+	}
+
+	/**
+	 * Returns the position of {@code value} in the name table, adding it if needed
+	 * @param interned the name table
+	 * @param value the name to intern
+	 * @return the position of {@code value} in the name table
+	 */
+	private static int intern(Map<String,Integer> interned, String value) {
+		Integer known = interned.get(value);
+		if (known == null) {
+			known = interned.size();
+			interned.put(value, known);
+		}
+		return known;
+	}
+
+	/**
+	 * Growable tables used while the snapshot is taken
+	 * @author AndrewJSel
+	 *
+	 */
+	private static final class Tables {
+
+		/**
+		 * Appends a node to the tables
+		 * @param node the live node
+		 * @param type the type of the node
+		 * @param iParent the parent entry
+		 * @param iName the interned name of the node, or {@code -1}
+		 * @param iValue the character data of the node, or {@code null}
+		 * @return the new entry
+		 */
+		int add(DOMNode node, DOMNode.Type type, int iParent, int iName, String iValue) {
+			if (this.size == this.nodes.length) {
+				int capacity = this.size * 2;
+				this.nodes = Arrays.copyOf(this.nodes, capacity);
+				this.types = Arrays.copyOf(this.types, capacity);
+				this.parent = Arrays.copyOf(this.parent, capacity);
+				this.end = Arrays.copyOf(this.end, capacity);
+				this.firstChild = Arrays.copyOf(this.firstChild, capacity);
+				this.nextSibling = Arrays.copyOf(this.nextSibling, capacity);
+				this.previousSibling = Arrays.copyOf(this.previousSibling, capacity);
+				this.numAttributes = Arrays.copyOf(this.numAttributes, capacity);
+				this.name = Arrays.copyOf(this.name, capacity);
+				this.value = Arrays.copyOf(this.value, capacity);
+			}
+			int i = this.size++;
+			this.nodes[i] = node;
+			this.types[i] = type;
+			this.parent[i] = iParent;
+			this.end[i] = i;
+			this.firstChild[i] = -1;
+			this.nextSibling[i] = -1;
+			this.previousSibling[i] = -1;
+			this.name[i] = iName;
+			this.value[i] = iValue;
+			return i;
+		}
+
+		int size = 0;
+		DOMNode[] nodes = new DOMNode[INITIAL_CAPACITY];
+		DOMNode.Type[] types = new DOMNode.Type[INITIAL_CAPACITY];
+		int[] parent = new int[INITIAL_CAPACITY];
+		int[] end = new int[INITIAL_CAPACITY];
+		int[] firstChild = new int[INITIAL_CAPACITY];
+		int[] nextSibling = new int[INITIAL_CAPACITY];
+		int[] previousSibling = new int[INITIAL_CAPACITY];
+		int[] numAttributes = new int[INITIAL_CAPACITY];
+		int[] name = new int[INITIAL_CAPACITY];
+		String[] value = new String[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * initial size of the tables while the snapshot is taken
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+	/**
+	 * digest algorithm for content hashes
+	 */
+	private static final String CONTENT_DIGEST = "SHA-1";
+	/**
+	 * encoding of names and character data in content hashes
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * the document this snapshot was taken from
+	 */
+	private final DOMDocument document;
+	/**
+	 * number of entries
+	 */
+	private final int size;
+	/**
+	 * live node of each entry
+	 */
+	private final DOMNode[] nodes;
+	/**
+	 * node type of each entry
+	 */
+	private final DOMNode.Type[] types;
+	/**
+	 * parent of each entry ({@code -1} for the document node)
+	 */
+	private final int[] parent;
+	/**
+	 * last entry in the subtree of each entry
+	 */
+	private final int[] end;
+	/**
+	 * first (non-attribute) child of each entry, or {@code -1}
+	 */
+	private final int[] firstChild;
+	/**
+	 * next sibling of each entry, or {@code -1}
+	 */
+	private final int[] nextSibling;
+	/**
+	 * previous sibling of each entry, or {@code -1}
+	 */
+	private final int[] previousSibling;
+	/**
+	 * number of attributes of each entry; attributes are the entries directly following their element
+	 */
+	private final int[] numAttributes;
+	/**
+	 * interned local name of each entry, or {@code -1}
+	 */
+	private final int[] name;
+	/**
+	 * character data of each text, comment, processing instruction and attribute entry
+	 */
+	private final String[] value;
+	/**
+	 * the name table
+	 */
+	private final String[] names;
+	/**
+	 * {@code true} for HTML (case-insensitive) documents, {@code false} otherwise
+	 */
+	private final boolean html;
+	/**
+	 * digest of the content, or {@code null} until first use
+	 */
+	private volatile String contentHash;
+	/**
+	 * entries of the element nodes, in document order
+	 */
+	private final int[] elements;
+	/**
+	 * entries by live node identity; grows as other references to snapshotted nodes are located
+	 */
+	private final Map<DOMNode,Integer> index = new IdentityHashMap<DOMNode,Integer>();
+}
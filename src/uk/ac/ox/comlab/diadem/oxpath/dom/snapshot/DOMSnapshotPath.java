@@ -0,0 +1,254 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing immutable, Java-side snapshots of rendered DOM documents, used to evaluate action-free
+ * navigation without calling into the browser.
+ */
+package uk.ac.ox.comlab.diadem.oxpath.dom.snapshot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import diadem.common.web.dom.DOMNode;
+
+/**
+ * Compiled form of the location paths a {@code DOMSnapshot} can evaluate: one or more <tt>axis::nodetest</tt> (or <tt>@nodetest</tt>)
+ * steps separated by <tt>/</tt>, without predicates, where the node test is a (prefix-free) name, <tt>*</tt> or a node type test.
+ * Anything else (predicates, functions, namespaces, absolute paths) is left to the browser.  Compiled paths are cached.
+ * @author AndrewJSel
+ *
+ */
+final class DOMSnapshotPath {
+
+	/**
+	 * Supported axes
+	 */
+	enum SnapshotAxis {
+		ANCESTOR, ANCESTORORSELF, ATTRIBUTE, CHILD, DESCENDANT, DESCENDANTORSELF, FOLLOWING, FOLLOWINGSIBLING, PARENT, PRECEDING,
+		PRECEDINGSIBLING, SELF
+	}
+
+	/**
+	 * Supported node tests
+	 */
+	enum SnapshotNodeTest {
+		NAME, ANY, NODE, TEXT, COMMENT, PROCESSINGINSTRUCTION
+	}
+
+	/**
+	 * Returns the compiled form of {@code path}
+	 * @param path the location path
+	 * @return the compiled form of {@code path}, or {@code null} if the snapshot can't evaluate {@code path}
+	 */
+	static DOMSnapshotPath compile(String path) {
+		DOMSnapshotPath compiled;
+		synchronized (CACHE) {
+			compiled = CACHE.get(path);
+		}
+		if (compiled == null) {
+			compiled = parse(path);
+			synchronized (CACHE) {
+				CACHE.put(path, compiled);
+			}
+		}
+		return (compiled == UNSUPPORTED) ? null : compiled;
+	}
+
+	/**
+	 * Parses {@code path}
+	 * @param path the location path
+	 * @return the compiled form of {@code path}, or {@code UNSUPPORTED}
+	 */
+	private static DOMSnapshotPath parse(String path) {
+		if (path.isEmpty() || path.startsWith("/") || path.endsWith("/")) return UNSUPPORTED;
+		List<SnapshotAxis> axes = new ArrayList<SnapshotAxis>();
+		List<SnapshotNodeTest> tests = new ArrayList<SnapshotNodeTest>();
+		List<String> names = new ArrayList<String>();
+		for (String step : path.split("/")) {
+			step = step.trim();
+			SnapshotAxis axis;
+			String test;
+			if (step.startsWith("@")) {
+				axis = SnapshotAxis.ATTRIBUTE;
+				test = step.substring(1);
+			}
+			else {
+				int delimiter = step.indexOf("::");
+				if (delimiter < 0) return UNSUPPORTED;
+				axis = AXES.get(step.substring(0, delimiter).trim());
+				if (axis == null) return UNSUPPORTED;
+				test = step.substring(delimiter + 2).trim();
+			}
+			SnapshotNodeTest nodeTest = NODETESTS.get(test);
+			if (nodeTest == null) {
+				if (!isName(test)) return UNSUPPORTED;
+				nodeTest = SnapshotNodeTest.NAME;
+			}
+			axes.add(axis);
+			tests.add(nodeTest);
+			names.add((nodeTest == SnapshotNodeTest.NAME) ? test : null);
+		}
+		return new DOMSnapshotPath(axes.toArray(new SnapshotAxis[axes.size()]), tests.toArray(new SnapshotNodeTest[tests.size()]),
+				names.toArray(new String[names.size()]));
+	}
+
+	/**
+	 * Returns {@code true} if {@code test} is a (prefix-free) XML name
+	 * @param test the node test
+	 * @return {@code true} if {@code test} is a (prefix-free) XML name, {@code false} otherwise
+	 */
+	private static boolean isName(String test) {
+		if (test.isEmpty()) return false;
+		char first = test.charAt(0);
+		if (!Character.isLetter(first) && first != '_') return false;
+		for (int i = 1; i < test.length(); i++) {
+			char c = test.charAt(i);
+			if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a compiled path
+	 * @param iAxes axis of each step
+	 * @param iTests node test of each step
+	 * @param iNames name of each name test step, or {@code null}
+	 */
+	private DOMSnapshotPath(SnapshotAxis[] iAxes, SnapshotNodeTest[] iTests, String[] iNames) {
+		this.axes = iAxes;
+		this.tests = iTests;
+		this.names = iNames;
+	}
+
+	/**
+	 * Returns the number of steps in the path
+	 * @return the number of steps in the path
+	 */
+	int size() {
+		return this.axes.length;
+	}
+
+	/**
+	 * Returns the axis of step {@code s}
+	 * @param s step of the path
+	 * @return the axis of step {@code s}
+	 */
+	SnapshotAxis getAxis(int s) {
+		return this.axes[s];
+	}
+
+	/**
+	 * Returns the node test of step {@code s}
+	 * @param s step of the path
+	 * @return the node test of step {@code s}
+	 */
+	SnapshotNodeTest getNodeTest(int s) {
+		return this.tests[s];
+	}
+
+	/**
+	 * Returns the name of name test step {@code s}
+	 * @param s step of the path
+	 * @return the name of name test step {@code s}
+	 */
+	String getName(int s) {
+		return this.names[s];
+	}
+
+	/**
+	 * Returns the principal node type of step {@code s} (the type matched by name tests and <tt>*</tt>)
+	 * @param s step of the path
+	 * @return the principal node type of step {@code s}
+	 */
+	DOMNode.Type getPrincipalType(int s) {
+		return (this.axes[s] == SnapshotAxis.ATTRIBUTE) ? DOMNode.Type.ATTRIBUTE : DOMNode.Type.ELEMENT;
+	}
+
+	/**
+	 * axis of each step
+	 */
+	private final SnapshotAxis[] axes;
+	/**
+	 * node test of each step
+	 */
+	private final SnapshotNodeTest[] tests;
+	/**
+	 * name of each name test step, or {@code null}
+	 */
+	private final String[] names;
+
+	/**
+	 * marker for paths the snapshot can't evaluate
+	 */
+	private static final DOMSnapshotPath UNSUPPORTED = new DOMSnapshotPath(new SnapshotAxis[0], new SnapshotNodeTest[0], new String[0]);
+	/**
+	 * maximum number of compiled paths kept; paths carry the literals of the query (e.g., pushed down predicates), so there is no bound
+	 * on the number of distinct paths over a long run
+	 */
+	static final int MAXIMUM_CACHED_PATHS = 1024;
+	/**
+	 * compiled paths, least recently used first (guarded by itself)
+	 */
+	private static final Map<String,DOMSnapshotPath> CACHE = new LinkedHashMap<String,DOMSnapshotPath>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,DOMSnapshotPath> eldest) {
+			return this.size() > MAXIMUM_CACHED_PATHS;
+		}
+	};
+	/**
+	 * axes by XPath name
+	 */
+	private static final Map<String,SnapshotAxis> AXES = new HashMap<String,SnapshotAxis>();
+	/**
+	 * node type tests (and <tt>*</tt>) by XPath syntax
+	 */
+	private static final Map<String,SnapshotNodeTest> NODETESTS = new HashMap<String,SnapshotNodeTest>();
+	static {
+		AXES.put("ancestor", SnapshotAxis.ANCESTOR);
+		AXES.put("ancestor-or-self", SnapshotAxis.ANCESTORORSELF);
+		AXES.put("attribute", SnapshotAxis.ATTRIBUTE);
+		AXES.put("child", SnapshotAxis.CHILD);
+		AXES.put("descendant", SnapshotAxis.DESCENDANT);
+		AXES.put("descendant-or-self", SnapshotAxis.DESCENDANTORSELF);
+		AXES.put("following", SnapshotAxis.FOLLOWING);
+		AXES.put("following-sibling", SnapshotAxis.FOLLOWINGSIBLING);
+		AXES.put("parent", SnapshotAxis.PARENT);
+		AXES.put("preceding", SnapshotAxis.PRECEDING);
+		AXES.put("preceding-sibling", SnapshotAxis.PRECEDINGSIBLING);
+		AXES.put("self", SnapshotAxis.SELF);
+		NODETESTS.put("*", SnapshotNodeTest.ANY);
+		NODETESTS.put("node()", SnapshotNodeTest.NODE);
+		NODETESTS.put("text()", SnapshotNodeTest.TEXT);
+		NODETESTS.put("comment()", SnapshotNodeTest.COMMENT);
+		NODETESTS.put("processing-instruction()", SnapshotNodeTest.PROCESSINGINSTRUCTION);
+	}
+}
@@ -29,12 +29,18 @@
  */
 package uk.ac.ox.comlab.diadem.oxpath.model;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.List;
 
+import diadem.common.web.dom.DOMElement;
 import diadem.common.web.dom.DOMNode;
+import diadem.common.web.dom.DOMNodeList;
+import diadem.common.web.dom.DOMNodeSelector;
 import diadem.common.web.dom.xpath.DOMXPathEvaluator;
 import diadem.common.web.dom.xpath.DOMXPathException;
 import diadem.common.web.dom.xpath.DOMXPathResult;
+import uk.ac.ox.comlab.diadem.oxpath.dom.DOMOrdinals;
+import uk.ac.ox.comlab.diadem.oxpath.dom.snapshot.DOMSnapshot;
 import uk.ac.ox.comlab.diadem.oxpath.model.language.Axis;
 import uk.ac.ox.comlab.diadem.oxpath.model.language.AxisType;
 import uk.ac.ox.comlab.diadem.oxpath.model.language.NodeTest;
@@ -64,6 +70,46 @@ public class OXPathContextNode implements Comparable<OXPathContextNode>{
 		last = iLast;
 	}
 
+	/**
+	 * Constructor for nodes of a page loaded by the evaluator, which carry the evaluation's context of the page (and so its snapshot) 
+	 * on to the nodes navigated to from them
+	 * @param iNode DomNode in browser to use
+	 * @param iParent reference to parent marker
+	 * @param iLast reference to current marker
+	 * @param iPageContext the context of the page of {@code iNode}, or {@code null}
+	 */
+	public OXPathContextNode(DOMNode iNode, int iParent, int iLast, OXPathPageContext iPageContext) {
+		this(iNode, iParent, iLast);
+		this.pageContext = iPageContext;
+	}
+
+	/**
+	 * Constructor for the same node as {@code iNode} with other markers, keeping its page context and label
+	 * @param iNode the node
+	 * @param iParent reference to parent marker
+	 * @param iLast reference to current marker
+	 */
+	public OXPathContextNode(OXPathContextNode iNode, int iParent, int iLast) {
+		this(iNode.node, iParent, iLast, iNode.pageContext);
+		this.labels = iNode.labels;
+		this.pre = iNode.pre;
+		this.unlabellable = iNode.unlabellable;
+	}
+
+	/**
+	 * Constructor for nodes taken from a page snapshot, which are labelled with their entry (pre-order index) in the snapshot up front
+	 * @param iNode DomNode in browser to use
+	 * @param iParent reference to parent marker
+	 * @param iLast reference to current marker
+	 * @param iPageContext the context of the page, holding the snapshot {@code iNode} was taken from
+	 * @param iPre the entry of {@code iNode} in the snapshot
+	 */
+	private OXPathContextNode(DOMNode iNode, int iParent, int iLast, OXPathPageContext iPageContext, int iPre) {
+		this(iNode, iParent, iLast, iPageContext);
+		this.labels = iPageContext.getSnapshot();
+		this.pre = iPre;
+	}
+
 	/**
 	 * Gets the object node
 	 * @return the DomNode
@@ -88,6 +134,87 @@ public class OXPathContextNode implements Comparable<OXPathContextNode>{
 		return last;
 	}
 
+	/**
+	 * Gets the context of the page of this node, as created by the evaluator that loaded the page
+	 * @return the context of the page of this node, or {@code null} if the node wasn't reached from a page loaded by the evaluator
+	 */
+	public OXPathPageContext getPageContext() {
+		return this.pageContext;
+	}
+
+	/**
+	 * Gets the snapshot of the page of this node, while the evaluator considers it current
+	 * @return the snapshot of the page of this node, or {@code null} if there is none (or it is no longer current)
+	 */
+	public DOMSnapshot getSnapshot() {
+		return (this.pageContext == null || this instanceof OXPathContextNodeConstructed) ? null : this.pageContext.getSnapshot();
+	}
+
+	/**
+	 * Labels the unlabelled members of {@code nodes[0..size)} with their position in document order, so that they are compared without
+	 * calling into the browser.  Nodes of a page with a current snapshot are labelled with their entry in the snapshot; elements of 
+	 * other pages loaded by the evaluator are labelled with their position among the elements of the page, read for each run of 
+	 * elements of the same page with a single {@code DOMOrdinals} script (which marks the elements), if the run has at least 
+	 * {@code minimum} elements.  Other nodes, and nodes of a page that may have changed since it was loaded, stay unlabelled.
+	 * @param nodes the nodes
+	 * @param size the number of nodes in {@code nodes}
+	 * @param minimum the smallest run of elements worth labelling with a script
+	 */
+	static void label(OXPathContextNode[] nodes, int size, int minimum) {
+		OXPathPageContext runContext = null;
+		List<OXPathContextNode> run = new ArrayList<OXPathContextNode>();
+		for (int i=0; i<size; i++) {
+			OXPathContextNode node = nodes[i];
+			if (node.labels!=null || node.unlabellable || node.node==null || node.pageContext==null || !node.pageContext.isValid()) continue;
+			DOMSnapshot snapshot = node.getSnapshot();
+			if (snapshot!=null) {
+				int pre = snapshot.indexOf(node.node);
+				if (pre>=0) {
+					node.pre = pre;
+					node.labels = snapshot;
+				}
+				continue;
+			}
+			//element wrappers implement DOMElement, so the type is checked without calling into the browser
+			if (!(node.node instanceof DOMElement)) continue;
+			if (node.pageContext!=runContext) {
+				labelRun(runContext, run, minimum);
+				run.clear();
+				runContext = node.pageContext;
+			}
+			run.add(node);
+		}
+		labelRun(runContext, run, minimum);
+	}
+
+	/**
+	 * Labels a run of elements of the page of {@code pageContext} with their position among the elements of the page
+	 * @param pageContext the context of the page of the run
+	 * @param run the elements of the run
+	 * @param minimum the smallest run worth labelling
+	 */
+	private static void labelRun(OXPathPageContext pageContext, List<OXPathContextNode> run, int minimum) {
+		if (run.isEmpty() || run.size()<minimum) return;
+		DOMNode[] elements = new DOMNode[run.size()];
+		for (int i=0; i<elements.length; i++) elements[i] = run.get(i).node;
+		int[] ordinals = DOMOrdinals.ordinals(pageContext.getPage(), elements);
+		if (ordinals==null) return;
+		for (int i=0; i<ordinals.length; i++) {
+			run.get(i).pre = ordinals[i];
+			run.get(i).labels = pageContext;
+		}
+	}
+
+	/**
+	 * Returns {@code true} if this node is labelled, and its label still gives its position in document order, as its page hasn't 
+	 * changed since
+	 * @return {@code true} if this node is labelled with its current position in document order, {@code false} otherwise
+	 */
+	private boolean isLabelCurrent() {
+		if (this.labels==null) return false;
+		return (this.labels==this.pageContext) ? this.pageContext.isValid() : this.labels==this.getSnapshot();
+	}
+
 	@Override
 	public String toString() {
 		return (this.getClass()+ "[" + this.getNode()+", " +this.getParent()+", " +this.getLast() + "]");
@@ -115,8 +242,15 @@ public class OXPathContextNode implements Comparable<OXPathContextNode>{
 	public OXPathType getByXPath(String stepString, boolean forward, boolean returnsNodes) throws OXPathException {
 
 		DOMNode context = this.getNode();
+		//action-free navigation is answered from the page snapshot, if the page has a current one
+		DOMSnapshot snapshot = this.getSnapshot();
+		if (snapshot!=null) {
+			OXPathType fromSnapshot = this.getBySnapshot(snapshot, stepString, forward);
+			if (fromSnapshot!=null) return fromSnapshot;
+		}
 		DOMXPathEvaluator xpathEvaluator = context.getXPathEvaluator();
-		short resultType = (returnsNodes)?DOMXPathResult.UNORDERED_NODE_SNAPSHOT_TYPE:DOMXPathResult.ANY_TYPE;
+		//ordered snapshots are sorted inside the browser, so the nodes can be appended without comparing them
+		short resultType = (returnsNodes)?DOMXPathResult.ORDERED_NODE_SNAPSHOT_TYPE:DOMXPathResult.ANY_TYPE;
 		
 		//since we are passing in XPath, no extraction is encountered, so parent and current are the same
 		DOMXPathResult iResult = xpathEvaluator.evaluate(stepString, context, xpathEvaluator.createNSResolver(context), resultType, null);
@@ -125,20 +259,28 @@ public class OXPathContextNode implements Comparable<OXPathContextNode>{
 		OXPathNodeList nodes;
 		switch(iResult.getResultType()) {
 		case DOMXPathResult.NUMBER_TYPE :
-			return new OXPathType(iResult.getNumberValue());
+			return OXPathType.valueOf(iResult.getNumberValue());
 		case DOMXPathResult.STRING_TYPE :
-			return new OXPathType(iResult.getStringValue());
+			return OXPathType.valueOf(iResult.getStringValue());
 		case DOMXPathResult.BOOLEAN_TYPE :
-			return new OXPathType(iResult.getBooleanValue());
+			return OXPathType.valueOf(iResult.getBooleanValue());
+		case DOMXPathResult.ORDERED_NODE_SNAPSHOT_TYPE :
+			int length = (int) iResult.getSnapshotLength();
+			if (length==0) return OXPathType.EMPTYRESULT;
+			nodes = new OXPathNodeList(length,!forward);
+			for (int i=0; i<length; i++) {
+				nodes.addInDocumentOrder(new OXPathContextNode(iResult.snapshotItem(i),this.getParent(),this.getLast(),this.pageContext));
+			}
+			return OXPathType.valueOf(nodes);
 		case DOMXPathResult.UNORDERED_NODE_SNAPSHOT_TYPE :
-			nodes = (forward)?new OXPathNodeList():new OXPathNodeList(Collections.reverseOrder());
+			nodes = new OXPathNodeList(!forward);
 			for (long i=0; i<iResult.getSnapshotLength(); i++) {
-				nodes.add(new OXPathContextNode(iResult.snapshotItem((int) i),this.getParent(),this.getLast()));
+				nodes.add(new OXPathContextNode(iResult.snapshotItem((int) i),this.getParent(),this.getLast(),this.pageContext));
 			}
 			if (nodes.isEmpty()) return OXPathType.EMPTYRESULT;
-			return new OXPathType(nodes);
+			return OXPathType.valueOf(nodes);
 		case DOMXPathResult.UNORDERED_NODE_ITERATOR_TYPE : //based on our evaluate method above, this should be the only kind of nodeset we see
-			nodes = (forward)?new OXPathNodeList():new OXPathNodeList(Collections.reverseOrder());
+			nodes = new OXPathNodeList(!forward);
 			boolean done = false;
 			boolean rerun = false;
 			while (!done) {
@@ -151,7 +293,7 @@ public class OXPathContextNode implements Comparable<OXPathContextNode>{
 					else {
 						DOMNode node = iResult.iterateNext();
 						if (node==null) done=true;
-						else nodes.add(new OXPathContextNode(node,this.getParent(),this.getLast()));
+						else nodes.add(new OXPathContextNode(node,this.getParent(),this.getLast(),this.pageContext));
 					}
 				} catch (DOMXPathException e) {//it's possible for this to happen between the check and our invocation of iterateNext
 //                    e.printStackTrace();
@@ -160,21 +302,45 @@ public class OXPathContextNode implements Comparable<OXPathContextNode>{
 				}
 			}
 			if (rerun) {
-				iResult = xpathEvaluator.evaluate(stepString, context, xpathEvaluator.createNSResolver(context), DOMXPathResult.UNORDERED_NODE_SNAPSHOT_TYPE, null);
-				nodes = new OXPathNodeList();
-				for (long i=0; i<iResult.getSnapshotLength(); i++) {
-					nodes.add(new OXPathContextNode(iResult.snapshotItem((int) i),this.getParent(),this.getLast()));
+				iResult = xpathEvaluator.evaluate(stepString, context, xpathEvaluator.createNSResolver(context), DOMXPathResult.ORDERED_NODE_SNAPSHOT_TYPE, null);
+				nodes = new OXPathNodeList((int) iResult.getSnapshotLength(),false);
+				for (int i=0; i<iResult.getSnapshotLength(); i++) {
+					nodes.addInDocumentOrder(new OXPathContextNode(iResult.snapshotItem(i),this.getParent(),this.getLast(),this.pageContext));
 				}
 			}
 			if (nodes.isEmpty()) return OXPathType.EMPTYRESULT;
-			return new OXPathType(nodes);//we only sort when necessary
-			//				if (forward) return new OXPathType(nodes.sortForwardOrder());
-			//				else return new OXPathType(nodes.sortReverseOrder());
+			return OXPathType.valueOf(nodes);//we only sort when necessary
+			//				if (forward) return OXPathType.valueOf(nodes.sortForwardOrder());
+			//				else return OXPathType.valueOf(nodes.sortReverseOrder());
 		default :
 			throw new OXPathException ("The browser broke the contract for the XPath evaluator interface!");
 		}
 	}
 
+	/**
+	 * Evaluates {@code stepString} against the {@code DOMSnapshot} of this node's page, without calling into the browser.  Supports 
+	 * location paths of plain steps and the <tt>string(.)</tt> and <tt>number(.)</tt> conversions.
+	 * @param snapshot the snapshot of this node's page
+	 * @param stepString xpath query as a String
+	 * @param forward {@code true} for forward navigation, {@code false} otherwise
+	 * @return the result of {@code stepString}, or {@code null} if it must be evaluated by the browser
+	 */
+	private OXPathType getBySnapshot(DOMSnapshot snapshot, String stepString, boolean forward) {
+		int context = (this.labels==snapshot) ? this.pre : snapshot.indexOf(this.getNode());
+		if (context<0) return null;
+		if (stepString.equals(STRING_VALUE)) return OXPathType.valueOf(snapshot.stringValue(context));
+		if (stepString.equals(NUMBER_VALUE)) return OXPathType.valueOf(OXPathStringValues.toNumber(snapshot.stringValue(context)));
+		int[] selected = snapshot.select(stepString, context);
+		if (selected==null) return null;
+		if (selected.length==0) return OXPathType.EMPTYRESULT;
+		//selections are in ascending pre-order, i.e., document order
+		OXPathNodeList nodes = new OXPathNodeList(selected.length,!forward);
+		for (int i : selected) {
+			nodes.addInDocumentOrder(new OXPathContextNode(snapshot.getNode(i),this.getParent(),this.getLast(),this.pageContext,i));
+		}
+		return OXPathType.valueOf(nodes);
+	}
+
 	/**
 	 * Returns the node by calling the getByXPath in HtmlUnit.  Only use when return value is an XPath nodeset data type.  Shortcut for the more verbose signature of the other {@code getByXPath} method
 	 * @param stepString xpath query as a String
@@ -185,6 +351,24 @@ public class OXPathContextNode implements Comparable<OXPathContextNode>{
 		return this.getByXPath(stepString, true);
 	}
 
+	/**
+	 * Returns the descendant elements of this node matching the CSS {@code selector}, by a single <tt>querySelectorAll</tt> call
+	 * @param selector the CSS selector
+	 * @return OXPathNodeList with all matching descendant elements, in document order
+	 * @throws OXPathException if this node is neither an element nor a document
+	 */
+	public OXPathType getBySelector(String selector) throws OXPathException {
+		if (!(this.getNode() instanceof DOMNodeSelector)) throw new OXPathException("Can only select descendants of elements and documents by CSS, not " + this.getNode());
+		DOMNodeList matches = ((DOMNodeSelector)this.getNode()).querySelectorAll(selector);
+		int length = (int) matches.getLength();
+		if (length==0) return OXPathType.EMPTYRESULT;
+		OXPathNodeList nodes = new OXPathNodeList(length,false);
+		for (int i=0; i<length; i++) {
+			nodes.addInDocumentOrder(new OXPathContextNode(matches.item(i),this.getParent(),this.getLast(),this.pageContext));
+		}
+		return OXPathType.valueOf(nodes);
+	}
+
 	public OXPathType getByOXPath(Step step) throws OXPathException {
 		return this.getByOXPath(step.getAxis(), step.getNodeTest());
 	}
@@ -232,6 +416,11 @@ public class OXPathContextNode implements Comparable<OXPathContextNode>{
 		//compare position of DOMNodes
 		//for this op to be consistent with equals, two OXPath nodes with different parent extraction markers but same DOMNode
 		//aren't allowed; this won't occur if using regular OXPath
+		//nodes labelled alike are compared by label, without calling into the browser, while their page is unchanged
+		if (this.isLabelledLike(other) && this.isLabelCurrent()) {
+			if (this.pre != other.pre) return (this.pre < other.pre) ? -1 : 1;
+			return other.getParent()-this.getParent();
+		}
 		DOMNode n1 = this.getNode();
 		DOMNode n2 = other.getNode();
 		
@@ -262,16 +451,29 @@ public class OXPathContextNode implements Comparable<OXPathContextNode>{
 		return Integer.MAX_VALUE;//we want all Browser-based nodes to be greater than our constructed nodes in the list
 	}
 
+	/**
+	 * Hashes the label of the node, labelling the node first (with a script marking the element, unless the page has a snapshot) if it
+	 * can be labelled; the wrappers of the browser need not hash the same DOM node alike, so the DOM node is only hashed by nodes that 
+	 * can't be labelled.  A node that can't be labelled when first hashed is never labelled later, so its hash code doesn't change.
+	 */
 	@Override
 	public int hashCode() {
+		if (this.labels==null && !this.unlabellable) {
+			label(new OXPathContextNode[] { this }, 1, 1);
+			this.unlabellable = (this.labels==null);
+		}
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + last;
-		result = prime * result + ((node == null) ? 0 : node.hashCode());
+		result = prime * result + ((labels != null) ? pre : (node == null) ? 0 : node.hashCode());
 		result = prime * result + parent;
 		return result;
 	}
 
+	/**
+	 * Compares nodes labelled alike (by the same snapshot, or the same page context) by label, and others with {@code isSameNode}; 
+	 * either way, equal nodes are references to the same DOM node, so labelling only saves browser calls and never changes the result
+	 */
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)
@@ -283,7 +485,10 @@ public class OXPathContextNode implements Comparable<OXPathContextNode>{
 		OXPathContextNode other = (OXPathContextNode) obj;
 		if (last != other.last)
 			return false;
-		if (node == null) {
+		if (this.isLabelledLike(other)) {
+			if (this.pre != other.pre)
+				return false;
+		} else if (node == null) {
 			if (other.node != null)
 				return false;
 		} else if (other.node ==null) {
@@ -295,6 +500,16 @@ public class OXPathContextNode implements Comparable<OXPathContextNode>{
 		return true;
 	}
 
+	/**
+	 * Returns {@code true} if this node and {@code other} are both labelled by the same page snapshot, or the same page context (and so 
+	 * can be compared by label); nodes are labelled by {@code label}, in bulk, never one comparison at a time
+	 * @param other the node to compare with
+	 * @return {@code true} if this node and {@code other} are both labelled alike, {@code false} otherwise
+	 */
+	private boolean isLabelledLike(OXPathContextNode other) {
+		return this.labels != null && this.labels == other.labels;
+	}
+
 	/**
 	 * instance field storing the node
 	 */
@@ -307,11 +522,36 @@ public class OXPathContextNode implements Comparable<OXPathContextNode>{
 	 * instance field storing the reference to the current marker
 	 */
 	private int last;
+	/**
+	 * the context of the page of this node, or {@code null}
+	 */
+	private OXPathPageContext pageContext;
+	/**
+	 * what labels this node: the page snapshot (labels are pre-order indices of the snapshot) or the page context (labels are positions
+	 * among the elements of the page), or {@code null} if unlabelled
+	 */
+	private Object labels;
+	/**
+	 * the label of this node
+	 */
+	private int pre = -1;
+	/**
+	 * {@code true} if the node couldn't be labelled when first hashed, so is never labelled
+	 */
+	private boolean unlabellable;
 	/**
 	 * encodes the notional context node for beginning navigation; the parent and last are both 0, the id for the "results" root in the 
 	 * output
 	 */
 	private static final OXPathContextNode notionalContext = new OXPathContextNodeConstructed("notional","top",0,0);
+	/**
+	 * XPath expression for the string-value of the context node
+	 */
+	private static final String STRING_VALUE = "string(.)";
+	/**
+	 * XPath expression for the numeric value of the context node
+	 */
+	private static final String NUMBER_VALUE = "number(.)";
 	
 	
 	// DocumentPosition constants
@@ -27,7 +27,7 @@ public class OXPathContextNodeConstructed extends OXPathContextNode {
 	 * @param iLast last-sibling extracted id
 	 */
 	public OXPathContextNodeConstructed(String iKey, String iValue, int iParent, int iLast) {
-		super(null,iParent,iLast);
+		super((DOMNode) null,iParent,iLast);
 		this.key = iKey;
 		this.value = iValue;
 	}
@@ -40,7 +40,7 @@ public class OXPathContextNodeConstructed extends OXPathContextNode {
 	 */
 	@Override
 	public OXPathType getByXPath(String path) {
-		return new OXPathType(this.value);
+		return OXPathType.valueOf(this.value);
 	}
 	
 	/**
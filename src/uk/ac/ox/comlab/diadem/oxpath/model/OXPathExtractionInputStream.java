@@ -0,0 +1,171 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing supporting classes, derived from the OXPath model (which itself extends the XPath model).
+ */
+package uk.ac.ox.comlab.diadem.oxpath.model;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads {@code OXPathExtractionNode} instances in the compact binary extraction format written by {@code OXPathExtractionOutputStream} 
+ * (see there for the format).  Like the writer, the reader keeps only the label dictionary, so its memory stays constant however many 
+ * nodes it reads.
+ * @author AndrewJSel
+ *
+ */
+public class OXPathExtractionInputStream extends FilterInputStream {
+
+	/**
+	 * Creates a stream reading extraction nodes from {@code in}, and checks the header of the format
+	 * @param in the underlying input stream (buffering is left to the caller)
+	 * @throws IOException if the header is missing or of a later version
+	 */
+	public OXPathExtractionInputStream(InputStream in) throws IOException {
+		super(in);
+		for (byte magic : OXPathExtractionOutputStream.MAGIC) {
+			if (this.readByte()!=magic) throw new StreamCorruptedException("Not an OXPath extraction stream");
+		}
+		int version = this.readByte();
+		if (version<1 || version>OXPathExtractionOutputStream.VERSION) throw new StreamCorruptedException("Unsupported OXPath extraction stream version " + version);
+	}
+
+	/**
+	 * Reads the next record of the stream
+	 * @return the next extraction node (possibly a completion node, {@code isCompleteNode()}); the end node ({@code isEndNode()}) once 
+	 * the writer signalled the end of extraction
+	 * @throws EOFException if the stream ends before the end node
+	 * @throws IOException in case of a malformed stream or exception reading the underlying stream
+	 */
+	public OXPathExtractionNode readNode() throws IOException {
+		int kind = this.readByte();
+		if (kind==OXPathExtractionOutputStream.END) return OXPathExtractionNode.returnEndNode();
+		if (kind==OXPathExtractionOutputStream.COMPLETE) return OXPathExtractionNode.returnCompleteNode((int) (this.lastId + unzigzag(this.readVarint())));
+		if (kind!=OXPathExtractionOutputStream.RECORD && kind!=OXPathExtractionOutputStream.VALUE && kind!=OXPathExtractionOutputStream.NULL_VALUE) {
+			throw new StreamCorruptedException("Unknown OXPath extraction record kind " + kind);
+		}
+		long id = this.lastId + unzigzag(this.readVarint());
+		long parent = id - unzigzag(this.readVarint());
+		this.lastId = id;
+		String label = this.readLabel();
+		if (kind==OXPathExtractionOutputStream.RECORD) return new OXPathExtractionNode((int) id, (int) parent, label);
+		String value = (kind==OXPathExtractionOutputStream.VALUE) ? this.readString() : null;
+		return new OXPathExtractionNode((int) id, (int) parent, label, value);
+	}
+
+	/**
+	 * Reads a label code, and the label itself if it is defined (or written in full) here
+	 * @return the label
+	 * @throws IOException in case of a malformed stream or exception reading the underlying stream
+	 */
+	private String readLabel() throws IOException {
+		long code = this.readVarint();
+		if (code==0) return this.readString();
+		if (code<=this.labels.size()) return this.labels.get((int) code - 1);
+		if (code!=this.labels.size() + 1 || code>OXPathExtractionOutputStream.MAXIMUM_LABELS) throw new StreamCorruptedException("Undefined OXPath extraction label code " + code);
+		String label = this.readString();
+		this.labels.add(label);
+		return label;
+	}
+
+	/**
+	 * Reads a varint byte length followed by as many UTF-8 bytes
+	 * @return the string
+	 * @throws IOException in case of a malformed stream or exception reading the underlying stream
+	 */
+	private String readString() throws IOException {
+		long length = this.readVarint();
+		if (length>Integer.MAX_VALUE) throw new StreamCorruptedException("OXPath extraction string too long: " + length);
+		byte[] bytes = (length<=this.scratch.length) ? this.scratch : new byte[(int) length];
+		int read = 0;
+		while (read<length) {
+			int count = this.in.read(bytes, read, (int) length - read);
+			if (count<0) throw new EOFException();
+			read += count;
+		}
+		return new String(bytes, 0, (int) length, OXPathExtractionOutputStream.UTF8);
+	}
+
+	/**
+	 * Reads an unsigned varint
+	 * @return the value
+	 * @throws IOException in case of a malformed stream or exception reading the underlying stream
+	 */
+	private long readVarint() throws IOException {
+		long value = 0;
+		for (int shift=0; shift<64; shift+=7) {
+			int b = this.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80)==0) return value;
+		}
+		throw new StreamCorruptedException("Malformed varint in OXPath extraction stream");
+	}
+
+	/**
+	 * Reads one byte
+	 * @return the byte, as an unsigned value
+	 * @throws IOException if the stream ends, or in case of exception reading the underlying stream
+	 */
+	private int readByte() throws IOException {
+		int b = this.in.read();
+		if (b<0) throw new EOFException();
+		return b;
+	}
+
+	/**
+	 * Returns the signed value of the zigzag encoded {@code value}
+	 * @param value the zigzag encoded value
+	 * @return the signed value
+	 */
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * the labels defined so far, by code - 1
+	 */
+	private final List<String> labels = new ArrayList<String>();
+	/**
+	 * reused buffer for short strings
+	 */
+	private final byte[] scratch = new byte[SCRATCH_BYTES];
+	/**
+	 * id of the last node read
+	 */
+	private long lastId = 0;
+
+	/**
+	 * size of the reused buffer for short strings
+	 */
+	private static final int SCRATCH_BYTES = 1024;
+}
@@ -84,6 +84,24 @@ public class OXPathExtractionNode implements Serializable{
 	public boolean isEndNode() {
 		return this.equals(OXPathExtractionNode.endNode);
 	}
+
+	/**
+	 * Returns a completion node, signalling to the {@code OXPathOutputHandler} that the record {@code record} (a child of the results
+	 * node) receives no further descendants, so it can be written out; the id of the completion node is {@code record}
+	 * @param record the id of the complete record
+	 * @return the completion node for {@code record}
+	 */
+	public static OXPathExtractionNode returnCompleteNode(int record) {
+		return new OXPathExtractionNode(record, completeNodeParent, completeNodeLabel);
+	}
+
+	/**
+	 * Determines if the implicit parameter is a completion node; its id is the id of the complete record
+	 * @return {@code true} if the implicit parameter is a completion node; {@code false} otherwise
+	 */
+	public boolean isCompleteNode() {
+		return this.parent==completeNodeParent && completeNodeLabel.equals(this.label);
+	}
 	
 	/**
 	 * Returns id
@@ -175,6 +193,14 @@ public class OXPathExtractionNode implements Serializable{
 	 * static field encoding state information for end node, the node that lets the consumer process know that all input is received and the connection can be closed
 	 */
 	private static final String endNodeValue = "endNodeValue67890";
+	/**
+	 * static field encoding the parent of completion nodes, the nodes that let the consumer process know that a record is complete
+	 */
+	private static final int completeNodeParent = -3;
+	/**
+	 * static field encoding the label of completion nodes, the nodes that let the consumer process know that a record is complete
+	 */
+	private static final String completeNodeLabel = "completeNodeLabel24680";
 	/**
 	 * storage for the end node, signaling to the consumer that all input has been received
 	 */
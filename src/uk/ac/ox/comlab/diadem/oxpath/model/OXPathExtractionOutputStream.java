@@ -0,0 +1,196 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing supporting classes, derived from the OXPath model (which itself extends the XPath model).
+ */
+package uk.ac.ox.comlab.diadem.oxpath.model;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes {@code OXPathExtractionNode} instances in the compact binary extraction format, read back by {@code OXPathExtractionInputStream}.
+ * Unlike an {@code ObjectOutputStream}, the stream keeps no reference to the nodes written, so its memory stays constant however many
+ * nodes it writes.
+ * <p>
+ * The stream starts with the {@code MAGIC} bytes and the format {@code VERSION}.  Each node is then one record: a kind byte 
+ * ({@code RECORD}, {@code VALUE}, {@code NULL_VALUE}, {@code COMPLETE} or {@code END}), then, except for the end, the id (as the zigzag
+ * varint of its difference to the previous id), and, except for completion nodes (whose id is that of the complete record, and doesn't
+ * count as the previous id), the parent (as the zigzag varint of <tt>id - parent</tt>), the label and, for {@code VALUE}, the value
+ * as a varint byte length followed by its UTF-8 bytes.  Labels are coded by a dictionary built as they are written: the varint code 
+ * <tt>k</tt> (for <tt>k&gt;0</tt>) refers to the <tt>k</tt>th label defined, a code one above the last defined defines the next label 
+ * (whose length-prefixed UTF-8 bytes follow), and code 0 introduces a label written in full without entering the dictionary, once the
+ * dictionary holds {@code MAXIMUM_LABELS} labels.
+ * @author AndrewJSel
+ *
+ */
+public class OXPathExtractionOutputStream extends FilterOutputStream {
+
+	/**
+	 * Creates a stream writing extraction nodes to {@code out}, and writes the header of the format
+	 * @param out the underlying output stream (buffering is left to the caller)
+	 * @throws IOException in case of exception writing the header
+	 */
+	public OXPathExtractionOutputStream(OutputStream out) throws IOException {
+		super(out);
+		this.out.write(MAGIC);
+		this.out.write(VERSION);
+	}
+
+	/**
+	 * Writes {@code node} as the next record of the stream
+	 * @param node the extraction node
+	 * @throws IOException in case of exception writing to the underlying stream
+	 */
+	public void writeNode(OXPathExtractionNode node) throws IOException {
+		if (node.isEndNode()) {
+			this.out.write(END);
+			return;
+		}
+		if (node.isCompleteNode()) {
+			this.out.write(COMPLETE);
+			this.writeVarint(zigzag((long) node.getId() - this.lastId));
+			return;
+		}
+		String value = node.getValue();
+		this.out.write((value==null) ? NULL_VALUE : (value.isEmpty()) ? RECORD : VALUE);
+		this.writeVarint(zigzag((long) node.getId() - this.lastId));
+		this.writeVarint(zigzag((long) node.getId() - node.getParent()));
+		this.lastId = node.getId();
+		this.writeLabel(node.getLabel());
+		if (value!=null && !value.isEmpty()) this.writeString(value);
+	}
+
+	/**
+	 * Writes the code of {@code label}, defining it first if it is new
+	 * @param label the label
+	 * @throws IOException in case of exception writing to the underlying stream
+	 */
+	private void writeLabel(String label) throws IOException {
+		Integer code = this.labels.get(label);
+		if (code!=null) {
+			this.writeVarint(code);
+			return;
+		}
+		if (this.labels.size()<MAXIMUM_LABELS) {
+			code = this.labels.size() + 1;
+			this.labels.put(label, code);
+			this.writeVarint(code);
+		}
+		else this.writeVarint(0);
+		this.writeString(label);
+	}
+
+	/**
+	 * Writes {@code string} as its varint byte length followed by its UTF-8 bytes
+	 * @param string the string
+	 * @throws IOException in case of exception writing to the underlying stream
+	 */
+	private void writeString(String string) throws IOException {
+		byte[] bytes = string.getBytes(UTF8);
+		this.writeVarint(bytes.length);
+		this.out.write(bytes);
+	}
+
+	/**
+	 * Writes {@code value} as an unsigned varint: seven bits per byte, least significant first, with the high bit set on all bytes but the last
+	 * @param value the (unsigned) value
+	 * @throws IOException in case of exception writing to the underlying stream
+	 */
+	private void writeVarint(long value) throws IOException {
+		int length = 0;
+		while ((value & ~0x7FL)!=0) {
+			this.varint[length++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.varint[length++] = (byte) value;
+		this.out.write(this.varint, 0, length);
+	}
+
+	/**
+	 * Returns the zigzag encoding of {@code value}, mapping small negative and positive values to small unsigned values
+	 * @param value the signed value
+	 * @return the zigzag encoding of {@code value}
+	 */
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * codes of the labels defined so far
+	 */
+	private final Map<String,Integer> labels = new HashMap<String,Integer>();
+	/**
+	 * scratch buffer for varints
+	 */
+	private final byte[] varint = new byte[10];
+	/**
+	 * id of the last node written
+	 */
+	private long lastId = 0;
+
+	/**
+	 * first bytes of the stream
+	 */
+	static final byte[] MAGIC = {'O','X','P','B'};
+	/**
+	 * version of the format; version 2 added completion nodes
+	 */
+	static final int VERSION = 2;
+	/**
+	 * kind of a record node (with an empty value)
+	 */
+	static final int RECORD = 1;
+	/**
+	 * kind of an attribute node (with a value)
+	 */
+	static final int VALUE = 2;
+	/**
+	 * kind of a node with a {@code null} value
+	 */
+	static final int NULL_VALUE = 3;
+	/**
+	 * kind of a completion node
+	 */
+	static final int COMPLETE = 4;
+	/**
+	 * kind of the end node
+	 */
+	static final int END = 0;
+	/**
+	 * size of the label dictionary; later labels are written in full
+	 */
+	public static final int MAXIMUM_LABELS = 4096;
+	/**
+	 * encoding of labels and values
+	 */
+	static final Charset UTF8 = Charset.forName("UTF-8");
+}
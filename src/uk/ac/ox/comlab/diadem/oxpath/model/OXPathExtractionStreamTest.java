@@ -0,0 +1,130 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing supporting classes, derived from the OXPath model (which itself extends the XPath model).
+ */
+package uk.ac.ox.comlab.diadem.oxpath.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import diadem.common.test.StandardTestCase;
+
+/**
+ * Tests that extraction nodes written by {@code OXPathExtractionOutputStream} are read back unchanged by 
+ * {@code OXPathExtractionInputStream}
+ * @author AndrewJSel
+ *
+ */
+public class OXPathExtractionStreamTest extends StandardTestCase {
+
+	@Test
+	public void roundTripTest() throws IOException {
+		List<OXPathExtractionNode> nodes = new ArrayList<OXPathExtractionNode>();
+		nodes.add(new OXPathExtractionNode(1, 0, "record"));
+		nodes.add(new OXPathExtractionNode(2, 1, "title", "caf\u00e9 \ud83d\ude00 <b>"));
+		nodes.add(new OXPathExtractionNode(3, 1, "price", null));
+		//identifiers of worker extractions needn't increase
+		nodes.add(new OXPathExtractionNode(7, 1, "title", "late"));
+		nodes.add(new OXPathExtractionNode(5, 7, "note", ""));
+		nodes.add(OXPathExtractionNode.returnCompleteNode(1));
+		nodes.add(new OXPathExtractionNode(Integer.MAX_VALUE, 0, "record", "\u0000\n"));
+		nodes.add(OXPathExtractionNode.returnCompleteNode(Integer.MAX_VALUE));
+		assertEquals(nodes, this.roundTrip(nodes));
+	}
+
+	@Test
+	public void labelOverflowTest() throws IOException {
+		//labels beyond the dictionary are written in full
+		List<OXPathExtractionNode> nodes = new ArrayList<OXPathExtractionNode>();
+		for (int i=1; i<=OXPathExtractionOutputStream.MAXIMUM_LABELS + 10; i++) {
+			nodes.add(new OXPathExtractionNode(i, 0, "label" + i, Integer.toString(i)));
+		}
+		nodes.add(new OXPathExtractionNode(OXPathExtractionOutputStream.MAXIMUM_LABELS + 11, 0, "label1", "again"));
+		assertEquals(nodes, this.roundTrip(nodes));
+	}
+
+	@Test
+	public void completeNodeTest() throws IOException {
+		List<OXPathExtractionNode> nodes = new ArrayList<OXPathExtractionNode>();
+		nodes.add(OXPathExtractionNode.returnCompleteNode(42));
+		OXPathExtractionNode read = this.roundTrip(nodes).get(0);
+		assertTrue(read.isCompleteNode());
+		assertEquals(42, read.getId());
+	}
+
+	@Test
+	public void malformedTest() throws IOException {
+		try {
+			new OXPathExtractionInputStream(new ByteArrayInputStream("not a stream".getBytes("UTF-8")));
+			fail("header not checked");
+		} catch (StreamCorruptedException e) {
+			//expected
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OXPathExtractionOutputStream out = new OXPathExtractionOutputStream(bytes);
+		out.writeNode(new OXPathExtractionNode(1, 0, "record"));
+		out.flush();
+		OXPathExtractionInputStream in = new OXPathExtractionInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		in.readNode();
+		try {
+			in.readNode();
+			fail("missing end node not detected");
+		} catch (EOFException e) {
+			//expected
+		}
+	}
+
+	/**
+	 * Writes {@code nodes} and the end node, and reads them back
+	 * @param nodes the nodes
+	 * @return the nodes read, up to the end node
+	 * @throws IOException in case of exception writing or reading the nodes
+	 */
+	private List<OXPathExtractionNode> roundTrip(List<OXPathExtractionNode> nodes) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OXPathExtractionOutputStream out = new OXPathExtractionOutputStream(bytes);
+		for (OXPathExtractionNode node : nodes) out.writeNode(node);
+		out.writeNode(OXPathExtractionNode.returnEndNode());
+		out.flush();
+		OXPathExtractionInputStream in = new OXPathExtractionInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		List<OXPathExtractionNode> read = new ArrayList<OXPathExtractionNode>();
+		for (OXPathExtractionNode node = in.readNode(); !node.isEndNode(); node = in.readNode()) read.add(node);
+		return read;
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing supporting classes, derived from the OXPath model (which itself extends the XPath model).
+ */
+package uk.ac.ox.comlab.diadem.oxpath.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import diadem.common.web.WebBrowser;
+import diadem.common.web.dom.DOMDocument;
+import diadem.common.web.dom.DOMNode;
+import diadem.common.web.dom.DOMNodeList;
+import diadem.common.web.dom.DOMWindow;
+
+import uk.ac.ox.comlab.diadem.oxpath.model.language.Axis;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathDocumentCache;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
+
+/**
+ * Evaluation of the OXPath <tt>field()</tt> and <tt>any-field()</tt> node tests, per page.  The form fields on an axis are selected with
+ * a single union query (<tt>input | select | textarea | button</tt>), and the visibility of all fields of a page is read with a single
+ * script evaluation rather than once per field, by the same definition as {@code DOMNode.isVisible()} (no <tt>display: none</tt> or
+ * <tt>visibility: hidden</tt> on the field or its ancestors), which reads fields the script can't.  Both are kept until the page is
+ * invalidated, so wrappers repeating <tt>field()</tt> steps on the same page don't call the browser again.  Each evaluator has its own 
+ * caches, which the nodes reach through their {@code OXPathPageContext}; nodes without one aren't cached.  Each action of the evaluator
+ * that may change a page must call {@code invalidate(page)} on its caches, which starts a new version of the page.
+ * @author AndrewJSel
+ *
+ */
+public final class OXPathFields {
+
+	/**
+	 * Creates the (empty) field caches of an evaluator
+	 */
+	public OXPathFields() {}
+
+	/**
+	 * Returns the form fields of {@code node} on {@code axis}, in document order
+	 * @param node the context node
+	 * @param axis the axis (a forward or backward XPath axis)
+	 * @param visibleOnly {@code true} for the visible fields only (<tt>field()</tt>), {@code false} for all fields (<tt>any-field()</tt>)
+	 * @return the form fields of {@code node} on {@code axis}
+	 * @throws OXPathException in case of error evaluating the query
+	 */
+	public static OXPathType select(OXPathContextNode node, Axis axis, boolean visibleOnly) throws OXPathException {
+		DOMNode domNode = node.getNode();
+		OXPathFields caches = getCaches(node);
+		DOMDocument page = (caches==null || node instanceof OXPathContextNodeConstructed || domNode==null) ? null : OXPathDocumentCache.getPage(domNode);
+		DOMNode[] fields = (page==null) ? null : caches.fields.get(page, new FieldsKey(domNode, axis.getValue()));
+		if (fields==null) {
+			OXPathNodeList selected = node.getByXPath(query(axis), true, true).nodeList();
+			fields = new DOMNode[selected.size()];
+			int i = 0;
+			for (OXPathContextNode field : selected) {
+				fields[i++] = field.getNode();
+			}
+			if (page!=null) fields = caches.fields.putIfAbsent(page, new FieldsKey(domNode, axis.getValue()), fields);
+		}
+		if (fields.length==0) return OXPathType.EMPTYRESULT;
+		OXPathNodeList result = new OXPathNodeList(fields.length, false);
+		for (DOMNode field : fields) {
+			if (!visibleOnly || ((page==null) ? field.isVisible() : caches.isVisible(page, field))) result.addInDocumentOrder(new OXPathContextNode(field, node.getParent(), node.getLast(), node.getPageContext()));
+		}
+		return (result.isEmpty()) ? OXPathType.EMPTYRESULT : OXPathType.valueOf(result);
+	}
+
+	/**
+	 * Drops the cached fields and visibility of {@code page}, because the page may have changed
+	 * @param page the page
+	 * @return {@code true} if fields or visibility were cached for {@code page}, {@code false} otherwise
+	 */
+	public Boolean invalidate(DOMDocument page) {
+		boolean cleared = this.fields.clear(page);
+		return this.visibility.clear(page) || cleared;
+	}
+
+	/**
+	 * Returns the store of cached fields, to set its caps or read its counters
+	 * @return the store of cached fields
+	 */
+	public OXPathDocumentCache<?,DOMNode[]> getCache() {
+		return this.fields;
+	}
+
+	/**
+	 * Returns the store of cached visibility of fields, to set its caps or read its counters
+	 * @return the store of cached visibility of fields
+	 */
+	public OXPathDocumentCache<?,Boolean> getVisibilityCache() {
+		return this.visibility;
+	}
+
+	/**
+	 * Returns the field caches of the evaluator that reached {@code node}
+	 * @param node the node
+	 * @return the field caches for {@code node}, or {@code null} if the node has no page context
+	 */
+	private static OXPathFields getCaches(OXPathContextNode node) {
+		OXPathPageContext pageContext = node.getPageContext();
+		return (pageContext==null) ? null : pageContext.getFields();
+	}
+
+	/**
+	 * Returns the union query selecting the form fields on {@code axis}
+	 * @param axis the axis
+	 * @return the union query selecting the form fields on {@code axis}
+	 */
+	private static String query(Axis axis) {
+		String query = QUERIES.get(axis.getValue());
+		if (query==null) {
+			StringBuilder sb = new StringBuilder();
+			for (String field : FIELD_NAMES) {
+				if (sb.length()>0) sb.append('|');
+				sb.append(axis.getValue()).append(field);
+			}
+			query = sb.toString();
+			QUERIES.putIfAbsent(axis.getValue(), query);
+		}
+		return query;
+	}
+
+	/**
+	 * Returns if {@code field} is visible, loading the visibility of all fields of {@code page} at once on the first miss
+	 * @param page the page of {@code field}
+	 * @param field the field
+	 * @return {@code true} if {@code field} is visible, {@code false} otherwise
+	 */
+	private boolean isVisible(DOMDocument page, DOMNode field) {
+		Boolean visible = this.visibility.get(page, field);
+		if (visible==null) {
+			this.prefetchVisibility(page);
+			visible = this.visibility.get(page, field);
+			//fields the script didn't cover (e.g., the page isn't the top-level document of its browser) are read one at a time
+			if (visible==null) visible = this.visibility.putIfAbsent(page, field, field.isVisible());
+		}
+		return visible;
+	}
+
+	/**
+	 * Loads the visibility of all fields of {@code page} with a single script evaluation, matched against the fields of the page in
+	 * document order; does nothing unless {@code page} is the top-level document of its browser, where the script runs
+	 * @param page the page
+	 */
+	private void prefetchVisibility(DOMDocument page) {
+		DOMWindow window = page.getEnclosingWindow();
+		WebBrowser browser = (window==null) ? null : window.getBrowser();
+		if (browser==null || !page.equals(browser.getContentDOMWindow().getDocument())) return;
+		Object flags = browser.evaluate(VISIBILITY_SCRIPT);
+		if (!(flags instanceof String)) return;
+		DOMNodeList fields = page.querySelectorAll(FIELD_SELECTOR);
+		//the script and the selector see the same fields in the same order, unless the page changed in between
+		if (fields.getLength()!=((String)flags).length()) return;
+		for (int i=0; i<fields.getLength(); i++) {
+			this.visibility.putIfAbsent(page, fields.item(i), ((String)flags).charAt(i)=='1');
+		}
+	}
+
+	/**
+	 * Key of the fields of a context node on an axis
+	 */
+	private static final class FieldsKey {
+
+		/**
+		 * Creates a new key
+		 * @param iNode the context node
+		 * @param iAxis the axis, as in XPath
+		 */
+		FieldsKey(DOMNode iNode, String iAxis) {
+			this.node = iNode;
+			this.axis = iAxis;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.node.hashCode() + this.axis.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof FieldsKey)) return false;
+			FieldsKey other = (FieldsKey) obj;
+			return this.axis.equals(other.axis) && this.node.equals(other.node);
+		}
+
+		/**
+		 * the context node
+		 */
+		private final DOMNode node;
+		/**
+		 * the axis, as in XPath
+		 */
+		private final String axis;
+	}
+
+	/**
+	 * names of the elements considered by the <tt>field()</tt> and <tt>any-field()</tt> node tests
+	 */
+	private static final String[] FIELD_NAMES = {"input", "select", "textarea", "button"};
+	/**
+	 * CSS selector of all fields of a page, in the order of {@code FIELD_NAMES}
+	 */
+	private static final String FIELD_SELECTOR = "input,select,textarea,button";
+	/**
+	 * script returning a flag ('1' visible, '0' hidden) for each field of the page, in document order; as for {@code DOMNode.isVisible()},
+	 * a field is hidden if it or one of its ancestor elements has the computed <tt>display</tt> <tt>none</tt> or <tt>visibility</tt> 
+	 * <tt>hidden</tt>
+	 */
+	private static final String VISIBILITY_SCRIPT = "var fields = document.querySelectorAll('" + FIELD_SELECTOR + "'); var flags = '';"
+			+ "for (var i = 0; i < fields.length; i++) { var flag = '1';"
+			+ "for (var e = fields[i]; e && e.nodeType == 1; e = e.parentNode) {"
+			+ "var style = window.getComputedStyle(e, null);"
+			+ "if (style && (style.display == 'none' || style.visibility == 'hidden')) { flag = '0'; break; }"
+			+ "} flags += flag; } return flags;";
+	/**
+	 * union queries, by axis
+	 */
+	private static final ConcurrentMap<String,String> QUERIES = new ConcurrentHashMap<String,String>();
+	/**
+	 * default cap on the number of cached field lists
+	 */
+	public static final long DEFAULT_MAXIMUM_ENTRIES = 1L << 16;
+	/**
+	 * cached fields, by page and context node and axis
+	 */
+	private final OXPathDocumentCache<FieldsKey,DOMNode[]> fields = new OXPathDocumentCache<FieldsKey,DOMNode[]>()
+			.setWeigher(new OXPathDocumentCache.Weigher<FieldsKey,DOMNode[]>() {
+				@Override
+				public long weigh(FieldsKey key, DOMNode[] value) {
+					return OXPathDocumentCache.DEFAULT_ENTRY_BYTES + 8 * value.length;
+				}
+			}).setMaximumEntries(DEFAULT_MAXIMUM_ENTRIES).setMaximumPages(OXPathDocumentCache.DEFAULT_MAXIMUM_PAGES);
+	/**
+	 * cached visibility of fields, by page
+	 */
+	private final OXPathDocumentCache<DOMNode,Boolean> visibility = new OXPathDocumentCache<DOMNode,Boolean>()
+			.setMaximumEntries(DEFAULT_MAXIMUM_ENTRIES).setMaximumPages(OXPathDocumentCache.DEFAULT_MAXIMUM_PAGES);
+}
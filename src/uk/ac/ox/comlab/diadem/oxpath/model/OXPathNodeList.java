@@ -29,37 +29,402 @@
  */
 package uk.ac.ox.comlab.diadem.oxpath.model;
 
-import java.util.Comparator;
-import java.util.TreeSet;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 
 /**
  * 
- * Object for holding a set of OXPath context nodes.  We use inheritance instead of composition as we don't make any internal dependendency on the class implementation.
+ * Object for holding a set of OXPath context nodes.  Nodes are kept in a sorted array, in document order (the natural ordering
+ * of {@code OXPathContextNode}); sets of reverse-axis results carry a flag so that iteration (and {@code first()}/{@code last()})
+ * runs backwards over the same array rather than re-sorting it.  Like a {@code TreeSet}, membership is decided by
+ * {@code compareTo}, not {@code equals}.
+ * <p>
+ * Sets are cheap to pass around: {@code addAll} into an empty set and {@code copy()} share the backing array, which is copied
+ * only when one of the sharing sets is next modified.  {@code addAll} and {@code removeAll} with another {@code OXPathNodeList}
+ * are linear merges, and {@code addInDocumentOrder} appends results the browser already returned in document order without
+ * comparing them at all.  Before a merge, the members of both sets are labelled with their position in document order in bulk (see
+ * {@code OXPathContextNode.label}), so that the merge compares labels rather than calling into the browser for each comparison.
  * @author AndrewJSel
  *
  */
-public class OXPathNodeList extends TreeSet<OXPathContextNode> {
+public class OXPathNodeList extends AbstractSet<OXPathContextNode> {
 
+	/**
+	 * Creates an empty, forward ordered set
+	 */
 	public OXPathNodeList() {
-		super();
+		this(false);
 	}
 	
+	/**
+	 * Creates a forward ordered set of {@code node}
+	 * @param node the only member of the set
+	 */
 	public OXPathNodeList(OXPathContextNode node) {
-		super();
+		this(false);
 		this.add(node);
 	}
 	
-	public OXPathNodeList(Comparator<Object> comparator) {
-		super(comparator);
+	/**
+	 * Creates an empty set
+	 * @param iReverse {@code true} to iterate the set in reverse document order (for reverse axes), {@code false} otherwise
+	 */
+	public OXPathNodeList(boolean iReverse) {
+		this.elements = EMPTY;
+		this.reverse = iReverse;
 	}
-	
+
 	/**
-	 * Default id to get rid of compiler warning.  Recommend not serializing - not tested!
+	 * Creates an empty set with room for {@code capacity} nodes
+	 * @param capacity initial capacity of the set
+	 * @param iReverse {@code true} to iterate the set in reverse document order (for reverse axes), {@code false} otherwise
 	 */
-	private static final long serialVersionUID = 1L;
-	
-	
+	public OXPathNodeList(int capacity, boolean iReverse) {
+		this.elements = (capacity>0) ? new OXPathContextNode[capacity] : EMPTY;
+		this.reverse = iReverse;
+	}
 
-	
+	/**
+	 * Returns {@code true} if the set iterates in reverse document order, {@code false} otherwise
+	 * @return {@code true} if the set iterates in reverse document order, {@code false} otherwise
+	 */
+	public boolean isReverse() {
+		return this.reverse;
+	}
+
+	/**
+	 * Returns a set with the same members, sharing this set's array until either set is modified
+	 * @return a set with the same members
+	 */
+	public OXPathNodeList copy() {
+		OXPathNodeList copy = new OXPathNodeList(this.reverse);
+		copy.share(this);
+		return copy;
+	}
+
+	/**
+	 * Returns the first member of the set in iteration order
+	 * @return the first member of the set in iteration order
+	 * @throws NoSuchElementException if the set is empty
+	 */
+	public OXPathContextNode first() {
+		if (this.size==0) throw new NoSuchElementException();
+		return this.elements[(this.reverse) ? this.size-1 : 0];
+	}
+
+	/**
+	 * Returns the last member of the set in iteration order
+	 * @return the last member of the set in iteration order
+	 * @throws NoSuchElementException if the set is empty
+	 */
+	public OXPathContextNode last() {
+		if (this.size==0) throw new NoSuchElementException();
+		return this.elements[(this.reverse) ? 0 : this.size-1];
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return this.size==0;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return (o instanceof OXPathContextNode) && this.search((OXPathContextNode) o)>=0;
+	}
+
+	@Override
+	public boolean add(OXPathContextNode node) {
+		//results mostly arrive in document order, so try appending before searching
+		if (this.size==0 || this.elements[this.size-1].compareTo(node)<0) {
+			this.ensureWritable(this.size+1);
+			this.elements[this.size++] = node;
+			++this.modCount;
+			return true;
+		}
+		int position = this.search(node);
+		if (position>=0) return false;
+		position = -(position+1);
+		this.ensureWritable(this.size+1);
+		System.arraycopy(this.elements, position, this.elements, position+1, this.size-position);
+		this.elements[position] = node;
+		++this.size;
+		++this.modCount;
+		return true;
+	}
+
+	/**
+	 * Appends {@code node} without comparing it to the other members.  The caller guarantees that {@code node} follows all members
+	 * of the set in document order, as it does when copying an ordered snapshot returned by the browser.
+	 * @param node the node to append
+	 */
+	public void addInDocumentOrder(OXPathContextNode node) {
+		this.ensureWritable(this.size+1);
+		this.elements[this.size++] = node;
+		++this.modCount;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends OXPathContextNode> c) {
+		if (!(c instanceof OXPathNodeList)) return super.addAll(c);
+		OXPathNodeList other = (OXPathNodeList) c;
+		if (other.size==0 || other==this) return false;
+		if (this.size==0) {
+			this.share(other);
+			return true;
+		}
+		//disjoint, ordered ranges are concatenated; anything else is merged
+		if (this.elements[this.size-1].compareTo(other.elements[0])<0) {
+			this.ensureWritable(this.size+other.size);
+			System.arraycopy(other.elements, 0, this.elements, this.size, other.size);
+			this.size += other.size;
+			++this.modCount;
+			return true;
+		}
+		this.label();
+		other.label();
+		OXPathContextNode[] merged = new OXPathContextNode[this.size+other.size];
+		int i = 0, j = 0, k = 0;
+		while (i<this.size && j<other.size) {
+			int comparison = this.elements[i].compareTo(other.elements[j]);
+			if (comparison<0) merged[k++] = this.elements[i++];
+			else if (comparison>0) merged[k++] = other.elements[j++];
+			else {
+				merged[k++] = this.elements[i++];
+				j++;
+			}
+		}
+		while (i<this.size) merged[k++] = this.elements[i++];
+		while (j<other.size) merged[k++] = other.elements[j++];
+		boolean changed = k!=this.size;
+		this.elements = merged;
+		this.size = k;
+		this.shared = false;
+		++this.modCount;
+		return changed;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (!(o instanceof OXPathContextNode)) return false;
+		int position = this.search((OXPathContextNode) o);
+		if (position<0) return false;
+		this.removeAt(position);
+		return true;
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		if (!(c instanceof OXPathNodeList)) {
+			boolean changed = false;
+			for (Object o : c) {
+				changed |= this.remove(o);
+			}
+			return changed;
+		}
+		OXPathNodeList other = (OXPathNodeList) c;
+		if (this.size==0 || other.size==0) return false;
+		if (other==this) {
+			this.clear();
+			return true;
+		}
+		this.label();
+		other.label();
+		OXPathContextNode[] kept = new OXPathContextNode[this.size];
+		int i = 0, j = 0, k = 0;
+		while (i<this.size && j<other.size) {
+			int comparison = this.elements[i].compareTo(other.elements[j]);
+			if (comparison<0) kept[k++] = this.elements[i++];
+			else if (comparison>0) j++;
+			else {
+				i++;
+				j++;
+			}
+		}
+		while (i<this.size) kept[k++] = this.elements[i++];
+		if (k==this.size) return false;
+		this.elements = kept;
+		this.size = k;
+		this.shared = false;
+		++this.modCount;
+		return true;
+	}
+
+	/**
+	 * Replaces the members of the set with the single {@code node}, reusing the set's array unless it is shared; used for the reusable
+	 * singleton context sets of the evaluator
+	 * @param node the only member of the set
+	 */
+	public void reset(OXPathContextNode node) {
+		if (this.shared || this.elements.length==0) {
+			this.elements = new OXPathContextNode[MIN_CAPACITY];
+			this.shared = false;
+		}
+		else if (this.size>1) Arrays.fill(this.elements, 1, this.size, null);
+		this.elements[0] = node;
+		this.size = 1;
+		++this.modCount;
+	}
+
+	@Override
+	public void clear() {
+		this.elements = EMPTY;
+		this.size = 0;
+		this.shared = false;
+		++this.modCount;
+	}
+
+	@Override
+	public Iterator<OXPathContextNode> iterator() {
+		return new Iterator<OXPathContextNode>() {
+
+			@Override
+			public boolean hasNext() {
+				return this.returned<OXPathNodeList.this.size;
+			}
+
+			@Override
+			public OXPathContextNode next() {
+				if (this.expectedModCount!=OXPathNodeList.this.modCount) throw new ConcurrentModificationException();
+				if (!this.hasNext()) throw new NoSuchElementException();
+				this.current = this.index(this.returned++);
+				return OXPathNodeList.this.elements[this.current];
+			}
+
+			@Override
+			public void remove() {
+				if (this.current<0) throw new IllegalStateException();
+				if (this.expectedModCount!=OXPathNodeList.this.modCount) throw new ConcurrentModificationException();
+				OXPathNodeList.this.removeAt(this.current);
+				//the set shrank by one, so the same iteration position now maps to the next member
+				this.returned--;
+				this.current = -1;
+				this.expectedModCount = OXPathNodeList.this.modCount;
+			}
+
+			/**
+			 * Maps iteration position {@code i} to an array index
+			 * @param i the iteration position
+			 * @return the array index of iteration position {@code i}
+			 */
+			private int index(int i) {
+				return (OXPathNodeList.this.reverse) ? OXPathNodeList.this.size-1-i : i;
+			}
+
+			/**
+			 * number of members returned (or removed)
+			 */
+			private int returned = 0;
+			/**
+			 * array index of the member last returned, or {@code -1}
+			 */
+			private int current = -1;
+			/**
+			 * modification count of the set the iterator is valid for
+			 */
+			private int expectedModCount = OXPathNodeList.this.modCount;
+		};
+	}
+
+	/**
+	 * Labels the members of the set with their position in document order, where they can be labelled in bulk
+	 */
+	private void label() {
+		OXPathContextNode.label(this.elements, this.size, MIN_LABELLED_RUN);
+	}
+
+	/**
+	 * Binary search for {@code node}
+	 * @param node the node to search for
+	 * @return the index of {@code node}, or <tt>(-(insertion point) - 1)</tt>, as in {@code Arrays.binarySearch}
+	 */
+	private int search(OXPathContextNode node) {
+		int low = 0;
+		int high = this.size-1;
+		while (low<=high) {
+			int mid = (low+high) >>> 1;
+			int comparison = this.elements[mid].compareTo(node);
+			if (comparison<0) low = mid+1;
+			else if (comparison>0) high = mid-1;
+			else return mid;
+		}
+		return -(low+1);
+	}
+
+	/**
+	 * Removes the member at array index {@code position}
+	 * @param position the array index
+	 */
+	private void removeAt(int position) {
+		this.ensureWritable(this.size);
+		System.arraycopy(this.elements, position+1, this.elements, position, this.size-position-1);
+		this.elements[--this.size] = null;
+		++this.modCount;
+	}
+
+	/**
+	 * Takes over the members of {@code other}, sharing its array
+	 * @param other the set to share the array of
+	 */
+	private void share(OXPathNodeList other) {
+		this.elements = other.elements;
+		this.size = other.size;
+		this.shared = true;
+		other.shared = true;
+		++this.modCount;
+	}
+
+	/**
+	 * Makes sure the set owns an array with room for {@code capacity} nodes, copying the array if it is shared or too small
+	 * @param capacity the capacity needed
+	 */
+	private void ensureWritable(int capacity) {
+		if (!this.shared && capacity<=this.elements.length) return;
+		int length = Math.max(capacity, (this.shared) ? this.size : this.elements.length + (this.elements.length >> 1));
+		this.elements = Arrays.copyOf(this.elements, Math.max(length, MIN_CAPACITY));
+		this.shared = false;
+	}
+
+	/**
+	 * members of the set, in document order, in {@code elements[0..size)}
+	 */
+	private OXPathContextNode[] elements;
+	/**
+	 * number of members of the set
+	 */
+	private int size;
+	/**
+	 * {@code true} if the set iterates in reverse document order, {@code false} otherwise
+	 */
+	private final boolean reverse;
+	/**
+	 * {@code true} if {@code elements} may be referenced by another set, so must be copied before modification
+	 */
+	private boolean shared;
+	/**
+	 * number of structural modifications, for fail-fast iterators
+	 */
+	private int modCount;
+
+	/**
+	 * array of empty sets
+	 */
+	private static final OXPathContextNode[] EMPTY = new OXPathContextNode[0];
+	/**
+	 * smallest array allocated on growth
+	 */
+	private static final int MIN_CAPACITY = 8;
+	/**
+	 * smallest run of elements of a page labelled with a script before a merge; smaller runs are compared in the browser
+	 */
+	private static final int MIN_LABELLED_RUN = 8;
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing supporting classes, derived from the OXPath model (which itself extends the XPath model).
+ */
+package uk.ac.ox.comlab.diadem.oxpath.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import diadem.common.test.StandardTestCase;
+import diadem.common.web.dom.DOMNode;
+
+/**
+ * Tests the sorted-array set operations of {@code OXPathNodeList} over stand-in DOM nodes ordered by a position, without a browser
+ * @author AndrewJSel
+ *
+ */
+public class OXPathNodeListTest extends StandardTestCase {
+
+	@Test
+	public void addTest() {
+		OXPathNodeList list = list(5, 1, 3, 1, 9, 3);
+		assertEquals(Arrays.asList(1, 3, 5, 9), positions(list));
+		assertTrue(list.contains(node(5)));
+		assertFalse(list.contains(node(4)));
+		assertEquals(1, position(list.first()));
+		assertEquals(9, position(list.last()));
+	}
+
+	@Test
+	public void mergeTest() {
+		OXPathNodeList list = list(1, 4, 6, 10);
+		assertTrue(list.addAll(list(2, 4, 7, 12)));
+		assertEquals(Arrays.asList(1, 2, 4, 6, 7, 10, 12), positions(list));
+		assertFalse(list.addAll(list(4, 10)));
+		//disjoint ranges are concatenated
+		assertTrue(list.addAll(list(20, 30)));
+		assertEquals(Arrays.asList(1, 2, 4, 6, 7, 10, 12, 20, 30), positions(list));
+	}
+
+	@Test
+	public void sharingTest() {
+		OXPathNodeList source = list(1, 2, 3);
+		OXPathNodeList shared = new OXPathNodeList();
+		shared.addAll(source);
+		OXPathNodeList copy = source.copy();
+		shared.add(node(4));
+		copy.remove(node(1));
+		assertEquals(Arrays.asList(1, 2, 3), positions(source));
+		assertEquals(Arrays.asList(1, 2, 3, 4), positions(shared));
+		assertEquals(Arrays.asList(2, 3), positions(copy));
+	}
+
+	@Test
+	public void removeAllTest() {
+		OXPathNodeList list = list(1, 2, 4, 6, 7, 10);
+		assertTrue(list.removeAll(list(0, 2, 6, 8, 10, 11)));
+		assertEquals(Arrays.asList(1, 4, 7), positions(list));
+		assertFalse(list.removeAll(list(3, 5)));
+		assertTrue(list.removeAll(Arrays.asList(node(4))));
+		assertEquals(Arrays.asList(1, 7), positions(list));
+		assertTrue(list.removeAll(list));
+		assertTrue(list.isEmpty());
+	}
+
+	@Test
+	public void reverseTest() {
+		OXPathNodeList list = new OXPathNodeList(true);
+		list.addAll(list(3, 1, 2));
+		assertEquals(Arrays.asList(3, 2, 1), positions(list));
+		assertEquals(3, position(list.first()));
+		assertEquals(1, position(list.last()));
+	}
+
+	/**
+	 * Returns a forward set of the nodes at {@code positions}
+	 * @param positions the positions of the nodes
+	 * @return the set of the nodes
+	 */
+	private static OXPathNodeList list(int... positions) {
+		OXPathNodeList list = new OXPathNodeList();
+		for (int position : positions) list.add(node(position));
+		return list;
+	}
+
+	/**
+	 * Returns the positions of the members of {@code list}, in iteration order
+	 * @param list the set
+	 * @return the positions of the members of {@code list}
+	 */
+	private static List<Integer> positions(OXPathNodeList list) {
+		List<Integer> positions = new ArrayList<Integer>();
+		for (OXPathContextNode node : list) positions.add(position(node));
+		return positions;
+	}
+
+	/**
+	 * Returns a context node of a stand-in DOM node at {@code position} in document order
+	 * @param position the position
+	 * @return the context node
+	 */
+	private static OXPathContextNode node(int position) {
+		DOMNode node = (DOMNode) Proxy.newProxyInstance(DOMNode.class.getClassLoader(), new Class<?>[] {DOMNode.class}, new Position(position));
+		return new OXPathContextNode(node, 0, 0);
+	}
+
+	/**
+	 * Returns the position of the stand-in DOM node of {@code node}
+	 * @param node the context node
+	 * @return the position
+	 */
+	private static int position(OXPathContextNode node) {
+		return ((Position) Proxy.getInvocationHandler(node.getNode())).position;
+	}
+
+	/**
+	 * Stand-in DOM node, ordered by its position
+	 */
+	private static final class Position implements InvocationHandler {
+
+		/**
+		 * Creates a stand-in node
+		 * @param iPosition the position of the node in document order
+		 */
+		Position(int iPosition) {
+			this.position = iPosition;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if (name.equals("compareDocumentPosition")) {
+				int other = ((Position) Proxy.getInvocationHandler(args[0])).position;
+				return (short) ((other<this.position) ? PRECEDING : (other>this.position) ? FOLLOWING : 0);
+			}
+			if (name.equals("isSameNode") || name.equals("equals")) {
+				return args[0] instanceof DOMNode && ((Position) Proxy.getInvocationHandler(args[0])).position==this.position;
+			}
+			if (name.equals("hashCode")) return this.position;
+			if (name.equals("toString")) return "node " + this.position;
+			return null;
+		}
+
+		/**
+		 * the position of the node in document order
+		 */
+		final int position;
+	}
+
+	/**
+	 * {@code compareDocumentPosition} flag of a node preceding the reference node
+	 */
+	private static final int PRECEDING = 0x02;
+	/**
+	 * {@code compareDocumentPosition} flag of a node following the reference node
+	 */
+	private static final int FOLLOWING = 0x04;
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing supporting classes, derived from the OXPath model (which itself extends the XPath model).
+ */
+package uk.ac.ox.comlab.diadem.oxpath.model;
+
+import diadem.common.web.dom.DOMDocument;
+
+import uk.ac.ox.comlab.diadem.oxpath.dom.snapshot.DOMSnapshot;
+
+/**
+ * The view one evaluation has of a loaded page, holding the {@code DOMSnapshot} taken of the page when snapshot evaluation is enabled.
+ * The evaluator creates a page context after each page load and hands it to the context nodes of the page, which pass it on to the 
+ * nodes navigated to from them; so the model reaches the state of its own evaluation through the nodes, without any registry shared by 
+ * evaluations.  The evaluator invalidates the page context as soon as one of its actions could change the page, after which the 
+ * snapshot is no longer used.  A page loaded by a plain GET of its location also records the location, so the page can be loaded again
+ * (as by the workers of a {@code PAATBrowserPool}); pages reached by other actions (clicks, form submissions) don't.
+ * @author AndrewJSel
+ *
+ */
+public final class OXPathPageContext {
+
+	/**
+	 * Creates the context of a freshly loaded page
+	 * @param iPage the page
+	 * @param iSnapshot the snapshot of {@code iPage}, or {@code null} if the page is evaluated over the live DOM
+	 * @param iLocation the location {@code iPage} was loaded from by a plain GET, or {@code null} if it was reached otherwise
+	 * @param iStringValues the string-value cache of the evaluation, or {@code null}
+	 * @param iFields the field caches of the evaluation, or {@code null}
+	 * @param iStyles the computed-style cache of the evaluation, or {@code null}
+	 */
+	public OXPathPageContext(DOMDocument iPage, DOMSnapshot iSnapshot, String iLocation, OXPathStringValues iStringValues, OXPathFields iFields, OXPathStyles iStyles) {
+		this.page = iPage;
+		this.snapshot = iSnapshot;
+		this.location = iLocation;
+		this.stringValues = iStringValues;
+		this.fields = iFields;
+		this.styles = iStyles;
+	}
+
+	/**
+	 * Returns the page
+	 * @return the page
+	 */
+	public DOMDocument getPage() {
+		return this.page;
+	}
+
+	/**
+	 * Returns the snapshot of the page, while the page context is valid
+	 * @return the snapshot of the page, or {@code null} if there is none or the page context is invalidated
+	 */
+	public DOMSnapshot getSnapshot() {
+		return (this.valid) ? this.snapshot : null;
+	}
+
+	/**
+	 * Returns the location from which a GET loads the page again, while the page context is valid
+	 * @return the location of the page, or {@code null} if the page wasn't loaded by a plain GET or the page context is invalidated
+	 */
+	public String getReloadableLocation() {
+		return (this.valid) ? this.location : null;
+	}
+
+	/**
+	 * Returns the string-value cache of the evaluation
+	 * @return the string-value cache of the evaluation, or {@code null} if string-values aren't cached
+	 */
+	public OXPathStringValues getStringValues() {
+		return this.stringValues;
+	}
+
+	/**
+	 * Returns the field caches of the evaluation
+	 * @return the field caches of the evaluation, or {@code null} if fields aren't cached
+	 */
+	public OXPathFields getFields() {
+		return this.fields;
+	}
+
+	/**
+	 * Returns the computed-style cache of the evaluation
+	 * @return the computed-style cache of the evaluation, or {@code null} if computed styles aren't cached
+	 */
+	public OXPathStyles getStyles() {
+		return this.styles;
+	}
+
+	/**
+	 * Returns {@code true} until the page context is invalidated
+	 * @return {@code true} until the page context is invalidated, {@code false} afterwards
+	 */
+	public boolean isValid() {
+		return this.valid;
+	}
+
+	/**
+	 * Invalidates the page context, because an action may have changed the page
+	 */
+	public void invalidate() {
+		this.valid = false;
+	}
+
+	/**
+	 * the page
+	 */
+	private final DOMDocument page;
+	/**
+	 * the snapshot of the page, or {@code null}
+	 */
+	private final DOMSnapshot snapshot;
+	/**
+	 * the location the page was loaded from by a plain GET, or {@code null}
+	 */
+	private final String location;
+	/**
+	 * the string-value cache of the evaluation, or {@code null}
+	 */
+	private final OXPathStringValues stringValues;
+	/**
+	 * the field caches of the evaluation, or {@code null}
+	 */
+	private final OXPathFields fields;
+	/**
+	 * the computed-style cache of the evaluation, or {@code null}
+	 */
+	private final OXPathStyles styles;
+	/**
+	 * {@code true} until the page context is invalidated
+	 */
+	private volatile boolean valid = true;
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing supporting classes, derived from the OXPath model (which itself extends the XPath model).
+ */
+package uk.ac.ox.comlab.diadem.oxpath.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import diadem.common.web.dom.DOMDocument;
+import diadem.common.web.dom.DOMElement;
+import diadem.common.web.dom.DOMNode;
+
+import uk.ac.ox.comlab.diadem.oxpath.dom.DOMMarks;
+import uk.ac.ox.comlab.diadem.oxpath.dom.snapshot.DOMSnapshot;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathDocumentCache;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
+
+/**
+ * Cache of XPath string-values (<tt>string(.)</tt>) of nodes, per page.  Operators and functions converting node-sets to strings or 
+ * numbers read string-values through this class rather than evaluating <tt>string(.)</tt> in the browser once per node and per 
+ * predicate.  Values come from the current {@code DOMSnapshot} of the page when there is one; otherwise each value is read once (for
+ * a whole node-set, with a single script, see {@code prefetch}) and kept until the page is invalidated.  Each evaluator has its own cache, like its memo 
+ * caches, which the nodes reach through their {@code OXPathPageContext}; nodes without one aren't cached.  Each action of the evaluator
+ * that may change a page must call {@code invalidate(page)} on its cache, which starts a new version of the page.
+ * @author AndrewJSel
+ *
+ */
+public final class OXPathStringValues {
+
+	/**
+	 * Creates the (empty) string-value cache of an evaluator
+	 */
+	public OXPathStringValues() {}
+
+	/**
+	 * Returns the XPath string-value of {@code node}
+	 * @param node the node
+	 * @return the XPath string-value of {@code node}
+	 * @throws OXPathException in case of error reading the string-value
+	 */
+	public static String get(OXPathContextNode node) throws OXPathException {
+		DOMNode domNode = node.getNode();
+		DOMDocument page = (node instanceof OXPathContextNodeConstructed || domNode==null) ? null : OXPathDocumentCache.getPage(domNode);
+		if (page==null) return node.getByXPath(STRING_VALUE).string();
+		DOMSnapshot snapshot = node.getSnapshot();
+		if (snapshot!=null) {
+			int i = snapshot.indexOf(domNode);
+			if (i>=0) return snapshot.stringValue(i);
+		}
+		OXPathDocumentCache<DOMNode,String> cache = getCache(node);
+		if (cache==null) return fetch(domNode);
+		String value = cache.get(page, domNode);
+		if (value==null) value = cache.putIfAbsent(page, domNode, fetch(domNode));
+		return value;
+	}
+
+	/**
+	 * Returns the XPath string-value of {@code node} converted to a number with the XPath <tt>number()</tt> function
+	 * @param node the node
+	 * @return the string-value of {@code node} as a number, or {@code NaN}
+	 * @throws OXPathException in case of error reading the string-value
+	 */
+	public static double number(OXPathContextNode node) throws OXPathException {
+		return toNumber(get(node));
+	}
+
+	/**
+	 * Loads the string-values of all {@code nodes} into the cache at once, before a conversion of the whole node-set; nodes of pages 
+	 * with a current snapshot are skipped, as their values never need the browser.  The text of the elements of a page is read with a
+	 * single script evaluation (see {@code DOMMarks}), other nodes (and elements the script can't read) one at a time.
+	 * @param nodes the nodes
+	 * @throws OXPathException in case of error reading the string-values
+	 */
+	public static void prefetch(Collection<OXPathContextNode> nodes) throws OXPathException {
+		//runs of elements of the same page, cached by the same evaluator, are read together
+		OXPathDocumentCache<DOMNode,String> runCache = null;
+		DOMDocument runPage = null;
+		List<DOMNode> run = new ArrayList<DOMNode>();
+		for (OXPathContextNode node : nodes) {
+			DOMNode domNode = node.getNode();
+			if (node instanceof OXPathContextNodeConstructed || domNode==null || node.getSnapshot()!=null) continue;
+			OXPathDocumentCache<DOMNode,String> cache = getCache(node);
+			if (cache==null) continue;
+			DOMDocument page = OXPathDocumentCache.getPage(domNode);
+			if (page==null || cache.get(page, domNode)!=null) continue;
+			if (!(domNode instanceof DOMElement)) {
+				cache.putIfAbsent(page, domNode, fetch(domNode));
+				continue;
+			}
+			if (cache!=runCache || !page.equals(runPage)) {
+				load(runCache, runPage, run);
+				run.clear();
+				runCache = cache;
+				runPage = page;
+			}
+			run.add(domNode);
+		}
+		load(runCache, runPage, run);
+	}
+
+	/**
+	 * Drops the cached string-values of {@code page}, because the page may have changed
+	 * @param page the page
+	 * @return {@code true} if string-values were cached for {@code page}, {@code false} otherwise
+	 */
+	public Boolean invalidate(DOMDocument page) {
+		return this.cache.clear(page);
+	}
+
+	/**
+	 * Returns the store of cached string-values, to set its caps or read its counters
+	 * @return the store of cached string-values
+	 */
+	public OXPathDocumentCache<?,String> getCache() {
+		return this.cache;
+	}
+
+	/**
+	 * Returns the store of cached string-values of the evaluator that reached {@code node}
+	 * @param node the node
+	 * @return the store of cached string-values for {@code node}, or {@code null} if the node has no page context
+	 */
+	private static OXPathDocumentCache<DOMNode,String> getCache(OXPathContextNode node) {
+		OXPathPageContext pageContext = node.getPageContext();
+		return (pageContext==null || pageContext.getStringValues()==null) ? null : pageContext.getStringValues().cache;
+	}
+
+	/**
+	 * Caches the string-values of a run of {@code elements} of {@code page}, read with a single script evaluation unless the run is too
+	 * small to be worth marking the elements, or the script can't read them
+	 * @param cache the cache
+	 * @param page the page of the run
+	 * @param elements the elements of the run
+	 */
+	private static void load(OXPathDocumentCache<DOMNode,String> cache, DOMDocument page, List<DOMNode> elements) {
+		if (elements.isEmpty()) return;
+		String[] values = (elements.size()<BATCH_THRESHOLD) ? null : DOMMarks.evaluate(page, elements.toArray(new DOMNode[elements.size()]), TEXT_CONTENT);
+		for (int i=0; i<elements.size(); i++) {
+			String value = (values==null) ? fetch(elements.get(i)) : values[i];
+			cache.putIfAbsent(page, elements.get(i), (value==null) ? "" : value);
+		}
+	}
+
+	/**
+	 * Converts {@code value} to a number, following the XPath <tt>number()</tt> function
+	 * @param value the string to convert
+	 * @return the number encoded by {@code value}, or {@code NaN}
+	 */
+	public static double toNumber(String value) {
+		String trimmed = value.trim();
+		if (!NUMBER.matcher(trimmed).matches()) return Double.NaN;
+		return Double.parseDouble(trimmed);
+	}
+
+	/**
+	 * Reads the XPath string-value of {@code node} from the browser: the text content of elements (the concatenated descendant text, as 
+	 * in XPath), of the document element for the document, and the node value of other nodes
+	 * @param node the node
+	 * @return the XPath string-value of {@code node}
+	 */
+	private static String fetch(DOMNode node) {
+		String value;
+		switch (node.getNodeType()) {
+		case DOCUMENT :
+			DOMNode documentElement = ((DOMDocument) node).getDocumentElement();
+			value = (documentElement==null) ? null : documentElement.getTextContent();
+			break;
+		case ELEMENT :
+			value = node.getTextContent();
+			break;
+		default :
+			value = node.getNodeValue();
+		}
+		return (value==null) ? "" : value;
+	}
+
+	/**
+	 * Runs of fewer elements than this are read one element at a time
+	 */
+	public static final int BATCH_THRESHOLD = 8;
+	/**
+	 * script expression for the string-value of an element
+	 */
+	private static final String TEXT_CONTENT = "element.textContent";
+	/**
+	 * the string-value conversion, as evaluated by the browser
+	 */
+	private static final String STRING_VALUE = "string(.)";
+	/**
+	 * XPath numbers: an optional minus, digits, and an optional decimal point; no exponents or hex
+	 */
+	private static final Pattern NUMBER = Pattern.compile("-?([0-9]+(\\.[0-9]*)?|\\.[0-9]+)");
+	/**
+	 * default cap on the estimated size (in bytes) of the cached string-values
+	 */
+	public static final long DEFAULT_MAXIMUM_BYTES = 32L << 20;
+	/**
+	 * cached string-values, by page
+	 */
+	private final OXPathDocumentCache<DOMNode,String> cache = new OXPathDocumentCache<DOMNode,String>()
+			.setWeigher(new OXPathDocumentCache.Weigher<DOMNode,String>() {
+				@Override
+				public long weigh(DOMNode key, String value) {
+					return OXPathDocumentCache.DEFAULT_ENTRY_BYTES + 2 * value.length();
+				}
+			}).setMaximumBytes(DEFAULT_MAXIMUM_BYTES).setMaximumPages(OXPathDocumentCache.DEFAULT_MAXIMUM_PAGES);
+}
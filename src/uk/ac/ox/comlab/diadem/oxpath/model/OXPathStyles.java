@@ -0,0 +1,431 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing supporting classes, derived from the OXPath model (which itself extends the XPath model).
+ */
+package uk.ac.ox.comlab.diadem.oxpath.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import diadem.common.web.WebBrowser;
+import diadem.common.web.dom.DOMCSSStyleDeclaration;
+import diadem.common.web.dom.DOMDocument;
+import diadem.common.web.dom.DOMElement;
+import diadem.common.web.dom.DOMNode;
+import diadem.common.web.dom.DOMWindow;
+import diadem.common.web.dom.xpath.DOMXPathEvaluator;
+import diadem.common.web.dom.xpath.DOMXPathResult;
+
+import uk.ac.ox.comlab.diadem.oxpath.dom.DOMOrdinals;
+import uk.ac.ox.comlab.diadem.oxpath.dom.snapshot.DOMSnapshot;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathDocumentCache;
+import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
+
+/**
+ * Cache of computed styles of elements, per page, read by the OXPath <tt>style::</tt> axis.  Each computed-style access forces the 
+ * browser to bring styles up to date, so properties are read for whole context sets at once: the elements are identified by their
+ * position among the elements of the page (read from the current {@code DOMSnapshot}, or by a single script for the whole set, see
+ * {@code DOMOrdinals}), and a single script returns the requested properties of all of them.  Without a snapshot, that first script
+ * needs the elements marked with a temporary attribute, a change to the page that its mutation events, observers and scripts can see
+ * until the marks are removed again.  Values are kept until the page is invalidated.  Each evaluator has its own cache, which the nodes
+ * reach through their {@code OXPathPageContext}; nodes without one aren't cached.  Each action of the evaluator that may change a page 
+ * must call {@code invalidate(page)} on its cache, which starts a new version of the page.
+ * @author AndrewJSel
+ *
+ */
+public final class OXPathStyles {
+
+	/**
+	 * Creates the (empty) computed-style cache of an evaluator
+	 */
+	public OXPathStyles() {}
+
+	/**
+	 * Returns the computed value of {@code property} for {@code node}
+	 * @param node the node
+	 * @param property the CSS property
+	 * @return the computed value of {@code property} for {@code node}, or {@code null} if {@code node} isn't an element or has no 
+	 * computed style
+	 */
+	public static String get(OXPathContextNode node, String property) {
+		DOMNode domNode = node.getNode();
+		if (!(domNode instanceof DOMElement)) return null;
+		OXPathStyles cache = getCache(node);
+		DOMDocument page = (cache==null) ? null : OXPathDocumentCache.getPage(domNode);
+		if (page==null) return fetch((DOMElement) domNode, property);
+		StyleKey key = new StyleKey(domNode, property);
+		String value = cache.values.get(page, key);
+		if (value==null) value = cache.values.putIfAbsent(page, key, encode(fetch((DOMElement) domNode, property)));
+		return decode(value);
+	}
+
+	/**
+	 * Returns all computed properties of {@code node}, as alternating property names and values in the order of the computed style
+	 * @param node the node
+	 * @return all computed properties of {@code node}, or {@code null} if {@code node} isn't an element or has no computed style
+	 * @throws OXPathException if the computed properties can't be enumerated (the page isn't the top-level document of its browser)
+	 */
+	public static String[] getAll(OXPathContextNode node) throws OXPathException {
+		DOMNode domNode = node.getNode();
+		if (!(domNode instanceof DOMElement)) return null;
+		//without a page context, the properties are read into a cache of their own
+		OXPathStyles cache = getCache(node);
+		if (cache==null) cache = new OXPathStyles();
+		DOMDocument page = OXPathDocumentCache.getPage(domNode);
+		String[] all = (page==null) ? null : cache.all.get(page, domNode);
+		if (all==null) {
+			cache.prefetch(page, node.getSnapshot(), new DOMNode[] {domNode}, null);
+			all = (page==null) ? null : cache.all.get(page, domNode);
+			if (all==null) throw new OXPathException("style::* needs a page rendered as the top-level document of its browser");
+		}
+		return (all==NONE) ? null : all;
+	}
+
+	/**
+	 * Loads the computed {@code properties} of all {@code nodes} into the cache at once, before they are read one node at a time; a
+	 * property <tt>*</tt> loads all computed properties, as read by {@code getAll}
+	 * @param nodes the nodes
+	 * @param properties the CSS properties
+	 * @throws OXPathException in case of error reading the computed styles
+	 */
+	public static void prefetch(Collection<OXPathContextNode> nodes, String[] properties) throws OXPathException {
+		boolean all = false;
+		List<String> named = new ArrayList<String>(properties.length);
+		for (String property : properties) {
+			if (property.equals(ALL_PROPERTIES)) all = true;
+			else named.add(property);
+		}
+		OXPathStyles runCache = null;
+		DOMDocument runPage = null;
+		OXPathPageContext runContext = null;
+		DOMSnapshot runSnapshot = null;
+		List<DOMNode> run = new ArrayList<DOMNode>();
+		for (OXPathContextNode node : nodes) {
+			DOMNode domNode = node.getNode();
+			if (!(domNode instanceof DOMElement)) continue;
+			//node-sets are mostly on a single page, so the nodes are fetched in runs of the same page; the page is taken from the page 
+			//context the nodes share where possible, and otherwise compared by equality, as the wrappers of a page aren't canonical
+			OXPathPageContext pageContext = node.getPageContext();
+			if (pageContext!=null && pageContext==runContext) {
+				run.add(domNode);
+				continue;
+			}
+			OXPathStyles cache = getCache(node);
+			if (cache==null) continue;
+			DOMDocument page = pageContext.getPage();
+			if (page==null) continue;
+			if (cache!=runCache || !page.equals(runPage)) {
+				if (runCache!=null) runCache.prefetchRun(runPage, runSnapshot, run, all, named);
+				runCache = cache;
+				runPage = page;
+				runSnapshot = node.getSnapshot();
+				run.clear();
+			}
+			runContext = pageContext;
+			run.add(domNode);
+		}
+		if (runCache!=null) runCache.prefetchRun(runPage, runSnapshot, run, all, named);
+	}
+
+	/**
+	 * Drops the cached computed styles of {@code page}, because the page may have changed
+	 * @param page the page
+	 * @return {@code true} if computed styles were cached for {@code page}, {@code false} otherwise
+	 */
+	public Boolean invalidate(DOMDocument page) {
+		boolean cleared = this.values.clear(page);
+		return this.all.clear(page) || cleared;
+	}
+
+	/**
+	 * Returns the store of cached computed values, to set its caps or read its counters
+	 * @return the store of cached computed values
+	 */
+	public OXPathDocumentCache<?,String> getCache() {
+		return this.values;
+	}
+
+	/**
+	 * Returns the computed-style cache of the evaluator that reached {@code node}
+	 * @param node the node
+	 * @return the computed-style cache for {@code node}, or {@code null} if the node has no page context
+	 */
+	private static OXPathStyles getCache(OXPathContextNode node) {
+		OXPathPageContext pageContext = node.getPageContext();
+		return (pageContext==null) ? null : pageContext.getStyles();
+	}
+
+	/**
+	 * Loads the uncached properties of a run of elements of {@code page}; runs too small to be worth identifying their elements 
+	 * without a snapshot are left to be read one at a time
+	 * @param page the page of the run
+	 * @param snapshot the current snapshot of {@code page}, or {@code null}
+	 * @param run the elements of the run, in the iteration order of the context set
+	 * @param all {@code true} to load all computed properties, {@code false} otherwise
+	 * @param named the named properties to load
+	 * @throws OXPathException in case of error reading the computed styles
+	 */
+	private void prefetchRun(DOMDocument page, DOMSnapshot snapshot, List<DOMNode> run, boolean all, List<String> named) throws OXPathException {
+		if (run.isEmpty()) return;
+		List<DOMNode> missing = new ArrayList<DOMNode>(run.size());
+		for (DOMNode element : run) {
+			boolean cached = !all || this.all.get(page, element)!=null;
+			for (int i=0; cached && i<named.size(); i++) {
+				cached = this.values.get(page, new StyleKey(element, named.get(i)))!=null;
+			}
+			if (!cached) missing.add(element);
+		}
+		if (missing.isEmpty() || (missing.size()<BATCH_THRESHOLD && snapshot==null)) return;
+		this.prefetch(page, snapshot, missing.toArray(new DOMNode[missing.size()]), (all) ? null : named.toArray(new String[named.size()]));
+	}
+
+	/**
+	 * Reads the computed {@code properties} (all of them, if {@code null}) of {@code elements} with a single script evaluation; does 
+	 * nothing unless {@code page} is the top-level document of its browser, where the script runs
+	 * @param page the page of the elements
+	 * @param snapshot the current snapshot of {@code page}, or {@code null}
+	 * @param elements the elements
+	 * @param properties the CSS properties, or {@code null} for all computed properties
+	 * @throws OXPathException in case of error reading the computed styles
+	 */
+	private void prefetch(DOMDocument page, DOMSnapshot snapshot, DOMNode[] elements, String[] properties) throws OXPathException {
+		if (page==null) return;
+		DOMWindow window = page.getEnclosingWindow();
+		WebBrowser browser = (window==null) ? null : window.getBrowser();
+		if (browser==null || !page.equals(browser.getContentDOMWindow().getDocument())) return;
+		int[] ordinals = ordinals(page, snapshot, elements);
+		StringBuilder script = new StringBuilder("var all = document.getElementsByTagName('*'); var ordinals = [");
+		for (int i=0; i<ordinals.length; i++) {
+			if (i>0) script.append(',');
+			script.append(ordinals[i]);
+		}
+		script.append("]; var properties = ");
+		if (properties==null) script.append("null");
+		else {
+			script.append('[');
+			for (int i=0; i<properties.length; i++) {
+				if (i>0) script.append(',');
+				script.append('\'').append(properties[i].replace("\\", "\\\\").replace("'", "\\'")).append('\'');
+			}
+			script.append(']');
+		}
+		script.append(STYLE_SCRIPT);
+		Object result = browser.evaluate(script.toString());
+		if (!(result instanceof String)) return;
+		String[] records = ((String)result).split(RECORD_SEPARATOR, -1);
+		if (records.length!=elements.length) return;
+		for (int i=0; i<elements.length; i++) {
+			if (records[i].equals(NO_STYLE)) {
+				if (properties==null) this.all.putIfAbsent(page, elements[i], NONE);
+				else for (String property : properties) this.values.putIfAbsent(page, new StyleKey(elements[i], property), NULL_VALUE);
+				continue;
+			}
+			String[] fields = records[i].split(FIELD_SEPARATOR, -1);
+			if (properties==null) {
+				if (fields.length%2!=0) continue;
+				this.all.putIfAbsent(page, elements[i], fields);
+				for (int f=0; f<fields.length; f+=2) {
+					this.values.putIfAbsent(page, new StyleKey(elements[i], fields[f]), fields[f+1]);
+				}
+			}
+			else if (fields.length==properties.length) {
+				for (int f=0; f<fields.length; f++) {
+					this.values.putIfAbsent(page, new StyleKey(elements[i], properties[f]), fields[f]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the position of each of {@code elements} among the elements of {@code page} in document order (the index of the element
+	 * in <tt>document.getElementsByTagName('*')</tt>): from the snapshot of the page if there is one, otherwise with a single script 
+	 * evaluation (see {@code DOMOrdinals}), or one query per element if the script can't locate them
+	 * @param page the page
+	 * @param snapshot the current snapshot of {@code page}, or {@code null}
+	 * @param elements elements of {@code page}
+	 * @return the position of each of {@code elements} among the elements of {@code page}
+	 * @throws OXPathException if an element isn't part of the snapshot of the page
+	 */
+	private static int[] ordinals(DOMDocument page, DOMSnapshot snapshot, DOMNode[] elements) throws OXPathException {
+		int[] ordinals = new int[elements.length];
+		if (snapshot!=null) {
+			for (int i=0; i<elements.length; i++) {
+				int entry = snapshot.indexOf(elements[i]);
+				if (entry<0) throw new OXPathException("Context node not found in the snapshot of its page");
+				ordinals[i] = snapshot.getElementOrdinal(entry);
+			}
+			return ordinals;
+		}
+		int[] marked = DOMOrdinals.ordinals(page, elements);
+		if (marked!=null) return marked;
+		DOMXPathEvaluator evaluator = page.getXPathEvaluator();
+		for (int i=0; i<elements.length; i++) {
+			ordinals[i] = (int) evaluator.evaluate(ORDINAL_QUERY, elements[i], evaluator.createNSResolver(page), DOMXPathResult.NUMBER_TYPE, null).getNumberValue();
+		}
+		return ordinals;
+	}
+
+	/**
+	 * Reads the computed value of {@code property} of {@code element} from the browser
+	 * @param element the element
+	 * @param property the CSS property
+	 * @return the computed value of {@code property} of {@code element}, or {@code null} if {@code element} has no computed style
+	 */
+	private static String fetch(DOMElement element, String property) {
+		DOMCSSStyleDeclaration style = element.getComputedStyle();
+		return (style==null) ? null : style.getPropertyValue(property);
+	}
+
+	/**
+	 * Encodes a value (possibly {@code null}) for the cache
+	 * @param value the value
+	 * @return the value as cached
+	 */
+	private static String encode(String value) {
+		return (value==null) ? NULL_VALUE : value;
+	}
+
+	/**
+	 * Decodes a cached value
+	 * @param value the value as cached
+	 * @return the value (possibly {@code null})
+	 */
+	private static String decode(String value) {
+		return (value==NULL_VALUE) ? null : value;
+	}
+
+	/**
+	 * Key of a computed property of an element
+	 */
+	private static final class StyleKey {
+
+		/**
+		 * Creates a new key
+		 * @param iElement the element
+		 * @param iProperty the CSS property
+		 */
+		StyleKey(DOMNode iElement, String iProperty) {
+			this.element = iElement;
+			this.property = iProperty;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.element.hashCode() + this.property.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof StyleKey)) return false;
+			StyleKey other = (StyleKey) obj;
+			return this.property.equals(other.property) && this.element.equals(other.element);
+		}
+
+		/**
+		 * the element
+		 */
+		private final DOMNode element;
+		/**
+		 * the CSS property
+		 */
+		private final String property;
+	}
+
+	/**
+	 * node test of <tt>style::*</tt>, selecting all computed properties
+	 */
+	public static final String ALL_PROPERTIES = "*";
+	/**
+	 * default cap on the estimated size (in bytes) of the cached computed styles
+	 */
+	public static final long DEFAULT_MAXIMUM_BYTES = 16L << 20;
+	/**
+	 * Runs of fewer elements than this on a page without snapshot are read one element at a time
+	 */
+	public static final int BATCH_THRESHOLD = 8;
+	/**
+	 * query counting the elements preceding the context element in document order
+	 */
+	private static final String ORDINAL_QUERY = "count(ancestor::*) + count(preceding::*)";
+	/**
+	 * separates the records of the elements in the script result
+	 */
+	private static final String RECORD_SEPARATOR = "\u001e";
+	/**
+	 * separates the fields of a record in the script result
+	 */
+	private static final String FIELD_SEPARATOR = "\u001f";
+	/**
+	 * record of an element without computed style in the script result
+	 */
+	private static final String NO_STYLE = "\u0000";
+	/**
+	 * cached marker for a {@code null} value (compared by identity)
+	 */
+	private static final String NULL_VALUE = new String("\u0000");
+	/**
+	 * cached marker for an element without computed style (compared by identity)
+	 */
+	private static final String[] NONE = new String[0];
+	/**
+	 * the script, after the <tt>all</tt>, <tt>ordinals</tt> and <tt>properties</tt> variables, returning the records of the elements
+	 */
+	private static final String STYLE_SCRIPT = "; var records = [];"
+			+ "for (var i = 0; i < ordinals.length; i++) {"
+			+ "var element = all[ordinals[i]]; var style = element ? window.getComputedStyle(element, null) : null;"
+			+ "if (!style) { records.push('" + "\\u0000" + "'); continue; }"
+			+ "var fields = [];"
+			+ "if (properties) for (var p = 0; p < properties.length; p++) fields.push(style.getPropertyValue(properties[p]));"
+			+ "else for (var p = 0; p < style.length; p++) fields.push(style[p], style.getPropertyValue(style[p]));"
+			+ "records.push(fields.join('" + "\\u001f" + "'));"
+			+ "} return records.join('" + "\\u001e" + "');";
+	/**
+	 * cached computed values, by page and element and property
+	 */
+	private final OXPathDocumentCache<StyleKey,String> values = new OXPathDocumentCache<StyleKey,String>()
+			.setWeigher(new OXPathDocumentCache.Weigher<StyleKey,String>() {
+				@Override
+				public long weigh(StyleKey key, String value) {
+					return OXPathDocumentCache.DEFAULT_ENTRY_BYTES + 2 * (key.property.length() + value.length());
+				}
+			}).setMaximumBytes(DEFAULT_MAXIMUM_BYTES).setMaximumPages(OXPathDocumentCache.DEFAULT_MAXIMUM_PAGES);
+	/**
+	 * cached complete computed styles (alternating names and values), by page and element
+	 */
+	private final OXPathDocumentCache<DOMNode,String[]> all = new OXPathDocumentCache<DOMNode,String[]>()
+			.setWeigher(new OXPathDocumentCache.Weigher<DOMNode,String[]>() {
+				@Override
+				public long weigh(DOMNode key, String[] value) {
+					long bytes = OXPathDocumentCache.DEFAULT_ENTRY_BYTES;
+					for (String field : value) bytes += 2 * field.length();
+					return bytes;
+				}
+			}).setMaximumBytes(DEFAULT_MAXIMUM_BYTES).setMaximumPages(OXPathDocumentCache.DEFAULT_MAXIMUM_PAGES);
+}
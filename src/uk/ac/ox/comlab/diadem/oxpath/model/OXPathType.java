@@ -38,169 +38,94 @@ import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
 import static uk.ac.ox.comlab.diadem.oxpath.model.OXPathType.OXPathTypes.*;
 
 /**
- * Class for encoding OXPath return types, including nodesets, strings, numbers, and booleans
+ * Class for encoding OXPath return types, including nodesets, strings, numbers, and booleans.  Values are immutable and are created with 
+ * the {@code valueOf} factory methods, which return one specialized subclass per type (numbers are stored as primitive {@code double}s, 
+ * single nodes without a node-set) and the canonical {@code TRUE}, {@code FALSE}, {@code NaN} and {@code EMPTYRESULT} instances where 
+ * possible, so operators and functions don't allocate for common results.
  * @author AndrewJSel
  *
  */
-public class OXPathType {
-	
-	/**
-	 * Null constructor
-	 */
-	public OXPathType() {
-		this.type = NULL;
-	}
-	
-	
+public abstract class OXPathType {
+
 	/**
-	 * Returns a new (defensive) copy of the implicit parameter
-	 * @param other {OXPathType to copy}
+	 * Returns the value for a node-set.  Doesn't copy {@code in}: the value shares the array of {@code in} until {@code in} is modified.
+	 * @param in input nodelist
+	 * @return the value for {@code in}
 	 */
-	public OXPathType(OXPathType other) {
-		this();
-		try {
-			switch (other.isType()) {
-				case NULL:
-					return;
-				case STRING:
-					this.set(other.string());
-					break;
-				case NUMBER:
-					this.set(other.number());
-					break;
-				case BOOLEAN:
-					this.set(other.booleanValue());
-					break;
-				case NODESET:
-					this.set(other.nodeList());
-					break;
-			}
-		} catch (OXPathException e) {}//just to fool compiler; these exceptions won't happen because we check type beforehand
+	public static OXPathType valueOf(OXPathNodeList in) {
+		if (in.isEmpty()) return EMPTYSET;
+		OXPathNodeList nodes = new OXPathNodeList();
+		nodes.addAll(in);
+		return new NodeSetValue(nodes);
 	}
-	
+
 	/**
-	 * Constructor for nodelists
-	 * @param in input nodelist
+	 * Returns the value for a single node (a node-set of one node)
+	 * @param in the node
+	 * @return the value for {@code in}
 	 */
-	public OXPathType(OXPathNodeList in) {
-		this.set(in);
+	public static OXPathType valueOf(OXPathContextNode in) {
+		return new NodeValue(in);
 	}
-	
+
 	/**
-	 * Constructor for strings
+	 * Returns the value for a string
 	 * @param in input String
+	 * @return the value for {@code in}
 	 */
-	public OXPathType(String in) {
-		this.set(in);
+	public static OXPathType valueOf(String in) {
+		return (in.isEmpty()) ? EMPTYSTRING : new StringValue(in);
 	}
-	
+
 	/**
-	 * Constructor for number inputs
-	 * @param in input int
+	 * Returns the value for a number
+	 * @param in input number
+	 * @return the value for {@code in}
 	 */
-	public OXPathType(double in) {
-		this.set(in);
+	public static OXPathType valueOf(double in) {
+		return (Double.isNaN(in)) ? NaN : new NumberValue(in);
 	}
-	
+
 	/**
-	 * Constructor for booleans
+	 * Returns the value for a boolean
 	 * @param in input boolean
+	 * @return {@code TRUE} or {@code FALSE}
 	 */
-	public OXPathType(boolean in) {
-		this.set(in);
+	public static OXPathType valueOf(boolean in) {
+		return (in) ? TRUE : FALSE;
 	}
 
 	/**
-	  * Constructor for handling output from the getByXPath function from HtmlUnit
+	 * Returns the value for the output of a {@code getByXPath} call
 	 * @param byXPath input of List<?> from getByXPath
 	 * @param parent reference to parent node of current context
 	 * @param last reference to parent node of current context
+	 * @return the value for {@code byXPath}
 	 */
-	public OXPathType(List<?> byXPath, int parent, int last) {
-		if (byXPath.isEmpty()) this.type = NULL;
-		else {
-			Object first = byXPath.get(0);
-			if (first instanceof DOMNode) {
-				this.nodes = new OXPathNodeList();
-				for (Object n : byXPath) {
-					this.nodes.add(new OXPathContextNode((DOMNode)n,parent,last));
-				}
-				this.type=NODESET;
-			}
-			else if (first instanceof String) {
-				this.string = (String) first;
-				this.type = STRING;
-			}
-			else if (first instanceof Double) {
-				this.number = (Double) first;
-				this.type = NUMBER;
-			}
-			else if (first instanceof Boolean) {
-				this.bool = (Boolean) first;
-				this.type = BOOLEAN;
-			}
-			else {
-				this.type = NULL;
+	public static OXPathType valueOf(List<?> byXPath, int parent, int last) {
+		if (byXPath.isEmpty()) return EMPTYRESULT;
+		Object first = byXPath.get(0);
+		if (first instanceof DOMNode) {
+			OXPathNodeList nodes = new OXPathNodeList();
+			for (Object n : byXPath) {
+				nodes.add(new OXPathContextNode((DOMNode)n,parent,last));
 			}
+			return new NodeSetValue(nodes);
 		}
+		else if (first instanceof String) return valueOf((String) first);
+		else if (first instanceof Double) return valueOf(((Double) first).doubleValue());
+		else if (first instanceof Boolean) return valueOf(((Boolean) first).booleanValue());
+		else return EMPTYRESULT;
 	}
-	
-	
 
 	/**
-	 * Expression for setting state
-	 * @param j input NodeList
+	 * Creates a value of type {@code iType}; subclasses only
+	 * @param iType the type of the value
 	 */
-	public OXPathType(OXPathContextNode j) {
-		this.nodes = new OXPathNodeList();
-		this.nodes.add(j);
-		this.type = NODESET;
+	private OXPathType(OXPathTypes iType) {
+		this.type = iType;
 	}
 
-	/**
-	 * Expression for setting state
-	 * @param in input NodeList
-	 */
-	public void set(OXPathNodeList in) {
-		if (this.nodes==null) this.nodes = new OXPathNodeList();
-		this.nodes.addAll(in);
-		this.type = NODESET;
-	}
-	
-	/**
-	 * Expression for setting state
-	 * @param in input String
-	 */
-	public void set(String in) {
-		this.string = in;
-		this.type = STRING;
-	}
-	
-	/**
-	 * Expression for setting state
-	 * @param in input int
-	 */
-	public void set(Double in) {
-		this.number = in;
-		this.type = NUMBER;
-	}
-	
-	/**
-	 * Expression for setting state
-	 * @param in input boolean
-	 */
-	public void set(boolean in) {
-		this.bool = in;
-		this.type = BOOLEAN;
-	}
-	
-	/**
-	 * Expression for setting null state	
-	 */
-	public void set(Object in) {
-		this.type = NULL;
-	}
-	
 	/**
 	 * Expression that returns type of Object
 	 * @return type of implicit parameter
@@ -208,133 +133,68 @@ public class OXPathType {
 	public OXPathTypes isType() {
 		return this.type;
 	}
-	
+
 	/**
-	 * Casts object as <tt>OXPathNodeList</tt>
-	 * @return object as <tt>OXPathNodeList</tt>
-	 * @throws OXPathException if the object is null
+	 * Casts object as <tt>OXPathNodeList</tt>; the returned set may be modified without affecting this value
+	 * @return object as <tt>OXPathNodeList</tt> (empty, if the object isn't a node-set)
+	 * @throws OXPathException in case of error reading the node-set
 	 */
 	public OXPathNodeList nodeList() throws OXPathException {
-		if (this.type.equals(NODESET)) return this.nodes;
-		else return new OXPathNodeList();
-//		else throw new OXPathException("OXPathType exception - Can't cast " + this.type.toString() + " as " + NODESET.toString());
+		return new OXPathNodeList();
 	}
-	
+
 	/**
 	 * Casts object as <tt>String</tt>
 	 * @return object as <tt>String</tt>
 	 * @throws OXPathException if the object is null
 	 */
-	public String string() throws OXPathException {
-		if (this.type.equals(STRING)) return this.string;
-		else if (this.type.equals(NODESET)) {
-			if (this.nodes.isEmpty()) return "";
-			else return this.nodes.first().getByXPath("string(.)").string();
-		}
-		else if (this.type.equals(BOOLEAN)) return (this.bool) ? "true" : "false";
-		else if (this.type.equals(NUMBER)) return String.valueOf(this.number);
-		else throw new OXPathException("OXPathType exception - Can't cast " + this.type.toString() + " as " + STRING.toString());
-	}
-	
+	public abstract String string() throws OXPathException;
+
 	/**
 	 * Casts object as <tt>double</tt>
 	 * @return object as <tt>double</tt>
 	 * @throws OXPathException if the object is null
 	 */
-	public Double number() throws OXPathException {
-		if (this.type.equals(NUMBER)) return this.number;
-		else if (this.type.equals(STRING)) {
-//			System.out.println(this.string);
-			if (this.string().equals("false")) return 0.0;
-			else if (this.string().equals("true")) return 1.0;
-			else return Double.valueOf(this.string);
-		}
-		else if (this.type.equals(BOOLEAN)) return (this.bool) ? 1.0 : 0.0;
-		else if (this.type.equals(NODESET)) {
-			if (this.nodes.isEmpty()) return Double.NaN;
-			return Double.valueOf(this.nodes.first().getByXPath("string(.)").string());
-		}
-		else throw new OXPathException("OXPathType exception - Can't cast " + this.type.toString() + " as " + NUMBER.toString());
-	}
-	
+	public abstract double number() throws OXPathException;
+
 	/**
 	 * Casts object as <tt>boolean</tt>
 	 * @return object as <tt>boolean</tt>
-	 * @throws OXPathException if the object is null
+	 * @throws OXPathException in case of error reading the object
 	 */
-	public boolean booleanValue() throws OXPathException {
-		if (this.type.equals(BOOLEAN)) return this.bool;
-		else if (this.type.equals(NODESET)) return (this.nodes.size()>0)?true:false;
-		else if (this.type.equals(STRING)) return (this.string.length() > 0);
-		else if (this.type.equals(NUMBER)) return !this.number.equals(0);
-		else return false;
-	}
-	
+	public abstract boolean booleanValue() throws OXPathException;
+
 	/**
 	 * Not class-safe, but returns value based on instantiation of type in the object
 	 * @return value of object
 	 */
-	public Object getValue() {
-		switch (this.type) {
-			case NODESET :
-				return this.nodes;
-			case STRING :
-				return this.string;
-			case NUMBER :
-				return this.number;
-			case BOOLEAN :
-				return this.bool;
-		}
-		return null;
-	}
-	
+	public abstract Object getValue();
+
 	/**
 	 * returns a {@code String} encoding of XPath primatives and concatenated pretty html versions of nodelists
 	 * Useful for attribute extraction marker output.
 	 * @return a {@code String} encoding of XPath primatives and concatenated pretty html versions of nodelists
 	 * @throws OXPathException if the object is null
 	 */
-	public String toPrettyHtml() throws OXPathException{
-		switch (this.type) {
-		case STRING :
-		case NUMBER :
-		case BOOLEAN :
-			return this.string();
-		case NODESET :
-			StringBuilder sb = new StringBuilder();
-			for (OXPathContextNode c : this.nodes) {
-				sb.append(c.getNode().toPrettyHTML());
-			}
-			return sb.toString();
-		}
-		return "";
+	public String toPrettyHtml() throws OXPathException {
+		return this.string();
 	}
-	
+
 	@Override
 	public String toString() {
-		switch (this.isType()) {
-		case NODESET :
-			try {
-				if (this.nodeList().isEmpty()) return "Empty Node List returned";
-				else {
-					StringBuilder sb = new StringBuilder();
-					for (OXPathContextNode i : this.nodeList()) {
-						sb.append(i.getNode().toString());
-						sb.append("\n");
-					}
-					return sb.toString();
-				}
-			} catch (OXPathException e) {
-				return "Error on Node reads";
-			}
-		case STRING :
-		case NUMBER :
-		case BOOLEAN :
-			return this.getValue().toString();
-		}	
-		return "NULL Context";
+		return this.getValue().toString();
 	}
-	
+
+	/**
+	 * Converts the string-value of a node to a number
+	 * @param node the node
+	 * @return the string-value of {@code node} as a number
+	 * @throws OXPathException in case of error reading the string-value
+	 */
+	private static double number(OXPathContextNode node) throws OXPathException {
+		return OXPathStringValues.number(node);
+	}
+
 	/**
 	 * enumerated types of different types in OXPath
 	 * @author AndrewJSel
@@ -346,36 +206,322 @@ public class OXPathType {
 		public String toString() {return this.name;}
 		private String name;
 	}
-	
+
 	/**
-	 * Instance field for data type
+	 * The empty (null) value
 	 */
-	private OXPathTypes type;
-	
+	private static final class EmptyValue extends OXPathType {
+
+		/**
+		 * Creates the empty value
+		 */
+		EmptyValue() {
+			super(NULL);
+		}
+
+		@Override
+		public String string() throws OXPathException {
+			throw new OXPathException("OXPathType exception - Can't cast " + NULL.toString() + " as " + STRING.toString());
+		}
+
+		@Override
+		public double number() throws OXPathException {
+			throw new OXPathException("OXPathType exception - Can't cast " + NULL.toString() + " as " + NUMBER.toString());
+		}
+
+		@Override
+		public boolean booleanValue() {
+			return false;
+		}
+
+		@Override
+		public Object getValue() {
+			return null;
+		}
+
+		@Override
+		public String toPrettyHtml() {
+			return "";
+		}
+
+		@Override
+		public String toString() {
+			return "NULL Context";
+		}
+	}
+
 	/**
-	 * Instance field for storing field, if used
+	 * A string value
 	 */
-	private OXPathNodeList nodes;
-	
+	private static final class StringValue extends OXPathType {
+
+		/**
+		 * Creates a string value
+		 * @param in the string
+		 */
+		StringValue(String in) {
+			super(STRING);
+			this.string = in;
+		}
+
+		@Override
+		public String string() {
+			return this.string;
+		}
+
+		@Override
+		public double number() {
+			if (this.string.equals("false")) return 0.0;
+			else if (this.string.equals("true")) return 1.0;
+			else return OXPathStringValues.toNumber(this.string);
+		}
+
+		@Override
+		public boolean booleanValue() {
+			return this.string.length() > 0;
+		}
+
+		@Override
+		public Object getValue() {
+			return this.string;
+		}
+
+		/**
+		 * the string
+		 */
+		private final String string;
+	}
+
 	/**
-	 * Instance field for storing field, if used
+	 * A number value
 	 */
-	private String string;
-	
+	private static final class NumberValue extends OXPathType {
+
+		/**
+		 * Creates a number value
+		 * @param in the number
+		 */
+		NumberValue(double in) {
+			super(NUMBER);
+			this.number = in;
+		}
+
+		@Override
+		public String string() {
+			return String.valueOf(this.number);
+		}
+
+		@Override
+		public double number() {
+			return this.number;
+		}
+
+		@Override
+		public boolean booleanValue() {
+			//XPath: true if and only if neither zero nor NaN
+			return this.number != 0 && !Double.isNaN(this.number);
+		}
+
+		@Override
+		public Object getValue() {
+			return this.number;
+		}
+
+		/**
+		 * the number
+		 */
+		private final double number;
+	}
+
 	/**
-	 * Instance field for storing field, if used
+	 * A boolean value; only the {@code TRUE} and {@code FALSE} instances exist
 	 */
-	private Double number;
-	
+	private static final class BooleanValue extends OXPathType {
+
+		/**
+		 * Creates a boolean value
+		 * @param in the boolean
+		 */
+		BooleanValue(boolean in) {
+			super(BOOLEAN);
+			this.bool = in;
+		}
+
+		@Override
+		public String string() {
+			return (this.bool) ? "true" : "false";
+		}
+
+		@Override
+		public double number() {
+			return (this.bool) ? 1.0 : 0.0;
+		}
+
+		@Override
+		public boolean booleanValue() {
+			return this.bool;
+		}
+
+		@Override
+		public Object getValue() {
+			return this.bool;
+		}
+
+		/**
+		 * the boolean
+		 */
+		private final boolean bool;
+	}
+
 	/**
-	 * Instance field for storing field, if used
+	 * A node-set value
 	 */
-	private boolean bool;
-	
+	private static final class NodeSetValue extends OXPathType {
+
+		/**
+		 * Creates a node-set value; {@code in} is owned by the value
+		 * @param in the nodes
+		 */
+		NodeSetValue(OXPathNodeList in) {
+			super(NODESET);
+			this.nodes = in;
+		}
+
+		@Override
+		public OXPathNodeList nodeList() {
+			return this.nodes.copy();
+		}
+
+		@Override
+		public String string() throws OXPathException {
+			if (this.nodes.isEmpty()) return "";
+			else return OXPathStringValues.get(this.nodes.first());
+		}
+
+		@Override
+		public double number() throws OXPathException {
+			if (this.nodes.isEmpty()) return Double.NaN;
+			return OXPathType.number(this.nodes.first());
+		}
+
+		@Override
+		public boolean booleanValue() {
+			return !this.nodes.isEmpty();
+		}
+
+		@Override
+		public Object getValue() {
+			return this.nodes.copy();
+		}
+
+		@Override
+		public String toPrettyHtml() {
+			StringBuilder sb = new StringBuilder();
+			for (OXPathContextNode c : this.nodes) {
+				sb.append(c.getNode().toPrettyHTML());
+			}
+			return sb.toString();
+		}
+
+		@Override
+		public String toString() {
+			if (this.nodes.isEmpty()) return "Empty Node List returned";
+			StringBuilder sb = new StringBuilder();
+			for (OXPathContextNode i : this.nodes) {
+				sb.append(i.getNode().toString());
+				sb.append("\n");
+			}
+			return sb.toString();
+		}
+
+		/**
+		 * the nodes; never modified
+		 */
+		private final OXPathNodeList nodes;
+	}
+
 	/**
-	 * premade object that returns empty output
+	 * A node-set value of a single node, held without a set
 	 */
-	public static final OXPathType EMPTYRESULT = new OXPathType();
+	private static final class NodeValue extends OXPathType {
+
+		/**
+		 * Creates a single node value
+		 * @param in the node
+		 */
+		NodeValue(OXPathContextNode in) {
+			super(NODESET);
+			this.node = in;
+		}
 
-	
+		@Override
+		public OXPathNodeList nodeList() {
+			return new OXPathNodeList(this.node);
+		}
+
+		@Override
+		public String string() throws OXPathException {
+			return OXPathStringValues.get(this.node);
+		}
+
+		@Override
+		public double number() throws OXPathException {
+			return OXPathType.number(this.node);
+		}
+
+		@Override
+		public boolean booleanValue() {
+			return true;
+		}
+
+		@Override
+		public Object getValue() {
+			return new OXPathNodeList(this.node);
+		}
+
+		@Override
+		public String toPrettyHtml() {
+			return this.node.getNode().toPrettyHTML();
+		}
+
+		@Override
+		public String toString() {
+			return this.node.getNode().toString() + "\n";
+		}
+
+		/**
+		 * the node
+		 */
+		private final OXPathContextNode node;
+	}
+
+	/**
+	 * Instance field for data type
+	 */
+	private final OXPathTypes type;
+
+	/**
+	 * premade object that returns empty output
+	 */
+	public static final OXPathType EMPTYRESULT = new EmptyValue();
+	/**
+	 * the boolean <tt>true</tt>
+	 */
+	public static final OXPathType TRUE = new BooleanValue(true);
+	/**
+	 * the boolean <tt>false</tt>
+	 */
+	public static final OXPathType FALSE = new BooleanValue(false);
+	/**
+	 * the number <tt>NaN</tt>
+	 */
+	public static final OXPathType NaN = new NumberValue(Double.NaN);
+	/**
+	 * the empty string
+	 */
+	private static final OXPathType EMPTYSTRING = new StringValue("");
+	/**
+	 * the empty node-set
+	 */
+	private static final OXPathType EMPTYSET = new NodeSetValue(new OXPathNodeList());
 }
@@ -31,9 +31,10 @@
 package uk.ac.ox.comlab.diadem.oxpath.model.language;
 
 //import diadem.common.web.dom.DOMCSSStyleDeclaration;
-import diadem.common.web.dom.DOMElement;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNode;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNodeConstructed;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathStyles;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathType;
 import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
 
@@ -59,18 +60,19 @@ public enum OXPathAxis implements Axis {
 		@Override
 		public OXPathType evaluate(OXPathContextNode node, NodeTest nodetest) throws OXPathException {
 			if (!nodetest.getType().equals(NodeTestType.NAMETEST)) throw new OXPathException("Illegal node test with style axis");
-			try {//necessary because computed style can return a null value
-				if (((XPathNameTest)nodetest).isSuffixWildcard()) {
-//					DOMCSSStyleDeclaration styleElements = ((DOMElement) node.getNode()).getComputedStyle();				
-//					return new OXPathType();
-					throw new OXPathException("style::* not yet supported.");
+			if (((XPathNameTest)nodetest).isSuffixWildcard()) {
+				String[] all = OXPathStyles.getAll(node);
+				if (all==null) return OXPathType.EMPTYRESULT;
+				//constructed nodes have no document position; they keep the order of the computed style
+				OXPathNodeList properties = new OXPathNodeList(all.length/2, false);
+				for (int i=0; i<all.length; i+=2) {
+					properties.addInDocumentOrder(new OXPathContextNodeConstructed(all[i],all[i+1],node.getParent(),node.getLast()));
 				}
-				OXPathContextNode wrappedNode = new OXPathContextNodeConstructed(nodetest.getValue(),((DOMElement) node.getNode()).getComputedStyle().getPropertyValue(nodetest.getValue()),node.getParent(),node.getLast());
-				return new OXPathType(wrappedNode);
-			}
-			catch (NullPointerException e) {//from computed style
-				return new OXPathType();
+				return OXPathType.valueOf(properties);
 			}
+			String value = OXPathStyles.get(node, nodetest.getValue());
+			if (value==null) return OXPathType.EMPTYRESULT;//no computed style
+			return OXPathType.valueOf(new OXPathContextNodeConstructed(nodetest.getValue(),value,node.getParent(),node.getLast()));
 		}
 	};
 
@@ -31,7 +31,7 @@
 package uk.ac.ox.comlab.diadem.oxpath.model.language;
 
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNode;
-import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathFields;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathType;
 import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
 
@@ -61,7 +61,7 @@ public enum OXPathNodeTest implements NodeTest {
 	}
 	
 	/**
-	 * evaluates the context node with the step using this axis and nodetest
+	 * evaluates the context node with the step using this axis and nodetest; <tt>field()</tt> selects the visible fields only
 	 * @param node context node
 	 * @param axis axis to apply
 	 * @return the evaluated step
@@ -70,48 +70,7 @@ public enum OXPathNodeTest implements NodeTest {
 	public OXPathType evaluate(OXPathContextNode node, Axis axis) throws OXPathException{
 		if (!(axis.getType().equals(AxisType.FORWARD) || axis.getType().equals(AxisType.BACKWARD) ))
 			throw new OXPathException("Incompatible axis with OXPath node test");
-		OXPathNodeList result = new OXPathNodeList();
-		for (NodeTestFields field : NodeTestFields.values()) {
-			OXPathNodeList tempResult = node.getByXPath(axis.getValue()+field.getValue(),true,true).nodeList();
-			for (OXPathContextNode tempNode : tempResult) {
-				if ((tempNode.getNode().isVisible()) || this.equals(ANYFIELD)) result.add(tempNode);
-			}
-			result.addAll(node.getByXPath(axis.getValue()+field.getValue()).nodeList());
-		}
-		return new OXPathType(result);
-	}
-	
-	/**
-	 * Enum used only to determine fields considered by OXPath <tt>field()</tt> and <tt>any-field()</tt> nodetests
-	 * @author AndrewJSel
-	 *
-	 */
-	private enum NodeTestFields {
-		INPUT("input"),
-		SELECT("select"),
-		TEXTAREA("textarea"),
-		BUTTON("button");
-		
-		/**
-		 * basic constructor
-		 * @param iValue textual representation of nodetest
-		 */
-		private NodeTestFields(String iValue) {
-			this.value = iValue;
-		}
-		
-		/**
-		 * returns textual representation of nodetest
-		 * @return textual representation of nodetest
-		 */
-		public String getValue() {
-			return this.value;
-		}
-		
-		/**
-		 * textual representation of the node test
-		 */
-		private final String value;
+		return OXPathFields.select(node, axis, this.equals(FIELD));
 	}
 
 	/**
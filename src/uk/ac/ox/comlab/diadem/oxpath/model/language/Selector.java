@@ -30,13 +30,29 @@
  */
 package uk.ac.ox.comlab.diadem.oxpath.model.language;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import diadem.common.web.dom.DOMElement;
+import diadem.common.web.dom.DOMNode;
+import diadem.common.web.dom.DOMNodeList;
+import diadem.common.web.dom.DOMNodeSelector;
+
+import uk.ac.ox.comlab.diadem.oxpath.dom.DOMMarks;
+import uk.ac.ox.comlab.diadem.oxpath.dom.snapshot.DOMSnapshot;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNode;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathPageContext;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathStringValues;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathType;
 import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
 
 /**
- * Enum type encoding OXPath selectors borrowed from CSS
+ * Enum type encoding OXPath selectors borrowed from CSS.  As in CSS, <tt>.name</tt> selects elements with {@code name} as one of the
+ * whitespace-separated tokens of their <tt>class</tt> attribute, and <tt>#name</tt> elements whose <tt>id</tt> is {@code name}.
  * @author AndrewJSel
  *
  */
@@ -69,28 +85,204 @@ public enum Selector implements OXPathPredicate{
 	 * @throws OXPathException in case of exception in nested calls
 	 */
 	public OXPathType evaluateIterative(OXPathContextNode contextNode, OXPathType other) throws OXPathException {
-		try {//necessary because getAttributes and getNamedItem can both return null values
-			//may be a little expensive creating an extra list, but these selectors aren't true for many nodes in sets
-			if (contextNode.getNode().getAttributes().getNamedItem(this.getAttributeName()).getNodeValue().equals(other.string())) return new OXPathType(contextNode);
-			return new OXPathType();
-		} catch (NullPointerException e) {
-			return new OXPathType();
-		}
+		String value = this.getAttributeValue(contextNode);
+		return (value!=null && this.matches(value, other.string()))?OXPathType.valueOf(contextNode):OXPathType.EMPTYRESULT;
 	}
 	
 	/**
 	 * evaluates input by the operation and returns the result; call this method when <tt>position()</tt> or <tt>last()</tt> node tests occur inside subsequent predicates (or this one) in this list.
+	 * Without a snapshot of the page, the matching elements are fetched with a single <tt>querySelectorAll</tt> call on the lowest common
+	 * ancestor of {@code contextSet}, rather than reading the attribute of each member of {@code contextSet}, if there are fewer of them 
+	 * than context nodes.  Matches are identified with context nodes by hash code and {@code isSameNode}; as wrappers of the same node 
+	 * need not share a hash code, context nodes left unidentified while some match is too have their attribute read after all.
 	 * @param contextSet context set
 	 * @param other will depend on the specific predicate
 	 * @return operator of expression
 	 * @throws OXPathException in case of exception in nested calls
 	 */
 	public OXPathType evaluateSet(OXPathNodeList contextSet, OXPathType other) throws OXPathException {
-		OXPathNodeList result = new OXPathNodeList();
+		if (contextSet.size()<2 || contextSet.first().getSnapshot()!=null) return this.evaluateEach(contextSet, new OXPathNodeList(contextSet.isReverse()), other);
+		//in document order, the members of the context set lie between its first and last members, and so within their common ancestor
+		OXPathContextNode documentFirst = (contextSet.isReverse())?contextSet.last():contextSet.first();
+		OXPathContextNode documentLast = (contextSet.isReverse())?contextSet.first():contextSet.last();
+		DOMNode scope = (documentFirst.getNode()==null || documentLast.getNode()==null)?null:commonAncestor(documentFirst.getNode(), documentLast.getNode());
+		if (!(scope instanceof DOMNodeSelector)) return this.evaluateEach(contextSet, new OXPathNodeList(contextSet.isReverse()), other);
+		DOMNodeList matches = ((DOMNodeSelector)scope).querySelectorAll(this.toCSS(other.string()));
+		int length = (int)matches.getLength();
+		if (length>contextSet.size()) return this.evaluateEach(contextSet, new OXPathNodeList(contextSet.isReverse()), other);
+		//indices of the matches, by hash code
+		DOMNode[] match = new DOMNode[length];
+		boolean[] matched = new boolean[length];
+		Map<Integer,List<Integer>> selected = new HashMap<Integer,List<Integer>>();
+		for (int m=0; m<length; m++) {
+			match[m] = matches.item(m);
+			List<Integer> bucket = selected.get(match[m].hashCode());
+			if (bucket==null) {
+				bucket = new ArrayList<Integer>(1);
+				selected.put(match[m].hashCode(), bucket);
+			}
+			bucket.add(m);
+		}
+		OXPathNodeList result = new OXPathNodeList(contextSet.isReverse());
+		List<OXPathContextNode> unidentified = new ArrayList<OXPathContextNode>();
+		int identified = 0;
+		//the scope itself isn't among the matches of its query; if a member, it is the first in document order
+		boolean scopeIsMember = documentFirst.getNode().isSameNode(scope);
 		for (OXPathContextNode i : contextSet) {
-			result.addAll(this.evaluateIterative(i, other).nodeList());
+			DOMNode node = i.getNode();
+			if (i==documentFirst && scopeIsMember) continue;
+			List<Integer> bucket = (node==null)?null:selected.get(node.hashCode());
+			boolean found = false;
+			if (bucket!=null) {
+				for (int m : bucket) {
+					if (match[m].isSameNode(node)) {
+						if (!matched[m]) ++identified;
+						matched[m] = true;
+						found = true;
+						break;
+					}
+				}
+			}
+			if (found) result.add(i);
+			else unidentified.add(i);
+		}
+		//once every match is identified, the remaining context nodes can't match
+		if (identified==length) unidentified.clear();
+		if (scopeIsMember) unidentified.add(documentFirst);
+		return this.evaluateEach(unidentified, result, other);
+	}
+
+	/**
+	 * Adds the members of {@code contextNodes} selected by the operation to {@code result}, reading the attribute of each; the attributes
+	 * are read with a single script evaluation when {@code getAttributeValues} can, and one element at a time otherwise
+	 * @param contextNodes the context nodes
+	 * @param result the set the selected context nodes are added to
+	 * @param other will depend on the specific predicate
+	 * @return {@code result}
+	 * @throws OXPathException in case of exception in nested calls
+	 */
+	private OXPathType evaluateEach(Collection<OXPathContextNode> contextNodes, OXPathNodeList result, OXPathType other) throws OXPathException {
+		String name = other.string();
+		String[] values = this.getAttributeValues(contextNodes);
+		int index = 0;
+		for (OXPathContextNode i : contextNodes) {
+			String value = (values==null)?this.getAttributeValue(i):values[index++];
+			if (value!=null && this.matches(value, name)) result.add(i);
+		}
+		return OXPathType.valueOf(result);
+	}
+
+	/**
+	 * Returns the values of the selector's attribute on {@code contextNodes}, read with a single script evaluation marking the elements
+	 * (see {@code DOMMarks}); returns {@code null} if there are too few of them to be worth marking, if any has a snapshot of its page
+	 * to read the attribute from instead, isn't an element or isn't on the same (loaded) page as the others, or if the script fails
+	 * @param contextNodes the context nodes
+	 * @return the values of the selector's attribute on {@code contextNodes}, in iteration order, or {@code null}
+	 */
+	private String[] getAttributeValues(Collection<OXPathContextNode> contextNodes) {
+		if (contextNodes.size()<OXPathStringValues.BATCH_THRESHOLD) return null;
+		OXPathPageContext pageContext = null;
+		DOMNode[] elements = new DOMNode[contextNodes.size()];
+		int index = 0;
+		for (OXPathContextNode i : contextNodes) {
+			if (i.getSnapshot()!=null || i.getPageContext()==null || !(i.getNode() instanceof DOMElement)) return null;
+			if (pageContext==null) pageContext = i.getPageContext();
+			else if (pageContext!=i.getPageContext()) return null;
+			elements[index++] = i.getNode();
+		}
+		return DOMMarks.evaluate(pageContext.getPage(), elements, "element.getAttribute('" + this.attributeName + "')");
+	}
+
+	/**
+	 * Returns the lowest common ancestor (or self) of {@code a} and {@code b}, walking up from both
+	 * @param a a node
+	 * @param b another node
+	 * @return the lowest common ancestor of {@code a} and {@code b}, or {@code null} if they aren't in the same tree
+	 */
+	private static DOMNode commonAncestor(DOMNode a, DOMNode b) {
+		int depthA = depth(a);
+		int depthB = depth(b);
+		for (; depthA>depthB; depthA--) a = a.getParentNode();
+		for (; depthB>depthA; depthB--) b = b.getParentNode();
+		while (a!=null && !a.isSameNode(b)) {
+			a = a.getParentNode();
+			b = b.getParentNode();
+		}
+		return a;
+	}
+
+	/**
+	 * Returns the number of ancestors of {@code node}
+	 * @param node the node
+	 * @return the number of ancestors of {@code node}
+	 */
+	private static int depth(DOMNode node) {
+		int depth = 0;
+		for (DOMNode ancestor = node.getParentNode(); ancestor!=null; ancestor = ancestor.getParentNode()) ++depth;
+		return depth;
+	}
+
+	/**
+	 * Returns if the value of the selector's attribute, {@code attributeValue}, is selected by {@code name}: for <tt>class</tt>, if
+	 * {@code name} is one of its whitespace-separated tokens, and for <tt>id</tt>, if it equals {@code name}
+	 * @param attributeValue value of the selector's attribute
+	 * @param name name given with the selector
+	 * @return {@code true} if {@code attributeValue} is selected by {@code name}, {@code false} otherwise
+	 */
+	public boolean matches(String attributeValue, String name) {
+		if (this.equals(ID)) return attributeValue.equals(name);
+		if (name.isEmpty()) return false;
+		int from = 0;
+		int length = attributeValue.length();
+		while ((from = attributeValue.indexOf(name, from))>=0) {
+			int to = from + name.length();
+			if ((from==0 || isWhitespace(attributeValue.charAt(from-1))) && (to==length || isWhitespace(attributeValue.charAt(to)))) return true;
+			from = to;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the CSS attribute selector equivalent to this selector with {@code name} (<tt>[class~="name"]</tt> or 
+	 * <tt>[id="name"]</tt>); attribute selectors, unlike CSS class and id selectors, are case-sensitive in quirks mode too
+	 * @param name name given with the selector
+	 * @return the CSS attribute selector equivalent to this selector with {@code name}
+	 */
+	public String toCSS(String name) {
+		StringBuilder css = new StringBuilder("[").append(this.attributeName).append((this.equals(CLASS))?"~=\"":"=\"");
+		for (int i=0; i<name.length(); i++) {
+			char c = name.charAt(i);
+			if (c=='"' || c=='\\') css.append('\\').append(c);
+			else if (c=='\n' || c=='\r' || c=='\f') css.append("\\").append(Integer.toHexString(c)).append(' ');
+			else css.append(c);
 		}
-		return new OXPathType(result);
+		return css.append("\"]").toString();
+	}
+
+	/**
+	 * Returns the value of the selector's attribute on {@code contextNode}, read from the page snapshot if the page has a current one
+	 * @param contextNode the node
+	 * @return the value of the selector's attribute on {@code contextNode}, or {@code null} if it isn't an element or has no such 
+	 * attribute
+	 */
+	private String getAttributeValue(OXPathContextNode contextNode) {
+		DOMNode node = contextNode.getNode();
+		if (node==null) return null;
+		DOMSnapshot snapshot = contextNode.getSnapshot();
+		if (snapshot!=null) {
+			int i = snapshot.indexOf(node);
+			if (i>=0) return (snapshot.getType(i).equals(DOMNode.Type.ELEMENT))?snapshot.getAttribute(i, this.attributeName):null;
+		}
+		return (node instanceof DOMElement)?((DOMElement)node).getAttribute(this.attributeName):null;
+	}
+
+	/**
+	 * Returns if {@code c} is whitespace, as used to separate the tokens of the <tt>class</tt> attribute
+	 * @param c the character
+	 * @return {@code true} if {@code c} is whitespace, {@code false} otherwise
+	 */
+	private static boolean isWhitespace(char c) {
+		return c==' ' || c=='\t' || c=='\n' || c=='\r' || c=='\f';
 	}
 	
 	/**
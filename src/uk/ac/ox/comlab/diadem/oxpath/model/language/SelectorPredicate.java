@@ -49,7 +49,7 @@ public class SelectorPredicate implements OXPathPredicate {
 	 */
 	public SelectorPredicate(Selector select, String aName) {
 		this.selector = select;
-		this.attributeName = new OXPathType(aName);
+		this.attributeName = OXPathType.valueOf(aName);
 	}
 	
 	/**
@@ -80,6 +80,15 @@ public class SelectorPredicate implements OXPathPredicate {
 		return this.selector.getType();
 	}
 	
+	/**
+	 * Returns the CSS attribute selector equivalent to this predicate
+	 * @return the CSS attribute selector equivalent to this predicate
+	 * @throws OXPathException in case of exception in nested calls
+	 */
+	public String toCSS() throws OXPathException {
+		return this.selector.toCSS(this.attributeName.string());
+	}
+	
 	/**
 	 * returns a {@code String} representation of the selector predicate
 	 * @return a {@code String} representation of the selector predicate
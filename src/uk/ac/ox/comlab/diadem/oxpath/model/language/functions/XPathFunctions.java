@@ -34,6 +34,8 @@ import java.util.ArrayList;
 
 import uk.ac.ox.comlab.diadem.oxpath.core.state.PAATStateEvalSet;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNode;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathStringValues;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathType;
 import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
 
@@ -56,7 +58,7 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			return new OXPathType(state.getPosition());
+			return OXPathType.valueOf(state.getPosition());
 		}
 	},
 	
@@ -73,7 +75,7 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			return new OXPathType(state.getLast());
+			return OXPathType.valueOf(state.getLast());
 		}
 	},
 	
@@ -90,7 +92,7 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			return new OXPathType(args.get(0).nodeList().size());
+			return OXPathType.valueOf(args.get(0).nodeList().size());
 		}
 	},
 	
@@ -178,8 +180,8 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			if (args.isEmpty()) return new OXPathType (new OXPathType(state.getContextSet()).string());
-			else return new OXPathType(args.get(0).string());
+			if (args.isEmpty()) return OXPathType.valueOf(OXPathType.valueOf(state.getContextSet()).string());
+			else return OXPathType.valueOf(args.get(0).string());
 		}
 	},
 	
@@ -200,7 +202,7 @@ public enum XPathFunctions implements XPathFunction {
 			for (OXPathType arg : args) {
 				sb.append(arg.string());
 			}
-			return new OXPathType(sb.toString());
+			return OXPathType.valueOf(sb.toString());
 		}
 	},
 	
@@ -217,7 +219,7 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			return new OXPathType(args.get(0).string().startsWith(args.get(1).string()));
+			return OXPathType.valueOf(args.get(0).string().startsWith(args.get(1).string()));
 		}
 	},
 	
@@ -234,7 +236,7 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			return new OXPathType(args.get(0).string().contains(args.get(1).string()));
+			return OXPathType.valueOf(args.get(0).string().contains(args.get(1).string()));
 		}
 	},
 	
@@ -251,8 +253,8 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			if (!(args.get(0).string().contains(args.get(1).string()))) return new OXPathType(false);
-			return new OXPathType(args.get(0).string().substring(0, args.get(0).string().indexOf(args.get(1).string())));
+			if (!(args.get(0).string().contains(args.get(1).string()))) return OXPathType.valueOf(false);
+			return OXPathType.valueOf(args.get(0).string().substring(0, args.get(0).string().indexOf(args.get(1).string())));
 		}
 	},
 	
@@ -269,9 +271,9 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			if (!(args.get(0).string().contains(args.get(1).string()))) return new OXPathType(false);
+			if (!(args.get(0).string().contains(args.get(1).string()))) return OXPathType.valueOf(false);
 			//have to adjust for the length of the second argument for substring after
-			return new OXPathType(args.get(0).string().substring(args.get(0).string().indexOf(args.get(1).string())+args.get(1).string().length()));
+			return OXPathType.valueOf(args.get(0).string().substring(args.get(0).string().indexOf(args.get(1).string())+args.get(1).string().length()));
 		}		
 	},
 	
@@ -289,9 +291,9 @@ public enum XPathFunctions implements XPathFunction {
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
 			//-1 because XPath begins string index at 1, java at 0
-			if (args.size()==2) return new OXPathType(args.get(0).string().substring(args.get(1).number().intValue()+1));
-			else return new OXPathType(args.get(0).string().substring(args.get(1).number().intValue()-1,
-					                                                  args.get(1).number().intValue()-1+args.get(2).number().intValue()));
+			if (args.size()==2) return OXPathType.valueOf(args.get(0).string().substring((int) args.get(1).number()+1));
+			else return OXPathType.valueOf(args.get(0).string().substring((int) args.get(1).number()-1,
+					                                                  (int) args.get(1).number()-1+(int) args.get(2).number()));
 		}		
 	},
 	
@@ -308,8 +310,8 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			if (args.isEmpty()) return new OXPathType(new OXPathType(state.getContextSet()).string().length());
-			else return new OXPathType(args.get(0).string().length());
+			if (args.isEmpty()) return OXPathType.valueOf(OXPathType.valueOf(state.getContextSet()).string().length());
+			else return OXPathType.valueOf(args.get(0).string().length());
 		}
 	},
 	
@@ -326,8 +328,8 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			if (args.isEmpty()) return new OXPathType(new OXPathType(state.getContextSet()).string().trim());//NOTE: java trim() strips C0 control chars, xpath normalize-space() doesn't
-			else return new OXPathType(args.get(0).string().trim());
+			if (args.isEmpty()) return OXPathType.valueOf(OXPathType.valueOf(state.getContextSet()).string().trim());//NOTE: java trim() strips C0 control chars, xpath normalize-space() doesn't
+			else return OXPathType.valueOf(args.get(0).string().trim());
 		}
 	},
 	
@@ -347,7 +349,7 @@ public enum XPathFunctions implements XPathFunction {
 			String target = args.get(1).string();
 			String replacement = args.get(2).string();
 			if (replacement.length() > target.length()) replacement = replacement.substring(0, target.length());
-			return new OXPathType(args.get(0).string().replace(target, replacement));
+			return OXPathType.valueOf(args.get(0).string().replace(target, replacement));
 		}
 	},
 	
@@ -364,7 +366,7 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			return new OXPathType(args.get(0).booleanValue());
+			return OXPathType.valueOf(args.get(0).booleanValue());
 		}		
 	},
 		
@@ -381,7 +383,7 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			return new OXPathType(!args.get(0).booleanValue());
+			return OXPathType.valueOf(!args.get(0).booleanValue());
 		}
 	},
 	
@@ -398,7 +400,7 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			return new OXPathType(true);
+			return OXPathType.valueOf(true);
 		}
 	},
 	
@@ -415,7 +417,7 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			return new OXPathType(false);
+			return OXPathType.valueOf(false);
 		}
 	},
 	
@@ -449,8 +451,8 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			if (args.isEmpty()) return new OXPathType(new OXPathType(state.getContextSet()).number());
-		    return new OXPathType(args.get(0).number());
+			if (args.isEmpty()) return OXPathType.valueOf(OXPathType.valueOf(state.getContextSet()).number());
+		    return OXPathType.valueOf(args.get(0).number());
 		}
 	},
 	
@@ -468,11 +470,12 @@ public enum XPathFunctions implements XPathFunction {
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
 			double sum = 0;
-			for (OXPathContextNode o : args.get(0).nodeList()) {
-				double d = o.getByXPath("number(.)").number();
-				sum += d;
+			OXPathNodeList nodes = args.get(0).nodeList();
+			OXPathStringValues.prefetch(nodes);
+			for (OXPathContextNode o : nodes) {
+				sum += OXPathStringValues.number(o);
 			}
-			return new OXPathType(sum);
+			return OXPathType.valueOf(sum);
 		}
 	},
 	
@@ -489,7 +492,7 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			return new OXPathType(Math.floor(args.get(0).number()));
+			return OXPathType.valueOf(Math.floor(args.get(0).number()));
 		}
 	},
 	
@@ -506,7 +509,7 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			return new OXPathType(Math.ceil(args.get(0).number()));
+			return OXPathType.valueOf(Math.ceil(args.get(0).number()));
 		}
 	},
 	
@@ -523,7 +526,7 @@ public enum XPathFunctions implements XPathFunction {
 		 * @throws OXPathException in case of function error
 		 */
 		public OXPathType evaluate(ArrayList<OXPathType> args, PAATStateEvalSet state) throws OXPathException {
-			return new OXPathType(Math.round(args.get(0).number()));
+			return OXPathType.valueOf(Math.round(args.get(0).number()));
 		}
 	};	
 	
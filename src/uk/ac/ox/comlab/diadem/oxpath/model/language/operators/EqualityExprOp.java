@@ -30,10 +30,14 @@
  */
 package uk.ac.ox.comlab.diadem.oxpath.model.language.operators;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Scanner;
+import java.util.Set;
 
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNode;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathStringValues;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathType;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathType.OXPathTypes;
 import static uk.ac.ox.comlab.diadem.oxpath.model.OXPathType.OXPathTypes.NODESET;
@@ -96,7 +100,7 @@ public enum EqualityExprOp implements BinaryOperator{
 				if (scan.next().equals(rhs)) isTrue = true;
 			}
 			scan.close();
-			return new OXPathType(isTrue);
+			return OXPathType.valueOf(isTrue);
 		}
 	},
 
@@ -111,7 +115,7 @@ public enum EqualityExprOp implements BinaryOperator{
 		 * @return value of expression
 		 */
 		public OXPathType evaluate(OXPathType lhs, OXPathType rhs) throws OXPathException {
-			return new OXPathType(lhs.string().contains(rhs.string()));
+			return OXPathType.valueOf(lhs.string().contains(rhs.string()));
 		}
 	};
 
@@ -125,7 +129,8 @@ public enum EqualityExprOp implements BinaryOperator{
 
 	/**
 	 * Precomputes lists needed by all operators.  Comparisons aren't done due to 
-	 * XPath existential semantics, we can return immediately if a comparison succeeds.
+	 * XPath existential semantics, we can return immediately if a comparison succeeds.  String comparisons of node-sets are
+	 * set-at-a-time: <tt>=</tt> probes one side in a hash set of the other, and <tt>!=</tt> only checks for distinct values.
 	 * <b>Use with {@code EQUALITY} and {@code NONEQUALITY} only.</b> 
 	 * @param lhs left hand side
 	 * @param rhs right hand side
@@ -141,54 +146,81 @@ public enum EqualityExprOp implements BinaryOperator{
 		OXPathTypes rhsType = rhs.isType();
 		boolean isTrue = false;
 
-		boolean hasNodeSet = (lhsType.equals(NODESET) || rhsType.equals(NODESET));
 		boolean hasNumber = (lhsType.equals(NUMBER) || rhsType.equals(NUMBER));
 		boolean hasBoolean = (lhsType.equals(BOOLEAN) || rhsType.equals(BOOLEAN));
 
 		if (hasBoolean) {
-			return new OXPathType((this.equals(EQUALS)) ? lhs.booleanValue()==rhs.booleanValue() : !(lhs.booleanValue()==rhs.booleanValue()));
+			return OXPathType.valueOf((this.equals(EQUALS)) ? lhs.booleanValue()==rhs.booleanValue() : !(lhs.booleanValue()==rhs.booleanValue()));
 		}
 
 		//otherwise, if we have a nodeset, and we need to at least convert the nodeset to string(.) equivalents
-		ArrayList<String> lhsList = new ArrayList<String>();
-		ArrayList<String> rhsList = new ArrayList<String>();
-		if (hasNodeSet) {//handle the nodeset comparisons
-			if (lhsType.equals(NODESET)) {
-				for (OXPathContextNode o : lhs.nodeList()) {
-					lhsList.add(o.getByXPath("string(.)").string());
-				}
-			}
-			if (rhsType.equals(NODESET)) {
-				for (OXPathContextNode o : rhs.nodeList()) {
-					rhsList.add(o.getByXPath("string(.)").string());
-				}
-			}
-		}
-
-		if (lhsType.equals(STRING)) lhsList.add(lhs.string());
-		if (rhsType.equals(STRING)) rhsList.add(rhs.string());
+		String[] lhsStrings = (lhsType.equals(NODESET)) ? strings(lhs) : (lhsType.equals(STRING)) ? new String[] {lhs.string()} : NONE;
+		String[] rhsStrings = (rhsType.equals(NODESET)) ? strings(rhs) : (rhsType.equals(STRING)) ? new String[] {rhs.string()} : NONE;
 
 		if (!hasNumber) {//comparisons can be made directly
-			for (String i : lhsList) {
-				for (String j : rhsList) {
-					isTrue = (this.equals(EQUALS)) ? i.equals(j) : !i.equals(j);
-					if (isTrue) return new OXPathType(true);
+			if (lhsStrings.length==0 || rhsStrings.length==0) return OXPathType.FALSE;
+			if (this.equals(EQUALS)) {//probe the values of the larger side in a hash set of the smaller side
+				String[] build = (lhsStrings.length<=rhsStrings.length) ? lhsStrings : rhsStrings;
+				String[] probe = (build==lhsStrings) ? rhsStrings : lhsStrings;
+				if (build.length==1) {
+					for (String i : probe) {
+						if (i.equals(build[0])) return OXPathType.TRUE;
+					}
+					return OXPathType.FALSE;
+				}
+				Set<String> values = new HashSet<String>(Arrays.asList(build));
+				for (String i : probe) {
+					if (values.contains(i)) return OXPathType.TRUE;
 				}
+				return OXPathType.FALSE;
 			}
-			return new OXPathType(false);
+			//some pair differs unless both sides hold one and the same distinct value
+			String lhsValue = distinct(lhsStrings);
+			String rhsValue = distinct(rhsStrings);
+			return OXPathType.valueOf(lhsValue==null || rhsValue==null || !lhsValue.equals(rhsValue));
 		}
 		else {//we have to deal with number conversions
 			if (lhsType.equals(rhsType)) {//both doubles
-				return new OXPathType((this.equals(EQUALS)) ? lhs.number().doubleValue()==rhs.number().doubleValue() : lhs.number().doubleValue()!=rhs.number().doubleValue());
-			}//we proceed knowing exactly one side is a number and the other already has String values loaded into a list
+				return OXPathType.valueOf((this.equals(EQUALS)) ? lhs.number()==rhs.number() : lhs.number()!=rhs.number());
+			}//we proceed knowing exactly one side is a number and the other already has String values loaded into an array
 			double num = (lhsType.equals(NUMBER)) ? lhs.number() : rhs.number();
-			ArrayList<String> list = (lhsType.equals(NUMBER)) ? rhsList : lhsList;
-			for (String i : list) {
-				isTrue = (this.equals(EQUALS)) ? (Double.parseDouble(i)==num) : (Double.parseDouble(i)!=num);
-				if (isTrue) return new OXPathType(true);
+			String[] strings = (lhsType.equals(NUMBER)) ? rhsStrings : lhsStrings;
+			for (String i : strings) {
+				double d = OXPathStringValues.toNumber(i);
+				isTrue = (this.equals(EQUALS)) ? (d==num) : (d!=num);
+				if (isTrue) return OXPathType.TRUE;
 			}
-			return new OXPathType (false);
+			return OXPathType.FALSE;
+		}
+	}
+
+	/**
+	 * Returns the string-values of the nodes of the node-set {@code value}
+	 * @param value the node-set
+	 * @return the string-values of the nodes of {@code value}
+	 * @throws OXPathException in case of error reading a string-value
+	 */
+	private static String[] strings(OXPathType value) throws OXPathException {
+		OXPathNodeList nodes = value.nodeList();
+		OXPathStringValues.prefetch(nodes);
+		String[] strings = new String[nodes.size()];
+		int i = 0;
+		for (OXPathContextNode o : nodes) {
+			strings[i++] = OXPathStringValues.get(o);
+		}
+		return strings;
+	}
+
+	/**
+	 * Returns the only distinct member of (non-empty) {@code strings}
+	 * @param strings the strings
+	 * @return the only distinct member of {@code strings}, or {@code null} if there are several
+	 */
+	private static String distinct(String[] strings) {
+		for (int i=1; i<strings.length; i++) {
+			if (!strings[i].equals(strings[0])) return null;
 		}
+		return strings[0];
 	}
 
 	/**
@@ -203,4 +235,9 @@ public enum EqualityExprOp implements BinaryOperator{
 	 * instance field encoding value of operator
 	 */
 	private final String operator;
-}
\ No newline at end of file
+
+	/**
+	 * string-values of a side that is neither a node-set nor a string
+	 */
+	private static final String[] NONE = new String[0];
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing supporting classes, derived from the OXPath model (which itself extends the XPath model).
+ * This subpackage includes classes and interface relating to the operators of the OXPath language. 
+ */
+package uk.ac.ox.comlab.diadem.oxpath.model.language.operators;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static uk.ac.ox.comlab.diadem.oxpath.model.language.operators.EqualityExprOp.EQUALS;
+import static uk.ac.ox.comlab.diadem.oxpath.model.language.operators.EqualityExprOp.NOTEQUAL;
+
+import org.junit.Test;
+
+import diadem.common.test.StandardTestCase;
+
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNodeConstructed;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathType;
+
+/**
+ * Tests the XPath existential semantics of <tt>=</tt> and <tt>!=</tt> over node-sets, with constructed nodes standing in for nodes
+ * of a page
+ * @author AndrewJSel
+ *
+ */
+public class EqualityExprOpTest extends StandardTestCase {
+
+	@Test
+	public void nodeSetsTest() throws Exception {
+		assertTrue(EQUALS.evaluate(nodes("a", "b"), nodes("b", "c")).booleanValue());
+		assertFalse(EQUALS.evaluate(nodes("a", "b"), nodes("c", "d")).booleanValue());
+		assertTrue(EQUALS.evaluate(nodes("a", "b", "c", "d"), nodes("x", "y", "d")).booleanValue());
+		assertTrue(NOTEQUAL.evaluate(nodes("a"), nodes("b")).booleanValue());
+		assertFalse(NOTEQUAL.evaluate(nodes("a", "a"), nodes("a")).booleanValue());
+		//a node-set may differ from itself
+		assertTrue(NOTEQUAL.evaluate(nodes("a", "b"), nodes("a", "b")).booleanValue());
+	}
+
+	@Test
+	public void emptyTest() throws Exception {
+		assertFalse(EQUALS.evaluate(nodes(), nodes("a")).booleanValue());
+		assertFalse(NOTEQUAL.evaluate(nodes(), nodes("a")).booleanValue());
+		assertFalse(EQUALS.evaluate(nodes(), OXPathType.valueOf("")).booleanValue());
+		assertFalse(NOTEQUAL.evaluate(OXPathType.valueOf("a"), nodes()).booleanValue());
+		//an empty node-set is false
+		assertTrue(EQUALS.evaluate(nodes(), OXPathType.valueOf(false)).booleanValue());
+	}
+
+	@Test
+	public void stringTest() throws Exception {
+		assertTrue(EQUALS.evaluate(nodes("a", "b"), OXPathType.valueOf("b")).booleanValue());
+		assertFalse(EQUALS.evaluate(OXPathType.valueOf("c"), nodes("a", "b")).booleanValue());
+		assertTrue(NOTEQUAL.evaluate(nodes("a", "b"), OXPathType.valueOf("a")).booleanValue());
+		assertFalse(NOTEQUAL.evaluate(nodes("a", "a"), OXPathType.valueOf("a")).booleanValue());
+	}
+
+	@Test
+	public void numberTest() throws Exception {
+		assertTrue(EQUALS.evaluate(nodes("x", " 1.0 "), OXPathType.valueOf(1.0)).booleanValue());
+		assertFalse(EQUALS.evaluate(nodes("x", "1e0", "+1"), OXPathType.valueOf(1.0)).booleanValue());
+		assertTrue(EQUALS.evaluate(OXPathType.valueOf(-0.5), nodes("-.5")).booleanValue());
+		//NaN differs from every number
+		assertTrue(NOTEQUAL.evaluate(nodes("x"), OXPathType.valueOf(1.0)).booleanValue());
+		assertFalse(NOTEQUAL.evaluate(nodes("2", "2"), OXPathType.valueOf(2.0)).booleanValue());
+	}
+
+	/**
+	 * Returns a node-set of nodes with the string-values {@code values}
+	 * @param values the string-values
+	 * @return the node-set
+	 */
+	static OXPathType nodes(String... values) {
+		OXPathNodeList nodes = new OXPathNodeList();
+		int id = 0;
+		for (String value : values) nodes.addInDocumentOrder(new OXPathContextNodeConstructed("node", value, ++id, 0));
+		return OXPathType.valueOf(nodes);
+	}
+}
@@ -52,7 +52,7 @@ public enum HigherLevelOp implements BinaryOperator {
 		 * @return value of expression
 		 */
 		public OXPathType evaluate(OXPathType lhs, OXPathType rhs) throws OXPathException {
-			return new OXPathType(lhs.booleanValue() || rhs.booleanValue());
+			return OXPathType.valueOf(lhs.booleanValue() || rhs.booleanValue());
 		}
 	},
 	
@@ -67,7 +67,7 @@ public enum HigherLevelOp implements BinaryOperator {
 		 * @return value of expression
 		 */
 		public OXPathType evaluate(OXPathType lhs, OXPathType rhs) throws OXPathException {
-			return new OXPathType(lhs.booleanValue() && rhs.booleanValue());
+			return OXPathType.valueOf(lhs.booleanValue() && rhs.booleanValue());
 		}
 	},
 	
@@ -85,7 +85,7 @@ public enum HigherLevelOp implements BinaryOperator {
 			OXPathNodeList newList = new OXPathNodeList();
 			newList.addAll(lhs.nodeList());
 			newList.addAll(rhs.nodeList());
-			return new OXPathType(newList);
+			return OXPathType.valueOf(newList);
 		}
 	};
 	
@@ -51,7 +51,7 @@ public enum MultiplicativeExprOp implements BinaryOperator {
 		 * @return value of expression
 		 */
 		public OXPathType evaluate(OXPathType lhs, OXPathType rhs) throws OXPathException {
-			return new OXPathType(lhs.number() * rhs.number());
+			return OXPathType.valueOf(lhs.number() * rhs.number());
 		}
 	},
 	
@@ -66,7 +66,7 @@ public enum MultiplicativeExprOp implements BinaryOperator {
 		 * @return value of expression
 		 */
 		public OXPathType evaluate(OXPathType lhs, OXPathType rhs) throws OXPathException {
-			return new OXPathType(lhs.number() / rhs.number());
+			return OXPathType.valueOf(lhs.number() / rhs.number());
 		}
 	},
 	
@@ -81,7 +81,7 @@ public enum MultiplicativeExprOp implements BinaryOperator {
 		 * @return value of expression
 		 */
 		public OXPathType evaluate(OXPathType lhs, OXPathType rhs) throws OXPathException {
-			return new OXPathType(lhs.number() % rhs.number());
+			return OXPathType.valueOf(lhs.number() % rhs.number());
 		}
 	};
 
@@ -50,7 +50,7 @@ public enum NegativeOperator implements UnaryOperator {
 		 * @return value of expression
 		 */
 		public OXPathType evaluate(OXPathType in) throws OXPathException {
-			return new OXPathType(-(in.number()));
+			return OXPathType.valueOf(-(in.number()));
 		}
 	};
 	
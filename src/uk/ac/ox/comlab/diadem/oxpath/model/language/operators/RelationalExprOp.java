@@ -30,9 +30,9 @@
  */
 package uk.ac.ox.comlab.diadem.oxpath.model.language.operators;
 
-import java.util.ArrayList;
-
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathContextNode;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathNodeList;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathStringValues;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathType;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathType.OXPathTypes;
 import uk.ac.ox.comlab.diadem.oxpath.utils.OXPathException;
@@ -114,49 +114,66 @@ public enum RelationalExprOp implements BinaryOperator {
 	}
 
 	/**
-	 * Precomputes lists needed by all operators.  Comparisons aren't done due to 
-	 * XPath existential semantics, we can return immediately if a comparison succeeds.
+	 * Compares by XPath existential semantics: the comparison holds if it holds for some pair of numbers from the two sides.  Each side 
+	 * is converted once to a primitive array of numbers and reduced to its smallest or largest (non-NaN) member, so comparing two 
+	 * node-sets is linear rather than quadratic.
 	 * @param lhs left hand side
 	 * @param rhs right hand side
-	 * @param oper operator
 	 * @return computed answer
+	 * @throws OXPathException in case of error converting a side to numbers
 	 */
 	protected OXPathType compute(OXPathType lhs, OXPathType rhs) throws OXPathException{
-		OXPathTypes lhsType = lhs.isType();
-		OXPathTypes rhsType = rhs.isType();
-
-		ArrayList<Double> lhsList = new ArrayList<Double>();
-		ArrayList<Double> rhsList = new ArrayList<Double>();
-		
-		//convert any nodesets to lists of numbers
-		if (lhsType.equals(OXPathTypes.NODESET)) {
-			for (OXPathContextNode o : lhs.nodeList()) {
-				lhsList.add(Double.valueOf(o.getByXPath("string(.)").string()));
-			}
+		double[] lhsNumbers = numbers(lhs);
+		double[] rhsNumbers = numbers(rhs);
+		//l > r (or l >= r) for some pair iff it holds for the largest l and the smallest r, and symmetrically for < and <=
+		boolean greater = this.equals(GREATER) || this.equals(GREATERTE);
+		double l = extreme(lhsNumbers, greater);
+		double r = extreme(rhsNumbers, !greater);
+		if (Double.isNaN(l) || Double.isNaN(r)) return OXPathType.FALSE;
+		switch (this) {
+		case GREATER :
+			return OXPathType.valueOf(l>r);
+		case GREATERTE :
+			return OXPathType.valueOf(l>=r);
+		case LESS :
+			return OXPathType.valueOf(l<r);
+		case LESSTE :
+		default :
+			return OXPathType.valueOf(l<=r);
 		}
-		else lhsList.add(lhs.number());
-		if (rhsType.equals(OXPathTypes.NODESET)) {
-			for (OXPathContextNode o : rhs.nodeList()) {
-				rhsList.add(Double.valueOf(o.getByXPath("string(.)").string()));
-			}
+	}
+
+	/**
+	 * Converts {@code value} to numbers: the string-values of the nodes of a node-set, or the value itself otherwise
+	 * @param value the value
+	 * @return the numbers of {@code value}
+	 * @throws OXPathException in case of error reading a string-value
+	 */
+	private static double[] numbers(OXPathType value) throws OXPathException {
+		if (!value.isType().equals(OXPathTypes.NODESET)) return new double[] {value.number()};
+		OXPathNodeList nodes = value.nodeList();
+		OXPathStringValues.prefetch(nodes);
+		double[] numbers = new double[nodes.size()];
+		int i = 0;
+		for (OXPathContextNode o : nodes) {
+			numbers[i++] = OXPathStringValues.number(o);
 		}
-		else rhsList.add(rhs.number());
+		return numbers;
+	}
 
-		//compare the lists
-		for (Double i : lhsList) {
-			double l = i.doubleValue();
-			for (Double j : rhsList) {
-				double r = j.doubleValue();
-				boolean gt = l>r;
-				boolean lt = l<r;
-				boolean eq = l==r;
-				if (this.equals(GREATER) && gt) return new OXPathType(true);
-				else if (this.equals(GREATERTE) && (gt || eq)) return new OXPathType(true);
-				else if (this.equals(LESS) && lt) return new OXPathType(true);
-				else if (this.equals(LESSTE) && (lt || eq)) return new OXPathType(true);
-			}
+	/**
+	 * Returns the largest (or smallest) member of {@code numbers}, ignoring NaN (which satisfies no comparison)
+	 * @param numbers the numbers
+	 * @param largest {@code true} for the largest member, {@code false} for the smallest
+	 * @return the largest (or smallest) member of {@code numbers}, or {@code NaN} if there is none
+	 */
+	private static double extreme(double[] numbers, boolean largest) {
+		double result = Double.NaN;
+		for (double d : numbers) {
+			if (Double.isNaN(d)) continue;
+			if (Double.isNaN(result) || ((largest) ? d>result : d<result)) result = d;
 		}
-		return new OXPathType(false);
+		return result;
 	}
 
 	/**
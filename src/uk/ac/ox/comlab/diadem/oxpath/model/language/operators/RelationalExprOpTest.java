@@ -0,0 +1,81 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing supporting classes, derived from the OXPath model (which itself extends the XPath model).
+ * This subpackage includes classes and interface relating to the operators of the OXPath language. 
+ */
+package uk.ac.ox.comlab.diadem.oxpath.model.language.operators;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static uk.ac.ox.comlab.diadem.oxpath.model.language.operators.EqualityExprOpTest.nodes;
+import static uk.ac.ox.comlab.diadem.oxpath.model.language.operators.RelationalExprOp.GREATER;
+import static uk.ac.ox.comlab.diadem.oxpath.model.language.operators.RelationalExprOp.GREATERTE;
+import static uk.ac.ox.comlab.diadem.oxpath.model.language.operators.RelationalExprOp.LESS;
+import static uk.ac.ox.comlab.diadem.oxpath.model.language.operators.RelationalExprOp.LESSTE;
+
+import org.junit.Test;
+
+import diadem.common.test.StandardTestCase;
+
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathType;
+
+/**
+ * Tests the XPath existential semantics of <tt>&lt;</tt>, <tt>&lt;=</tt>, <tt>&gt;</tt> and <tt>&gt;=</tt> over node-sets, which
+ * compare the extreme numbers of each side
+ * @author AndrewJSel
+ *
+ */
+public class RelationalExprOpTest extends StandardTestCase {
+
+	@Test
+	public void nodeSetsTest() throws Exception {
+		assertTrue(GREATER.evaluate(nodes("1", "5"), nodes("3")).booleanValue());
+		assertFalse(GREATER.evaluate(nodes("1", "2"), nodes("3", "4")).booleanValue());
+		assertTrue(LESS.evaluate(nodes("1", "5"), nodes("0", "2")).booleanValue());
+		assertFalse(LESS.evaluate(nodes("5", "6"), nodes("0", "5")).booleanValue());
+		assertTrue(LESSTE.evaluate(nodes("5", "6"), nodes("0", "5")).booleanValue());
+		assertTrue(GREATERTE.evaluate(nodes("3"), nodes("3", "9")).booleanValue());
+	}
+
+	@Test
+	public void notANumberTest() throws Exception {
+		//values that aren't numbers never compare
+		assertTrue(GREATERTE.evaluate(nodes("x", "4"), OXPathType.valueOf(4.0)).booleanValue());
+		assertFalse(GREATER.evaluate(nodes("x", "1e3"), OXPathType.valueOf(1.0)).booleanValue());
+		assertFalse(LESS.evaluate(OXPathType.valueOf("abc"), OXPathType.valueOf(1.0)).booleanValue());
+		assertFalse(LESS.evaluate(nodes(), OXPathType.valueOf(1.0)).booleanValue());
+		assertFalse(GREATER.evaluate(OXPathType.valueOf(1.0), nodes()).booleanValue());
+	}
+
+	@Test
+	public void numberTest() throws Exception {
+		assertTrue(LESS.evaluate(OXPathType.valueOf(-0.5), nodes(" 0 ")).booleanValue());
+		assertTrue(GREATER.evaluate(OXPathType.valueOf(2.0), OXPathType.valueOf("1.5")).booleanValue());
+		assertFalse(LESSTE.evaluate(OXPathType.valueOf(2.0), OXPathType.valueOf(1.0)).booleanValue());
+	}
+}
@@ -0,0 +1,600 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing consumer classes for OXPath output ({@code OXPathExtractionNode} objects).  The package
+ * consists of the {@code abstract} class {@code OXPathOutputHandler} and its children implementations. 
+ */
+package uk.ac.ox.comlab.diadem.oxpath.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.slf4j.Logger;
+
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathExtractionNode;
+
+/**
+ * Handles output from OXPath expressions by writing the extraction nodes, grouped by label path (the labels from the top-level record 
+ * down to the node, joined by <tt>/</tt>), to column files in a directory, for analytics tools to scan.  Each {@code Column} is a file
+ * of fixed-width little-endian values, written through {@code MappedByteBuffer}s in row groups of at most {@code rowGroupSize} rows of a 
+ * single label path (each mapping extends the file by exactly the bytes it holds, so the files never need truncating):
+ * <ul>
+ * <li><tt>ids.col</tt>, <tt>parents.col</tt> and <tt>labels.col</tt>: the identifier, parent identifier and label code (into the label 
+ * dictionary) of each node, as <tt>int</tt>s;</li>
+ * <li><tt>values.col</tt>: the offset of the value of each node in <tt>values.heap</tt>, as a <tt>long</tt>, or {@code NULL_VALUE}.</li>
+ * </ul>
+ * Each column file starts with {@code MAGIC} and {@code VERSION} and ends with its footer index: for each row group the label path code, 
+ * the number of rows and the offset of the row group in the file (<tt>int</tt>, <tt>int</tt>, <tt>long</tt>), then the number of row 
+ * groups and {@code MAGIC}.  The value heap holds each value, in the order received, as its UTF-8 length (<tt>int</tt>) and bytes 
+ * (written through a buffer, as its size isn't known in advance), and <tt>dictionary.dict</tt> the labels (as heap entries) and the 
+ * label paths (as the code of the parent path, or {@code -1}, and the label code).  {@code OXPathColumnarReader} reads the files back.
+ * <p>
+ * Nodes are held only until the row group of their label path fills.  To find the label path of the children of a node, the label
+ * paths of the {@code PARENT_ENTRIES} most recently received (or looked up) nodes are remembered; a node whose parent is no longer 
+ * remembered is written as top-level, and a warning logged.
+ * @author AndrewJSel
+ *
+ */
+public class OXPathColumnarOutputHandler extends OXPathOutputHandler {
+
+	/**
+	 * the column files
+	 */
+	public enum Column {
+		/**
+		 * node identifiers
+		 */
+		IDS("ids.col", 4),
+		/**
+		 * parent identifiers
+		 */
+		PARENTS("parents.col", 4),
+		/**
+		 * label codes
+		 */
+		LABELS("labels.col", 4),
+		/**
+		 * offsets of the values in the value heap
+		 */
+		VALUES("values.col", 8);
+
+		/**
+		 * basic constructor
+		 * @param iFileName name of the column file
+		 * @param iWidth width in bytes of the column values
+		 */
+		private Column(String iFileName, int iWidth) {
+			this.fileName = iFileName;
+			this.width = iWidth;
+		}
+
+		/**
+		 * returns the name of the column file
+		 * @return the name of the column file
+		 */
+		public String getFileName() {
+			return this.fileName;
+		}
+
+		/**
+		 * returns the width in bytes of the column values
+		 * @return the width in bytes of the column values
+		 */
+		public int getWidth() {
+			return this.width;
+		}
+
+		/**
+		 * name of the column file
+		 */
+		private final String fileName;
+		/**
+		 * width in bytes of the column values
+		 */
+		private final int width;
+	}
+
+	/**
+	 * Constructs the handler, receiving the extraction nodes from {@code host} and {@code port}.
+	 * @param host the host for the stream receiving {@code OXPathExtractionNode} instances
+	 * @param port the port for the stream receiving {@code OXPathExtractionNode} instances
+	 * @param logger the logging environment associated with OXPath
+	 * @param iDirectory the directory the column files are written to, created if missing
+	 * @param iLatch countdown latch that lets the caller know that the output is completely written
+	 */
+	public OXPathColumnarOutputHandler(String host, int port, Logger logger, File iDirectory, CountDownLatch iLatch) {
+		super(host, port, logger);
+		this.directory = iDirectory;
+		this.latch = iLatch;
+	}
+
+	/**
+	 * Constructs the handler, reading the extraction nodes in process from {@code source}.
+	 * @param source the extraction nodes, in the order they are extracted
+	 * @param logger the logging environment associated with OXPath
+	 * @param iDirectory the directory the column files are written to, created if missing
+	 * @param iLatch countdown latch that lets the caller know that the output is completely written
+	 */
+	public OXPathColumnarOutputHandler(Iterator<OXPathExtractionNode> source, Logger logger, File iDirectory, CountDownLatch iLatch) {
+		super(source, logger);
+		this.directory = iDirectory;
+		this.latch = iLatch;
+	}
+
+	/**
+	 * Sets the maximum number of rows of a row group; defaults to {@code DEFAULT_ROW_GROUP_SIZE}.  Must be called before the handler is 
+	 * started.
+	 * @param iRowGroupSize the maximum number of rows of a row group
+	 * @return same object with update applied
+	 */
+	public OXPathColumnarOutputHandler setRowGroupSize(int iRowGroupSize) {
+		if (iRowGroupSize<1) throw new IllegalArgumentException("Row group size must be positive, not " + iRowGroupSize);
+		this.rowGroupSize = iRowGroupSize;
+		return this;
+	}
+
+	/**
+	 * Runs the thread receiving the OXPath output, writing the row groups as they fill.  Once the end node is received, the partial row
+	 * groups, the footers and the dictionary are written and the latch counted down.
+	 */
+	@Override
+	public void run() {
+		try {
+			if (!this.directory.isDirectory() && !this.directory.mkdirs()) throw new IOException("Cannot create directory " + this.directory);
+			this.open();
+			try {
+				boolean done = false;
+				while (!done) {
+					OXPathExtractionNode node = this.nextNode();
+					if (node.isEndNode()) done=true;
+					else this.receive(node);
+				}
+				this.closeInput();
+				for (RowGroup group : this.groups.values()) {
+					if (group.rows>0) this.write(group);
+				}
+				this.writeDictionary();
+			} finally {
+				this.close();
+			}
+		} catch (Exception e) {
+			logger.error("Problem writing the columnar output.  Please see log for further information.",e);
+		}
+		this.latch.countDown();
+	}
+
+	/**
+	 * Opens the column files and the value heap, writing their headers
+	 * @throws IOException in case of exception opening the files
+	 */
+	private void open() throws IOException {
+		Column[] columns = Column.values();
+		this.columnFiles = new RandomAccessFile[columns.length];
+		this.positions = new long[columns.length];
+		this.footers = new ArrayList<List<long[]>>(columns.length);
+		for (int i=0; i<columns.length; i++) {
+			this.columnFiles[i] = create(new File(this.directory, columns[i].getFileName()));
+			this.positions[i] = header(this.columnFiles[i].getChannel(), 0);
+			this.footers.add(new ArrayList<long[]>());
+		}
+		this.heapFile = create(new File(this.directory, HEAP_FILE));
+		this.heapBase = 0;
+		this.heap = ByteBuffer.allocateDirect(HEAP_CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+		this.heap.putInt(MAGIC).putInt(VERSION);
+	}
+
+	/**
+	 * Adds a received node to the row group of its label path, writing the row group if full
+	 * @param node the received node
+	 * @throws IOException in case of exception writing the output
+	 */
+	private void receive(OXPathExtractionNode node) throws IOException {
+		int parentPath = NO_PATH;
+		if (node.getParent()!=RESULTS) {
+			Integer known = this.pathOf.get(node.getParent());
+			parentPath = (known==null) ? NO_PATH : known.intValue();
+			if (parentPath==NO_PATH) logger.warn("Extraction node " + node.getId() + " has an unknown parent " + node.getParent() + "; it is written as top-level");
+		}
+		int label = this.labelCode(node.getLabel());
+		Long key = Long.valueOf(((long) parentPath << 32) | (label & 0xffffffffL));
+		Integer path = this.paths.get(key);
+		if (path==null) {
+			path = Integer.valueOf(this.pathParents.size());
+			this.paths.put(key, path);
+			this.pathParents.add(new int[] {parentPath, label});
+		}
+		this.pathOf.put(node.getId(), path);
+		RowGroup group = this.groups.get(path);
+		if (group==null) {
+			group = new RowGroup(path.intValue());
+			this.groups.put(path, group);
+		}
+		group.add(node.getId(), node.getParent(), label, (node.getValue()==null) ? NULL_VALUE : this.heapPut(node.getValue()));
+		if (group.rows==this.rowGroupSize) this.write(group);
+	}
+
+	/**
+	 * Returns the code of {@code label} in the label dictionary, adding it if new
+	 * @param label the label
+	 * @return the code of {@code label}
+	 */
+	private int labelCode(String label) {
+		Integer code = this.labels.get(label);
+		if (code==null) {
+			code = Integer.valueOf(this.labels.size());
+			this.labels.put(label, code);
+		}
+		return code.intValue();
+	}
+
+	/**
+	 * Writes the rows of {@code group} as a row group of each column file, and empties it
+	 * @param group the row group
+	 * @throws IOException in case of exception writing the output
+	 */
+	private void write(RowGroup group) throws IOException {
+		Column[] columns = Column.values();
+		for (int i=0; i<columns.length; i++) {
+			long offset = this.positions[i];
+			MappedByteBuffer buffer = map(this.columnFiles[i].getChannel(), offset, (long) group.rows * columns[i].getWidth());
+			switch (columns[i]) {
+			case IDS: buffer.asIntBuffer().put(group.ids, 0, group.rows); break;
+			case PARENTS: buffer.asIntBuffer().put(group.parents, 0, group.rows); break;
+			case LABELS: buffer.asIntBuffer().put(group.labels, 0, group.rows); break;
+			case VALUES: buffer.asLongBuffer().put(group.values, 0, group.rows); break;
+			}
+			this.positions[i] += (long) group.rows * columns[i].getWidth();
+			this.footers.get(i).add(new long[] {group.path, group.rows, offset});
+		}
+		group.rows = 0;
+	}
+
+	/**
+	 * Appends {@code value} to the value heap
+	 * @param value the value
+	 * @return the offset of {@code value} in the value heap
+	 * @throws IOException in case of exception writing the output
+	 */
+	private long heapPut(String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF8);
+		long offset = this.heapBase + this.heap.position();
+		if (this.heap.remaining()<bytes.length + 4) {
+			this.flushHeap();
+			if (this.heap.remaining()<bytes.length + 4) {
+				//larger than the buffer: written directly
+				ByteBuffer large = ByteBuffer.allocate(bytes.length + 4).order(ByteOrder.LITTLE_ENDIAN);
+				large.putInt(bytes.length).put(bytes).flip();
+				this.writeHeap(large);
+				return offset;
+			}
+		}
+		this.heap.putInt(bytes.length).put(bytes);
+		return offset;
+	}
+
+	/**
+	 * Writes the buffered part of the value heap to its file, and empties the buffer
+	 * @throws IOException in case of exception writing the output
+	 */
+	private void flushHeap() throws IOException {
+		this.heap.flip();
+		this.writeHeap(this.heap);
+		this.heap.clear();
+	}
+
+	/**
+	 * Writes {@code bytes} at the end of the value heap file
+	 * @param bytes the bytes
+	 * @throws IOException in case of exception writing the output
+	 */
+	private void writeHeap(ByteBuffer bytes) throws IOException {
+		FileChannel channel = this.heapFile.getChannel();
+		while (bytes.hasRemaining()) this.heapBase += channel.write(bytes, this.heapBase);
+	}
+
+	/**
+	 * Writes the label dictionary and the label paths to the dictionary file
+	 * @throws IOException in case of exception writing the output
+	 */
+	private void writeDictionary() throws IOException {
+		List<byte[]> encoded = new ArrayList<byte[]>(this.labels.size());
+		long length = 16 + 8L * this.pathParents.size();
+		for (String label : this.labels.keySet()) {
+			byte[] bytes = label.getBytes(UTF8);
+			encoded.add(bytes);
+			length += 4 + bytes.length;
+		}
+		RandomAccessFile file = create(new File(this.directory, DICTIONARY_FILE));
+		try {
+			MappedByteBuffer buffer = map(file.getChannel(), 0, length);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(encoded.size());
+			for (byte[] bytes : encoded) buffer.putInt(bytes.length).put(bytes);
+			buffer.putInt(this.pathParents.size());
+			for (int[] path : this.pathParents) buffer.putInt(path[0]).putInt(path[1]);
+			buffer.force();
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Writes the footers of the column files and the rest of the value heap, and closes the files
+	 * @throws IOException in case of exception writing the output
+	 */
+	private void close() throws IOException {
+		IOException failure = null;
+		if (this.columnFiles!=null) {
+			for (int i=0; i<this.columnFiles.length; i++) {
+				try {
+					List<long[]> footer = this.footers.get(i);
+					FileChannel channel = this.columnFiles[i].getChannel();
+					MappedByteBuffer buffer = map(channel, this.positions[i], 16L * footer.size() + 8);
+					for (long[] entry : footer) buffer.putInt((int) entry[0]).putInt((int) entry[1]).putLong(entry[2]);
+					buffer.putInt(footer.size()).putInt(MAGIC);
+					buffer.force();
+				} catch (IOException e) {
+					failure = e;
+				} finally {
+					this.columnFiles[i].close();
+				}
+			}
+		}
+		if (this.heapFile!=null) {
+			try {
+				this.flushHeap();
+			} finally {
+				this.heapFile.close();
+			}
+		}
+		if (failure!=null) throw failure;
+	}
+
+	/**
+	 * Maps {@code MAGIC} and {@code VERSION} at {@code position} of {@code channel}
+	 * @param channel the file
+	 * @param position the position of the header
+	 * @return the position after the header
+	 * @throws IOException in case of exception writing the file
+	 */
+	private static long header(FileChannel channel, long position) throws IOException {
+		map(channel, position, 8).putInt(MAGIC).putInt(VERSION);
+		return position + 8;
+	}
+
+	/**
+	 * Opens {@code file} for writing, discarding its contents
+	 * @param file the file
+	 * @return the open file
+	 * @throws IOException in case of exception opening the file
+	 */
+	private static RandomAccessFile create(File file) throws IOException {
+		RandomAccessFile open = new RandomAccessFile(file, "rw");
+		open.setLength(0);
+		return open;
+	}
+
+	/**
+	 * Maps {@code length} bytes at {@code position} of {@code channel} for writing, little-endian, extending the file if needed
+	 * @param channel the file
+	 * @param position the position of the region
+	 * @param length the length of the region
+	 * @return the mapped region
+	 * @throws IOException in case of exception mapping the file
+	 */
+	private static MappedByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	/**
+	 * The rows of a label path not yet written
+	 */
+	private static final class RowGroup {
+
+		/**
+		 * Creates an empty row group
+		 * @param iPath code of the label path
+		 */
+		RowGroup(int iPath) {
+			this.path = iPath;
+		}
+
+		/**
+		 * Adds a row
+		 * @param id identifier of the node
+		 * @param parent identifier of the parent of the node
+		 * @param label label code of the node
+		 * @param value offset of the value of the node in the value heap
+		 */
+		void add(int id, int parent, int label, long value) {
+			if (this.rows==this.ids.length) {
+				int length = this.ids.length * 2;
+				this.ids = Arrays.copyOf(this.ids, length);
+				this.parents = Arrays.copyOf(this.parents, length);
+				this.labels = Arrays.copyOf(this.labels, length);
+				this.values = Arrays.copyOf(this.values, length);
+			}
+			this.ids[this.rows] = id;
+			this.parents[this.rows] = parent;
+			this.labels[this.rows] = label;
+			this.values[this.rows] = value;
+			++this.rows;
+		}
+
+		/**
+		 * code of the label path
+		 */
+		final int path;
+		/**
+		 * number of rows
+		 */
+		int rows = 0;
+		/**
+		 * node identifiers
+		 */
+		int[] ids = new int[INITIAL_ROWS];
+		/**
+		 * parent identifiers
+		 */
+		int[] parents = new int[INITIAL_ROWS];
+		/**
+		 * label codes
+		 */
+		int[] labels = new int[INITIAL_ROWS];
+		/**
+		 * value offsets
+		 */
+		long[] values = new long[INITIAL_ROWS];
+	}
+
+	/**
+	 * the directory the column files are written to
+	 */
+	private final File directory;
+	/**
+	 * countdown latch that lets the caller know that the output is completely written
+	 */
+	private final CountDownLatch latch;
+	/**
+	 * maximum number of rows of a row group
+	 */
+	private int rowGroupSize = DEFAULT_ROW_GROUP_SIZE;
+	/**
+	 * the label dictionary, in code order
+	 */
+	private final Map<String,Integer> labels = new LinkedHashMap<String,Integer>();
+	/**
+	 * label path codes, by parent path code (high <tt>int</tt>) and label code (low <tt>int</tt>)
+	 */
+	private final Map<Long,Integer> paths = new HashMap<Long,Integer>();
+	/**
+	 * parent path code and label code of each label path, in code order
+	 */
+	private final List<int[]> pathParents = new ArrayList<int[]>();
+	/**
+	 * label path code of the most recently received or looked up nodes, by identifier
+	 */
+	private final Map<Integer,Integer> pathOf = new LinkedHashMap<Integer,Integer>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer,Integer> eldest) {
+			return this.size()>PARENT_ENTRIES;
+		}
+	};
+	/**
+	 * the rows not yet written, by label path code
+	 */
+	private final Map<Integer,RowGroup> groups = new LinkedHashMap<Integer,RowGroup>();
+	/**
+	 * the column files, in {@code Column} order
+	 */
+	private RandomAccessFile[] columnFiles;
+	/**
+	 * the end of the row groups written to each column file
+	 */
+	private long[] positions;
+	/**
+	 * the footer entries of each column file
+	 */
+	private List<List<long[]>> footers;
+	/**
+	 * the value heap file
+	 */
+	private RandomAccessFile heapFile;
+	/**
+	 * buffer of the value heap being written
+	 */
+	private ByteBuffer heap;
+	/**
+	 * position of {@code heap} in the value heap file (the length of the file written so far)
+	 */
+	private long heapBase;
+
+	/**
+	 * default maximum number of rows of a row group
+	 */
+	public static final int DEFAULT_ROW_GROUP_SIZE = 65536;
+	/**
+	 * magic number starting and ending the files ("OXPC")
+	 */
+	public static final int MAGIC = 0x4F585043;
+	/**
+	 * version of the file format
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * value offset of nodes without a value
+	 */
+	public static final long NULL_VALUE = -1;
+	/**
+	 * parent path code of top-level label paths
+	 */
+	public static final int NO_PATH = -1;
+	/**
+	 * name of the value heap file
+	 */
+	public static final String HEAP_FILE = "values.heap";
+	/**
+	 * name of the dictionary file
+	 */
+	public static final String DICTIONARY_FILE = "dictionary.dict";
+	/**
+	 * number of nodes whose label path is remembered for their children
+	 */
+	public static final int PARENT_ENTRIES = 1 << 16;
+	/**
+	 * size of the buffer of the value heap
+	 */
+	private static final int HEAP_CHUNK = 1 << 16;
+	/**
+	 * initial capacity of the row arrays
+	 */
+	private static final int INITIAL_ROWS = 1024;
+	/**
+	 * identifier of the results node
+	 */
+	private static final int RESULTS = 0;
+	/**
+	 * encoding of labels and values
+	 */
+	static final Charset UTF8 = Charset.forName("UTF-8");
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing consumer classes for OXPath output ({@code OXPathExtractionNode} objects).  The package
+ * consists of the {@code abstract} class {@code OXPathOutputHandler} and its children implementations. 
+ */
+package uk.ac.ox.comlab.diadem.oxpath.output;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import uk.ac.ox.comlab.diadem.oxpath.output.OXPathColumnarOutputHandler.Column;
+
+/**
+ * Reads the column files written by {@code OXPathColumnarOutputHandler}.  A column is scanned one row group at a time, each mapped 
+ * read-only from its file as an {@code IntBuffer} or {@code LongBuffer}, so no records are materialized; values are read from the value 
+ * heap by the offsets of the <tt>values</tt> column.
+ * @author AndrewJSel
+ *
+ */
+public class OXPathColumnarReader implements Closeable {
+
+	/**
+	 * Opens the column files in {@code directory}, reading their footers and the dictionary
+	 * @param directory the directory the column files were written to
+	 * @throws IOException if a file is missing or malformed, or in case of exception reading it
+	 */
+	public OXPathColumnarReader(File directory) throws IOException {
+		Column[] columns = Column.values();
+		this.columnFiles = new RandomAccessFile[columns.length];
+		this.footers = new long[columns.length][][];
+		try {
+			for (int i=0; i<columns.length; i++) {
+				this.columnFiles[i] = new RandomAccessFile(new File(directory, columns[i].getFileName()), "r");
+				this.footers[i] = readFooter(this.columnFiles[i].getChannel());
+			}
+			this.heapFile = new RandomAccessFile(new File(directory, OXPathColumnarOutputHandler.HEAP_FILE), "r");
+			checkHeader(map(this.heapFile.getChannel(), 0, 8));
+			this.readDictionary(new File(directory, OXPathColumnarOutputHandler.DICTIONARY_FILE));
+		} catch (IOException e) {
+			this.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * returns the label dictionary, in code order
+	 * @return the label dictionary, in code order
+	 */
+	public List<String> getLabels() {
+		return Collections.unmodifiableList(this.labels);
+	}
+
+	/**
+	 * returns the label paths (the labels joined by <tt>/</tt>), in code order
+	 * @return the label paths, in code order
+	 */
+	public List<String> getPaths() {
+		return Collections.unmodifiableList(this.paths);
+	}
+
+	/**
+	 * Returns the code of {@code path}
+	 * @param path the label path (the labels joined by <tt>/</tt>)
+	 * @return the code of {@code path}, or {@code -1} if no node has this label path
+	 */
+	public int getPathCode(String path) {
+		return this.paths.indexOf(path);
+	}
+
+	/**
+	 * Returns the number of rows with label path {@code path}
+	 * @param path code of the label path, or {@code -1} for all rows
+	 * @return the number of rows with label path {@code path}
+	 */
+	public long getRowCount(int path) {
+		long rows = 0;
+		for (long[] entry : this.footers[0]) {
+			if (path<0 || entry[0]==path) rows += entry[1];
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns the row groups of the <tt>int</tt> column {@code column} with label path {@code path}, in the order written; the buffers 
+	 * are mapped from the column file, and read as they are scanned
+	 * @param column the column, one of {@code IDS}, {@code PARENTS} or {@code LABELS}
+	 * @param path code of the label path, or {@code -1} for all row groups
+	 * @return the row groups of {@code column} with label path {@code path}
+	 * @throws IOException in case of exception mapping the column file
+	 */
+	public List<IntBuffer> scanInts(Column column, int path) throws IOException {
+		if (column.getWidth()!=4) throw new IllegalArgumentException("Column " + column + " isn't an int column");
+		List<IntBuffer> rowGroups = new ArrayList<IntBuffer>();
+		for (ByteBuffer rowGroup : this.scan(column, path)) rowGroups.add(rowGroup.asIntBuffer());
+		return rowGroups;
+	}
+
+	/**
+	 * Returns the row groups of the <tt>values</tt> column with label path {@code path}, in the order written; the buffers are mapped from 
+	 * the column file, and read as they are scanned
+	 * @param path code of the label path, or {@code -1} for all row groups
+	 * @return the row groups of the value offsets with label path {@code path}
+	 * @throws IOException in case of exception mapping the column file
+	 */
+	public List<LongBuffer> scanValues(int path) throws IOException {
+		List<LongBuffer> rowGroups = new ArrayList<LongBuffer>();
+		for (ByteBuffer rowGroup : this.scan(Column.VALUES, path)) rowGroups.add(rowGroup.asLongBuffer());
+		return rowGroups;
+	}
+
+	/**
+	 * Returns the value at {@code offset} of the value heap
+	 * @param offset the offset, as read from the <tt>values</tt> column
+	 * @return the value, or {@code null} if {@code offset} is {@code NULL_VALUE}
+	 * @throws IOException if there is no value at {@code offset}, or in case of exception reading the value heap
+	 */
+	public String getValue(long offset) throws IOException {
+		if (offset==OXPathColumnarOutputHandler.NULL_VALUE) return null;
+		FileChannel channel = this.heapFile.getChannel();
+		ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, length, offset);
+		int size = length.getInt(0);
+		if (size<0 || offset + 4 + size>channel.size()) throw new StreamCorruptedException("No value at offset " + offset + " of the value heap");
+		ByteBuffer bytes = ByteBuffer.allocate(size);
+		readFully(channel, bytes, offset + 4);
+		return new String(bytes.array(), OXPathColumnarOutputHandler.UTF8);
+	}
+
+	/**
+	 * Closes the column files and the value heap
+	 * @throws IOException in case of exception closing the files
+	 */
+	@Override
+	public void close() throws IOException {
+		IOException failure = null;
+		List<RandomAccessFile> files = new ArrayList<RandomAccessFile>();
+		for (RandomAccessFile file : this.columnFiles) files.add(file);
+		files.add(this.heapFile);
+		for (RandomAccessFile file : files) {
+			if (file==null) continue;
+			try {
+				file.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure!=null) throw failure;
+	}
+
+	/**
+	 * Maps the row groups of {@code column} with label path {@code path} read-only
+	 * @param column the column
+	 * @param path code of the label path, or {@code -1} for all row groups
+	 * @return the mapped row groups
+	 * @throws IOException in case of exception mapping the column file
+	 */
+	private List<ByteBuffer> scan(Column column, int path) throws IOException {
+		FileChannel channel = this.columnFiles[column.ordinal()].getChannel();
+		List<ByteBuffer> rowGroups = new ArrayList<ByteBuffer>();
+		for (long[] entry : this.footers[column.ordinal()]) {
+			if (path<0 || entry[0]==path) rowGroups.add(map(channel, entry[2], entry[1] * column.getWidth()));
+		}
+		return rowGroups;
+	}
+
+	/**
+	 * Reads the label dictionary and the label paths from {@code file}
+	 * @param file the dictionary file
+	 * @throws IOException if the file is malformed, or in case of exception reading it
+	 */
+	private void readDictionary(File file) throws IOException {
+		RandomAccessFile open = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer buffer = map(open.getChannel(), 0, open.length());
+			checkHeader(buffer);
+			int count = buffer.getInt();
+			for (int i=0; i<count; i++) {
+				byte[] bytes = new byte[buffer.getInt()];
+				buffer.get(bytes);
+				this.labels.add(new String(bytes, OXPathColumnarOutputHandler.UTF8));
+			}
+			count = buffer.getInt();
+			for (int i=0; i<count; i++) {
+				int parent = buffer.getInt();
+				int label = buffer.getInt();
+				if (parent>=i || label<0 || label>=this.labels.size()) throw new StreamCorruptedException("Malformed label path " + i + " in " + file);
+				this.paths.add((parent==OXPathColumnarOutputHandler.NO_PATH) ? this.labels.get(label) : this.paths.get(parent) + "/" + this.labels.get(label));
+			}
+		} catch (RuntimeException e) {
+			//buffer underflow or negative lengths
+			throw new StreamCorruptedException("Malformed dictionary " + file);
+		} finally {
+			open.close();
+		}
+	}
+
+	/**
+	 * Reads the footer index of a column file
+	 * @param channel the column file
+	 * @return for each row group, its label path code, number of rows and offset
+	 * @throws IOException if the file is malformed, or in case of exception reading it
+	 */
+	private static long[][] readFooter(FileChannel channel) throws IOException {
+		long size = channel.size();
+		if (size<16) throw new StreamCorruptedException("Not an OXPath column file");
+		checkHeader(map(channel, 0, 8));
+		MappedByteBuffer trailer = map(channel, size - 8, 8);
+		int count = trailer.getInt();
+		if (trailer.getInt()!=OXPathColumnarOutputHandler.MAGIC || count<0 || 16L * count>size - 16) throw new StreamCorruptedException("Malformed OXPath column file footer");
+		MappedByteBuffer footer = map(channel, size - 8 - 16L * count, 16L * count);
+		long[][] entries = new long[count][];
+		for (int i=0; i<count; i++) entries[i] = new long[] {footer.getInt(), footer.getInt(), footer.getLong()};
+		return entries;
+	}
+
+	/**
+	 * Reads and checks the {@code MAGIC} and {@code VERSION} at the position of {@code buffer}
+	 * @param buffer the file
+	 * @throws StreamCorruptedException if the header is missing or of another version
+	 */
+	private static void checkHeader(ByteBuffer buffer) throws StreamCorruptedException {
+		if (buffer.getInt()!=OXPathColumnarOutputHandler.MAGIC) throw new StreamCorruptedException("Not an OXPath column file");
+		int version = buffer.getInt();
+		if (version!=OXPathColumnarOutputHandler.VERSION) throw new StreamCorruptedException("Unsupported OXPath column file version " + version);
+	}
+
+	/**
+	 * Fills {@code buffer} from {@code position} of {@code channel}
+	 * @param channel the file
+	 * @param buffer the buffer
+	 * @param position the position to read from
+	 * @throws IOException if the file ends first, or in case of exception reading it
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read<0) throw new EOFException();
+			position += read;
+		}
+	}
+
+	/**
+	 * Maps {@code length} bytes at {@code position} of {@code channel} read-only, little-endian
+	 * @param channel the file
+	 * @param position the position of the region
+	 * @param length the length of the region
+	 * @return the mapped region
+	 * @throws IOException in case of exception mapping the file
+	 */
+	private static MappedByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	/**
+	 * the column files, in {@code Column} order
+	 */
+	private final RandomAccessFile[] columnFiles;
+	/**
+	 * the footer entries (label path code, number of rows and offset) of each column file
+	 */
+	private final long[][][] footers;
+	/**
+	 * the value heap file
+	 */
+	private RandomAccessFile heapFile;
+	/**
+	 * the label dictionary, in code order
+	 */
+	private final List<String> labels = new ArrayList<String>();
+	/**
+	 * the label paths, in code order
+	 */
+	private final List<String> paths = new ArrayList<String>();
+}
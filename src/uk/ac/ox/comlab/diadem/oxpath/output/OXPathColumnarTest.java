@@ -0,0 +1,129 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing consumer classes for OXPath output ({@code OXPathExtractionNode} objects).  The package
+ * consists of the {@code abstract} class {@code OXPathOutputHandler} and its children implementations. 
+ */
+package uk.ac.ox.comlab.diadem.oxpath.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import diadem.common.test.StandardTestCase;
+
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathExtractionNode;
+import uk.ac.ox.comlab.diadem.oxpath.output.OXPathColumnarOutputHandler.Column;
+
+/**
+ * Tests that the column files written by {@code OXPathColumnarOutputHandler} are read back by {@code OXPathColumnarReader}
+ * @author AndrewJSel
+ *
+ */
+public class OXPathColumnarTest extends StandardTestCase {
+
+	@BeforeClass
+	public static void setUpBeforeClass() {
+		tearup(OXPathColumnarTest.class);
+	}
+
+	@Before
+	public void createDirectory() throws IOException {
+		this.directory = File.createTempFile("oxpath-columns", "");
+		this.directory.delete();
+		this.directory.mkdir();
+	}
+
+	@After
+	public void deleteDirectory() {
+		File[] files = this.directory.listFiles();
+		if (files!=null) for (File file : files) file.delete();
+		this.directory.delete();
+	}
+
+	@Test
+	public void roundTripTest() throws Exception {
+		List<OXPathExtractionNode> nodes = new ArrayList<OXPathExtractionNode>();
+		int id = 0;
+		for (int r=0; r<5; r++) {
+			int record = ++id;
+			nodes.add(new OXPathExtractionNode(record, 0, "record"));
+			nodes.add(new OXPathExtractionNode(++id, record, "title", "title " + r));
+			nodes.add(new OXPathExtractionNode(++id, record, "price", (r%2==0) ? null : "\u00a3" + r));
+			nodes.add(OXPathExtractionNode.returnCompleteNode(record));
+		}
+		nodes.add(OXPathExtractionNode.returnEndNode());
+		CountDownLatch latch = new CountDownLatch(1);
+		//row groups smaller than the paths, so each path spans several
+		new OXPathColumnarOutputHandler(nodes.iterator(), logger, this.directory, latch).setRowGroupSize(2).start();
+		latch.await();
+
+		OXPathColumnarReader reader = new OXPathColumnarReader(this.directory);
+		try {
+			assertEquals(Arrays.asList("record", "title", "price"), reader.getLabels());
+			assertEquals(Arrays.asList("record", "record/title", "record/price"), reader.getPaths());
+			assertEquals(15, reader.getRowCount(-1));
+			int titles = reader.getPathCode("record/title");
+			assertEquals(5, reader.getRowCount(titles));
+			assertEquals(-1, reader.getPathCode("title"));
+
+			List<Integer> ids = new ArrayList<Integer>();
+			List<Integer> parents = new ArrayList<Integer>();
+			for (IntBuffer rowGroup : reader.scanInts(Column.IDS, titles)) while (rowGroup.hasRemaining()) ids.add(rowGroup.get());
+			for (IntBuffer rowGroup : reader.scanInts(Column.PARENTS, titles)) while (rowGroup.hasRemaining()) parents.add(rowGroup.get());
+			assertEquals(Arrays.asList(2, 5, 8, 11, 14), ids);
+			assertEquals(Arrays.asList(1, 4, 7, 10, 13), parents);
+			List<String> values = new ArrayList<String>();
+			for (LongBuffer rowGroup : reader.scanValues(titles)) while (rowGroup.hasRemaining()) values.add(reader.getValue(rowGroup.get()));
+			assertEquals(Arrays.asList("title 0", "title 1", "title 2", "title 3", "title 4"), values);
+
+			List<LongBuffer> prices = reader.scanValues(reader.getPathCode("record/price"));
+			assertNull(reader.getValue(prices.get(0).get(0)));
+			assertEquals("\u00a31", reader.getValue(prices.get(0).get(1)));
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * the directory of the column files under test
+	 */
+	private File directory;
+}
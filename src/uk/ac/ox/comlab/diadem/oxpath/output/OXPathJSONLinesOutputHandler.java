@@ -0,0 +1,327 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing consumer classes for OXPath output ({@code OXPathExtractionNode} objects).  The package
+ * consists of the {@code abstract} class {@code OXPathOutputHandler} and its children implementations. 
+ */
+package uk.ac.ox.comlab.diadem.oxpath.output;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.slf4j.Logger;
+
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathExtractionNode;
+
+/**
+ * Handles output from OXPath expressions by writing each top-level record (each child of <tt>results</tt>) as one line of JSON 
+ * (JSON Lines) to a buffered stream.  A record with label <tt>L</tt> is written as 
+ * <tt>{"L":content}</tt>: the content of a node without children is its value (a string; <tt>{}</tt> if it has no value), and of any other
+ * node an object with a member per label of its children (an array if several children share the label), in the order the labels first 
+ * occur, plus its value, if any, as <tt>"_value"</tt>.
+ * <p>
+ * Records are held in progress until the evaluation signals that they are complete (see {@code Extractor.completeRecord}), and written
+ * then; records never signalled complete are written at the end of the output.  Memory thus stays bounded by the records in progress, 
+ * however large the output.  No extraction node is dropped: should a node arrive for a record already written (which the evaluation 
+ * doesn't do), it is written as a record of its own, with its descendants, and a warning logged.
+ * @author AndrewJSel
+ *
+ */
+public class OXPathJSONLinesOutputHandler extends OXPathOutputHandler {
+
+	/**
+	 * Constructs the handler, receiving the extraction nodes from {@code host} and {@code port}.
+	 * @param host the host for the stream receiving {@code OXPathExtractionNode} instances
+	 * @param port the port for the stream receiving {@code OXPathExtractionNode} instances
+	 * @param logger the logging environment associated with OXPath
+	 * @param iOut the stream the JSON Lines are written to
+	 * @param iLatch countdown latch that lets the caller know that the output is completely written
+	 */
+	public OXPathJSONLinesOutputHandler(String host, int port, Logger logger, OutputStream iOut, CountDownLatch iLatch) {
+		super(host, port, logger);
+		this.out = new BufferedWriter(new OutputStreamWriter(iOut, UTF8));
+		this.latch = iLatch;
+	}
+
+	/**
+	 * Constructs the handler, reading the extraction nodes in process from {@code source}.
+	 * @param source the extraction nodes, in the order they are extracted
+	 * @param logger the logging environment associated with OXPath
+	 * @param iOut the stream the JSON Lines are written to
+	 * @param iLatch countdown latch that lets the caller know that the output is completely written
+	 */
+	public OXPathJSONLinesOutputHandler(Iterator<OXPathExtractionNode> source, Logger logger, OutputStream iOut, CountDownLatch iLatch) {
+		super(source, logger);
+		this.out = new BufferedWriter(new OutputStreamWriter(iOut, UTF8));
+		this.latch = iLatch;
+	}
+
+	/**
+	 * Runs the thread receiving the OXPath output, writing each record once complete.  Once the end node is received, the records still
+	 * in progress are written, the stream flushed and the latch counted down.
+	 */
+	@Override
+	public void run() {
+		try {
+			boolean done = false;
+			while (!done) {
+				OXPathExtractionNode node = this.nextNode();
+				if (node.isEndNode()) done=true;
+				else this.receive(node);
+			}
+			this.closeInput();
+			while (!this.records.isEmpty()) this.write(this.records.values().iterator().next());
+			this.out.flush();
+		} catch (Exception e) {
+			logger.error("Problem writing the JSON Lines output.  Please see log for further information.",e);
+		}
+		this.latch.countDown();
+	}
+
+	/**
+	 * Adds a received node to the records in progress
+	 * @param node the received node
+	 */
+	private void receive(OXPathExtractionNode node) {
+		RecordNode parent = (node.getParent()==RESULTS) ? null : this.index.get(node.getParent());
+		if (parent==null && node.getParent()!=RESULTS) {
+			logger.warn("Extraction node " + node.getId() + " (" + node.getLabel() + ") arrived after the record of its parent " + node.getParent() 
+					+ " was written; it is written as a record of its own");
+		}
+		RecordNode pending = new RecordNode(node.getId(), (parent==null) ? RESULTS : parent.id, node.getLabel(), node.getValue());
+		if (parent==null) this.records.put(pending.id, pending);
+		else parent.add(pending);
+		this.index.put(pending.id, pending);
+	}
+
+	/**
+	 * Writes the record {@code record}, complete, if it is in progress
+	 * @param record the identifier of the complete record
+	 * @throws IOException in case of exception writing the output
+	 */
+	@Override
+	protected void recordComplete(int record) throws IOException {
+		RecordNode complete = this.records.get(record);
+		if (complete!=null) this.write(complete);
+	}
+
+	/**
+	 * Writes {@code record} as a line, and drops it from the records in progress
+	 * @param record the top-level record
+	 * @throws IOException in case of exception writing the output
+	 */
+	private void write(RecordNode record) throws IOException {
+		this.out.write('{');
+		writeString(record.label, this.out);
+		this.out.write(':');
+		this.writeContent(record);
+		this.out.write('}');
+		this.out.write('\n');
+		this.records.remove(record.id);
+		//forget the nodes of the record
+		ArrayDeque<RecordNode> nodes = new ArrayDeque<RecordNode>();
+		nodes.push(record);
+		while (!nodes.isEmpty()) {
+			RecordNode node = nodes.pop();
+			this.index.remove(node.id);
+			if (node.children!=null) for (RecordNode child : node.children) nodes.push(child);
+		}
+	}
+
+	/**
+	 * Writes the JSON content of {@code node}
+	 * @param node the node
+	 * @throws IOException in case of exception writing the output
+	 */
+	private void writeContent(RecordNode node) throws IOException {
+		boolean hasValue = node.value!=null && !node.value.isEmpty();
+		if (node.children==null) {
+			if (hasValue) writeString(node.value, this.out);
+			else this.out.write("{}");
+			return;
+		}
+		Map<String,List<RecordNode>> byLabel = new LinkedHashMap<String,List<RecordNode>>();
+		for (RecordNode child : node.children) {
+			List<RecordNode> same = byLabel.get(child.label);
+			if (same==null) {
+				same = new ArrayList<RecordNode>(1);
+				byLabel.put(child.label, same);
+			}
+			same.add(child);
+		}
+		this.out.write('{');
+		boolean first = true;
+		for (Map.Entry<String,List<RecordNode>> member : byLabel.entrySet()) {
+			if (!first) this.out.write(',');
+			first = false;
+			writeString(member.getKey(), this.out);
+			this.out.write(':');
+			List<RecordNode> same = member.getValue();
+			if (same.size()==1) this.writeContent(same.get(0));
+			else {
+				this.out.write('[');
+				for (int i=0; i<same.size(); i++) {
+					if (i>0) this.out.write(',');
+					this.writeContent(same.get(i));
+				}
+				this.out.write(']');
+			}
+		}
+		if (hasValue) {
+			if (!first) this.out.write(',');
+			writeString(VALUE_MEMBER, this.out);
+			this.out.write(':');
+			writeString(node.value, this.out);
+		}
+		this.out.write('}');
+	}
+
+	/**
+	 * Writes {@code string} as a JSON string
+	 * @param string the string
+	 * @param out the output
+	 * @throws IOException in case of exception writing the output
+	 */
+	private static void writeString(String string, Writer out) throws IOException {
+		out.write('"');
+		int from = 0;
+		for (int i=0; i<string.length(); i++) {
+			char c = string.charAt(i);
+			String escape;
+			switch (c) {
+			case '"': escape = "\\\""; break;
+			case '\\': escape = "\\\\"; break;
+			case '\n': escape = "\\n"; break;
+			case '\r': escape = "\\r"; break;
+			case '\t': escape = "\\t"; break;
+			case '\b': escape = "\\b"; break;
+			case '\f': escape = "\\f"; break;
+			default:
+				//control characters, and the line separators JavaScript doesn't allow in strings
+				escape = (c<0x20 || c==0x2028 || c==0x2029) ? String.format("\\u%04x", (int) c) : null;
+			}
+			if (escape==null) continue;
+			out.write(string, from, i - from);
+			out.write(escape);
+			from = i + 1;
+		}
+		out.write(string, from, string.length() - from);
+		out.write('"');
+	}
+
+	/**
+	 * A node of a record in progress
+	 */
+	private static final class RecordNode {
+
+		/**
+		 * Creates a node
+		 * @param iId identifier of the node
+		 * @param iParent identifier of the parent of the node
+		 * @param iLabel label of the node
+		 * @param iValue value of the node
+		 */
+		RecordNode(int iId, int iParent, String iLabel, String iValue) {
+			this.id = iId;
+			this.parent = iParent;
+			this.label = iLabel;
+			this.value = iValue;
+		}
+
+		/**
+		 * Adds {@code child} as the last child of the node
+		 * @param child the child
+		 */
+		void add(RecordNode child) {
+			if (this.children==null) this.children = new ArrayList<RecordNode>(2);
+			this.children.add(child);
+		}
+
+		/**
+		 * identifier of the node
+		 */
+		final int id;
+		/**
+		 * identifier of the parent of the node
+		 */
+		final int parent;
+		/**
+		 * label of the node
+		 */
+		final String label;
+		/**
+		 * value of the node
+		 */
+		final String value;
+		/**
+		 * children of the node, in the order received; {@code null} if none
+		 */
+		List<RecordNode> children;
+	}
+
+	/**
+	 * the buffered stream the JSON Lines are written to
+	 */
+	private final Writer out;
+	/**
+	 * countdown latch that lets the caller know that the output is completely written
+	 */
+	private final CountDownLatch latch;
+	/**
+	 * the top-level records in progress, in the order received
+	 */
+	private final Map<Integer,RecordNode> records = new LinkedHashMap<Integer,RecordNode>();
+	/**
+	 * the nodes in progress, by identifier
+	 */
+	private final Map<Integer,RecordNode> index = new HashMap<Integer,RecordNode>();
+
+	/**
+	 * member holding the value of a node with children
+	 */
+	public static final String VALUE_MEMBER = "_value";
+	/**
+	 * identifier of the results node
+	 */
+	private static final int RESULTS = 0;
+	/**
+	 * encoding of the output
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+}
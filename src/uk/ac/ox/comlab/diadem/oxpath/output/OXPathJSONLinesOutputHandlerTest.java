@@ -0,0 +1,121 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing consumer classes for OXPath output ({@code OXPathExtractionNode} objects).  The package
+ * consists of the {@code abstract} class {@code OXPathOutputHandler} and its children implementations. 
+ */
+package uk.ac.ox.comlab.diadem.oxpath.output;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import diadem.common.test.StandardTestCase;
+
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathExtractionNode;
+
+/**
+ * Tests that {@code OXPathJSONLinesOutputHandler} writes one line per record, on the completion signal of the record
+ * @author AndrewJSel
+ *
+ */
+public class OXPathJSONLinesOutputHandlerTest extends StandardTestCase {
+
+	@BeforeClass
+	public static void setUpBeforeClass() {
+		tearup(OXPathJSONLinesOutputHandlerTest.class);
+	}
+
+	@Test
+	public void recordsTest() throws Exception {
+		List<OXPathExtractionNode> nodes = new ArrayList<OXPathExtractionNode>();
+		nodes.add(new OXPathExtractionNode(1, 0, "record"));
+		nodes.add(new OXPathExtractionNode(2, 1, "title", "say \"hi\"\n"));
+		nodes.add(new OXPathExtractionNode(3, 1, "tag", "a"));
+		nodes.add(new OXPathExtractionNode(4, 1, "tag", "b"));
+		nodes.add(OXPathExtractionNode.returnCompleteNode(1));
+		nodes.add(new OXPathExtractionNode(5, 0, "record", "text"));
+		nodes.add(new OXPathExtractionNode(6, 5, "empty"));
+		nodes.add(OXPathExtractionNode.returnCompleteNode(5));
+		nodes.add(OXPathExtractionNode.returnEndNode());
+		assertEquals("{\"record\":{\"title\":\"say \\\"hi\\\"\\n\",\"tag\":[\"a\",\"b\"]}}\n"
+				+ "{\"record\":{\"empty\":{},\"_value\":\"text\"}}\n", write(nodes));
+	}
+
+	@Test
+	public void interleavedTest() throws Exception {
+		//set-based evaluation extracts all records before their children
+		List<OXPathExtractionNode> nodes = new ArrayList<OXPathExtractionNode>();
+		nodes.add(new OXPathExtractionNode(1, 0, "record"));
+		nodes.add(new OXPathExtractionNode(2, 0, "record"));
+		nodes.add(new OXPathExtractionNode(3, 2, "title", "second"));
+		nodes.add(new OXPathExtractionNode(4, 1, "title", "first"));
+		nodes.add(OXPathExtractionNode.returnCompleteNode(1));
+		nodes.add(OXPathExtractionNode.returnCompleteNode(2));
+		nodes.add(OXPathExtractionNode.returnEndNode());
+		assertEquals("{\"record\":{\"title\":\"first\"}}\n{\"record\":{\"title\":\"second\"}}\n", write(nodes));
+	}
+
+	@Test
+	public void lateNodeTest() throws Exception {
+		//a node arriving after its record was written is kept, as a record of its own
+		List<OXPathExtractionNode> nodes = new ArrayList<OXPathExtractionNode>();
+		nodes.add(new OXPathExtractionNode(1, 0, "record"));
+		nodes.add(OXPathExtractionNode.returnCompleteNode(1));
+		nodes.add(new OXPathExtractionNode(2, 1, "late", "x"));
+		nodes.add(new OXPathExtractionNode(3, 2, "child", "y"));
+		nodes.add(OXPathExtractionNode.returnEndNode());
+		assertEquals("{\"record\":{}}\n{\"late\":{\"child\":\"y\",\"_value\":\"x\"}}\n", write(nodes));
+	}
+
+	/**
+	 * Writes {@code nodes} with the handler
+	 * @param nodes the nodes, up to the end node
+	 * @return the JSON Lines output
+	 * @throws InterruptedException if interrupted while waiting for the handler
+	 * @throws UnsupportedEncodingException if UTF-8 isn't supported
+	 */
+	private static String write(List<OXPathExtractionNode> nodes) throws InterruptedException, UnsupportedEncodingException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CountDownLatch latch = new CountDownLatch(1);
+		new OXPathJSONLinesOutputHandler(nodes.iterator(), logger, out, latch).start();
+		latch.await();
+		return out.toString(UTF8);
+	}
+
+	/**
+	 * encoding of the output
+	 */
+	private static final String UTF8 = "UTF-8";
+}
@@ -30,9 +30,8 @@
  */
 package uk.ac.ox.comlab.diadem.oxpath.output;
 
-import java.io.ObjectInputStream;
-import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.concurrent.CountDownLatch;
 
 import org.slf4j.Logger;
@@ -59,6 +58,18 @@ public class OXPathNodeOutputHandler extends OXPathOutputHandler {
 		this.latch = iLatch;
 		nodes = new ArrayList<OXPathExtractionNode>();
 	}
+
+	/**
+	 * Constructs the NodeOutputHandler object, reading the extraction nodes in process from {@code source}.
+	 * @param source the extraction nodes, in the order they are extracted
+	 * @param logger the logging environment associated with OXPath
+	 * @param iLatch countdown latch that lets the caller know that the output is completely received
+	 */
+	public OXPathNodeOutputHandler(Iterator<OXPathExtractionNode> source, Logger logger, CountDownLatch iLatch) {
+		super(source,logger);
+		this.latch = iLatch;
+		nodes = new ArrayList<OXPathExtractionNode>();
+	}
 	
 	/**
 	 * Runs the thread receiving the OXPath output.  Upon call to {@code this.finishWithOuput()}, all nodes received
@@ -69,20 +80,15 @@ public class OXPathNodeOutputHandler extends OXPathOutputHandler {
 	@Override
 	public void run() {
 		try {
-			ObjectInputStream in = new ObjectInputStream(new Socket(host,port).getInputStream());
 			boolean done = false;
 			while (!done) {
-				Object outRaw = in.readObject();
-				OXPathExtractionNode node;
-				if (outRaw!=null) {
-					node = ((OXPathExtractionNode) outRaw);
-					if (node.getId()==-1) done=true;
-					else nodes.add(node);
-				}
+				OXPathExtractionNode node = this.nextNode();
+				if (node.isEndNode()) done=true;
+				else nodes.add(node);
 			}
 			
 			//once finished, build the output document
-			in.close();
+			this.closeInput();
 		} catch (Exception e) {
 			logger.error(e.getMessage());
 		}
@@ -30,11 +30,20 @@
  */
 package uk.ac.ox.comlab.diadem.oxpath.output;
 
+import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.net.Socket;
+import java.util.Iterator;
+
 import org.slf4j.Logger;
 
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathExtractionInputStream;
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathExtractionNode;
+
 /**
- * Abstract class for different implementations of OXPath output ({@code OXPathOutputHandler} instances) consumers
+ * Abstract class for different implementations of OXPath output ({@code OXPathOutputHandler} instances) consumers.  Handlers either read
+ * the extraction nodes in process, from an iterator (such as an {@code OXPathExtractionStream}), from a stream in the compact binary
+ * extraction format, or connect to a host and port to receive them serialized; either way, implementations read them with {@code nextNode()}.
  * @author AndrewJSel
  *
  */
@@ -44,6 +53,16 @@ public abstract class OXPathOutputHandler extends Thread {
 	 * Input Stream receiving OXPath input
 	 */
 	private ObjectInputStream in;
+
+	/**
+	 * In-process source of OXPath output, if any
+	 */
+	private final Iterator<OXPathExtractionNode> source;
+
+	/**
+	 * Input Stream receiving OXPath output in the compact binary extraction format, if any
+	 */
+	private final OXPathExtractionInputStream binary;
 	
 	/**
 	 * Logger object for the OXPath system
@@ -63,7 +82,83 @@ public abstract class OXPathOutputHandler extends Thread {
 		logger = iLogger;
 		host = iHost;
 		port = iPort;
+		source = null;
+		binary = null;
 	}	
+
+	/**
+	 * Constructor that takes an in-process source of {@code OXPathExtractionNode} instances and a logger to incorporate into an OXPath process
+	 * @param iSource the extraction nodes, in the order they are extracted
+	 * @param iLogger the logging environment associated with OXPath
+	 */
+	public OXPathOutputHandler(Iterator<OXPathExtractionNode> iSource, Logger iLogger) {
+		logger = iLogger;
+		source = iSource;
+		binary = null;
+	}
+
+	/**
+	 * Constructor that takes a stream of {@code OXPathExtractionNode} instances in the compact binary extraction format (as written by an 
+	 * {@code OXPathExtractor} on an {@code OXPathExtractionOutputStream}) and a logger to incorporate into an OXPath process
+	 * @param iBinary the stream of extraction nodes
+	 * @param iLogger the logging environment associated with OXPath
+	 */
+	public OXPathOutputHandler(OXPathExtractionInputStream iBinary, Logger iLogger) {
+		logger = iLogger;
+		source = null;
+		binary = iBinary;
+	}
+
+	/**
+	 * Returns the next {@code OXPathExtractionNode} of the OXPath output, waiting for it if necessary; the end of the output is signalled
+	 * by the end node ({@code isEndNode()}).  Completion nodes are not returned: they are handed to {@code recordComplete} as they are 
+	 * received, in order with the other nodes.
+	 * @return the next {@code OXPathExtractionNode} of the OXPath output
+	 * @throws IOException in case of exception receiving the output
+	 * @throws ClassNotFoundException in case of a malformed output stream
+	 */
+	protected OXPathExtractionNode nextNode() throws IOException, ClassNotFoundException {
+		OXPathExtractionNode node = this.receiveNode();
+		while (node.isCompleteNode()) {
+			this.recordComplete(node.getId());
+			node = this.receiveNode();
+		}
+		return node;
+	}
+
+	/**
+	 * Called when the record {@code record} (a child of the results node) is complete, i.e., receives no further descendants; handlers 
+	 * writing whole records override this to write {@code record} out.  Does nothing by default.
+	 * @param record the identifier of the complete record
+	 * @throws IOException in case of exception writing the output
+	 */
+	protected void recordComplete(int record) throws IOException {}
+
+	/**
+	 * Receives the next {@code OXPathExtractionNode} of the OXPath output, completion nodes included, waiting for it if necessary
+	 * @return the next {@code OXPathExtractionNode} of the OXPath output
+	 * @throws IOException in case of exception receiving the output
+	 * @throws ClassNotFoundException in case of a malformed output stream
+	 */
+	private OXPathExtractionNode receiveNode() throws IOException, ClassNotFoundException {
+		if (this.source!=null) return (this.source.hasNext())?this.source.next():OXPathExtractionNode.returnEndNode();
+		if (this.binary!=null) return this.binary.readNode();
+		if (this.in==null) this.in = new ObjectInputStream(new Socket(host,port).getInputStream());
+		Object outRaw;
+		do {
+			outRaw = this.in.readObject();
+		} while (outRaw==null);
+		return (OXPathExtractionNode) outRaw;
+	}
+
+	/**
+	 * Closes the input of the OXPath output, once the end node is received
+	 * @throws IOException in case of exception closing the stream
+	 */
+	protected void closeInput() throws IOException {
+		if (this.in!=null) this.in.close();
+		if (this.binary!=null) this.binary.close();
+	}
 	
 	/**
 	 * Returns the {@code ObjectInputStream} object associated with OXPath output.  Not a defensive copy, but the 
@@ -30,8 +30,8 @@
  */
 package uk.ac.ox.comlab.diadem.oxpath.output;
 
-import java.io.ObjectInputStream;
-import java.net.Socket;
+import java.util.Iterator;
+
 import org.slf4j.Logger;
 import uk.ac.ox.comlab.diadem.oxpath.model.OXPathExtractionNode;
 
@@ -51,6 +51,15 @@ public class OXPathSimpleOutputHandler extends OXPathOutputHandler {
 	public OXPathSimpleOutputHandler(String iHost, int iPort, Logger iLogger) {
 		super(iHost, iPort, iLogger);
 	}
+
+	/**
+	 * Constructor for the handler, reading the extraction nodes in process from {@code iSource}.
+	 * @param iSource the extraction nodes, in the order they are extracted
+	 * @param iLogger logger environment
+	 */
+	public OXPathSimpleOutputHandler(Iterator<OXPathExtractionNode> iSource, Logger iLogger) {
+		super(iSource, iLogger);
+	}
 	
 	/**
 	 * Runs the thread receiving the OXPath output.  Upon call to {@code this.finishWithOuput()}, all nodes received
@@ -61,20 +70,14 @@ public class OXPathSimpleOutputHandler extends OXPathOutputHandler {
 	@Override
 	public void run() {
 		try {
-			ObjectInputStream in=null;
-			in = new ObjectInputStream(new Socket(host,port).getInputStream());
 			boolean done = false;
 			while (!done) {
 				System.out.println("Extraction Nodes:");
-				Object outRaw = in.readObject();
-				OXPathExtractionNode node;
-				if (outRaw!=null) {
-					node = ((OXPathExtractionNode) outRaw);
-					if (node.isEndNode()) done=true;
-					else System.out.println(node.toString());
-				}
+				OXPathExtractionNode node = this.nextNode();
+				if (node.isEndNode()) done=true;
+				else System.out.println(node.toString());
 			}
-			in.close();
+			this.closeInput();
 		} catch (Exception e) {
 			logger.error("Problem receiving Extraction Tuple String.  Please see log for further information.",e);
 		}
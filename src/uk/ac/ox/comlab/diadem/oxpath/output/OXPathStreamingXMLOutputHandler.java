@@ -0,0 +1,264 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Package containing consumer classes for OXPath output ({@code OXPathExtractionNode} objects).  The package
+ * consists of the {@code abstract} class {@code OXPathOutputHandler} and its children implementations. 
+ */
+package uk.ac.ox.comlab.diadem.oxpath.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.slf4j.Logger;
+
+import uk.ac.ox.comlab.diadem.oxpath.model.OXPathExtractionNode;
+
+/**
+ * Handles output from OXPath expressions by writing it as XML (the same <tt>results</tt> tree as {@code OXPathXMLOutputHandler}) to an
+ * {@code OutputStream} with a StAX writer, while the nodes are received.  Values are written as escaped text, so markup in extracted 
+ * values is kept as text.
+ * <p>
+ * Each record (a child of <tt>results</tt>) is held in progress until the evaluation signals that it is complete (see 
+ * {@code Extractor.completeRecord}), and written then, whole; records never signalled complete are written at the end of the output.
+ * Memory thus stays bounded by the records in progress, however large the output, and each element is written exactly once.  No 
+ * extraction node is dropped: should a node arrive for a record already written (which the evaluation doesn't do), it is written as a 
+ * record of its own, with its descendants, and a warning logged.
+ * @author AndrewJSel
+ *
+ */
+public class OXPathStreamingXMLOutputHandler extends OXPathOutputHandler {
+
+	/**
+	 * Constructs the handler, receiving the extraction nodes from {@code host} and {@code port}.
+	 * @param host the host for the stream receiving {@code OXPathExtractionNode} instances
+	 * @param port the port for the stream receiving {@code OXPathExtractionNode} instances
+	 * @param logger the logging environment associated with OXPath
+	 * @param iOut the stream the XML output is written to (buffering is left to the caller)
+	 * @param iLatch countdown latch that lets the caller know that the XML output is completely written
+	 */
+	public OXPathStreamingXMLOutputHandler(String host, int port, Logger logger, OutputStream iOut, CountDownLatch iLatch) {
+		super(host, port, logger);
+		this.out = iOut;
+		this.latch = iLatch;
+	}
+
+	/**
+	 * Constructs the handler, reading the extraction nodes in process from {@code source}.
+	 * @param source the extraction nodes, in the order they are extracted
+	 * @param logger the logging environment associated with OXPath
+	 * @param iOut the stream the XML output is written to (buffering is left to the caller)
+	 * @param iLatch countdown latch that lets the caller know that the XML output is completely written
+	 */
+	public OXPathStreamingXMLOutputHandler(Iterator<OXPathExtractionNode> source, Logger logger, OutputStream iOut, CountDownLatch iLatch) {
+		super(source, logger);
+		this.out = iOut;
+		this.latch = iLatch;
+	}
+
+	/**
+	 * Runs the thread receiving the OXPath output, writing each record once complete.  Once the end node is received, the records still
+	 * in progress are written, the document is ended and the latch counted down.
+	 */
+	@Override
+	public void run() {
+		try {
+			this.writer = XMLOutputFactory.newInstance().createXMLStreamWriter(this.out, ENCODING);
+			this.writer.writeStartDocument(ENCODING, "1.0");
+			this.writer.writeStartElement(ROOT_LABEL);
+			boolean done = false;
+			while (!done) {
+				OXPathExtractionNode node = this.nextNode();
+				if (node.isEndNode()) done=true;
+				else this.receive(node);
+			}
+			this.closeInput();
+			while (!this.records.isEmpty()) this.write(this.records.values().iterator().next());
+			this.writer.writeEndElement();
+			this.writer.writeEndDocument();
+			this.writer.flush();
+		} catch (Exception e) {
+			logger.error("Problem writing the XML output.  Please see log for further information.",e);
+		}
+		this.latch.countDown();
+	}
+
+	/**
+	 * Adds a received node to the records in progress, as the last child of its parent
+	 * @param node the received node
+	 */
+	private void receive(OXPathExtractionNode node) {
+		PendingNode parent = (node.getParent()==RESULTS) ? null : this.index.get(node.getParent());
+		if (parent==null && node.getParent()!=RESULTS) {
+			logger.warn("Extraction node " + node.getId() + " (" + node.getLabel() + ") arrived after the record of its parent " + node.getParent() 
+					+ " was written; it is written as a record of its own");
+		}
+		PendingNode pending = new PendingNode(node.getId(), node.getLabel(), node.getValue());
+		if (parent==null) this.records.put(pending.id, pending);
+		else parent.children.add(pending);
+		this.index.put(pending.id, pending);
+	}
+
+	/**
+	 * Writes the record {@code record}, complete, if it is in progress
+	 * @param record the identifier of the complete record
+	 * @throws IOException in case of exception writing the output
+	 */
+	@Override
+	protected void recordComplete(int record) throws IOException {
+		PendingNode complete = this.records.get(record);
+		if (complete==null) return;
+		try {
+			this.write(complete);
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Writes {@code record} as an element of the results, and drops it from the records in progress
+	 * @param record the top-level record
+	 * @throws XMLStreamException in case of exception writing the output
+	 */
+	private void write(PendingNode record) throws XMLStreamException {
+		this.records.remove(record.id);
+		this.writeElement(record);
+	}
+
+	/**
+	 * Writes {@code node} and its descendants, and forgets them
+	 * @param node the node
+	 * @throws XMLStreamException in case of exception writing the output
+	 */
+	private void writeElement(PendingNode node) throws XMLStreamException {
+		this.index.remove(node.id);
+		this.writer.writeStartElement(node.label);
+		if (node.value!=null && !node.value.isEmpty()) this.writer.writeCharacters(toXMLText(node.value));
+		for (PendingNode child : node.children) this.writeElement(child);
+		this.writer.writeEndElement();
+	}
+
+	/**
+	 * Returns {@code value} without the characters XML 1.0 doesn't allow (the StAX writer escapes the others)
+	 * @param value the value
+	 * @return {@code value} as XML text
+	 */
+	private static String toXMLText(String value) {
+		StringBuilder text = null;
+		for (int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			if (Character.isHighSurrogate(c) && i+1<value.length() && Character.isLowSurrogate(value.charAt(i+1))) {
+				if (text!=null) text.append(c).append(value.charAt(i+1));
+				i++;
+			}
+			else if ((c>=0x20 && c<0xFFFE && !Character.isSurrogate(c)) || c=='\t' || c=='\n' || c=='\r') {
+				if (text!=null) text.append(c);
+			}
+			else if (text==null) text = new StringBuilder(value.length()).append(value, 0, i);
+		}
+		return (text==null) ? value : text.toString();
+	}
+
+	/**
+	 * A node of a record in progress
+	 */
+	private static final class PendingNode {
+
+		/**
+		 * Creates a node
+		 * @param iId identifier of the node
+		 * @param iLabel label of the node
+		 * @param iValue value of the node
+		 */
+		PendingNode(int iId, String iLabel, String iValue) {
+			this.id = iId;
+			this.label = iLabel;
+			this.value = iValue;
+		}
+
+		/**
+		 * identifier of the node
+		 */
+		final int id;
+		/**
+		 * label of the node
+		 */
+		final String label;
+		/**
+		 * value of the node
+		 */
+		final String value;
+		/**
+		 * children of the node, in the order received
+		 */
+		final List<PendingNode> children = new ArrayList<PendingNode>(2);
+	}
+
+	/**
+	 * the stream the XML output is written to
+	 */
+	private final OutputStream out;
+	/**
+	 * countdown latch that lets the caller know that the XML output is completely written
+	 */
+	private final CountDownLatch latch;
+	/**
+	 * the StAX writer
+	 */
+	private XMLStreamWriter writer;
+	/**
+	 * the records in progress, by identifier, in the order received
+	 */
+	private final Map<Integer,PendingNode> records = new LinkedHashMap<Integer,PendingNode>();
+	/**
+	 * the nodes of the records in progress, by identifier
+	 */
+	private final Map<Integer,PendingNode> index = new HashMap<Integer,PendingNode>();
+
+	/**
+	 * parent identifier of the records
+	 */
+	private static final int RESULTS = 0;
+	/**
+	 * label of the root element
+	 */
+	private static final String ROOT_LABEL = "results";
+	/**
+	 * encoding of the XML output
+	 */
+	private static final String ENCODING = "UTF-8";
+}
@@ -30,9 +30,6 @@
  */
 package uk.ac.ox.comlab.diadem.oxpath.output;
 
-import java.io.ObjectInputStream;
-import java.net.Socket;
-
 import org.slf4j.Logger;
 
 import diadem.common.test.StringDatabase;
@@ -68,22 +65,16 @@ public class OXPathStringDBOutputHandler extends OXPathOutputHandler {
 	@Override
 	public void run() {
 		try {
-			Socket socket = new Socket(host,port);
-			ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
 			boolean done = false;
 			
 			while (!done) {
-				Object outRaw = in.readObject();
-				OXPathExtractionNode node;
-				if (outRaw!=null) {
-					node = ((OXPathExtractionNode) outRaw);
-					if (node.isEndNode()) done=true;
-					else {
-						assert database.check(Integer.toString(node.getId()), node.toString());
-					}
+				OXPathExtractionNode node = this.nextNode();
+				if (node.isEndNode()) done=true;
+				else {
+					assert database.check(Integer.toString(node.getId()), node.toString());
 				}
 			}
-			in.close();
+			this.closeInput();
 		} catch (Exception e) {
 			logger.error("Problem receiving Extraction Tuple String.  Please see log for further information.",e);
 		}
@@ -32,10 +32,9 @@ package uk.ac.ox.comlab.diadem.oxpath.output;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.StringWriter;
-import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.concurrent.CountDownLatch;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -59,7 +58,8 @@ import uk.ac.ox.comlab.diadem.oxpath.model.OXPathExtractionNode;
 
 /**
  * Used to handle output from OXPath expressions and return the output as XML.  This class has the disadvantage
- * of handling all output in memory in order to build the document.
+ * of handling all output in memory in order to build the document; {@code OXPathStreamingXMLOutputHandler} writes
+ * the XML to a stream instead, in bounded memory.
  * @author AndrewJSel
  *
  */
@@ -77,6 +77,18 @@ public class OXPathXMLOutputHandler extends OXPathOutputHandler {
 		this.latch = iLatch;
 		nodes = new ArrayList<OXPathExtractionNode>();
 	}
+
+	/**
+	 * Constructs the XMLOutputHandler object, reading the extraction nodes in process from {@code source}.
+	 * @param source the extraction nodes, in the order they are extracted
+	 * @param logger the logging environment associated with OXPath
+	 * @param iLatch countdown latch that lets the caller know that the XML output document is completely built
+	 */
+	public OXPathXMLOutputHandler(Iterator<OXPathExtractionNode> source, Logger logger, CountDownLatch iLatch) {
+		super(source,logger);
+		this.latch = iLatch;
+		nodes = new ArrayList<OXPathExtractionNode>();
+	}
 	
 	/**
 	 * Runs the thread receiving the OXPath output.  Upon call to {@code this.finishWithOuput()}, all nodes received
@@ -87,20 +99,15 @@ public class OXPathXMLOutputHandler extends OXPathOutputHandler {
 	@Override
 	public void run() {
 		try {
-			ObjectInputStream in = new ObjectInputStream(new Socket(host,port).getInputStream());
 			boolean done = false;
 			while (!done) {
-				Object outRaw = in.readObject();
-				OXPathExtractionNode node;
-				if (outRaw!=null) {
-					node = ((OXPathExtractionNode) outRaw);
-					if (node.getId()==-1) done=true;
-					else nodes.add(node);
-				}
+				OXPathExtractionNode node = this.nextNode();
+				if (node.isEndNode()) done=true;
+				else nodes.add(node);
 			}
 			
 			//once finished, build the output document
-			in.close();
+			this.closeInput();
 			this.outDoc = this.returnOutput();
 		} catch (Exception e) {
 			logger.error(e.getMessage());
@@ -0,0 +1,474 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *Package with utilities for supporting OXPath expression evaluation
+ */
+package uk.ac.ox.comlab.diadem.oxpath.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import diadem.common.web.dom.DOMDocument;
+import diadem.common.web.dom.DOMNode;
+
+/**
+ * Store for memoized results, partitioned by the {@code DOMDocument} the results were computed on so that all results relating to
+ * a page can be dropped with {@code clear(page)} once PAAT closes the page.  Lookups on different pages don't contend on a common
+ * lock.  Neither keys nor values may be {@code null}.
+ * <p>
+ * Pages are held strongly until cleared: browser wrappers of the same page aren't canonical, so a wrapper doesn't live as long
+ * as its page and can't serve as a weak key.  To bound the results of pages that are never cleared (protected paths, windows closed
+ * elsewhere), a store of results that can be recomputed can be capped by number of pages, dropping the least recently used page 
+ * when a new page exceeds the cap; stores whose results must not be forgotten (like the extraction memo) are left uncapped and rely on
+ * {@code clear(page)}.  The store can also be capped by number of entries and by estimated bytes (as given by a {@code Weigher}); when 
+ * a cap is exceeded, the least recently used entries of the page being written are evicted first, then those of other pages.  Hit, 
+ * miss, eviction and size counters can be read at any time.
+ * @author AndrewJSel
+ *
+ * @param <K> type of the memoization keys
+ * @param <V> type of the memoized results
+ */
+public class OXPathDocumentCache<K,V> implements OXPathCache {
+
+	/**
+	 * Estimates the memory held by a cache entry
+	 * @author AndrewJSel
+	 *
+	 * @param <K> type of the memoization keys
+	 * @param <V> type of the memoized results
+	 */
+	public interface Weigher<K,V> {
+		/**
+		 * Returns the estimated size (in bytes) of the entry
+		 * @param key the memoization key
+		 * @param value the memoized result
+		 * @return the estimated size (in bytes) of the entry
+		 */
+		public long weigh(K key, V value);
+	}
+
+	/**
+	 * Returns the page holding {@code node}, the key under which results computed on {@code node} are stored
+	 * @param node the node
+	 * @return the page holding {@code node}, or {@code null} if {@code node} isn't part of a page
+	 */
+	public static DOMDocument getPage(DOMNode node) {
+		return (node instanceof DOMDocument) ? (DOMDocument) node : node.getOwnerDocument();
+	}
+
+	/**
+	 * Creates an unbounded store
+	 */
+	public OXPathDocumentCache() {}
+
+	/**
+	 * Caps the total number of entries
+	 * @param iMaximumEntries the maximum number of entries, over all pages
+	 * @return same object with update applied
+	 */
+	public OXPathDocumentCache<K,V> setMaximumEntries(long iMaximumEntries) {
+		this.maximumEntries = iMaximumEntries;
+		this.evict(null);
+		return this;
+	}
+
+	/**
+	 * Caps the total estimated size of the entries
+	 * @param iMaximumBytes the maximum estimated size (in bytes), over all pages
+	 * @return same object with update applied
+	 */
+	public OXPathDocumentCache<K,V> setMaximumBytes(long iMaximumBytes) {
+		this.maximumBytes = iMaximumBytes;
+		this.evict(null);
+		return this;
+	}
+
+	/**
+	 * Returns the cap on the total number of entries
+	 * @return the cap on the total number of entries ({@code Long.MAX_VALUE} if uncapped)
+	 */
+	public long getMaximumEntries() {
+		return this.maximumEntries;
+	}
+
+	/**
+	 * Returns the cap on the total estimated size of the entries
+	 * @return the cap on the total estimated size (in bytes) of the entries ({@code Long.MAX_VALUE} if uncapped)
+	 */
+	public long getMaximumBytes() {
+		return this.maximumBytes;
+	}
+
+	/**
+	 * Sets the estimator for the size of entries (applies to entries added afterwards); defaults to {@code DEFAULT_ENTRY_BYTES} per entry
+	 * @param iWeigher the size estimator
+	 * @return same object with update applied
+	 */
+	public OXPathDocumentCache<K,V> setWeigher(Weigher<? super K,? super V> iWeigher) {
+		this.weigher = iWeigher;
+		return this;
+	}
+
+	/**
+	 * Caps the number of pages with memoized results; when a new page exceeds the cap, the results of the least recently used page are
+	 * dropped.  Only for results that can be recomputed.
+	 * @param iMaximumPages the maximum number of pages
+	 * @return same object with update applied
+	 */
+	public OXPathDocumentCache<K,V> setMaximumPages(int iMaximumPages) {
+		if (iMaximumPages<1) throw new IllegalArgumentException("Maximum number of pages must be positive, not " + iMaximumPages);
+		this.maximumPages = iMaximumPages;
+		this.evictPages(null);
+		return this;
+	}
+
+	/**
+	 * Returns the cap on the number of pages with memoized results
+	 * @return the cap on the number of pages ({@code Integer.MAX_VALUE} if uncapped)
+	 */
+	public int getMaximumPages() {
+		return this.maximumPages;
+	}
+
+	/**
+	 * Returns the result memoized for {@code key} on {@code page}
+	 * @param page the page the result was computed on
+	 * @param key the memoization key
+	 * @return the result memoized for {@code key} on {@code page}, or {@code null} if there is none
+	 */
+	public V get(DOMDocument page, K key) {
+		PageCache cache = this.caches.get(page);
+		Entry<V> entry = null;
+		if (cache != null) {
+			cache.used = this.clock.incrementAndGet();
+			synchronized (cache) {
+				entry = cache.entries.get(key);
+			}
+		}
+		if (entry == null) {
+			this.misses.incrementAndGet();
+			return null;
+		}
+		this.hits.incrementAndGet();
+		return entry.value;
+	}
+
+	/**
+	 * Memoizes {@code value} for {@code key} on {@code page}, unless a result is already memoized (by a concurrent evaluation)
+	 * @param page the page the result was computed on
+	 * @param key the memoization key
+	 * @param value the result
+	 * @return the result memoized for {@code key} on {@code page} after the call
+	 */
+	public V putIfAbsent(DOMDocument page, K key, V value) {
+		PageCache cache = this.getCache(page);
+		synchronized (cache) {
+			Entry<V> previous = cache.entries.get(key);
+			if (previous != null) return previous.value;
+			long weight = (this.weigher == null) ? DEFAULT_ENTRY_BYTES : this.weigher.weigh(key, value);
+			cache.entries.put(key, new Entry<V>(value, weight));
+			cache.bytes += weight;
+			this.entries.incrementAndGet();
+			this.bytes.addAndGet(weight);
+		}
+		this.evict(cache);
+		return value;
+	}
+
+	/**
+	 * Clears all memoized data for the input {@code DOMDocument}
+	 * @param page {@code DOMDocument} we are removing all memoized results for, presumably because the page is being closed in PAAT
+	 * @return {@code true} if results were memoized for {@code page}, {@code false} otherwise
+	 */
+	@Override
+	public Boolean clear(DOMDocument page) {
+		PageCache cache = this.caches.remove(page);
+		if (cache == null) return false;
+		this.release(cache);
+		return true;
+	}
+
+	/**
+	 * Returns the number of lookups that found a memoized result
+	 * @return the number of lookups that found a memoized result
+	 */
+	public long getHitCount() {
+		return this.hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups that found no memoized result
+	 * @return the number of lookups that found no memoized result
+	 */
+	public long getMissCount() {
+		return this.misses.get();
+	}
+
+	/**
+	 * Returns the number of entries evicted to respect the caps (not counting entries of cleared pages)
+	 * @return the number of entries evicted
+	 */
+	public long getEvictionCount() {
+		return this.evictions.get();
+	}
+
+	/**
+	 * Returns the number of entries, over all pages
+	 * @return the number of entries
+	 */
+	public long size() {
+		return this.entries.get();
+	}
+
+	/**
+	 * Returns the estimated size (in bytes) of the entries, over all pages
+	 * @return the estimated size (in bytes) of the entries
+	 */
+	public long getEstimatedBytes() {
+		return this.bytes.get();
+	}
+
+	/**
+	 * Returns the number of pages with memoized results
+	 * @return the number of pages with memoized results
+	 */
+	public int getPageCount() {
+		return this.caches.size();
+	}
+
+	@Override
+	public String toString() {
+		return "OXPathDocumentCache[hits=" + this.getHitCount() + ", misses=" + this.getMissCount() + ", evictions=" 
+				+ this.getEvictionCount() + ", size=" + this.size() + ", bytes=" + this.getEstimatedBytes() + ", pages=" 
+				+ this.getPageCount() + "]";
+	}
+
+	/**
+	 * Returns the cache of {@code page}, creating it on first use (and dropping the least recently used pages if the cap on pages is
+	 * exceeded)
+	 * @param page the page
+	 * @return the cache of {@code page}
+	 */
+	private PageCache getCache(DOMDocument page) {
+		PageCache cache = this.caches.get(page);
+		if (cache == null) {
+			PageCache created = new PageCache();
+			cache = this.caches.putIfAbsent(page, created);
+			if (cache == null) {
+				cache = created;
+				this.evictPages(cache);
+			}
+		}
+		cache.used = this.clock.incrementAndGet();
+		return cache;
+	}
+
+	/**
+	 * Drops the least recently used pages until the cap on pages is respected
+	 * @param current the cache just created, which is kept, or {@code null}
+	 */
+	private void evictPages(PageCache current) {
+		while (this.caches.size() > this.maximumPages) {
+			Map.Entry<DOMDocument,PageCache> eldest = null;
+			for (Map.Entry<DOMDocument,PageCache> candidate : this.caches.entrySet()) {
+				if (candidate.getValue() != current && (eldest == null || candidate.getValue().used < eldest.getValue().used)) eldest = candidate;
+			}
+			if (eldest == null) return;
+			if (this.caches.remove(eldest.getKey(), eldest.getValue())) {
+				synchronized (eldest.getValue()) {
+					this.evictions.addAndGet(eldest.getValue().entries.size());
+				}
+				this.release(eldest.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Evicts least recently used entries until the caps are respected, starting with the entries of {@code current}
+	 * @param current the cache just written (of which the most recent entry is kept), or {@code null}
+	 */
+	private void evict(PageCache current) {
+		if (!this.isOverCap()) return;
+		if (current != null) {
+			while (this.isOverCap() && this.evictEldest(current, 1)) {}
+		}
+		Iterator<PageCache> others = this.caches.values().iterator();
+		while (this.isOverCap() && others.hasNext()) {
+			PageCache other = others.next();
+			int keep = (other == current) ? 1 : 0;
+			while (this.isOverCap() && this.evictEldest(other, keep)) {}
+		}
+	}
+
+	/**
+	 * Returns {@code true} if a cap is exceeded
+	 * @return {@code true} if a cap is exceeded, {@code false} otherwise
+	 */
+	private boolean isOverCap() {
+		return this.entries.get() > this.maximumEntries || this.bytes.get() > this.maximumBytes;
+	}
+
+	/**
+	 * Evicts the least recently used entry of {@code cache}, unless it holds no more than {@code keep} entries
+	 * @param cache the page cache
+	 * @param keep number of (most recent) entries that must stay
+	 * @return {@code true} if an entry was evicted, {@code false} otherwise
+	 */
+	private boolean evictEldest(PageCache cache, int keep) {
+		synchronized (cache) {
+			if (cache.entries.size() <= keep) return false;
+			Iterator<Entry<V>> eldest = cache.entries.values().iterator();
+			Entry<V> entry = eldest.next();
+			eldest.remove();
+			cache.bytes -= entry.weight;
+			this.entries.decrementAndGet();
+			this.bytes.addAndGet(-entry.weight);
+			this.evictions.incrementAndGet();
+			return true;
+		}
+	}
+
+	/**
+	 * Removes the entries of a dropped page cache from the counters
+	 * @param cache the dropped page cache
+	 */
+	private void release(PageCache cache) {
+		synchronized (cache) {
+			this.entries.addAndGet(-cache.entries.size());
+			this.bytes.addAndGet(-cache.bytes);
+			cache.entries.clear();
+			cache.bytes = 0;
+		}
+	}
+
+	/**
+	 * Memoized results of one page, in access order
+	 * @author AndrewJSel
+	 *
+	 */
+	private final class PageCache {
+
+		/**
+		 * entries, least recently used first
+		 */
+		final Map<K,Entry<V>> entries = new LinkedHashMap<K,Entry<V>>(16, 0.75f, true);
+		/**
+		 * estimated size (in bytes) of the entries
+		 */
+		long bytes;
+		/**
+		 * tick of the clock at the last use of the page
+		 */
+		volatile long used;
+	}
+
+	/**
+	 * A memoized result and its estimated size
+	 * @author AndrewJSel
+	 *
+	 * @param <V> type of the memoized result
+	 */
+	private static final class Entry<V> {
+
+		/**
+		 * Creates an entry
+		 * @param iValue the memoized result
+		 * @param iWeight estimated size (in bytes) of the entry
+		 */
+		Entry(V iValue, long iWeight) {
+			this.value = iValue;
+			this.weight = iWeight;
+		}
+
+		/**
+		 * the memoized result
+		 */
+		final V value;
+		/**
+		 * estimated size (in bytes) of the entry
+		 */
+		final long weight;
+	}
+
+	/**
+	 * memoized results by page
+	 */
+	private final ConcurrentMap<DOMDocument,PageCache> caches = new ConcurrentHashMap<DOMDocument,PageCache>();
+	/**
+	 * clock ordering the uses of pages
+	 */
+	private final AtomicLong clock = new AtomicLong();
+	/**
+	 * cap on the number of pages
+	 */
+	private volatile int maximumPages = Integer.MAX_VALUE;
+	/**
+	 * size estimator for entries, or {@code null} for {@code DEFAULT_ENTRY_BYTES} per entry
+	 */
+	private volatile Weigher<? super K,? super V> weigher;
+	/**
+	 * cap on the number of entries
+	 */
+	private volatile long maximumEntries = Long.MAX_VALUE;
+	/**
+	 * cap on the estimated size (in bytes) of the entries
+	 */
+	private volatile long maximumBytes = Long.MAX_VALUE;
+	/**
+	 * number of entries
+	 */
+	private final AtomicLong entries = new AtomicLong();
+	/**
+	 * estimated size (in bytes) of the entries
+	 */
+	private final AtomicLong bytes = new AtomicLong();
+	/**
+	 * number of lookups that found a result
+	 */
+	private final AtomicLong hits = new AtomicLong();
+	/**
+	 * number of lookups that found no result
+	 */
+	private final AtomicLong misses = new AtomicLong();
+	/**
+	 * number of entries evicted to respect the caps
+	 */
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * estimated size (in bytes) of an entry when no {@code Weigher} is set
+	 */
+	public static final long DEFAULT_ENTRY_BYTES = 64;
+	/**
+	 * cap on the number of pages suggested for stores of results that can be recomputed
+	 */
+	public static final int DEFAULT_MAXIMUM_PAGES = 16;
+}
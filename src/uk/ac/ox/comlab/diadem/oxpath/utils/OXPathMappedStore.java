@@ -0,0 +1,358 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *Package with utilities for supporting OXPath expression evaluation
+ */
+package uk.ac.ox.comlab.diadem.oxpath.utils;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Content-addressed, append-only store of byte values persisted in a local file, used to keep memoized results across runs.  Keys
+ * are 128-bit digests of the key material (see {@code digest}).  On {@code open}, the existing file is memory-mapped read-only
+ * and indexed, so stored values are read from the mapping without copying; values added during the run are appended to the file
+ * (and are mapped by the next run).  A torn record at the end of the file (e.g., after a crash) is discarded: the file is truncated
+ * before it is mapped, as a file can't be truncated while a mapping of it is alive on every platform.
+ * <p>
+ * The file is mapped in segments of at most {@code MAX_SEGMENT_BYTES}, each starting at a record, so stores beyond the 2 GB a single
+ * mapping can hold are opened too.  The file is locked while the store is open, so a store can't be opened by two processes (or 
+ * twice in one JVM) at once: appends from both would interleave into torn records.
+ * <p>
+ * File layout: a header of {@code MAGIC} and {@code VERSION} (4 bytes each), followed by records of a 4 byte value length, the 16
+ * byte key and the value.
+ * @author AndrewJSel
+ *
+ */
+public class OXPathMappedStore implements Closeable {
+
+	/**
+	 * Opens (creating it if needed) the store persisted in {@code file}
+	 * @param file the file of the store
+	 * @return the store persisted in {@code file}
+	 * @throws OXPathException if the file can't be read or written, isn't a store, or is in use by another store
+	 */
+	public static OXPathMappedStore open(File file) throws OXPathException {
+		try {
+			return new OXPathMappedStore(file);
+		} catch (IOException e) {
+			throw new OXPathException("Can't open result store " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the 128-bit digest of {@code material}, the key under which values for {@code material} are stored
+	 * @param material the key material
+	 * @return the 16 byte digest of {@code material}
+	 */
+	public static byte[] digest(String material) {
+		try {
+			return MessageDigest.getInstance(DIGEST).digest(material.getBytes(UTF8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Digest " + DIGEST + " not supported by the JVM", e);
+		}
+	}
+
+	/**
+	 * Opens the store persisted in {@code file}
+	 * @param file the file of the store
+	 * @throws IOException if the file can't be read or written, isn't a store, or is in use by another store
+	 */
+	private OXPathMappedStore(File file) throws IOException {
+		this.file = new RandomAccessFile(file, "rw");
+		this.channel = this.file.getChannel();
+		this.lock();
+		try {
+			this.load();
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the header of an empty file, or discards the torn record at the end of the file, maps it and indexes its records
+	 * @throws IOException if the file can't be read or written, or isn't a store
+	 */
+	private void load() throws IOException {
+		long length = this.channel.size();
+		if (length == 0) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			this.channel.write(header, 0);
+			this.end = HEADER_BYTES;
+			return;
+		}
+		long complete = this.completeLength(length);
+		//drop a torn record at the end, before the file is mapped
+		if (complete < length) {
+			this.channel.truncate(complete);
+			length = complete;
+		}
+		long position = HEADER_BYTES;
+		while (position < length) {
+			//a segment holds the records wholly within it; the next segment starts at the first record that isn't
+			MappedByteBuffer segment = this.channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(length - position, MAX_SEGMENT_BYTES));
+			int offset = 0;
+			while (segment.capacity() - offset >= RECORD_HEADER_BYTES && segment.capacity() - offset - RECORD_HEADER_BYTES >= segment.getInt(offset)) {
+				int valueLength = segment.getInt(offset);
+				Key key = new Key(segment.getLong(offset + 4), segment.getLong(offset + 12));
+				ByteBuffer value = segment.duplicate();
+				value.position(offset + RECORD_HEADER_BYTES);
+				value.limit(offset + RECORD_HEADER_BYTES + valueLength);
+				this.index.put(key, value.slice().asReadOnlyBuffer());
+				offset += RECORD_HEADER_BYTES + valueLength;
+			}
+			position += offset;
+		}
+		this.end = position;
+	}
+
+	/**
+	 * Locks the file of the store for the lifetime of the store; the lock is released when the file is closed
+	 * @throws IOException if the file is locked by another store, or can't be locked
+	 */
+	private void lock() throws IOException {
+		FileLock lock;
+		try {
+			lock = this.channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			//locked by another store of this JVM
+			lock = null;
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+		if (lock == null) {
+			this.file.close();
+			throw new IOException("result store is in use by another store");
+		}
+	}
+
+	/**
+	 * Checks the header of the file and returns the length of its complete records, reading only the record headers
+	 * @param length the length of the file
+	 * @return the length of the header and the complete records of the file
+	 * @throws IOException if the file can't be read, or isn't a store
+	 */
+	private long completeLength(long length) throws IOException {
+		//not closed, as that would close the channel
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel.position(0)), SCAN_BUFFER_BYTES));
+		try {
+			if (length < HEADER_BYTES || in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("not a result store (or an incompatible version)");
+			}
+			long position = HEADER_BYTES;
+			while (length - position >= RECORD_HEADER_BYTES) {
+				int valueLength = in.readInt();
+				if (valueLength < 0 || valueLength > MAX_VALUE_BYTES || valueLength > length - position - RECORD_HEADER_BYTES) break;
+				long skip = RECORD_HEADER_BYTES - 4 + valueLength;
+				while (skip > 0) {
+					int skipped = in.skipBytes((int) skip);
+					if (skipped <= 0) throw new EOFException();
+					skip -= skipped;
+				}
+				position += RECORD_HEADER_BYTES + valueLength;
+			}
+			return position;
+		} catch (EOFException e) {
+			throw new IOException("result store changed while it was opened");
+		}
+	}
+
+	/**
+	 * Returns the value stored for {@code key}
+	 * @param key 16 byte key, as returned by {@code digest}
+	 * @return a read-only view of the value stored for {@code key}, or {@code null} if there is none
+	 */
+	public ByteBuffer get(byte[] key) {
+		ByteBuffer value = this.index.get(new Key(key));
+		return (value == null) ? null : value.duplicate();
+	}
+
+	/**
+	 * Stores {@code value} for {@code key}, unless a value is already stored for {@code key}
+	 * @param key 16 byte key, as returned by {@code digest}
+	 * @param value the value
+	 * @throws OXPathException if the value can't be written to the file, or is larger than {@code MAX_VALUE_BYTES}
+	 */
+	public void put(byte[] key, byte[] value) throws OXPathException {
+		if (value.length > MAX_VALUE_BYTES) throw new OXPathException("Value of " + value.length + " bytes too large for result store");
+		Key k = new Key(key);
+		if (this.index.containsKey(k)) return;
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + value.length);
+		record.putInt(value.length).putLong(k.high).putLong(k.low).put(value).flip();
+		synchronized (this) {
+			if (this.index.putIfAbsent(k, ByteBuffer.wrap(value.clone()).asReadOnlyBuffer()) != null) return;
+			try {
+				while (record.hasRemaining()) {
+					this.end += this.channel.write(record, this.end);
+				}
+			} catch (IOException e) {
+				throw new OXPathException("Can't write to result store: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of stored values
+	 * @return the number of stored values
+	 */
+	public int size() {
+		return this.index.size();
+	}
+
+	/**
+	 * Forces appended values to disk and closes the file, releasing its lock
+	 * @throws IOException in case of error closing the file
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (!this.channel.isOpen()) return;
+		this.channel.force(false);
+		this.file.close();
+	}
+
+	/**
+	 * 128-bit key of a stored value
+	 * @author AndrewJSel
+	 *
+	 */
+	private static final class Key {
+
+		/**
+		 * Creates the key of a 16 byte digest
+		 * @param digest the digest
+		 */
+		Key(byte[] digest) {
+			ByteBuffer buffer = ByteBuffer.wrap(digest);
+			this.high = buffer.getLong();
+			this.low = buffer.getLong();
+		}
+
+		/**
+		 * Creates a key
+		 * @param iHigh upper 64 bits
+		 * @param iLow lower 64 bits
+		 */
+		Key(long iHigh, long iLow) {
+			this.high = iHigh;
+			this.low = iLow;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (this.low ^ (this.low >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return this.high == other.high && this.low == other.low;
+		}
+
+		/**
+		 * upper 64 bits
+		 */
+		final long high;
+		/**
+		 * lower 64 bits
+		 */
+		final long low;
+	}
+
+	/**
+	 * the file of the store
+	 */
+	private final RandomAccessFile file;
+	/**
+	 * channel of {@code file}
+	 */
+	private final FileChannel channel;
+	/**
+	 * end of the last complete record in the file
+	 */
+	private long end;
+	/**
+	 * stored values by key; views of the mapping, or copies for values added in this run
+	 */
+	private final ConcurrentMap<Key,ByteBuffer> index = new ConcurrentHashMap<Key,ByteBuffer>();
+
+	/**
+	 * first 4 bytes of a store file
+	 */
+	public static final int MAGIC = 0x4F585052;
+	/**
+	 * version of the file layout
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * bytes of the file header
+	 */
+	private static final int HEADER_BYTES = 8;
+	/**
+	 * bytes of a record before its value: the value length and the key
+	 */
+	private static final int RECORD_HEADER_BYTES = 20;
+	/**
+	 * maximum bytes of a mapped segment of the file
+	 */
+	private static final int MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+	/**
+	 * maximum bytes of a stored value, so that a record fits in a segment
+	 */
+	public static final int MAX_VALUE_BYTES = MAX_SEGMENT_BYTES - RECORD_HEADER_BYTES;
+	/**
+	 * buffer size for scanning the record headers on {@code open}
+	 */
+	private static final int SCAN_BUFFER_BYTES = 1 << 16;
+	/**
+	 * digest algorithm for keys (128-bit)
+	 */
+	private static final String DIGEST = "MD5";
+	/**
+	 * encoding of key material
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+}
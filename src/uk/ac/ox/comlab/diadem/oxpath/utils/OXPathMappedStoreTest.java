@@ -0,0 +1,145 @@
+/*
+ * Copyright (c)2011, DIADEM Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the DIADEM team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL DIADEM Team BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *Package with utilities for supporting OXPath expression evaluation
+ */
+package uk.ac.ox.comlab.diadem.oxpath.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import diadem.common.test.StandardTestCase;
+
+/**
+ * Tests the persistence of {@code OXPathMappedStore}: values survive reopening, a torn record at the end of the file is discarded, 
+ * and a store can't be opened twice at once
+ * @author AndrewJSel
+ *
+ */
+public class OXPathMappedStoreTest extends StandardTestCase {
+
+	@Before
+	public void createFile() throws IOException {
+		this.file = File.createTempFile("oxpath-store", ".bin");
+		this.file.delete();
+	}
+
+	@After
+	public void deleteFile() {
+		this.file.delete();
+	}
+
+	@Test
+	public void reopenTest() throws Exception {
+		OXPathMappedStore store = OXPathMappedStore.open(this.file);
+		store.put(OXPathMappedStore.digest("a"), "first".getBytes("UTF-8"));
+		store.put(OXPathMappedStore.digest("b"), "second".getBytes("UTF-8"));
+		store.put(OXPathMappedStore.digest("a"), "ignored".getBytes("UTF-8"));
+		store.close();
+		store = OXPathMappedStore.open(this.file);
+		try {
+			assertEquals(2, store.size());
+			assertEquals("first", string(store.get(OXPathMappedStore.digest("a"))));
+			assertEquals("second", string(store.get(OXPathMappedStore.digest("b"))));
+			assertNull(store.get(OXPathMappedStore.digest("c")));
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void tornRecordTest() throws Exception {
+		OXPathMappedStore store = OXPathMappedStore.open(this.file);
+		store.put(OXPathMappedStore.digest("a"), "first".getBytes("UTF-8"));
+		store.put(OXPathMappedStore.digest("b"), "second".getBytes("UTF-8"));
+		store.close();
+		long complete = this.file.length();
+		//cut the last record short, as a crash while appending would
+		RandomAccessFile raw = new RandomAccessFile(this.file, "rw");
+		raw.setLength(complete - 3);
+		raw.close();
+		store = OXPathMappedStore.open(this.file);
+		try {
+			assertEquals(1, store.size());
+			assertEquals("first", string(store.get(OXPathMappedStore.digest("a"))));
+			assertNull(store.get(OXPathMappedStore.digest("b")));
+			//appends follow the last complete record
+			store.put(OXPathMappedStore.digest("b"), "again".getBytes("UTF-8"));
+		} finally {
+			store.close();
+		}
+		assertEquals(complete - "second".length() + "again".length(), this.file.length());
+		store = OXPathMappedStore.open(this.file);
+		try {
+			assertEquals(2, store.size());
+			assertEquals("again", string(store.get(OXPathMappedStore.digest("b"))));
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void lockTest() throws Exception {
+		OXPathMappedStore store = OXPathMappedStore.open(this.file);
+		try {
+			OXPathMappedStore.open(this.file);
+			fail("store opened twice");
+		} catch (OXPathException e) {
+			//expected
+		} finally {
+			store.close();
+		}
+		OXPathMappedStore.open(this.file).close();
+	}
+
+	/**
+	 * Returns the UTF-8 string of {@code value}
+	 * @param value the value
+	 * @return the string of {@code value}
+	 * @throws IOException if UTF-8 isn't supported
+	 */
+	private static String string(ByteBuffer value) throws IOException {
+		byte[] bytes = new byte[value.remaining()];
+		value.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * the file of the store under test
+	 */
+	private File file;
+}
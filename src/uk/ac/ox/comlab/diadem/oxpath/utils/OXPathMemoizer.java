@@ -6,10 +6,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import diadem.common.web.dom.DOMDocument;
 import diadem.common.web.dom.DOMNode;
@@ -23,6 +20,9 @@ import diadem.common.web.dom.DOMNode;
  * pre-Java 1.5).  In addition, for efficiency, we memoize methods only whose first parameter
  * is a {@code DOMNode} instance (each such method signature, then, must be unique as we don't account for the name).
  * This way, we can cache by the containing document, rather than the method.
+ * <p>
+ * The engine itself uses the typed, reflection-free {@code PAATEval_Memoizer} and {@code OXPathExtractorMemoizer}; this class
+ * remains for memoizing other {@code OXPathCache} implementations and shares their {@code OXPathDocumentCache} store.
  * @author Tom White
  * @author AndrewJSel
  *
@@ -46,7 +46,9 @@ public class OXPathMemoizer implements InvocationHandler,OXPathCache {
 	}
 	
 	private OXPathCache object;
-	private Map<DOMDocument, Map<List<Object>, Object>> caches = new HashMap<DOMDocument, Map<List<Object>, Object>>();
+	private OXPathDocumentCache<List<Object>, Object> caches = new OXPathDocumentCache<List<Object>, Object>();
+	//the document caches don't hold nulls, so null results are stored as this marker
+	private static final Object NULL = new Object();
 
 	private OXPathMemoizer(OXPathCache object) {
 		this.object = object;
@@ -64,15 +66,16 @@ public class OXPathMemoizer implements InvocationHandler,OXPathCache {
 		}
 		//only memoize for methods whose first argument is a DOMNode
 		else if (args[0] instanceof DOMNode) {
-			Map<List<Object>, Object> cache  = getCache((args[0] instanceof DOMDocument)?(DOMDocument)args[0]:((DOMNode) args[0]).getOwnerDocument());
+			DOMDocument page = OXPathDocumentCache.getPage((DOMNode) args[0]);
+			if (page == null) return this.invoke(method, args);
 			List<Object> key     = Arrays.asList(args);
-			Object value = cache.get(key);
+			Object value = this.caches.get(page, key);
 
-			if (value == null && !cache.containsKey(key)) {
+			if (value == null) {
 				value = this.invoke(method, args);
-				cache.put(key, value);
+				value = this.caches.putIfAbsent(page, key, (value == null) ? NULL : value);
 			} 
-			return value;
+			return (value == NULL) ? null : value;
 		}
 		else return this.invoke(method, args);
 	}
@@ -86,20 +89,8 @@ public class OXPathMemoizer implements InvocationHandler,OXPathCache {
 		}
 	}
 
-	private synchronized Map<List<Object>, Object> getCache(DOMDocument m) {
-		Map<List<Object>, Object> cache = caches.get(m);
-		if (cache == null) {
-			cache = Collections.synchronizedMap(
-					new HashMap<List<Object>, Object>()
-					);
-			caches.put(m, cache);
-		}
-		return cache;
-	}
-
 	@Override
 	public Boolean clear(DOMDocument page) {
-		Object result = this.caches.remove(page);
-		return (result!=null);
+		return this.caches.clear(page);
 	}
 }
\ No newline at end of file